@@ -42,6 +42,7 @@ import java.util.TreeSet;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.authz.cover.SecurityService;
 import org.sakaiproject.component.cover.ComponentManager;
@@ -51,6 +52,7 @@ import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
 import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentHostingHandlerResolver;
+import org.sakaiproject.content.api.ContentMemberSummary;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
 import org.sakaiproject.content.api.ContentResourceFilter;
@@ -259,8 +261,6 @@ public class ListItem
 				{
 					item.setExpanded(true);
 	
-			       	List<ContentEntity> children = collection.getMemberResources();
-	
 					Comparator comparator = null;
 					if(userSelectedSort != null)
 					{
@@ -286,51 +286,89 @@ public class ListItem
 							comparator = DEFAULT_COMPARATOR;
 						}
 					}
-		    		Collections.sort(children, comparator);
-		    		
-		        	Iterator<ContentEntity> childIt = children.iterator();
-		        	while(childIt.hasNext())
-		        	{
-		        		ContentEntity childEntity = childIt.next();
-		        		if(childEntity.getAccess() == AccessMode.GROUPED)
-		        		{
-		        			if(childEntity.isCollection())
-		        			{
-		        				if(! contentService.allowGetCollection(childEntity.getId()))
-		        				{
-			        				continue;
-		        				}
-		        			}
-		        			else
-		        			{
-		        				if(!contentService.allowGetResource(childEntity.getId()))
-		        				{
-		        					continue;
-		        				}
-		        			}
-		        		}
-		        		
-						if(isAvailabilityEnabled && ! contentService.isAvailable(childEntity.getId()))
-						{
-							continue;
-						}
-						if (dropboxAuthz != null && !DropboxHelper.getDropboxPermissionsForEntity(dropboxAuthz, childEntity).contains(ContentPermissions.READ))
-						{
-							// This is a Drop Box context and we don't have read permission on this entity; exclude it
-							continue;
-						}
-	
-					ListItem child = getListItem(childEntity, item, registry, expandAll, expandedCollections, items_to_be_moved, items_to_be_copied, depth + 1, userSelectedSort, preventPublicDisplay, addFilter, dropboxAuthz);
-		        		if(items_to_be_copied != null && items_to_be_copied.contains(child.id))
-		        		{
-		        			child.setSelectedForCopy(true);
-		        		}
-		        		if(items_to_be_moved != null && items_to_be_moved.contains(child.id))
-		        		{
-		        			child.setSelectedForMove(true);
-		        		}
-		        		item.addMember(child);
-		        	}
+
+			       	// read the members a page at a time rather than through the collection, which keeps them all for the request,
+			       	// and only keep the items of the ones that are shown
+			       	List<ListItem> members = new ArrayList<>();
+			       	String afterId = null;
+			       	List<ContentEntity> children;
+			       	do
+			       	{
+			       		try
+			       		{
+			       			children = contentService.getMemberResources(collection.getId(), afterId, org.sakaiproject.content.api.ContentHostingService.MAXIMUM_PAGE_SIZE);
+			       		}
+			       		catch (IdUnusedException | TypeException | PermissionException e)
+			       		{
+			       			log.warn("Unable to list members of {}: {}", collection.getId(), e.toString());
+			       			break;
+			       		}
+
+			    		// resolve the read checks of the grouped children together, the allowGet* calls below then hit the security cache
+			    		List<Pair<String, String>> readChecks = new ArrayList<>();
+			    		for (ContentEntity childEntity : children)
+			    		{
+			    			if (childEntity.getAccess() == AccessMode.GROUPED && !contentService.isInDropbox(childEntity.getId()))
+			    			{
+			    				readChecks.add(Pair.of(org.sakaiproject.content.api.ContentHostingService.AUTH_RESOURCE_READ, contentService.getReference(childEntity.getId())));
+			    			}
+			    		}
+			    		if (readChecks.size() > 1)
+			    		{
+			    			SecurityService.getInstance().unlock(UserDirectoryService.getCurrentUser().getId(), readChecks);
+			    		}
+
+			        	for (ContentEntity childEntity : children)
+			        	{
+			        		if(childEntity.getAccess() == AccessMode.GROUPED)
+			        		{
+			        			if(childEntity.isCollection())
+			        			{
+			        				if(! contentService.allowGetCollection(childEntity.getId()))
+			        				{
+				        				continue;
+			        				}
+			        			}
+			        			else
+			        			{
+			        				if(!contentService.allowGetResource(childEntity.getId()))
+			        				{
+			        					continue;
+			        				}
+			        			}
+			        		}
+
+							if(isAvailabilityEnabled && ! contentService.isAvailable(childEntity.getId()))
+							{
+								continue;
+							}
+							if (dropboxAuthz != null && !DropboxHelper.getDropboxPermissionsForEntity(dropboxAuthz, childEntity).contains(ContentPermissions.READ))
+							{
+								// This is a Drop Box context and we don't have read permission on this entity; exclude it
+								continue;
+							}
+
+						ListItem child = getListItem(childEntity, item, registry, expandAll, expandedCollections, items_to_be_moved, items_to_be_copied, depth + 1, userSelectedSort, preventPublicDisplay, addFilter, dropboxAuthz);
+			        		if(items_to_be_copied != null && items_to_be_copied.contains(child.id))
+			        		{
+			        			child.setSelectedForCopy(true);
+			        		}
+			        		if(items_to_be_moved != null && items_to_be_moved.contains(child.id))
+			        		{
+			        			child.setSelectedForMove(true);
+			        		}
+			        		members.add(child);
+			        	}
+			        	afterId = children.isEmpty() ? null : children.get(children.size() - 1).getId();
+			       	}
+			       	while (afterId != null);
+
+			       	final Comparator<ContentEntity> sort = comparator;
+			       	members.sort((a, b) -> sort.compare(a.getEntity(), b.getEntity()));
+			       	for (ListItem child : members)
+			       	{
+			       		item.addMember(child);
+			       	}
 				}
 	 			
 				List<ResourceToolAction> myAddActions = ResourcesAction.getAddActions(entity, item.getPermissions(), registry);
@@ -3388,12 +3426,10 @@ public class ListItem
 				props.addProperty(ResourceProperties.PROP_ALLOW_INLINE, this.allowHtmlInline.toString());
 				
 			}
-			List<String> children = topFolder.getMembers();
-			for (int i = 0; i < children.size(); i++) {
-				String resId = children.get(i);
-				if (resId.endsWith("/")) {
-					setPropertyOnFolderRecursively(resId, ResourceProperties.PROP_ALLOW_INLINE, allowHtmlInline.booleanValue());
-				}
+			try {
+				setPropertyOnSubfolders(topFolder.getId(), ResourceProperties.PROP_ALLOW_INLINE, allowHtmlInline.booleanValue());
+			} catch (SakaiException se) {
+				log.warn(String.format("Failed to set property '%s' on the folders in '%s' ", ResourceProperties.PROP_ALLOW_INLINE, topFolder.getId()), se);
 			}
 		}
 	}
@@ -3429,13 +3465,7 @@ public class ListItem
 				resourceProperties.addProperty(property, String.valueOf(value));
 				ContentHostingService.commitCollection(col);
 
-				List<String> children = col.getMembers();
-				for (int i = 0; i < children.size(); i++) {
-					String resId = children.get(i);
-					if (ContentHostingService.isCollection(resId)) {
-						setPropertyOnFolderRecursively(resId, property, value);
-					}
-				}
+				setPropertyOnSubfolders(contentId, property, value);
 			} else {
 				// resource
 				ContentResourceEdit res = ContentHostingService.editResource(contentId);
@@ -3449,6 +3479,27 @@ public class ListItem
 	}
 	
 	
+	/**
+	 * Set a property on the folders in a collection and all their children (recursively), walking the members a page
+	 * at a time.
+	 * @param collectionId The ID of the collection.
+	 * @param property The property name to set.
+	 * @param value The value to set the property to.
+	 */
+	private void setPropertyOnSubfolders(String collectionId, String property, boolean value) throws SakaiException {
+		org.sakaiproject.content.api.ContentHostingService contentService = ContentHostingService.getInstance();
+		int limit = org.sakaiproject.content.api.ContentHostingService.MAXIMUM_PAGE_SIZE;
+		List<ContentMemberSummary> members = contentService.getMemberSummaries(collectionId, null, limit);
+		while (!members.isEmpty()) {
+			for (ContentMemberSummary member : members) {
+				if (member.isCollection()) {
+					setPropertyOnFolderRecursively(member.getId(), property, value);
+				}
+			}
+			members = contentService.getMemberSummaries(collectionId, members.get(members.size() - 1).getId(), limit);
+		}
+	}
+
 	protected void setAvailabilityOnEntity(ResourcePropertiesEdit props, GroupAwareEdit edit)
 	{
 		if ( this.hiddenWithAccessibleContent ) {
@@ -87,6 +87,7 @@ import org.sakaiproject.content.api.ContentCollectionEdit;
 import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentHostingHandlerResolver;
 import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentMemberSummary;
 import org.sakaiproject.content.api.ContentPrintService;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
@@ -109,6 +110,7 @@ import org.sakaiproject.content.copyright.api.CopyrightInfo;
 import org.sakaiproject.content.copyright.api.CopyrightItem;
 import org.sakaiproject.content.exception.ZipMaxTotalSizeException;
 import org.sakaiproject.content.tool.inputpreserver.*;
+import org.sakaiproject.content.util.ContentMemberIterator;
 import org.sakaiproject.content.util.ZipContentUtil;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.EntityManager;
@@ -3782,9 +3784,8 @@ protected static final String PARAM_PAGESIZE = "collections_per_page";
 				{
 					collection = contentHostingService.getCollection(collectionId);
 				}
-				List members = collection.getMemberResources();
+				Iterator<ContentEntity> memberIt = new ContentMemberIterator(contentHostingService, collection.getId());
 				collection = null;
-				Iterator memberIt = members.iterator();
 				while(memberIt.hasNext())
 				{
 					ContentEntity member = (ContentEntity) memberIt.next();
@@ -10273,7 +10274,7 @@ protected static final String PARAM_PAGESIZE = "collections_per_page";
 				if (contentService.isCollection(showId)) {
 					if (contentService.allowGetCollection(showId)) {
 						entity = contentService.getCollection(showId);
-						currentEntitySize = getCollectionRecursiveSize((ContentCollection) entity, zipMaxIndividualFileSize, zipMaxTotalSize, zipSingleFileSizeExceeded);
+						currentEntitySize = getCollectionRecursiveSize(showId, zipMaxIndividualFileSize, zipMaxTotalSize, zipSingleFileSizeExceeded);
 					}
 				} else if (contentService.allowGetResource(showId)) {
 					entity = contentService.getResource(showId);
@@ -10366,35 +10367,44 @@ protected static final String PARAM_PAGESIZE = "collections_per_page";
 		new ZipContentUtil().compressSelectedResources((String)state.getAttribute(STATE_SITE_ID), siteTitle, selectedFolderIds, selectedFiles, response);
 	}
 
-	private long getCollectionRecursiveSize(ContentCollection currentCollection, long maxIndividualFileSize, long zipMaxTotalSize, Set<String> zipSingleFileSizeExceeded) throws ZipMaxTotalSizeException
+	private long getCollectionRecursiveSize(String collectionId, long maxIndividualFileSize, long zipMaxTotalSize, Set<String> zipSingleFileSizeExceeded)
+			throws ZipMaxTotalSizeException, IdUnusedException, TypeException, PermissionException
 	{
 		long total=0;
 
-		List items = currentCollection.getMemberResources();
-		Iterator it = items.iterator();
-		while(it.hasNext())
+		// only the ids and sizes are needed, so read member summaries a page at a time rather than the members themselves
+		List<ContentMemberSummary> items = contentHostingService.getMemberSummaries(collectionId, null, ContentHostingService.MAXIMUM_PAGE_SIZE);
+		while(!items.isEmpty())
 		{
-			ContentEntity myElement = (ContentEntity) it.next();
-			if (myElement.isResource()) 
+			for (ContentMemberSummary myElement : items)
 			{
-				long tempSize = ((ContentResource)myElement).getContentLength();
-				if (tempSize > maxIndividualFileSize) {
-					// Work out the file path without the site ID.
-					String filePath = myElement.getId().replace("/group/" + toolManager.getCurrentPlacement().getContext(), "");
+				if (!myElement.isCollection())
+				{
+					long tempSize = myElement.getContentLength();
+					if (tempSize > maxIndividualFileSize) {
+						// Work out the file path without the site ID.
+						String filePath = myElement.getId().replace("/group/" + toolManager.getCurrentPlacement().getContext(), "");
 
-					zipSingleFileSizeExceeded.add(filePath);
+						zipSingleFileSizeExceeded.add(filePath);
+					}
+					else {total=total+tempSize;}
 				}
-				else {total=total+tempSize;}
-			}
-			else if (myElement.isCollection())
-			{
-				long tempSize = getCollectionRecursiveSize((ContentCollection)myElement, maxIndividualFileSize, zipMaxTotalSize, zipSingleFileSizeExceeded);
+				else
+				{
+					long tempSize = 0;
+					try {
+						tempSize = getCollectionRecursiveSize(myElement.getId(), maxIndividualFileSize, zipMaxTotalSize, zipSingleFileSizeExceeded);
+					} catch (PermissionException pe) {
+						// a folder the user cannot read is not zipped
+					}
 
-				if (tempSize > zipMaxTotalSize) {
-					throw new ZipMaxTotalSizeException();
+					if (tempSize > zipMaxTotalSize) {
+						throw new ZipMaxTotalSizeException();
+					}
+					else {total=total+tempSize;}
 				}
-				else {total=total+tempSize;}
 			}
+			items = contentHostingService.getMemberSummaries(collectionId, items.get(items.size() - 1).getId(), ContentHostingService.MAXIMUM_PAGE_SIZE);
 		}
 		return total;
 	}
@@ -141,6 +141,7 @@ import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentHostingService;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
+import org.sakaiproject.content.util.ContentMemberIterator;
 import org.sakaiproject.dav.MD5Encoder;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.EntityPropertyNotDefinedException;
@@ -1459,9 +1460,16 @@ public class DavServlet extends HttpServlet
 				return null;
 			}
 			if (log.isDebugEnabled()) log.debug("DirContextSAKAI.list getting collection members and iterator");
-			List<ContentEntity> members = collection.getMemberResources();
-			Iterator<ContentEntity> it = members.iterator();
-			return it;
+			// read the members a page at a time, so a large collection is not held in memory while the response is written
+			try
+			{
+				return new ContentMemberIterator(contentHostingService, collection.getId());
+			}
+			catch (IdUnusedException | TypeException | PermissionException e)
+			{
+				log.debug("DirContextSAKAI.list - unable to list " + id + ": " + e);
+				return Collections.emptyIterator();
+			}
 		}
 	}
 
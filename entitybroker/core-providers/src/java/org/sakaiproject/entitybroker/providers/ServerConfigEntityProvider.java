@@ -34,6 +34,7 @@ import lombok.Setter;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.cluster.api.ClusterService;
 import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entitybroker.EntityReference;
 import org.sakaiproject.entitybroker.EntityView;
 import org.sakaiproject.entitybroker.entityprovider.CoreEntityProvider;
@@ -85,6 +86,7 @@ public class ServerConfigEntityProvider extends AbstractEntityProvider implement
     private ClusterService clusterService;
     private SessionManager sessionManager;
     private SecurityService securityService;
+    private SqlService sqlService;
 
     public static String PREFIX = "server-config";
     public String getEntityPrefix() {
@@ -99,6 +101,33 @@ public class ServerConfigEntityProvider extends AbstractEntityProvider implement
         return new EntityData(servers);
     }
 
+    /**
+     * The busiest sql statements run on this server, e.g. /direct/server-config/sql.json?limit=20&order=count
+     */
+    @EntityCustomAction(action="sql",viewKey=EntityView.VIEW_LIST)
+    public Object getSqlStatements(EntityView view, Map<String, Object> params) {
+        checkAllowed();
+        int limit = 50;
+        if (params.get("limit") != null) {
+            try {
+                limit = Integer.parseInt(params.get("limit").toString());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("limit must be a number: " + params.get("limit"));
+            }
+        }
+        String order = params.get("order") != null ? params.get("order").toString() : "total";
+        return new ActionReturn(sqlService.getStatementStats(limit, order));
+    }
+
+    /**
+     * The most recent slow sql statements run on this server
+     */
+    @EntityCustomAction(action="sql-slow",viewKey=EntityView.VIEW_LIST)
+    public Object getSlowSqlStatements(EntityReference ref) {
+        checkAllowed();
+        return new ActionReturn(sqlService.getSlowStatements());
+    }
+
     @EntityCustomAction(action="values",viewKey=EntityView.VIEW_LIST)
     public Object getAllValues() {
         checkAllowed();
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.scheduler.jobs;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.content.api.ContentBodyStore;
+import org.sakaiproject.content.api.ContentBodyStore.Report;
+
+/**
+ * <p>
+ * Moves the file system bodies of existing resources into the deduplicating body store (content.body.dedup), so
+ * resources with identical bodies share one file, and then removes the shared files no resource refers to any more.
+ * </p>
+ * <p>
+ * Each run looks at up to content.body.dedup.job.limit resources that are not yet in the store and carries on from
+ * where the last run stopped, so it can be run repeatedly out of hours until it reports nothing examined.
+ * </p>
+ */
+@Slf4j
+public class ContentBodyDeduplicationJob implements Job {
+
+	private static final int LIMIT_DEFAULT = 100000;
+
+	@Setter private ContentBodyStore contentBodyStore;
+	@Setter private ServerConfigurationService serverConfigurationService;
+
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+		if (!contentBodyStore.isDeduplicating()) {
+			log.warn("Resource bodies are not being deduplicated, set content.body.dedup=true to use this job.");
+			return;
+		}
+
+		int limit = serverConfigurationService.getInt("content.body.dedup.job.limit", LIMIT_DEFAULT);
+		Report deduplicated = contentBodyStore.deduplicate(limit);
+		Report reclaimed = contentBodyStore.reclaim();
+
+		log.info("Deduplicated resource bodies, {}", deduplicated);
+		log.info("Reclaimed {} bytes in {} files, {} by sharing bodies and {} from unreferenced files",
+				deduplicated.getReclaimedBytes() + reclaimed.getReclaimedBytes(),
+				deduplicated.getReclaimedFiles() + reclaimed.getReclaimedFiles(),
+				deduplicated.getReclaimedBytes(), reclaimed.getReclaimedBytes());
+	}
+}
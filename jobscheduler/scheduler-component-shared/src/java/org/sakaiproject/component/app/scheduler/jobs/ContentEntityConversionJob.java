@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.scheduler.jobs;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.content.api.ContentEntityConverter;
+
+/**
+ * <p>
+ * Converts the metadata stored for existing collections and resources to the current, Type2, serialization which
+ * is quicker to read, while the server is running. Entities that are saved are converted anyway, this job converts
+ * the rest.
+ * </p>
+ * <p>
+ * Each run converts up to content.entity.conversion.job.batches batches of 100 collections and of 100 resources,
+ * and carries on from where the last run stopped, so it can be run repeatedly until it reports that it has finished.
+ * </p>
+ */
+@Slf4j
+public class ContentEntityConversionJob implements Job {
+
+	private static final int BATCHES_DEFAULT = 100;
+
+	@Setter private ContentEntityConverter contentEntityConverter;
+	@Setter private ServerConfigurationService serverConfigurationService;
+
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+		if (!contentEntityConverter.isConverting()) {
+			log.warn("Content entities are not being saved as Type2, set writeType2@ to true for both content serializers to use this job.");
+			return;
+		}
+
+		int batches = serverConfigurationService.getInt("content.entity.conversion.job.batches", BATCHES_DEFAULT);
+		if (contentEntityConverter.convert(batches)) {
+			log.info("Content entity conversion has finished, there are no entities left to convert");
+		} else {
+			log.info("Converted up to {} batches of content entities, run this job again to continue", batches);
+		}
+	}
+}
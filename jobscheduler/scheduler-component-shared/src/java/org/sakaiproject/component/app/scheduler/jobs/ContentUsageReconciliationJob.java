@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.scheduler.jobs;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import org.sakaiproject.content.api.ContentUsageCounters;
+
+/**
+ * <p>
+ * Recounts the bytes stored in each site, user collection and dropbox folder and corrects the usage counters that
+ * quota checks read (content.quota.counters) where they have drifted, for example after a failed upload or a
+ * server stopping part way through a write.
+ * </p>
+ */
+@Slf4j
+public class ContentUsageReconciliationJob implements Job {
+
+	@Setter private ContentUsageCounters contentUsageCounters;
+
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+		if (!contentUsageCounters.isCounting()) {
+			log.warn("Usage is not being counted, set content.quota.counters=true to use this job.");
+			return;
+		}
+
+		int corrected = contentUsageCounters.reconcile();
+		log.info("Reconciled content usage counters, {} corrected", corrected);
+	}
+}
@@ -26,7 +26,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.sakaiproject.entity.api.EntityProducer;
 import org.sakaiproject.javax.PagingPosition;
 
@@ -338,6 +340,21 @@ public interface AuthzGroupService extends EntityProducer
 	 * @return true if this user is allowed to perform the function in the named AuthzGroups, false if not.
 	 */
 	boolean isAllowed(String userId, String function, Collection<String> azGroups);
+
+	/**
+	 * Test if this user is allowed to perform each function in its AuthzGroups. This gives the same answers as
+	 * calling isAllowed(userId, function, azGroups) for each check but needs far fewer database queries.
+	 *
+	 * @param userId
+	 *        The user id.
+	 * @param checks
+	 *        The checks as pairs of (function, collection of AuthzGroup ids to consult).
+	 * @return A list of answers in the same order as the checks, true if the user is allowed to perform the function.
+	 */
+	default List<Boolean> isAllowed(String userId, List<Pair<String, Collection<String>>> checks)
+	{
+		return checks.stream().map(c -> isAllowed(userId, c.getLeft(), c.getRight())).collect(Collectors.toList());
+	}
 	
 	/**
 	 * Encode the role id to form the dummy user id that will be used to perform role checks.
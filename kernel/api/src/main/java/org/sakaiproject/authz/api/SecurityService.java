@@ -22,8 +22,11 @@
 package org.sakaiproject.authz.api;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.user.api.User;
 
@@ -89,6 +92,26 @@ public interface SecurityService
 	 */
 	boolean unlock(String userId, String lock, String reference, Collection<String> authzGroupIds);
 
+	/**
+	 * Can the specified user id unlock each of these locks for use with its resource? This gives the same answers as
+	 * calling unlock(userId, lock, reference) for each check but the uncached checks are resolved together.
+	 *
+	 * @param userId
+	 *        The user id.
+	 * @param checks
+	 *        The checks as pairs of (lock id string, resource reference string).
+	 * @return A map from each check to true if the user can unlock the lock, false otherwise.
+	 */
+	default Map<Pair<String, String>, Boolean> unlock(String userId, Collection<Pair<String, String>> checks)
+	{
+		Map<Pair<String, String>, Boolean> rv = new LinkedHashMap<>();
+		for (Pair<String, String> check : checks)
+		{
+			rv.put(check, unlock(userId, check.getLeft(), check.getRight()));
+		}
+		return rv;
+	}
+
 	/**
 	 * Access the List of Users who can unlock the lock for use with this resource.
 	 * 
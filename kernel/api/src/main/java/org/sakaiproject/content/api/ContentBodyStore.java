@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.api;
+
+/**
+ * Maintenance of the deduplicating store of file system resource bodies, in which resources with identical bodies
+ * share one file by its SHA-256 hash, with a reference count per file.
+ */
+public interface ContentBodyStore
+{
+	/**
+	 * @return true if bodies are being deduplicated as they are written
+	 */
+	boolean isDeduplicating();
+
+	/**
+	 * Move existing file system bodies into the store, pointing resources with a body already in the store at the
+	 * shared file and removing their own copy.
+	 *
+	 * @param limit the most resources to look at in this run
+	 * @return what was done
+	 */
+	Report deduplicate(int limit);
+
+	/**
+	 * Remove the shared files that no resource, or deleted resource, refers to any more.
+	 *
+	 * @return what was done
+	 */
+	Report reclaim();
+
+	/**
+	 * The outcome of a maintenance run.
+	 */
+	class Report
+	{
+		private long examined;
+		private long shared;
+		private long registered;
+		private long failed;
+		private long reclaimedFiles;
+		private long reclaimedBytes;
+
+		public void examined() { examined++; }
+		public void shared(long bytes) { shared++; reclaimedFiles++; reclaimedBytes += bytes; }
+		public void registered() { registered++; }
+		public void failed() { failed++; }
+		public void reclaimed(long bytes) { reclaimedFiles++; reclaimedBytes += bytes; }
+
+		/** @return the number of resources looked at */
+		public long getExamined() { return examined; }
+		/** @return the number of resources moved onto a file that was already in the store */
+		public long getShared() { return shared; }
+		/** @return the number of resource files added to the store */
+		public long getRegistered() { return registered; }
+		/** @return the number of resources that could not be read or updated */
+		public long getFailed() { return failed; }
+		/** @return the number of files removed */
+		public long getReclaimedFiles() { return reclaimedFiles; }
+		/** @return the number of bytes freed by removing files */
+		public long getReclaimedBytes() { return reclaimedBytes; }
+
+		@Override
+		public String toString()
+		{
+			return "examined: " + examined + ", shared: " + shared + ", registered: " + registered + ", failed: " + failed
+					+ ", reclaimed files: " + reclaimedFiles + ", reclaimed bytes: " + reclaimedBytes;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.api;
+
+/**
+ * Conversion of the metadata stored for existing collections and resources to the current serialization, while
+ * the server is running. Entities are also converted whenever they are saved.
+ */
+public interface ContentEntityConverter
+{
+	/**
+	 * @return true if entities are being saved in the current serialization, so older ones can be converted
+	 */
+	boolean isConverting();
+
+	/**
+	 * Convert stored collections and resources, a batch at a time, carrying on from where the last call stopped.
+	 *
+	 * @param batches
+	 *        The most batches of collections, and of resources, to convert.
+	 * @return true if no entities are left to convert
+	 */
+	boolean convert(int batches);
+}
@@ -472,6 +472,50 @@ public interface ContentHostingService extends EntityProducer
 	 */
 	public int getCollectionSize(String id) throws IdUnusedException, TypeException, PermissionException;
 
+	/**
+	 * Access a page of the members of a collection as full ContentCollection or ContentResource objects. The member collections come
+	 * first and then the member resources, each in ascending order by id. Pages are found by key rather than by position: pass the id
+	 * of the last member of one page as afterId to get the next, so that every page of a large collection costs the same to read and
+	 * only the members on the page are loaded. As with ContentCollection.getMemberResources(), access is checked for the collection
+	 * and not for each member.
+	 * 
+	 * @param id
+	 *        The id of the collection.
+	 * @param afterId
+	 *        The id of the last member of the previous page, or null for the first page.
+	 * @param limit
+	 *        The most members to return, no more than MAXIMUM_PAGE_SIZE.
+	 * @exception IdUnusedException
+	 *            if the id does not exist.
+	 * @exception TypeException
+	 *            if the resource exists but is not a collection.
+	 * @exception PermissionException
+	 *            if the user does not have permissions to see this collection (or read through containing collections).
+	 * @return The members on the page, empty once past the last member.
+	 * @see org.sakaiproject.content.api.ContentHostingService#MAXIMUM_PAGE_SIZE
+	 */
+	public List<ContentEntity> getMemberResources(String id, String afterId, int limit) throws IdUnusedException, TypeException, PermissionException;
+
+	/**
+	 * Access a page of summaries of the members of a collection, in the same order and paged the same way as getMemberResources(id, afterId, limit).
+	 * The summaries are read from the columns of the content tables, so the members' stored entities are not loaded at all.
+	 * 
+	 * @param id
+	 *        The id of the collection.
+	 * @param afterId
+	 *        The id of the last member of the previous page, or null for the first page.
+	 * @param limit
+	 *        The most members to return, no more than MAXIMUM_PAGE_SIZE.
+	 * @exception IdUnusedException
+	 *            if the id does not exist.
+	 * @exception TypeException
+	 *            if the resource exists but is not a collection.
+	 * @exception PermissionException
+	 *            if the user does not have permissions to see this collection (or read through containing collections).
+	 * @return The summaries of the members on the page, empty once past the last member.
+	 */
+	public List<ContentMemberSummary> getMemberSummaries(String id, String afterId, int limit) throws IdUnusedException, TypeException, PermissionException;
+
 	/**
 	 * Access a List of ContentEntities (resources and collections) objects in this path (and below) to which the current user has access.
 	 * 
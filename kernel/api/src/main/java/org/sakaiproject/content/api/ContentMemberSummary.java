@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.api;
+
+/**
+ * The few facts about a member of a collection that can be read from the content tables' columns, without reading
+ * and decoding the stored entity. Useful when walking large collections for ids and sizes.
+ */
+public final class ContentMemberSummary
+{
+	private final String id;
+
+	private final boolean collection;
+
+	private final long contentLength;
+
+	private final String resourceType;
+
+	public ContentMemberSummary(String id, boolean collection, long contentLength, String resourceType)
+	{
+		this.id = id;
+		this.collection = collection;
+		this.contentLength = contentLength;
+		this.resourceType = resourceType;
+	}
+
+	/**
+	 * @return the id of the member
+	 */
+	public String getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return true if the member is a collection, false if it is a resource
+	 */
+	public boolean isCollection()
+	{
+		return collection;
+	}
+
+	/**
+	 * @return the length of a resource's body in bytes, 0 for a collection
+	 */
+	public long getContentLength()
+	{
+		return contentLength;
+	}
+
+	/**
+	 * @return the resource type id of a resource, null for a collection
+	 */
+	public String getResourceType()
+	{
+		return resourceType;
+	}
+}
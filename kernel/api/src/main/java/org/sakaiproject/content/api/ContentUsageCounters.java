@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.api;
+
+/**
+ * Maintenance of the usage counters that quota checks read, which hold the bytes stored in each site or user
+ * collection and dropbox folder and are kept up to date as resources are written and removed.
+ */
+public interface ContentUsageCounters
+{
+	/**
+	 * @return true if usage is being counted as resources change
+	 */
+	boolean isCounting();
+
+	/**
+	 * Recount the usage of every counter and correct those that have drifted from what is stored.
+	 *
+	 * @return the number of counters corrected
+	 */
+	int reconcile();
+}
@@ -18,6 +18,7 @@ package org.sakaiproject.content.api;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Path;
 
 /**
  * This is the api for reading and writing files to some file system.
@@ -47,6 +48,18 @@ public interface FileSystemHandler {
      */
     public InputStream getInputStream(String id, String root, String filePath) throws IOException;
 
+    /**
+     * Retrieve the path of the file on a local file system, so it can be delivered without streaming it through the heap.
+     * 
+     * @param id The id of the resource. Will not be null or empty.
+     * @param root The root of the storage. Could be null or empty.
+     * @param filePath The path to the file. Will not be null or empty.
+     * @return The readable local path to the file, or null if the file is not on a local file system.
+     */
+    public default Path getAssetPath(String id, String root, String filePath) {
+        return null;
+    }
+
     /**
      * Save the file from the input stream to the path and return the content size.
      * 
@@ -24,6 +24,8 @@ package org.sakaiproject.db.api;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
 
@@ -121,6 +123,24 @@ public interface SqlService
 	 */
 	<T> List<T> dbRead(Connection conn, String sql, Object[] fields, SqlReader<T> reader);
 
+	/**
+	 * Process a query, as dbRead(), that can be served by a read replica if one is configured. Use for reads that can be a few seconds
+	 * behind, such as listings and reports. Reads in a transaction, or by a session or thread that has just written, still go to the
+	 * primary.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @return The List of things read, one per record.
+	 */
+	default <T> List<T> dbReadReplica(String sql, Object[] fields, SqlReader<T> reader)
+	{
+		return dbRead(sql, fields, reader);
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -195,6 +215,30 @@ public interface SqlService
 	 */
 	Long dbInsert(Connection callerConnection, String sql, Object[] fields, String autoColumn, InputStream last, int lastLength);
 
+	/**
+	 * Execute the "insert" sql for each array of fields in one batch, returning the auto-update field Long values. Drivers that can't
+	 * return the generated keys of a batch get one insert per row instead.
+	 * 
+	 * @param callerConnection
+	 *        The connection to use.
+	 * @param sql
+	 *        The sql statement.
+	 * @param fieldsList
+	 *        The List of array of fields for parameters.
+	 * @param autoColumn
+	 *        The name of the db column that will have auto-update - we will return the values used.
+	 * @return The auto-update values in the order of fieldsList (an entry is null if its value is not known), or null if the batch failed.
+	 */
+	default List<Long> dbInsertBatch(Connection callerConnection, String sql, List<Object[]> fieldsList, String autoColumn)
+	{
+		List<Long> rv = new ArrayList<>(fieldsList.size());
+		for (Object[] fields : fieldsList)
+		{
+			rv.add(dbInsert(callerConnection, sql, fields, autoColumn));
+		}
+		return rv;
+	}
+
 	/**
 	 * Execute the "write" sql - no response.
 	 * 
@@ -382,6 +426,30 @@ public interface SqlService
 	 */
 	String getBooleanConstant(boolean value);
 
+	/**
+	 * Access the counts kept for the statements run through this service, busiest first.
+	 * 
+	 * @param limit
+	 *        The most to return, or 0 for all.
+	 * @param orderBy
+	 *        What busiest means: "total" (time, the default), "count", "max", "mean", "rows", "wait" or "errors".
+	 * @return The statement counts, or an empty list if statement profiling is off.
+	 */
+	default List<SqlStatementStats> getStatementStats(int limit, String orderBy)
+	{
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Access the most recent statements that ran longer than the slow statement threshold, newest first.
+	 * 
+	 * @return The slow statements, or an empty list if statement profiling is off.
+	 */
+	default List<SqlSlowStatement> getSlowStatements()
+	{
+		return Collections.emptyList();
+	}
+
 	/**
 	 * @param sql
 	 * @param reader
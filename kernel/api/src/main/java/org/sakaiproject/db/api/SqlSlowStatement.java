@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.api;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A statement that ran longer than the SqlService's slow statement threshold. The stack trace of the caller is
+ * only captured for a sample of slow statements.
+ */
+public final class SqlSlowStatement
+{
+	private final long time;
+
+	private final String tag;
+
+	private final String statement;
+
+	private final long elapsed;
+
+	private final long rows;
+
+	private final String stackTrace;
+
+	@ConstructorProperties({ "time", "tag", "statement", "elapsed", "rows", "stackTrace" })
+	public SqlSlowStatement(long time, String tag, String statement, long elapsed, long rows, String stackTrace)
+	{
+		this.time = time;
+		this.tag = tag;
+		this.statement = statement;
+		this.elapsed = elapsed;
+		this.rows = rows;
+		this.stackTrace = stackTrace;
+	}
+
+	/**
+	 * @return when the statement finished, in ms since the epoch
+	 */
+	public long getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * @return the caller the statement came from
+	 */
+	public String getTag()
+	{
+		return tag;
+	}
+
+	/**
+	 * @return the statement fingerprint
+	 */
+	public String getStatement()
+	{
+		return statement;
+	}
+
+	/**
+	 * @return how long the statement took in ms
+	 */
+	public long getElapsed()
+	{
+		return elapsed;
+	}
+
+	/**
+	 * @return the rows read or changed
+	 */
+	public long getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * @return the caller's stack, or null if this one was not sampled
+	 */
+	public String getStackTrace()
+	{
+		return stackTrace;
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.api;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The counts the SqlService keeps for one statement shape run from one caller. Statements are grouped by their
+ * fingerprint: the sql with literals and in lists folded to placeholders. Times are in ms.
+ */
+public final class SqlStatementStats
+{
+	private final String tag;
+
+	private final String statement;
+
+	private final long count;
+
+	private final long errors;
+
+	private final long totalTime;
+
+	private final long maxTime;
+
+	private final long p50;
+
+	private final long p95;
+
+	private final long p99;
+
+	private final long rows;
+
+	private final long connectionWait;
+
+	@ConstructorProperties({ "tag", "statement", "count", "errors", "totalTime", "maxTime", "p50", "p95", "p99", "rows", "connectionWait" })
+	public SqlStatementStats(String tag, String statement, long count, long errors, long totalTime, long maxTime, long p50, long p95, long p99,
+			long rows, long connectionWait)
+	{
+		this.tag = tag;
+		this.statement = statement;
+		this.count = count;
+		this.errors = errors;
+		this.totalTime = totalTime;
+		this.maxTime = maxTime;
+		this.p50 = p50;
+		this.p95 = p95;
+		this.p99 = p99;
+		this.rows = rows;
+		this.connectionWait = connectionWait;
+	}
+
+	/**
+	 * @return the caller the statements came from, the class and method that called the SqlService
+	 */
+	public String getTag()
+	{
+		return tag;
+	}
+
+	/**
+	 * @return the statement fingerprint
+	 */
+	public String getStatement()
+	{
+		return statement;
+	}
+
+	/**
+	 * @return the number of times the statement was run
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return the number of those runs that failed
+	 */
+	public long getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * @return the total time spent running the statement, including the wait for a connection
+	 */
+	public long getTotalTime()
+	{
+		return totalTime;
+	}
+
+	/**
+	 * @return the longest single run
+	 */
+	public long getMaxTime()
+	{
+		return maxTime;
+	}
+
+	/**
+	 * @return the median run time, to the resolution of the latency histogram
+	 */
+	public long getP50()
+	{
+		return p50;
+	}
+
+	/**
+	 * @return the 95th percentile run time, to the resolution of the latency histogram
+	 */
+	public long getP95()
+	{
+		return p95;
+	}
+
+	/**
+	 * @return the 99th percentile run time, to the resolution of the latency histogram
+	 */
+	public long getP99()
+	{
+		return p99;
+	}
+
+	/**
+	 * @return the rows read, or for writes the rows changed
+	 */
+	public long getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * @return the total time spent waiting for a connection from the pool
+	 */
+	public long getConnectionWait()
+	{
+		return connectionWait;
+	}
+}
@@ -22,6 +22,7 @@
 package org.sakaiproject.entity.api.serialize;
 
 import java.util.Map;
+import java.util.function.Supplier;
 
 
 /**
@@ -42,4 +43,14 @@ public interface SerializablePropertiesAccess
 	 */
 	void setSerializableProperties(Map<String, Object> properties);
 
+	/**
+	 * Set the properties from a source that is only decoded when the properties are needed.
+	 * Implementations that do not defer decoding get the properties immediately.
+	 * @param properties
+	 */
+	default void setDeferredSerializableProperties(Supplier<Map<String, Object>> properties)
+	{
+		setSerializableProperties(properties.get());
+	}
+
 }
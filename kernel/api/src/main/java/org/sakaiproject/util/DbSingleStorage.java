@@ -177,4 +177,16 @@ public interface DbSingleStorage
 	 */
 	public List getAllResourcesWhere(String selectBy, String selectByValue, String orderBy, int first, int maxCount);
 
+	/**
+	 * Get a limited number of Resources where a given field matches a given value, returned in ascending order
+	 * by id and starting after a given id. Reading a large selection a page at a time this way, passing the id
+	 * of the last Resource of each page to get the next, costs the same for every page.
+	 * @param selectBy The name of a field to be used in selecting resources.
+	 * @param selectByValue The value to select.
+	 * @param afterId The id the Resources must follow, or null to start from the first.
+	 * @param maxCount A positive integer indicating the maximum number of rows to return
+	 * @return The list of Resources that meet the criteria.
+	 */
+	public List getAllResourcesWhereAfter(String selectBy, String selectByValue, String afterId, int maxCount);
+
 }
\ No newline at end of file
@@ -109,5 +109,17 @@ public interface MultiSingleStorageSql
 	 * @param maxCount A positive integer indicating the maximum number of records to return
 	 */
 	public String getXmlWhereLimitSql(String selectBy, String orderBy, String tableName, int first, int maxCount);
+
+	/**
+	 * returns the SQL statement which retrieves a limited number of rows selected by a particular value for a specified field
+	 * (the selectBy parameter) in ascending order by the id field. When after is true the rows start after the id given as the
+	 * second parameter, so that a large selection can be read a page at a time without counting past the earlier pages.
+	 * @param selectBy The name of a field to be used in a where clause with the value provided separately.
+	 * @param idField The name of the unique id field to order and page by
+	 * @param tableName The table on which the query is to operate
+	 * @param after true if the rows are to start after an id provided separately
+	 * @param maxCount A positive integer indicating the maximum number of records to return
+	 */
+	public String getXmlWhereAfterLimitSql(String selectBy, String idField, String tableName, boolean after, int maxCount);
 	
 }
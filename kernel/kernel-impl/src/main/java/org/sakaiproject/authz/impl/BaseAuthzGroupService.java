@@ -35,6 +35,8 @@ import java.util.UUID;
 import java.util.Vector;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.tuple.Pair;
+
 import org.sakaiproject.authz.api.AuthzGroup;
 import org.sakaiproject.authz.api.AuthzGroup.RealmLockMode;
 import org.sakaiproject.authz.api.AuthzGroupAdvisor;
@@ -1029,6 +1031,14 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		return m_storage.isAllowed(user, function, azGroups);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<Boolean> isAllowed(String user, List<Pair<String, Collection<String>>> checks)
+	{
+		return m_storage.isAllowed(user, checks);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -1545,6 +1555,17 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		 */
 		boolean isAllowed(String userId, String function, Collection<String> realms);
 
+		/**
+		 * Test a batch of (function, AuthzGroup ids) checks for this user, resolving them together rather than one query per check.
+		 * 
+		 * @param userId
+		 *        The user id.
+		 * @param checks
+		 *        The function and the collection of AuthzGroup ids to consult for each check.
+		 * @return the results, in the order of the checks.
+		 */
+		List<Boolean> isAllowed(String userId, List<Pair<String, Collection<String>>> checks);
+
 		/**
 		 * Get the set of user ids of users who are allowed to perform the function in the named AuthzGroups.
 		 * 
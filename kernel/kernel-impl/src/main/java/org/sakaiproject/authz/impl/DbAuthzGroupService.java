@@ -21,6 +21,7 @@
 
 package org.sakaiproject.authz.impl;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -29,21 +30,32 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.sakaiproject.authz.api.AuthzGroup;
 import org.sakaiproject.authz.api.AuthzGroup.RealmLockMode;
 import org.sakaiproject.authz.api.GroupFullException;
@@ -63,10 +75,12 @@ import org.sakaiproject.javax.PagingPosition;
 import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.util.BaseDbFlatStorage;
 import org.sakaiproject.util.BaseResourceProperties;
 import org.sakaiproject.util.BaseResourcePropertiesEdit;
+import org.sakaiproject.util.SqlBatchWriter;
 import org.sakaiproject.util.StringUtil;
 
 import lombok.AllArgsConstructor;
@@ -138,6 +152,14 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	/** KNL-1325 provide a more efficent refreshAuthzGroup */
     public static final String REFRESH_MAX_TIME_PROPKEY = "authzgroup.refresh.max.time";
     public static final String REFRESH_INTERVAL_PROPKEY = "authzgroup.refresh.interval";
+    public static final String REFRESH_RUN_TIME_PROPKEY = "authzgroup.refresh.run.time";
+    public static final String REFRESH_THREADS_PROPKEY = "authzgroup.refresh.threads";
+    public static final String REFRESH_BATCH_SIZE_PROPKEY = "authzgroup.refresh.batch.size";
+    public static final String REFRESH_USER_BULK_PROPKEY = "authzgroup.refresh.user.bulk";
+    public static final String REFRESH_USER_LOCK_WAIT_PROPKEY = "authzgroup.refresh.user.lock.wait";
+
+    /** The JMX name the refresh counts are published under */
+    private static final String REFRESH_MBEAN = "org.sakaiproject:name=AuthzGroupRefresh";
 
     /**
      * Number of seconds before running refreshAuthzGroupTask again to clear queue,
@@ -146,16 +168,37 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
     private long refreshTaskInterval = 60;
 
 	/**
-	 * Number of seconds an authz group refresh is allowed to take
-	 * if threshold is reached delay processing the queue
+	 * Number of seconds an authz group refresh is expected to take,
+	 * longer refreshes are logged
 	 */
 	private long refreshMaxTime = 15;
 
+	/**
+	 * Number of seconds a run of refreshAuthzGroupTask may start new refreshes for,
+	 * realms not started by then stay queued for the next run
+	 */
+	private long refreshRunTime = 300;
+
+	/** Number of realms refreshed at the same time */
+	private long refreshThreads = 4;
+
+	/** Number of grant rows written in one batch */
+	private long refreshBatchSize = 100;
+
 	/** Executor used to schedule processing */
 	private ScheduledExecutorService refreshScheduler;
 
+	/** Executor the realms are refreshed on */
+	private ExecutorService refreshWorkers;
+
 	/** Queue of authzgroups to refresh used by refreshAuthzGroupTask */
-	private Map<String, AuthzGroup> refreshQueue;
+	private final Map<String, QueuedRefresh> refreshQueue = new ConcurrentHashMap<>();
+
+	/** Orders the queued refreshes */
+	private final AtomicLong refreshSequence = new AtomicLong();
+
+	/** Queue depth and refresh latencies */
+	private final RealmRefreshStats refreshStats = new RealmRefreshStats(1000, refreshQueue::size);
 
 	public void setDatabaseBeans(Map databaseBeans)
 	{
@@ -286,8 +329,25 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 
             refreshTaskInterval = initConfig(REFRESH_INTERVAL_PROPKEY, serverConfigurationService().getString(REFRESH_INTERVAL_PROPKEY), refreshTaskInterval);
             refreshMaxTime = initConfig(REFRESH_MAX_TIME_PROPKEY, serverConfigurationService().getString(REFRESH_MAX_TIME_PROPKEY), refreshMaxTime);
-
-            refreshQueue = Collections.synchronizedMap(new LinkedHashMap<>());
+            refreshRunTime = initConfig(REFRESH_RUN_TIME_PROPKEY, serverConfigurationService().getString(REFRESH_RUN_TIME_PROPKEY), refreshRunTime);
+            refreshThreads = Math.max(1, initConfig(REFRESH_THREADS_PROPKEY, serverConfigurationService().getString(REFRESH_THREADS_PROPKEY), refreshThreads));
+            refreshBatchSize = Math.max(1, initConfig(REFRESH_BATCH_SIZE_PROPKEY, serverConfigurationService().getString(REFRESH_BATCH_SIZE_PROPKEY), refreshBatchSize));
+
+            AtomicInteger workerCount = new AtomicInteger();
+            refreshWorkers = Executors.newFixedThreadPool((int) refreshThreads, r -> {
+                Thread thread = new Thread(r, "authzgroup-refresh-" + workerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(REFRESH_MBEAN);
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(refreshStats, name);
+            } catch (Exception e) {
+                log.warn("Could not register {} with JMX: {}", REFRESH_MBEAN, e.toString());
+            }
 
             refreshScheduler = Executors.newSingleThreadScheduledExecutor();
             refreshScheduler.scheduleWithFixedDelay(
@@ -326,6 +386,12 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	public void destroy()
 	{
 		refreshScheduler.shutdown();
+		if (refreshWorkers != null) refreshWorkers.shutdown();
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(REFRESH_MBEAN));
+		} catch (Exception e) {
+			log.debug("Could not unregister {}: {}", REFRESH_MBEAN, e.toString());
+		}
 
 		// done with event watching
 		eventTrackingService().deleteObserver(this);
@@ -347,6 +413,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 		DbStorage storage = new DbStorage(entityManager(), siteService);
 		storage.setPromoteUsersToProvided(m_promoteUsersToProvided);
 		storage.setPromoteUsersToProvidedRole(m_promoteUsersToProvidedRole);
+		storage.setBulkUserRefresh(serverConfigurationService().getBoolean(REFRESH_USER_BULK_PROPKEY, true));
+		storage.setUserRefreshLockWait(serverConfigurationService().getInt(REFRESH_USER_LOCK_WAIT_PROPKEY, 5000));
 		return storage;
 
 	} // newStorage
@@ -703,55 +771,149 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 	}
 
 	/**
-	 * Step through queue and call refreshAuthzGroup on all groups queued up for
-	 * a refresh
+	 * An authz group waiting for a refresh
+	 */
+	private static class QueuedRefresh {
+		final AuthzGroup azGroup;
+		/** Order the refresh was first queued in */
+		final long sequence;
+		/** When the realm was last read while queued, 0 if it wasn't */
+		volatile long accessed;
+
+		QueuedRefresh(AuthzGroup azGroup, long sequence, long accessed) {
+			this.azGroup = azGroup;
+			this.sequence = sequence;
+			this.accessed = accessed;
+		}
+	}
+
+	/** Most recently accessed realms first, then the order they were queued in */
+	private static final Comparator<QueuedRefresh> REFRESH_PRIORITY = Comparator
+			.comparingLong((QueuedRefresh q) -> q.accessed).reversed()
+			.thenComparingLong(q -> q.sequence);
+
+	/**
+	 * Queue an authz group for refresh, keyed on id to eliminate duplicate refreshes.
+	 * A realm that is already queued keeps its place.
+	 */
+	protected void queueRefresh(AuthzGroup azGroup) {
+		refreshQueue.merge(azGroup.getId(), new QueuedRefresh(azGroup, refreshSequence.incrementAndGet(), 0),
+				(queued, latest) -> new QueuedRefresh(latest.azGroup, queued.sequence, queued.accessed));
+	}
+
+	/**
+	 * Note that a realm was used, so that if it is waiting for a refresh it is refreshed sooner.
+	 */
+	protected void noteRealmAccess(String realmId) {
+		if (realmId == null || refreshQueue.isEmpty()) return;
+		QueuedRefresh queued = refreshQueue.get(realmId);
+		if (queued != null) {
+			queued.accessed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @return the queue depth and refresh latencies
+	 */
+	public RealmRefreshStats getRefreshStats() {
+		return refreshStats;
+	}
+
+	/**
+	 * Step through queue and refresh the groups queued up for a refresh on the worker pool,
+	 * most recently accessed first. Realms not started within refreshRunTime are left for the next run.
 	 */
 	protected class RefreshAuthzGroupTask implements Runnable {
 		@Override
 		public void run() {
 			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refreshing " + refreshQueue.size() + " realms");
-			if (refreshQueue.size() > 0) {
-				long numberRefreshed = 0;
-				long timeRefreshed = 0;
-				long longestRefreshed = 0;
-				String longestName = null;
-				
-				List<AuthzGroup> queueList = new ArrayList<AuthzGroup>(refreshQueue.values());
+			if (refreshQueue.isEmpty()) return;
 
-				Iterator<AuthzGroup> it = queueList.iterator();
-				while (it.hasNext()) {
-					AuthzGroup azGroup = it.next();
-					String azGroupId = azGroup.getId();
-					if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() start refresh of azgroup: " + azGroupId);
+			// sort a copy, as the access times change while realms are read
+			List<QueuedRefresh> queueList = new ArrayList<>(refreshQueue.size());
+			for (QueuedRefresh queued : refreshQueue.values()) {
+				queueList.add(new QueuedRefresh(queued.azGroup, queued.sequence, queued.accessed));
+			}
+			queueList.sort(REFRESH_PRIORITY);
 
-					numberRefreshed++;
-					long time = 0;
-					long start = System.currentTimeMillis();
-					try {
-						((DbStorage) m_storage).refreshAuthzGroupInternal((BaseAuthzGroup) azGroup);
-					} catch (Throwable e) {
-						log.error("RefreshAuthzGroupTask.run() Problem refreshing azgroup: " + azGroupId, e);
-					} finally {
-						time = (System.currentTimeMillis() - start);
-						refreshQueue.remove(azGroupId);
-						if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refresh of azgroup: " + azGroupId + " took " + time/1e3 + " seconds");
-					}
-					timeRefreshed += time;
-					if (time > longestRefreshed) {
-						longestRefreshed = time;
-						longestName = azGroupId;
+			long numberRefreshed = 0;
+			long timeRefreshed = 0;
+			long longestRefreshed = 0;
+			String longestName = null;
+			long start = System.currentTimeMillis();
+			long deadline = start + (refreshRunTime * 1000L);
+
+			CompletionService<Pair<String, Long>> completion = new ExecutorCompletionService<>(refreshWorkers);
+			Iterator<QueuedRefresh> it = queueList.iterator();
+			int running = 0;
+			try {
+				while (true) {
+					while (running < refreshThreads && it.hasNext() && System.currentTimeMillis() < deadline && !refreshWorkers.isShutdown()) {
+						String azGroupId = it.next().azGroup.getId();
+						completion.submit(() -> refresh(azGroupId));
+						running++;
 					}
-					
-					if (it.hasNext() && (time > (refreshMaxTime * 1000L))) {
-						log.warn("RefreshAuthzGroupTask.run() " + azGroupId + " took " + time/1e3 + 
-								" seconds which is longer than the maximum allowed of " + refreshMaxTime + 
-								" seconds, delay processing the rest of the queue");
-						break;
+					if (running == 0) break;
+
+					Pair<String, Long> done = completion.take().get();
+					running--;
+					if (done.getRight() < 0) continue;
+					numberRefreshed++;
+					timeRefreshed += done.getRight();
+					if (done.getRight() > longestRefreshed) {
+						longestRefreshed = done.getRight();
+						longestName = done.getLeft();
 					}
 				}
-				log.info("RefreshAuthzGroupTask.run() refreshed " + numberRefreshed + " realms in " + timeRefreshed/1e3 + 
-						" seconds, longest realm was " + longestName + " at " + longestRefreshed/1e3 + " seconds");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (Exception e) {
+				log.error("RefreshAuthzGroupTask.run() Problem refreshing realms", e);
 			}
+
+			int deferred = 0;
+			while (it.hasNext()) {
+				it.next();
+				deferred++;
+			}
+			if (deferred > 0) {
+				refreshStats.deferred(deferred);
+				log.warn("RefreshAuthzGroupTask.run() did not start " + deferred + " realms within " + refreshRunTime +
+						" seconds, delay processing the rest of the queue");
+			}
+			log.info("RefreshAuthzGroupTask.run() refreshed " + numberRefreshed + " realms in " + (System.currentTimeMillis() - start)/1e3 +
+					" seconds (" + timeRefreshed/1e3 + " seconds total), longest realm was " + longestName + " at " + longestRefreshed/1e3 +
+					" seconds, " + refreshStats);
+		}
+
+		/**
+		 * Take one realm off the queue and refresh it.
+		 *
+		 * @return the realm id and the time taken in ms, -1 if the realm was no longer queued
+		 */
+		private Pair<String, Long> refresh(String azGroupId) {
+			// off the queue before the refresh, so that a change made while refreshing is queued again
+			QueuedRefresh queued = refreshQueue.remove(azGroupId);
+			if (queued == null) return Pair.of(azGroupId, -1L);
+
+			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() start refresh of azgroup: " + azGroupId);
+			refreshStats.started();
+			boolean ok = false;
+			long start = System.currentTimeMillis();
+			try {
+				((DbStorage) m_storage).refreshAuthzGroupInternal((BaseAuthzGroup) queued.azGroup);
+				ok = true;
+			} catch (Throwable e) {
+				log.error("RefreshAuthzGroupTask.run() Problem refreshing azgroup: " + azGroupId, e);
+			}
+			long time = (System.currentTimeMillis() - start);
+			refreshStats.finished(time, ok);
+			if (log.isDebugEnabled()) log.debug("RefreshAuthzGroupTask.run() refresh of azgroup: " + azGroupId + " took " + time/1e3 + " seconds");
+			if (time > (refreshMaxTime * 1000L)) {
+				log.warn("RefreshAuthzGroupTask.run() " + azGroupId + " took " + time/1e3 +
+						" seconds which is longer than the maximum expected of " + refreshMaxTime + " seconds");
+			}
+			return Pair.of(azGroupId, time);
 		}
 	}
 
@@ -763,8 +925,16 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 
 		private static final String REALM_USER_GRANTS_CACHE = "REALM_USER_GRANTS_CACHE";
 		private static final String REALM_ROLES_CACHE = "REALM_ROLES_CACHE";
+		/** The SAKAI_LOCKS table name for the locks on refreshing a user's grants */
+		private static final String USER_REFRESH_LOCK = "SAKAI_REALM_RL_GR";
+		/** A user refresh lock older than this (ms) was left by a server that went away */
+		private static final long USER_REFRESH_LOCK_STALE = 60000;
 		private boolean promoteUsersToProvided = true;
 		private boolean promoteUsersToProvidedRole = false;
+		private boolean bulkUserRefresh = true;
+		private long userRefreshLockWait = 5000;
+		/** The user refreshes running on this server */
+		private final Map<String, CompletableFuture<Void>> userRefreshes = new ConcurrentHashMap<>();
 		private EntityManager entityManager;
 		private SiteService siteService;
 
@@ -806,6 +976,20 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			this.promoteUsersToProvidedRole = promoteUsersToProvidedRole;
 		}
 
+		/**
+		 * Configure whether a user's provided grants are refreshed with batched writes, or a row at a time.
+		 */
+		public void setBulkUserRefresh(boolean bulkUserRefresh) {
+			this.bulkUserRefresh = bulkUserRefresh;
+		}
+
+		/**
+		 * Configure how long (ms) a refresh of a user's grants waits for a refresh of the same user already running.
+		 */
+		public void setUserRefreshLockWait(long userRefreshLockWait) {
+			this.userRefreshLockWait = userRefreshLockWait;
+		}
+
 		public boolean check(String id)
 		{
 			return super.checkResource(id);
@@ -818,6 +1002,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 
 		protected AuthzGroup get(Connection conn, String id)
 		{
+			noteRealmAccess(id);
+
 			// read the base
 			BaseAuthzGroup rv = (BaseAuthzGroup) super.getResource(conn, id);
 
@@ -2109,6 +2295,10 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 					log.debug("isAllowed():", new Exception());
 				return false;
 			}
+
+			if (!refreshQueue.isEmpty()) {
+				realms.forEach(DbAuthzGroupService.this::noteRealmAccess);
+			}
 			
 			Set<String> roles = getEmptyRoles(userId);
 			
@@ -2290,6 +2480,115 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			return rv;
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public List<Boolean> isAllowed(String userId, List<Pair<String, Collection<String>>> checks)
+		{
+			Boolean[] rv = new Boolean[checks.size()];
+			Set<String> realms = new HashSet<>();
+			Set<String> functions = new HashSet<>();
+
+			// checks affected by roleswap or delegated access, or with nothing to consult, go through the single check
+			for (int i = 0; i < checks.size(); i++)
+			{
+				Pair<String, Collection<String>> check = checks.get(i);
+				String function = check.getLeft();
+				Collection<String> checkRealms = check.getRight();
+				if (function == null || checkRealms == null || checkRealms.isEmpty() || isSwapped(userId, checkRealms))
+				{
+					rv[i] = isAllowed(userId, function, checkRealms);
+				}
+				else
+				{
+					realms.addAll(checkRealms);
+					functions.add(function);
+				}
+			}
+			if (realms.isEmpty()) return Arrays.asList(rv);
+
+			if (!refreshQueue.isEmpty()) {
+				realms.forEach(DbAuthzGroupService.this::noteRealmAccess);
+			}
+
+			// the roles the user holds in each realm
+			Map<String, Set<Integer>> grantedByRealm = new HashMap<>();
+			Set<Integer> roleKeys = new HashSet<>(getRealmRoleKeys(getEmptyRoles(userId)));
+			Set<Integer> emptyRoleKeys = new HashSet<>(roleKeys);
+			List<Object> fields = new ArrayList<>();
+			fields.add(userId);
+			fields.addAll(realms);
+			m_sql.dbRead(dbAuthzGroupSql.getSelectRealmGrantedRolesSql(orInClause(realms.size(), "SAKAI_REALM.REALM_ID")), fields.toArray(),
+					result -> {
+						try
+						{
+							Integer roleKey = result.getInt(2);
+							grantedByRealm.computeIfAbsent(result.getString(1), k -> new HashSet<>()).add(roleKey);
+							roleKeys.add(roleKey);
+						}
+						catch (SQLException e)
+						{
+							log.warn("isAllowed(batch): {}", e.toString());
+						}
+						return null;
+					});
+
+			// the realm and function grants for any of those roles
+			Map<String, Map<String, Set<Integer>>> functionRoles = new HashMap<>();
+			if (!roleKeys.isEmpty())
+			{
+				fields.clear();
+				fields.addAll(realms);
+				fields.addAll(functions);
+				fields.addAll(roleKeys);
+				String statement = dbAuthzGroupSql.getSelectRealmRoleFunctionsSql(orInClause(realms.size(), "SAKAI_REALM.REALM_ID"),
+						orInClause(functions.size(), "SAKAI_REALM_FUNCTION.FUNCTION_NAME"), orInClause(roleKeys.size(), "SAKAI_REALM_RL_FN.ROLE_KEY"));
+				m_sql.dbRead(statement, fields.toArray(), result -> {
+					try
+					{
+						functionRoles.computeIfAbsent(result.getString(3), k -> new HashMap<>())
+								.computeIfAbsent(result.getString(1), k -> new HashSet<>()).add(result.getInt(2));
+					}
+					catch (SQLException e)
+					{
+						log.warn("isAllowed(batch): {}", e.toString());
+					}
+					return null;
+				});
+			}
+
+			// as in the single check, a role granted in any of the check's realms counts in all of them
+			for (int i = 0; i < checks.size(); i++)
+			{
+				if (rv[i] != null) continue;
+				Collection<String> checkRealms = checks.get(i).getRight();
+				Map<String, Set<Integer>> byRealm = functionRoles.getOrDefault(checks.get(i).getLeft(), Collections.emptyMap());
+				Set<Integer> allowedRoles = new HashSet<>(emptyRoleKeys);
+				checkRealms.forEach(r -> allowedRoles.addAll(grantedByRealm.getOrDefault(r, Collections.emptySet())));
+				rv[i] = checkRealms.stream().map(r -> byRealm.getOrDefault(r, Collections.emptySet()))
+						.anyMatch(roles -> roles.stream().anyMatch(allowedRoles::contains));
+			}
+			return Arrays.asList(rv);
+		}
+
+		/**
+		 * Check if a roleswap or delegated access is in effect for the current user in the site among these realms.
+		 */
+		private boolean isSwapped(String userId, Collection<String> realms)
+		{
+			if (userId == null || !userId.equals(sessionManager().getCurrentSessionUserId())) return false;
+			for (String realmId : realms)
+			{
+				if (!realmId.startsWith(SiteService.REFERENCE_ROOT + Entity.SEPARATOR) || userId.equals(siteService.getSiteUserId(realmId))) continue;
+				Reference ref = entityManager().newReference(realmId);
+				String siteRef = SiteService.GROUP_SUBTYPE.equals(ref.getSubType()) ? siteService.siteReference(ref.getContainer()) : realmId;
+				if (securityService().getUserEffectiveRole(siteRef) != null) return true;
+				String[] delegated = getDelegatedAccessRealmRole(realmId);
+				if (delegated != null && delegated.length == 2) return true;
+			}
+			return false;
+		}
+
 		/**
 		 * Delegated access essentially behaves like roleswap except instead of just specifying which role, you can also specify
 		 * the realm as well.  The access map is populated by an Event Listener that listens for dac.checkaccess and is stored in the session
@@ -2512,30 +2811,229 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 		{
 			if (userId == null) return;
 
-			String sql = dbAuthzGroupSql.getSelectRealmRoleGroup3Sql();
+			if (!bulkUserRefresh)
+			{
+				refreshUserByRow(userId, providerGrants);
+				return;
+			}
 
-			// read this user's grants from all realms
-			Object[] fields = new Object[1];
-			fields[0] = userId;
+			// coalesce concurrent refreshes of the same user on this server, the later ones wait for the first
+			CompletableFuture<Void> mine = new CompletableFuture<>();
+			CompletableFuture<Void> running = userRefreshes.putIfAbsent(userId, mine);
+			if (running != null)
+			{
+				try
+				{
+					running.get(userRefreshLockWait, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				catch (Exception e)
+				{
+					log.debug("refreshUser: stopped waiting for the refresh of user: {}", userId);
+				}
+				refreshStats.userRefreshCoalesced();
+				return;
+			}
 
-			List<RealmAndRole> grants = m_sql.dbRead(sql, fields, new SqlReader()
+			try
 			{
-				public Object readSqlResultRecord(ResultSet result)
+				refreshUserBulk(userId, providerGrants);
+			}
+			finally
+			{
+				userRefreshes.remove(userId, mine);
+				mine.complete(null);
+			}
+		}
+
+		/**
+		 * Reconcile the user's provided grants, diffing them in memory and writing the changes as one batched
+		 * delete, update and insert. The writes are done holding a lock row in SAKAI_LOCKS, so that when the
+		 * user logs in to several servers at once only one of them writes.
+		 */
+		private void refreshUserBulk(String userId, Map<String, String> providerGrants)
+		{
+			int statements = 0;
+			Map<Integer, String> target = readProviderRealmRoles(providerGrants);
+			if ((providerGrants != null) && (providerGrants.size() > 0)) statements++;
+
+			UserGrantChanges changes = new UserGrantChanges(readUserGrants(userId), target);
+			statements++;
+
+			if (!changes.isEmpty())
+			{
+				boolean locked = false;
+				boolean waited = false;
+				long deadline = System.currentTimeMillis() + userRefreshLockWait;
+				while (true)
 				{
+					statements++;
+					if (lockUserRefresh(userId))
+					{
+						locked = true;
+						break;
+					}
+					waited = true;
+					if (System.currentTimeMillis() > deadline) break;
 					try
 					{
-						int realmKey = result.getInt(1);
-						String roleName = result.getString(2);
-						String active = result.getString(3);
-						String provided = result.getString(4);
-						return new RealmAndRole(Integer.valueOf(realmKey), roleName, "1".equals(active), "1".equals(provided));
+						Thread.sleep(100);
 					}
-					catch (Exception ignore)
+					catch (InterruptedException e)
 					{
-						return null;
+						Thread.currentThread().interrupt();
+						break;
 					}
 				}
-			});
+
+				if (locked && waited)
+				{
+					// the other server has most likely made the same changes
+					changes = new UserGrantChanges(readUserGrants(userId), target);
+					statements++;
+				}
+				else if (!locked)
+				{
+					log.warn("refreshUser: user: {} is still locked after {} ms, refreshing anyway", userId, userRefreshLockWait);
+				}
+
+				try
+				{
+					statements += changes.write(userId);
+				}
+				finally
+				{
+					if (locked)
+					{
+						m_sql.dbWrite(dbAuthzGroupSql.getDeleteUserRefreshLockSql(), new Object[] {USER_REFRESH_LOCK, userId});
+						statements++;
+					}
+				}
+			}
+			refreshStats.userRefreshed(statements);
+		}
+
+		/**
+		 * Take the cluster wide lock on refreshing the user's grants, clearing a lock left behind by a server that went away.
+		 *
+		 * @return true if we have the lock, false if another server has it
+		 */
+		private boolean lockUserRefresh(String userId)
+		{
+			Object[] fields = new Object[] {USER_REFRESH_LOCK, userId, Instant.now(), null};
+			if (m_sql.dbWriteFailQuiet(null, dbAuthzGroupSql.getInsertUserRefreshLockSql(), fields)) return true;
+
+			Object[] stale = new Object[] {USER_REFRESH_LOCK, userId, Instant.now().minusMillis(USER_REFRESH_LOCK_STALE)};
+			if (m_sql.dbWriteCount(dbAuthzGroupSql.getDeleteStaleUserRefreshLockSql(), stale, null, null, true) > 0)
+			{
+				log.warn("refreshUser: removed a stale refresh lock for user: {}", userId);
+				return m_sql.dbWriteFailQuiet(null, dbAuthzGroupSql.getInsertUserRefreshLockSql(), fields);
+			}
+			return false;
+		}
+
+		/**
+		 * The changes needed to bring a user's provided grants in line with the provider.
+		 */
+		private class UserGrantChanges
+		{
+			/** realm keys of the provided grants the provider no longer has */
+			final List<Integer> deletes = new ArrayList<Integer>();
+			/** provided grants whose role has changed, the active flag is kept */
+			final List<RealmAndRole> updates = new ArrayList<RealmAndRole>();
+			/** new provided grants */
+			final List<RealmAndRole> inserts = new ArrayList<RealmAndRole>();
+
+			UserGrantChanges(List<RealmAndRole> grants, Map<Integer, String> target)
+			{
+				// realm id -> role granted, each for provider and non-provider (or inactive)
+				Map<Integer, String> existing = new HashMap<Integer, String>();
+				Set<Integer> nonProvider = new HashSet<Integer>();
+				for (RealmAndRole rar : grants)
+				{
+					if (rar.provided)
+					{
+						if (existing.putIfAbsent(rar.realmId, rar.role) != null)
+						{
+							log.warn("refreshUser: duplicate realm id found in provider grants: " + rar.realmId);
+						}
+					}
+					else if (!nonProvider.add(rar.realmId))
+					{
+						log.warn("refreshUser: duplicate realm id found in nonProvider grants: " + rar.realmId);
+					}
+				}
+
+				for (Map.Entry<Integer, String> entry : existing.entrySet())
+				{
+					String targetRole = target.get(entry.getKey());
+					if ((targetRole == null) || (!targetRole.equals(entry.getValue()) && nonProvider.contains(entry.getKey())))
+					{
+						deletes.add(entry.getKey());
+					}
+					else if (!targetRole.equals(entry.getValue()))
+					{
+						updates.add(new RealmAndRole(entry.getKey(), targetRole, true, true));
+					}
+				}
+
+				// we don't insert target grants that would override internal grants
+				for (Map.Entry<Integer, String> entry : target.entrySet())
+				{
+					if (!existing.containsKey(entry.getKey()) && !nonProvider.contains(entry.getKey()))
+					{
+						inserts.add(new RealmAndRole(entry.getKey(), entry.getValue(), true, true));
+					}
+				}
+			}
+
+			boolean isEmpty()
+			{
+				return deletes.isEmpty() && updates.isEmpty() && inserts.isEmpty();
+			}
+
+			/**
+			 * @return the number of statements written
+			 */
+			int write(String userId)
+			{
+				List<Object[]> rows = new ArrayList<Object[]>(deletes.size());
+				for (Integer realmId : deletes)
+				{
+					rows.add(new Object[] {realmId, userId});
+				}
+				int statements = writeGrants(dbAuthzGroupSql.getDeleteRealmRoleGroup3Sql(), rows);
+
+				rows = new ArrayList<Object[]>(updates.size());
+				for (RealmAndRole rar : updates)
+				{
+					rows.add(new Object[] {rar.role, rar.realmId, userId});
+				}
+				statements += writeGrants(dbAuthzGroupSql.getUpdateRealmRoleGroup1Sql(), rows);
+
+				rows = new ArrayList<Object[]>(inserts.size());
+				for (RealmAndRole rar : inserts)
+				{
+					rows.add(new Object[] {rar.realmId, userId, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup2_1Sql(), rar.role)});
+				}
+				statements += writeGrants(dbAuthzGroupSql.getInsertRealmRoleGroup2Sql(), rows);
+				return statements;
+			}
+		}
+
+		/**
+		 * Reconcile the user's provided grants a row at a time, as before the bulk refresh.
+		 */
+		private void refreshUserByRow(String userId, Map<String, String> providerGrants)
+		{
+			if (userId == null) return;
+
+			int statements = 0;
+			List<RealmAndRole> grants = readUserGrants(userId);
+			statements++;
 
 			// make a map, realm id -> role granted, each for provider and non-provider (or inactive)
 			Map<Integer, String> existing = new HashMap<Integer, String>();
@@ -2577,62 +3075,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 
 			// compute the user's realm roles based on the new provider information
 			// same map form as existing, realm id -> role granted
-			Map<Integer, String> target = new HashMap<Integer, String>();
-
-			// for each realm that has a provider in the map, and does not have a grant for the user,
-			// add the active provided grant with the map's role.
-
-			if ((providerGrants != null) && (providerGrants.size() > 0))
-			{
-				// get all the realms that have providers in the map, with their full provider id
-
-				// Assemble SQL. Note: distinct must be used because one cannot establish an equijoin between
-				// SRP.PROVIDER_ID and SR.PROVIDER_ID as the values in SRP.PROVIDER_ID often include
-				// additional concatenated course values. It may be worth reviewing this strategy.
-
-				sql = dbAuthzGroupSql.getSelectRealmProviderSql(orInClause(providerGrants.size(), "SRP.PROVIDER_ID"));
-				Object[] fieldsx = new Object[providerGrants.size()];
-				int pos = 0;
-				for (String providerId : providerGrants.keySet())
-				{
-					fieldsx[pos++] = providerId;
-				}
-				List<RealmAndProvider> realms = m_sql.dbRead(sql, fieldsx, new SqlReader()
-				{
-					public Object readSqlResultRecord(ResultSet result)
-					{
-						try
-						{
-							int id = result.getInt(1);
-							String provider = result.getString(2);
-							return new RealmAndProvider(Integer.valueOf(id), provider);
-						}
-						catch (Exception ignore)
-						{
-							return null;
-						}
-					}
-				});
-
-				if ((realms != null) && (realms.size() > 0))
-				{
-					for (RealmAndProvider rp : realms)
-					{
-						String role = providerGrants.get(rp.providerId);
-						if (role != null)
-						{
-							if (target.containsKey(rp.realmId))
-							{
-								log.warn("refreshUser: duplicate realm id computed for new grants: " + rp.realmId);
-							}
-							else
-							{
-								target.put(rp.realmId, role);
-							}
-						}
-					}
-				}
-			}
+			Map<Integer, String> target = readProviderRealmRoles(providerGrants);
+			if ((providerGrants != null) && (providerGrants.size() > 0)) statements++;
 
 			// compute the records we need to delete: every existing not in target or not matching target's role
 			List<Integer> toDelete = new Vector<Integer>();
@@ -2676,13 +3120,14 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				// caused by transactions modifying more than one row at a time.
 
 				// delete
-				sql = dbAuthzGroupSql.getDeleteRealmRoleGroup3Sql();
-				fields = new Object[2];
+				String sql = dbAuthzGroupSql.getDeleteRealmRoleGroup3Sql();
+				Object[] fields = new Object[2];
 				fields[1] = userId;
 				for (Integer realmId : toDelete)
 				{
 					fields[0] = realmId;
 					m_sql.dbWrite(sql, fields);
+					statements++;
 				}
 
 				// insert
@@ -2695,8 +3140,108 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 					fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup2_1Sql(), rar.role);
 
 					m_sql.dbWrite(sql, fields);
+					statements++;
 				}
 			}
+			refreshStats.userRefreshed(statements);
+		}
+
+		/**
+		 * Read all of the user's grants, in any realm.
+		 */
+		private List<RealmAndRole> readUserGrants(String userId)
+		{
+			String sql = dbAuthzGroupSql.getSelectRealmRoleGroup3Sql();
+
+			// read this user's grants from all realms
+			Object[] fields = new Object[1];
+			fields[0] = userId;
+
+			List<RealmAndRole> grants = m_sql.dbRead(sql, fields, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						int realmKey = result.getInt(1);
+						String roleName = result.getString(2);
+						String active = result.getString(3);
+						String provided = result.getString(4);
+						return new RealmAndRole(Integer.valueOf(realmKey), roleName, "1".equals(active), "1".equals(provided));
+					}
+					catch (Exception ignore)
+					{
+						return null;
+					}
+				}
+			});
+			return grants;
+		}
+
+		/**
+		 * Find the realms with providers in the user's provider grants.
+		 *
+		 * @return realm key -> the provided role
+		 */
+		private Map<Integer, String> readProviderRealmRoles(Map<String, String> providerGrants)
+		{
+			Map<Integer, String> target = new HashMap<Integer, String>();
+
+			// for each realm that has a provider in the map, and does not have a grant for the user,
+			// add the active provided grant with the map's role.
+
+			if ((providerGrants != null) && (providerGrants.size() > 0))
+			{
+				// get all the realms that have providers in the map, with their full provider id
+
+				// Assemble SQL. Note: distinct must be used because one cannot establish an equijoin between
+				// SRP.PROVIDER_ID and SR.PROVIDER_ID as the values in SRP.PROVIDER_ID often include
+				// additional concatenated course values. It may be worth reviewing this strategy.
+
+				String sql = dbAuthzGroupSql.getSelectRealmProviderSql(orInClause(providerGrants.size(), "SRP.PROVIDER_ID"));
+				Object[] fieldsx = new Object[providerGrants.size()];
+				int pos = 0;
+				for (String providerId : providerGrants.keySet())
+				{
+					fieldsx[pos++] = providerId;
+				}
+				List<RealmAndProvider> realms = m_sql.dbRead(sql, fieldsx, new SqlReader()
+				{
+					public Object readSqlResultRecord(ResultSet result)
+					{
+						try
+						{
+							int id = result.getInt(1);
+							String provider = result.getString(2);
+							return new RealmAndProvider(Integer.valueOf(id), provider);
+						}
+						catch (Exception ignore)
+						{
+							return null;
+						}
+					}
+				});
+
+				if ((realms != null) && (realms.size() > 0))
+				{
+					for (RealmAndProvider rp : realms)
+					{
+						String role = providerGrants.get(rp.providerId);
+						if (role != null)
+						{
+							if (target.containsKey(rp.realmId))
+							{
+								log.warn("refreshUser: duplicate realm id computed for new grants: " + rp.realmId);
+							}
+							else
+							{
+								target.put(rp.realmId, role);
+							}
+						}
+					}
+				}
+			}
+			return target;
 		}
 
 		/**
@@ -2720,9 +3265,8 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 					}
 				}
 			} else {
-				// Add the AuthzGroup to the queue, keyed on id to eliminate duplicate refreshes
 				log.debug("Queue authz group for refresh " + azGroup.getId());
-				refreshQueue.put(azGroup.getId(), azGroup);
+				queueRefresh(azGroup);
 			}
 		}
 
@@ -2809,16 +3353,25 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			}
 
+			// resolve the users on both sides up front, rather than one lookup per user in each pass
+			Set<String> grantedIds = new HashSet<String>(existing.keySet());
+			if (promoteUsersToProvided)
+			{
+				grantedIds.addAll(nonProvider.keySet());
+			}
+			Map<String, String> userEids = getUserEids(grantedIds);
+			Map<String, String> userIds = getUserIds(target.keySet());
+
 			// compute the records we need to delete: every existing not in target or not matching target's role
-			List<String> toDelete = new Vector<String>();
+			List<String> toDelete = new ArrayList<String>();
 			for (Map.Entry<String,String> entry : existing.entrySet())
 			{
 				String userId = entry.getKey();
 				String role = entry.getValue();
 
-				try
+				String userEid = userEids.get(userId);
+				if (userEid != null)
 				{
-					String userEid = userDirectoryService().getUserEid(userId);
 					String targetRole = (String) target.get(userEid);
 					
 					Member cMember = null;
@@ -2842,22 +3395,17 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 						}
 					}
 				}
-				catch (UserNotDefinedException e)
-				{
-					log.warn("refreshAuthzGroupInternal() cannot find eid for user: " + userId);
-				}
 			}
 
 			// compute the records we need to add: every target not in existing, or not matching's existing's role
 			// we don't insert target grants that would override internal grants
-			List<UserAndRole> toInsert = new Vector<UserAndRole>();
+			List<UserAndRole> toInsert = new ArrayList<UserAndRole>();
 			for (Map.Entry<String,String> entry : target.entrySet())
 			{
 				String userEid = entry.getKey();
-				try
+				String userId = userIds.get(userEid);
+				if (userId != null)
 				{
-					String userId = userDirectoryService().getUserId(userEid);
-
 					String role = entry.getValue();
 					boolean active = true;
 					String existingRole = (String) existing.get(userId);
@@ -2922,10 +3470,6 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 						}
 					}
 				}
-				catch (UserNotDefinedException e)
-				{
-					log.warn("refreshAuthzGroupInternal() cannot find id for user eid: " + userEid);
-				}
 			}
 
 			if (promoteUsersToProvided)
@@ -2936,9 +3480,9 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				{
 					String userId = entry.getKey();
 					String role = entry.getValue();
-					try
+					String userEid = userEids.get(userId);
+					if (userEid != null)
 					{
-						String userEid = userDirectoryService().getUserEid(userId);
 						String targetRole = (String) target.get(userEid);
 
 						if (role.equals(targetRole) || (StringUtils.isNotBlank(targetRole) && promoteUsersToProvidedRole))
@@ -2957,44 +3501,37 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 							toInsert.add(new UserAndRole(userId, targetRole, active, true));
 						}
 					}
-					catch (UserNotDefinedException e)
-					{
-						log.warn("refreshAuthzGroupInternal() cannot find eid for user: " + userId);
-					}
-
 				}
 			}
 
 			// if any, do it
 			if ((toDelete.size() > 0) || (toInsert.size() > 0))
 			{
-				// do these each in their own transaction, to avoid possible deadlock
-				// caused by transactions modifying more than one row at a time.
+				// written in small batches, each in its own transaction, to avoid possible deadlock
+				// caused by long transactions modifying many rows at a time.
 
 				// delete
 				sql = dbAuthzGroupSql.getDeleteRealmRoleGroup4Sql();
-				Object[] fields = new Object[2];
-				fields[0] = caseId(realm.getId());
+				String realmId = caseId(realm.getId());
+				List<Object[]> rows = new ArrayList<Object[]>(toDelete.size());
 				for (String userId : toDelete)
 				{
-					fields[1] = userId;
-					m_sql.dbWrite(sql, fields);
+					rows.add(new Object[] {realmId, userId});
 				}
+				writeGrants(sql, rows);
 
 				// insert
 				sql = dbAuthzGroupSql.getInsertRealmRoleGroup3Sql();
-				fields = new Object[5];
-				fields[0] = caseId(realm.getId());
-				fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_1Sql(), fields[0]);
+				Object realmField = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_1Sql(), realmId);
+				rows = new ArrayList<Object[]>(toInsert.size());
 				for (UserAndRole uar : toInsert)
 				{
-					fields[1] = uar.userId;
-					fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_2Sql(), uar.role);
-					fields[3] = uar.active ? "1" : "0"; // KNL-1099
-					fields[4] = uar.provided ? "1" : "0"; // KNL-1099
-
-					m_sql.dbWrite(sql, fields);
+					rows.add(new Object[] {realmField, uar.userId,
+							getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup3_2Sql(), uar.role),
+							uar.active ? "1" : "0", // KNL-1099
+							uar.provided ? "1" : "0"}); // KNL-1099
 				}
+				writeGrants(sql, rows);
 				eventTrackingService().post(eventTrackingService().newEvent(SECURE_UPDATE_AUTHZ_GROUP, realm.getReference(), true));
 			}
 			if (log.isDebugEnabled()) {
@@ -3002,6 +3539,72 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 			}
 		}
 
+		/**
+		 * Map user ids to eids with one directory call, looking up any it misses one at a time.
+		 * Users that cannot be found are logged and left out.
+		 */
+		private Map<String, String> getUserEids(Collection<String> ids)
+		{
+			Map<String, String> rv = new HashMap<String, String>();
+			if (ids.isEmpty()) return rv;
+
+			for (User user : userDirectoryService().getUsers(ids))
+			{
+				rv.put(user.getId(), user.getEid());
+			}
+			for (String userId : ids)
+			{
+				if (rv.containsKey(userId)) continue;
+				try
+				{
+					rv.put(userId, userDirectoryService().getUserEid(userId));
+				}
+				catch (UserNotDefinedException e)
+				{
+					log.warn("refreshAuthzGroupInternal() cannot find eid for user: " + userId);
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * Map user eids to ids with one directory call, looking up any it misses one at a time.
+		 * Users that cannot be found are logged and left out.
+		 */
+		private Map<String, String> getUserIds(Collection<String> eids)
+		{
+			Map<String, String> rv = new HashMap<String, String>();
+			if (eids.isEmpty()) return rv;
+
+			for (User user : userDirectoryService().getUsersByEids(eids))
+			{
+				rv.put(user.getEid(), user.getId());
+			}
+			for (String userEid : eids)
+			{
+				if (rv.containsKey(userEid)) continue;
+				try
+				{
+					rv.put(userEid, userDirectoryService().getUserId(userEid));
+				}
+				catch (UserNotDefinedException e)
+				{
+					log.warn("refreshAuthzGroupInternal() cannot find id for user eid: " + userEid);
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * Write the grant rows in batches of refreshBatchSize, each batch committed on its own and written a row at a time if it fails.
+		 *
+		 * @return the number of statements written
+		 */
+		private int writeGrants(String sql, List<Object[]> rows)
+		{
+			return SqlBatchWriter.write(m_sql, sql, rows, refreshBatchSize, null);
+		}
+
 		private List<UserAndRole> getGrants(AuthzGroup realm) {
 			// read the realm's grants
 			String sql = dbAuthzGroupSql.getSelectRealmRoleGroup2Sql();
@@ -41,6 +41,17 @@ public interface DbAuthzGroupSql
 	
 	String getCountRoleFunctionSql(String inClause, boolean isDelegated);
 
+	/**
+	 * Select the (REALM_ID, ROLE_KEY) pairs actively granted to a user (one bound user id) in the realms of the in clause.
+	 */
+	String getSelectRealmGrantedRolesSql(String realmInClause);
+
+	/**
+	 * Select the (REALM_ID, ROLE_KEY, FUNCTION_NAME) rows of the realms and functions of the in clauses, restricted to the role keys of the
+	 * role in clause.
+	 */
+	String getSelectRealmRoleFunctionsSql(String realmInClause, String functionInClause, String roleInClause);
+
 	String getDeleteRealmProvider1Sql();
 
 	String getDeleteRealmProvider2Sql();
@@ -162,4 +173,12 @@ public interface DbAuthzGroupSql
     String getDeleteRealmLocksForRealmWithReferenceSql();
 
     String getDeleteRealmLocksForRealmSql();
+
+    String getUpdateRealmRoleGroup1Sql();
+
+    String getInsertUserRefreshLockSql();
+
+    String getDeleteUserRefreshLockSql();
+
+    String getDeleteStaleUserRefreshLockSql();
 }
@@ -107,6 +107,21 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 				+ (isDelegated ? "":"		and GRANTS.ACTIVE = '1' and GRANTS.USER_ID = ?");
 	}
 
+	public String getSelectRealmGrantedRolesSql(String realmInClause)
+	{
+		return "select SAKAI_REALM.REALM_ID, SAKAI_REALM_RL_GR.ROLE_KEY from SAKAI_REALM_RL_GR "
+				+ "join SAKAI_REALM on SAKAI_REALM.REALM_KEY = SAKAI_REALM_RL_GR.REALM_KEY "
+				+ "where SAKAI_REALM_RL_GR.USER_ID = ? and SAKAI_REALM_RL_GR.ACTIVE = '1' and " + realmInClause;
+	}
+
+	public String getSelectRealmRoleFunctionsSql(String realmInClause, String functionInClause, String roleInClause)
+	{
+		return "select SAKAI_REALM.REALM_ID, SAKAI_REALM_RL_FN.ROLE_KEY, SAKAI_REALM_FUNCTION.FUNCTION_NAME from SAKAI_REALM_RL_FN "
+				+ "join SAKAI_REALM on SAKAI_REALM.REALM_KEY = SAKAI_REALM_RL_FN.REALM_KEY "
+				+ "join SAKAI_REALM_FUNCTION on SAKAI_REALM_FUNCTION.FUNCTION_KEY = SAKAI_REALM_RL_FN.FUNCTION_KEY "
+				+ "where " + realmInClause + " and " + functionInClause + " and " + roleInClause;
+	}
+
 	public String getDeleteRealmProvider1Sql()
 	{
 		return "DELETE FROM SAKAI_REALM_PROVIDER WHERE REALM_KEY IN (SELECT REALM_KEY FROM SAKAI_REALM WHERE REALM_ID = ?)";
@@ -556,4 +571,24 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 	public String getDeleteRealmLocksForRealmWithReferenceSql() {
 		return "DELETE FROM SAKAI_REALM_LOCKS WHERE REALM_KEY = (SELECT REALM_KEY FROM SAKAI_REALM WHERE REALM_ID = ?) AND REFERENCE = ?";
 	}
+
+	@Override
+	public String getUpdateRealmRoleGroup1Sql() {
+		return "update SAKAI_REALM_RL_GR set ROLE_KEY = (select ROLE_KEY from SAKAI_REALM_ROLE where ROLE_NAME = ?) where REALM_KEY = ? and USER_ID = ?";
+	}
+
+	@Override
+	public String getInsertUserRefreshLockSql() {
+		return "insert into SAKAI_LOCKS (TABLE_NAME, RECORD_ID, LOCK_TIME, USAGE_SESSION_ID) values (?, ?, ?, ?)";
+	}
+
+	@Override
+	public String getDeleteUserRefreshLockSql() {
+		return "delete from SAKAI_LOCKS where TABLE_NAME = ? and RECORD_ID = ?";
+	}
+
+	@Override
+	public String getDeleteStaleUserRefreshLockSql() {
+		return "delete from SAKAI_LOCKS where TABLE_NAME = ? and RECORD_ID = ? and LOCK_TIME < ?";
+	}
 }
@@ -103,6 +103,15 @@ public class DbAuthzGroupSqlMySql extends DbAuthzGroupSqlDefault
 				+ getCountRealmRoleFunctionEndSql(roleIds, inClause);
 	}
 	
+	@Override
+	public String getSelectRealmRoleFunctionsSql(String realmInClause, String functionInClause, String roleInClause)
+	{
+		return "select SAKAI_REALM.REALM_ID, SAKAI_REALM_RL_FN.ROLE_KEY, SAKAI_REALM_FUNCTION.FUNCTION_NAME from SAKAI_REALM_RL_FN "
+				+ "join SAKAI_REALM force index (AK_SAKAI_REALM_ID) on SAKAI_REALM.REALM_KEY = SAKAI_REALM_RL_FN.REALM_KEY "
+				+ "join SAKAI_REALM_FUNCTION on SAKAI_REALM_FUNCTION.FUNCTION_KEY = SAKAI_REALM_RL_FN.FUNCTION_KEY "
+				+ "where " + realmInClause + " and " + functionInClause + " and " + roleInClause;
+	}
+
 	@Override
 	public String getDeleteRealmRoleGroup4Sql()
 	{
@@ -0,0 +1,332 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A local cache of unlock decisions used by SakaiSecurity instead of string keyed cache entries.
+ * <p>
+ * User, function and realm ids are interned to ints. The decisions for one (user, realm) pair are held in a
+ * single entry, as a bitset of 2 bits per function (known, allowed), keyed by the two ints packed into a long.
+ * The entries are also indexed by realm and by user so invalidation only touches the affected entries.
+ * </p>
+ */
+@Slf4j
+public class PermissionDecisionCache
+{
+	private final long ttl;
+	private final int maxEntries;
+	private volatile State state = new State();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * @param ttl
+	 *        How long in ms a decision is kept.
+	 * @param maxEntries
+	 *        The max number of (user, realm) entries before the cache is emptied.
+	 */
+	public PermissionDecisionCache(long ttl, int maxEntries)
+	{
+		this.ttl = ttl;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the cached decision or null if there is none
+	 */
+	public Boolean get(String userId, String function, String realm)
+	{
+		State s = state;
+		int u = s.users.lookup(userId);
+		int f = s.functions.lookup(function);
+		int r = s.realms.lookup(realm);
+		if (u < 0 || f < 0 || r < 0)
+		{
+			misses.increment();
+			return null;
+		}
+
+		Entry entry = s.entries.get(key(u, r));
+		if (entry == null)
+		{
+			misses.increment();
+			return null;
+		}
+		if (entry.expires < System.currentTimeMillis())
+		{
+			s.remove(key(u, r), u, r);
+			evictions.increment();
+			misses.increment();
+			return null;
+		}
+
+		Boolean decision = entry.get(f);
+		if (decision == null)
+		{
+			misses.increment();
+		}
+		else
+		{
+			hits.increment();
+		}
+		return decision;
+	}
+
+	public void put(String userId, String function, String realm, boolean allowed)
+	{
+		final State s = state.entries.size() >= maxEntries ? evict(state) : state;
+
+		int u = s.users.intern(userId);
+		int f = s.functions.intern(function);
+		int r = s.realms.intern(realm);
+		long key = key(u, r);
+		long expires = System.currentTimeMillis() + ttl;
+		Entry entry = s.entries.computeIfAbsent(key, k -> {
+			s.byRealm.computeIfAbsent(r, i -> ConcurrentHashMap.newKeySet()).add(k);
+			s.byUser.computeIfAbsent(u, i -> ConcurrentHashMap.newKeySet()).add(k);
+			return new Entry(expires);
+		});
+		entry.set(f, allowed);
+	}
+
+	/**
+	 * Drop every decision made in this realm, for all users.
+	 */
+	public void invalidateRealm(String realm)
+	{
+		State s = state;
+		int r = s.realms.lookup(realm);
+		if (r < 0) return;
+
+		Set<Long> keys = s.byRealm.remove(r);
+		if (keys == null) return;
+		for (Long key : keys)
+		{
+			s.remove(key, (int) (key >>> 32), r);
+		}
+		invalidations.add(keys.size());
+	}
+
+	/**
+	 * Drop every decision made for this user, in all realms.
+	 */
+	public void invalidateUser(String userId)
+	{
+		State s = state;
+		int u = s.users.lookup(userId);
+		if (u < 0) return;
+
+		Set<Long> keys = s.byUser.remove(u);
+		if (keys == null) return;
+		for (Long key : keys)
+		{
+			s.remove(key, u, (int) (long) key);
+		}
+		invalidations.add(keys.size());
+	}
+
+	/**
+	 * Drop the decisions made for this user in this realm.
+	 */
+	public void invalidate(String userId, String realm)
+	{
+		State s = state;
+		int u = s.users.lookup(userId);
+		int r = s.realms.lookup(realm);
+		if (u < 0 || r < 0) return;
+
+		if (s.remove(key(u, r), u, r))
+		{
+			invalidations.increment();
+		}
+	}
+
+	/**
+	 * Drop everything, including the interned ids.
+	 */
+	public void clear()
+	{
+		invalidations.add(state.entries.size());
+		state = new State();
+	}
+
+	public int size()
+	{
+		return state.entries.size();
+	}
+
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	public long getInvalidations()
+	{
+		return invalidations.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		State s = state;
+		return "entries=" + s.entries.size() + ", users=" + s.users.size() + ", realms=" + s.realms.size()
+				+ ", functions=" + s.functions.size() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations();
+	}
+
+	/**
+	 * Remove the expired entries and if that isn't enough start again with an empty cache.
+	 */
+	private synchronized State evict(State s)
+	{
+		if (s != state || s.entries.size() < maxEntries) return state;
+
+		long now = System.currentTimeMillis();
+		int before = s.entries.size();
+		s.entries.forEach((key, entry) -> {
+			if (entry.expires < now)
+			{
+				s.remove(key, (int) (key >>> 32), (int) (long) key);
+			}
+		});
+		if (s.entries.size() >= maxEntries * 0.9)
+		{
+			state = new State();
+		}
+		evictions.add(before - state.entries.size());
+		log.debug("evicted {} permission decisions, {}", before - state.entries.size(), this);
+		return state;
+	}
+
+	private static long key(int user, int realm)
+	{
+		return ((long) user << 32) | (realm & 0xffffffffL);
+	}
+
+	/**
+	 * All the cached data, replaced as a whole on clear() so interned ids can never be reused with a different meaning.
+	 */
+	private static final class State
+	{
+		final Interner users = new Interner();
+		final Interner functions = new Interner();
+		final Interner realms = new Interner();
+		final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+		final Map<Integer, Set<Long>> byRealm = new ConcurrentHashMap<>();
+		final Map<Integer, Set<Long>> byUser = new ConcurrentHashMap<>();
+
+		boolean remove(long key, int user, int realm)
+		{
+			if (entries.remove(key) == null) return false;
+			Set<Long> keys = byRealm.get(realm);
+			if (keys != null) keys.remove(key);
+			keys = byUser.get(user);
+			if (keys != null) keys.remove(key);
+			return true;
+		}
+	}
+
+	/**
+	 * Maps strings to small ints, never forgets.
+	 */
+	private static final class Interner
+	{
+		private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+		private final AtomicInteger next = new AtomicInteger();
+
+		int lookup(String value)
+		{
+			Integer id = ids.get(value);
+			return id == null ? -1 : id;
+		}
+
+		int intern(String value)
+		{
+			return ids.computeIfAbsent(value, v -> next.getAndIncrement());
+		}
+
+		int size()
+		{
+			return ids.size();
+		}
+	}
+
+	/**
+	 * The decisions for one (user, realm) pair, bit 2n is set if function n is known and bit 2n+1 if it is allowed.
+	 */
+	private static final class Entry
+	{
+		final long expires;
+		private long[] bits = new long[2];
+
+		Entry(long expires)
+		{
+			this.expires = expires;
+		}
+
+		synchronized Boolean get(int function)
+		{
+			int bit = function * 2;
+			int word = bit >>> 6;
+			if (word >= bits.length) return null;
+			long value = bits[word];
+			if ((value & (1L << bit)) == 0) return null;
+			return (value & (1L << (bit + 1))) != 0;
+		}
+
+		synchronized void set(int function, boolean allowed)
+		{
+			int bit = function * 2;
+			int word = bit >>> 6;
+			if (word >= bits.length)
+			{
+				long[] grown = new long[Math.max(word + 1, bits.length * 2)];
+				System.arraycopy(bits, 0, grown, 0, bits.length);
+				bits = grown;
+			}
+			bits[word] |= 1L << bit;
+			if (allowed)
+			{
+				bits[word] |= 1L << (bit + 1);
+			}
+			else
+			{
+				bits[word] &= ~(1L << (bit + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counts for the realm refresh queue, with latency percentiles over a window of the most recent refreshes.
+ * Published over JMX as org.sakaiproject:name=AuthzGroupRefresh.
+ */
+public class RealmRefreshStats implements RealmRefreshStatsMXBean
+{
+	private final IntSupplier queueDepth;
+	private final long[] window;
+	private int next = 0;
+	private int size = 0;
+
+	private final AtomicInteger running = new AtomicInteger();
+	private final LongAdder refreshed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder deferred = new LongAdder();
+	private final LongAdder userRefreshes = new LongAdder();
+	private final LongAdder userRefreshStatements = new LongAdder();
+	private final LongAdder userRefreshesCoalesced = new LongAdder();
+
+	/**
+	 * @param windowSize
+	 *        The number of recent refresh times the percentiles are taken over.
+	 * @param queueDepth
+	 *        Supplies the current number of queued realms.
+	 */
+	public RealmRefreshStats(int windowSize, IntSupplier queueDepth)
+	{
+		this.window = new long[Math.max(1, windowSize)];
+		this.queueDepth = queueDepth;
+	}
+
+	/** A refresh has been started. */
+	public void started()
+	{
+		running.incrementAndGet();
+	}
+
+	/**
+	 * A refresh has finished.
+	 *
+	 * @param millis
+	 *        How long it took.
+	 * @param ok
+	 *        false if it failed.
+	 */
+	public void finished(long millis, boolean ok)
+	{
+		running.decrementAndGet();
+		refreshed.increment();
+		if (!ok) failed.increment();
+		synchronized (window)
+		{
+			window[next] = millis;
+			next = (next + 1) % window.length;
+			if (size < window.length) size++;
+		}
+	}
+
+	/**
+	 * Realms were left queued for the next run.
+	 */
+	public void deferred(int count)
+	{
+		deferred.add(count);
+	}
+
+	/**
+	 * A user's grants were refreshed.
+	 *
+	 * @param statements
+	 *        The number of sql statements and batches it took.
+	 */
+	public void userRefreshed(int statements)
+	{
+		userRefreshes.increment();
+		userRefreshStatements.add(statements);
+	}
+
+	/**
+	 * A user refresh was skipped as the same user was being refreshed already.
+	 */
+	public void userRefreshCoalesced()
+	{
+		userRefreshesCoalesced.increment();
+	}
+
+	/**
+	 * @param percentile
+	 *        0 - 100
+	 * @return the refresh time in ms at the percentile, over the recent window, 0 if nothing was refreshed yet.
+	 */
+	public long getLatency(double percentile)
+	{
+		long[] sorted;
+		synchronized (window)
+		{
+			if (size == 0) return 0;
+			sorted = Arrays.copyOf(window, size);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+		return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+		return queueDepth.getAsInt();
+	}
+
+	@Override
+	public int getRunning()
+	{
+		return running.get();
+	}
+
+	@Override
+	public long getRefreshed()
+	{
+		return refreshed.sum();
+	}
+
+	@Override
+	public long getFailed()
+	{
+		return failed.sum();
+	}
+
+	@Override
+	public long getDeferred()
+	{
+		return deferred.sum();
+	}
+
+	@Override
+	public long getUserRefreshes()
+	{
+		return userRefreshes.sum();
+	}
+
+	@Override
+	public long getUserRefreshStatements()
+	{
+		return userRefreshStatements.sum();
+	}
+
+	@Override
+	public long getUserRefreshesCoalesced()
+	{
+		return userRefreshesCoalesced.sum();
+	}
+
+	@Override
+	public long getLatencyP50()
+	{
+		return getLatency(50);
+	}
+
+	@Override
+	public long getLatencyP95()
+	{
+		return getLatency(95);
+	}
+
+	@Override
+	public long getLatencyP99()
+	{
+		return getLatency(99);
+	}
+
+	@Override
+	public long getLatencyMax()
+	{
+		return getLatency(100);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "queued: " + getQueueDepth() + ", refreshed: " + getRefreshed() + ", failed: " + getFailed()
+				+ ", p50: " + getLatencyP50() + "ms, p95: " + getLatencyP95() + "ms, p99: " + getLatencyP99()
+				+ "ms, max: " + getLatencyMax() + "ms";
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+/**
+ * The realm refresh counts published over JMX, as org.sakaiproject:name=AuthzGroupRefresh.
+ * Latencies are in ms over the most recent refreshes.
+ */
+public interface RealmRefreshStatsMXBean
+{
+	/** Realms waiting to be refreshed. */
+	int getQueueDepth();
+
+	/** Refreshes in progress. */
+	int getRunning();
+
+	/** Refreshes done since startup. */
+	long getRefreshed();
+
+	/** Refreshes that failed since startup. */
+	long getFailed();
+
+	/** Realms left in the queue at the end of a run because the run was out of time. */
+	long getDeferred();
+
+	/** Users whose grants were refreshed on login since startup. */
+	long getUserRefreshes();
+
+	/** The sql statements and batches those user refreshes took. */
+	long getUserRefreshStatements();
+
+	/** User refreshes skipped as the same user was being refreshed already. */
+	long getUserRefreshesCoalesced();
+
+	long getLatencyP50();
+
+	long getLatencyP95();
+
+	long getLatencyP99();
+
+	long getLatencyMax();
+}
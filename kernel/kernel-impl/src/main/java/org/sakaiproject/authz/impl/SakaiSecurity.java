@@ -22,7 +22,6 @@
 package org.sakaiproject.authz.impl;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,6 +29,7 @@ import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 
 import org.sakaiproject.authz.api.*;
 import org.sakaiproject.component.api.ServerConfigurationService;
@@ -179,6 +179,11 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 			m_callCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.cache");
 			m_superCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.superCache");
 			m_contentCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.contentCache");
+
+			if (serverConfigurationService.getBoolean("memory.SecurityService.decisionCache", true)) {
+				int maxEntries = serverConfigurationService.getInt("memory.SecurityService.decisionCache.maxEntries", 100000);
+				m_decisionCache = new PermissionDecisionCache(m_cacheMinutes * 60L * 1000L, maxEntries > 0 ? maxEntries : 100000);
+			}
 		}
         eventTrackingService().addObserver(this);
 	}
@@ -193,6 +198,11 @@ public abstract class SakaiSecurity implements SecurityService, Observer
      * Only used in the new caching system
      */
     Cache<String, Boolean> m_contentCache;
+    /**
+     * Local cache of the unlock decisions for everything except content, replaces m_callCache lookups when enabled
+     * memory.SecurityService.decisionCache=true
+     */
+    PermissionDecisionCache m_decisionCache;
 
     /**
      * KNL-1230
@@ -288,6 +298,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                 if (permissions != null && !permissions.isEmpty()) {
                     // when the !site.helper or !user.template change then we need to just wipe the entire cache, this is a rare event
                     m_callCache.clear();
+                    if (m_decisionCache != null) m_decisionCache.clear();
                     if (cacheDebug) log.info("SScache:changed template:CLEAR:"+ref);
                     return true;
                 }
@@ -345,12 +356,25 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     }
 
     /**
-     * Removes the specified users site visit permission from the call cache
+     * Removes the specified users site visit permission from the call cache, including the decisions cached while
+     * they were swapped in to one of the student view roles
      */
     protected void notifyMembersRemovedFromRealm(Set<String> userIds, String azgRef) {
+        if (m_callCache == null) return; // do nothing no cache in use
+
+        if (m_decisionCache != null) {
+            for (String uid : userIds) {
+                m_decisionCache.invalidate(uid, azgRef);
+                svRoles.forEach(role -> m_decisionCache.invalidate(uid + "@" + role, azgRef));
+            }
+        }
 
-        m_callCache.removeAll(userIds.stream().map(
-            uid -> makeCacheKey(uid, null, SiteService.SITE_VISIT, azgRef, false)).collect(Collectors.toSet()));
+        Set<String> keysToInvalidate = new HashSet<>();
+        for (String uid : userIds) {
+            keysToInvalidate.add(makeCacheKey(uid, null, SiteService.SITE_VISIT, azgRef, false));
+            svRoles.forEach(role -> keysToInvalidate.add(makeCacheKey(uid, role, SiteService.SITE_VISIT, azgRef, false)));
+        }
+        m_callCache.removeAll(keysToInvalidate);
     }
 
     /* Don't think we need this right now but leaving it for future ref just in case -AZ
@@ -387,6 +411,10 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     void cacheRealmPermsChanged(String realmRef, Set<String> roles, Set<String> permissions) {
         if (m_callCache == null) return; // do nothing if no cache in use
         String azgRef = convertRealmRefToRef(realmRef);
+        if (m_decisionCache != null) {
+            // every decision is indexed by realm so nothing more is needed for the decision cache
+            m_decisionCache.invalidateRealm(azgRef);
+        }
         if (permissions == null || permissions.isEmpty()) {
             List<String> allPerms = functionManager().getRegisteredFunctions();
             permissions = new HashSet<String>(allPerms);
@@ -521,6 +549,18 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         }
 	if (role == null)
 	    role = "";
+        reference = makeCacheReference(userId, reference);
+        // NOTE: userId can be null for this, others cannot be
+        return "unlock@" + userId +"@" + role + "@" + function + "@" + reference;
+    }
+
+    /**
+     * Convert a reference to the realm reference used in cache keys
+     * @param userId the internal sakai user ID (can be null)
+     * @param reference the entity reference
+     * @return the site realm reference for entities within a site, otherwise the reference
+     */
+    String makeCacheReference(String userId, String reference) {
         // SPECIAL conversion to reduce duplicate caching data
         if (!reference.startsWith("/site") && !reference.startsWith("/content")) {
             // try to convert this from a special reference down to the authzgroup ref
@@ -534,8 +574,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                 }
             }
         }
-        // NOTE: userId can be null for this, others cannot be
-        return "unlock@" + userId +"@" + role + "@" + function + "@" + reference;
+        return reference;
     }
 
     // KNL-1230 added to assist with debugging caching issues
@@ -600,6 +639,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         if (m_callCache != null) m_callCache.close();
         if (m_superCache != null) m_superCache.close();
         if (m_contentCache != null) m_contentCache.close();
+        if (m_decisionCache != null) log.info("SScache:decisions: {}", m_decisionCache);
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
@@ -729,6 +769,75 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		return checkAuthzGroups(userId, function, entityRef, azgs);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<Pair<String, String>, Boolean> unlock(String userId, Collection<Pair<String, String>> checks)
+	{
+		Map<Pair<String, String>, Boolean> rv = new LinkedHashMap<>();
+		if (userId == null || checks == null) return rv;
+
+		// if super, grant
+		if (isSuperUser(userId))
+		{
+			checks.forEach(check -> rv.put(check, Boolean.TRUE));
+			return rv;
+		}
+
+		// answer what the advisors and caches can, and batch the rest into one AuthzGroup query
+		List<Pair<String, String>> misses = new ArrayList<>();
+		List<String> missRoleswaps = new ArrayList<>();
+		List<Pair<String, Collection<String>>> batch = new ArrayList<>();
+		boolean advisors = hasAdvisors();
+		for (Pair<String, String> check : checks)
+		{
+			String function = check.getLeft();
+			String entityRef = check.getRight();
+			if (rv.containsKey(check)) continue;
+			if (function == null || entityRef == null)
+			{
+				log.warn("unlock(): null: " + userId + " " + function + " " + entityRef);
+				rv.put(check, Boolean.FALSE);
+				continue;
+			}
+			if (advisors)
+			{
+				SecurityAdvisor.SecurityAdvice advice = adviseIsAllowed(userId, function, entityRef);
+				if (advice != SecurityAdvisor.SecurityAdvice.PASS)
+				{
+					rv.put(check, advice == SecurityAdvisor.SecurityAdvice.ALLOWED);
+					continue;
+				}
+			}
+
+			Collection<String> azgs = entityManager().newReference(entityRef).getAuthzGroups(userId);
+			String roleswap = getCacheRoleswap(userId, azgs);
+			Boolean value = getCachedDecision(userId, roleswap, function, entityRef);
+			if (value != null)
+			{
+				rv.put(check, value);
+				continue;
+			}
+			rv.put(check, null);
+			misses.add(check);
+			missRoleswaps.add(roleswap);
+			batch.add(Pair.of(function, azgs));
+		}
+
+		if (!batch.isEmpty())
+		{
+			List<Boolean> allowed = authzGroupService().isAllowed(userId, batch);
+			for (int i = 0; i < misses.size(); i++)
+			{
+				Pair<String, String> check = misses.get(i);
+				boolean value = allowed.get(i);
+				rv.put(check, value);
+				cacheDecision(userId, missRoleswaps.get(i), check.getLeft(), check.getRight(), value);
+			}
+		}
+		return rv;
+	}
+
 	/**
 	 * Check the appropriate AuthzGroups for the answer - this may be cached
 	 * 
@@ -753,7 +862,23 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 
 		// need to know whether role swap is in effect, since we can't share the cache entry between sessions
 		// that are swapped and not swapped
+		String roleswap = getCacheRoleswap(userId, azgs);
+
+		Boolean value = getCachedDecision(userId, roleswap, function, entityRef);
+		if (value != null) return value;
+
+		boolean rv = authzGroupService().isAllowed(userId, function, azgs);
+		cacheDecision(userId, roleswap, function, entityRef, rv);
+		return rv;
+	}
 
+	/**
+	 * Find the role swapped into for the site among these AuthzGroups, so the cached decision can be kept apart from the unswapped one
+	 *
+	 * @return the swapped role, or null if none is in effect for the current user.
+	 */
+	protected String getCacheRoleswap(String userId, Collection<String> azgs)
+	{
 		String siteRef = null;
 		String roleswap = null;
 
@@ -786,23 +911,42 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		    }
 
 		}
+		return roleswap;
+	}
+
+	/**
+	 * @return the cached decision for this check, or null if it is not cached
+	 */
+	protected Boolean getCachedDecision(String userId, String roleswap, String function, String entityRef)
+	{
+		// check the decision cache, content is left to m_contentCache as its realms inherit from parent collections
+		if (m_decisionCache != null && function != null && !entityRef.startsWith("/content")) {
+			String userKey = roleswap == null ? userId : userId + "@" + roleswap;
+			return m_decisionCache.get(userKey, function, makeCacheReference(userId, entityRef));
+		}
 
 		// check the cache
-		String command = makeCacheKey(userId, roleswap, function, entityRef, false);
-		
 		if (m_callCache != null)
 		{
-			final Boolean value = getFromCache(command, false);
-			if(value != null) return value.booleanValue();
+			return getFromCache(makeCacheKey(userId, roleswap, function, entityRef, false), false);
 		}
+		return null;
+	}
 
-
-		boolean rv = authzGroupService().isAllowed(userId, function, azgs);
+	/**
+	 * Cache the decision for this check where {@link #getCachedDecision(String, String, String, String)} will find it
+	 */
+	protected void cacheDecision(String userId, String roleswap, String function, String entityRef, boolean rv)
+	{
+		if (m_decisionCache != null && function != null && !entityRef.startsWith("/content")) {
+			String userKey = roleswap == null ? userId : userId + "@" + roleswap;
+			m_decisionCache.put(userKey, function, makeCacheReference(userId, entityRef), rv);
+			if (cacheDebugDetailed) log.info("SScache:decisions: {}", m_decisionCache);
+			return;
+		}
 
 		// cache
-		addToCache(command, rv, false);
-
-		return rv;
+		addToCache(makeCacheKey(userId, roleswap, function, entityRef, false), rv, false);
 	}
 
 	/**
@@ -1061,6 +1205,22 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		}
 
 		Event event = (Event) obj;
+
+		// realm changes made on other servers only reach the local decision cache through their events
+		if (m_decisionCache != null && event.getModify() && event.getResource() != null) {
+			String function = event.getEvent();
+			if (AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP.equals(function)
+					|| AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP.equals(function)
+					|| AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP.equals(function)
+					|| EVENT_ROLESWAP_CLEAR.equals(function)) {
+				String ref = convertRealmRefToRef(event.getResource());
+				if ("!site.helper".equals(ref) || ref.startsWith("!user.template")) {
+					m_decisionCache.clear();
+				} else {
+					m_decisionCache.invalidateRealm(ref);
+				}
+			}
+		}
 		
 		if (SiteService.EVENT_SITE_USER_INVALIDATE.equals(event.getEvent()))
 		{
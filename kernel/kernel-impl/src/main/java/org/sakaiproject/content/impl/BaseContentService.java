@@ -36,6 +36,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -51,6 +53,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
@@ -107,6 +110,7 @@ import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentFilterService;
 import org.sakaiproject.content.api.ContentHostingHandler;
 import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentMemberSummary;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
 import org.sakaiproject.content.api.ContentTypeImageService;
@@ -2333,6 +2337,67 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
 	} // getCollection
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<ContentEntity> getMemberResources(String id, String afterId, int limit) throws IdUnusedException, TypeException, PermissionException
+	{
+		ContentCollection collection = getCollection(id);
+		if (limit > MAXIMUM_PAGE_SIZE) limit = MAXIMUM_PAGE_SIZE;
+
+		List<ContentEntity> page = new ArrayList<>();
+		int read = 0;
+
+		// collection ids end with the separator and resource ids never do, so the last id says which run the page continues
+		if (afterId == null || afterId.endsWith(Entity.SEPARATOR))
+		{
+			List<ContentCollectionEdit> collections = m_storage.getCollections(collection, afterId, limit);
+			read = collections.size();
+			page.addAll(collections);
+			afterId = null;
+		}
+		if (read < limit)
+		{
+			page.addAll(m_storage.getResources(collection, afterId, limit - read));
+		}
+
+		// rows that could not be read come back as nulls
+		page.removeIf(Objects::isNull);
+		return page;
+
+	} // getMemberResources
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<ContentMemberSummary> getMemberSummaries(String id, String afterId, int limit) throws IdUnusedException, TypeException, PermissionException
+	{
+		ContentCollection collection = getCollection(id);
+		if (limit > MAXIMUM_PAGE_SIZE) limit = MAXIMUM_PAGE_SIZE;
+
+		List<ContentMemberSummary> page = new ArrayList<>();
+		int read = 0;
+
+		if (afterId == null || afterId.endsWith(Entity.SEPARATOR))
+		{
+			List<String> collectionIds = m_storage.getMemberCollectionIds(collection, afterId, limit);
+			read = collectionIds.size();
+			for (String collectionId : collectionIds)
+			{
+				page.add(collectionId == null ? null : new ContentMemberSummary(collectionId, true, 0L, null));
+			}
+			afterId = null;
+		}
+		if (read < limit)
+		{
+			page.addAll(m_storage.getMemberResourceSummaries(collection, afterId, limit - read));
+		}
+
+		page.removeIf(Objects::isNull);
+		return page;
+
+	} // getMemberSummaries
+
 	/**
 	 * Access a List of ContentEntity objects (resources and collections) in this path (and below) if the current user has access to the collection.
 	 * 
@@ -5698,9 +5763,12 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 				    ((BaseResourceEdit)edit).setReferenceCopy(resource.getId());
                     if (log.isDebugEnabled()) log.debug("copyResource doing a reference copy of "+resource.getId());
 				} else {
-	                // use stream instead of byte array
+	                // use stream instead of byte array, unless the body can be shared
 	                // edit.setContent(resource.getContent());
-	                edit.setContent(resource.streamContent());
+	                if (!m_storage.shareResourceBody(resource, edit))
+	                {
+	                    edit.setContent(resource.streamContent());
+	                }
                     if (log.isDebugEnabled()) log.debug("copyResource doing a normal copy");
 				}
 
@@ -6242,6 +6310,24 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		return updated;
 	}
 
+	/**
+	 * Drop the copies of a resource changed directly in storage, rather than committed through the service, from the
+	 * thread-local caches and post the change, so nothing goes on using what it held before.
+	 * 
+	 * @param resource
+	 *        The resource as it now is in storage.
+	 */
+	protected void resourceChangedInStorage(ContentResource resource)
+	{
+		threadLocalManager.set("findResource@" + resource.getId(), null);
+		String containerId = isolateContainingId(resource.getId());
+		threadLocalManager.set("findCollection@" +  containerId, null);
+		threadLocalManager.set("members@" + containerId, null);
+		threadLocalManager.set("getResources@" + containerId, null);
+
+		eventTrackingService.post(eventTrackingService.newEvent(EVENT_RESOURCE_WRITE, resource.getReference(), true, NotificationService.NOTI_NONE));
+	}
+
 	/**
 	 * Commit the changes made, and release the lock - no quota check. The Object is disabled, and not to be used after this call.
 	 * 
@@ -7084,9 +7170,15 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 					contentType = contentType + "; charset=" + encoding;
 				}
 
+				// the entity tag lets clients revalidate and resume without relying on the clock
+				String etag = ResourceBodyTransfer.etag(resource.getId(), lastModTime, len);
+				res.addHeader("ETag", etag);
+
 				// KNL-1316 let's see if the user already has a cached copy. Code copied and modified from Tomcat DefaultServlet.java
-				long headerValue = req.getDateHeader("If-Modified-Since");
-				if (headerValue != -1 && (lastModTime < headerValue + 1000)) {
+				// If-None-Match takes precedence over If-Modified-Since
+				String ifNoneMatch = req.getHeader("If-None-Match");
+				long headerValue = ifNoneMatch == null ? req.getDateHeader("If-Modified-Since") : -1;
+				if (ResourceBodyTransfer.matches(ifNoneMatch, etag, true) || (headerValue != -1 && (lastModTime < headerValue + 1000))) {
 					// The entity has not been modified since the date specified by the client. This is not an error case.
 					res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
 					return; 
@@ -7096,9 +7188,15 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 				// Send the asset directly to the load-balancer or to the client
 				URI directLinkUri = m_storage.getDirectLink(resource);
 
-				ArrayList<Range> ranges = parseRange(req, res, len);
+				// a file system body can be handed to the container or transferred without passing through the heap
+				Path bodyPath = directLinkUri == null && m_serverConfigurationService.getBoolean("content.stream.zerocopy", true)
+						? m_storage.getResourceBodyPath(resource) : null;
+				boolean head = "HEAD".equalsIgnoreCase(req.getMethod());
+
+				// only honour the range if the client's copy is still current
+				ArrayList<Range> ranges = isIfRangeCurrent(req, etag, lastModTime) ? parseRange(req, res, len) : null;
 				if (directLinkUri != null || req.getHeader("Range") == null || (ranges == null) || (ranges.isEmpty())) {
-					res.addHeader("Accept-Ranges", "none");
+					res.addHeader("Accept-Ranges", directLinkUri == null ? "bytes" : "none");
 					res.setContentType(contentType);
 					res.addHeader("Content-Disposition", disposition);
 					// http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4187336
@@ -7108,6 +7206,9 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 						res.addHeader("Content-Length", Long.toString(len));
 					}
 					
+					// a HEAD request only wants the headers
+					if (head) return;
+
 					// SAK-30455: Track event now so the direct link still records a content.read
 					eventTrackingService.post(eventTrackingService.newEvent(EVENT_RESOURCE_READ, resource.getReference(null), false));
 
@@ -7131,6 +7232,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 						}
 					}
 
+					if (bodyPath != null && sendFile(req, res, bodyPath, 0, len - 1)) return;
+
 					// stream the content using a small buffer to keep memory managed
 					InputStream content = null;
 					OutputStream out = null;
@@ -7214,6 +7317,9 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		                    res.setContentType(contentType);
 		                }
 
+		                if (head) return;
+		                if (bodyPath != null && sendFile(req, res, bodyPath, range.start, range.end)) return;
+
 						// stream the content using a small buffer to keep memory managed
 						InputStream content = null;
 						OutputStream out = null;
@@ -7283,6 +7389,8 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
 		            	res.setContentType("multipart/byteranges; boundary=" + MIME_SEPARATOR);
 
+		            	if (head) return;
+
 						// stream the content using a small buffer to keep memory managed
 						OutputStream out = null;
 		
@@ -7300,7 +7408,17 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		
 							out = res.getOutputStream();
 
-			            	copyRanges(resource, out, ranges.iterator(), contentType);
+							if (bodyPath != null)
+							{
+								try (FileChannel channel = FileChannel.open(bodyPath))
+								{
+									copyRanges(channel, out, ranges.iterator(), contentType);
+								}
+							}
+							else
+							{
+								copyRanges(resource, out, ranges.iterator(), contentType);
+							}
 
 						}
 						catch (SocketException e)
@@ -12310,6 +12428,9 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		 * this id will be the resource it is a copy of
 		 */
 		protected String referenceCopy = null;
+
+		/** When true, the body is the shared file at m_filePath and committing only takes a reference to it */
+		protected boolean m_sharedBody = false;
         /**
          * Indicates this resource is a reference copy of an existing resource,
          * this id will be the resource it is a copy of
@@ -13540,6 +13661,25 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		 */
 		public URI getDirectLink(ContentResource resource);
 
+		/**
+		 * Get the local file holding the resource's body so it can be delivered without streaming it through the heap.
+		 * @param resource
+		 * @return the path, or null if the body is not held in a local file exactly as stored
+		 */
+		public Path getResourceBodyPath(ContentResource resource);
+
+		/**
+		 * Have a copy of a resource refer to the source's body rather than copying it, when the storage shares
+		 * identical bodies.
+		 * 
+		 * @param source
+		 *        The resource being copied.
+		 * @param edit
+		 *        The copy.
+		 * @return true if the copy will share the body, false if the body must be copied
+		 */
+		public boolean shareResourceBody(ContentResource source, ContentResourceEdit edit);
+
 		/**
 		 * Get a count of all members of a collection, where 'member' means the collection
 		 * is the immediate parent of the item.  The count is not recursive and it will 
@@ -13584,6 +13724,17 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		 */
 		public List<ContentCollectionEdit> getCollections(ContentCollection collection);
 
+		/**
+		 * Get a page of the collections within a collection, in id order and starting after afterId (or from the first if null).
+		 * The page is shorter than limit only when it reaches the last of the collections.
+		 */
+		public List<ContentCollectionEdit> getCollections(ContentCollection collection, String afterId, int limit);
+
+		/**
+		 * Get a page of the ids of the collections within a collection, paged as getCollections(collection, afterId, limit).
+		 */
+		public List<String> getMemberCollectionIds(ContentCollection collection, String afterId, int limit);
+
 		/**
 		 * Keep a new collection.
 		 */
@@ -13625,6 +13776,17 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 		 */
 		public List<ContentResourceEdit> getResources(ContentCollection collection);
 
+		/**
+		 * Get a page of the resources within a collection, in id order and starting after afterId (or from the first if null).
+		 * The page is shorter than limit only when it reaches the last of the resources.
+		 */
+		public List<ContentResourceEdit> getResources(ContentCollection collection, String afterId, int limit);
+
+		/**
+		 * Get a page of summaries of the resources within a collection, paged as getResources(collection, afterId, limit).
+		 */
+		public List<ContentMemberSummary> getMemberResourceSummaries(ContentCollection collection, String afterId, int limit);
+
 		/**
 		 * 
 		 * @param collectionId
@@ -14104,6 +14266,57 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
         return result;
     }
 
+    /**
+     * Check an If-Range header, if any, against the current entity.
+     *
+     * @return true if there is no If-Range header or it matches, false if the whole entity should be sent
+     */
+    protected boolean isIfRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+        String headerValue = request.getHeader("If-Range");
+        if (headerValue == null) {
+            return true;
+        }
+        headerValue = headerValue.trim();
+        if (headerValue.startsWith("\"") || headerValue.startsWith("W/")) {
+            // ranges need a strong validator
+            return ResourceBodyTransfer.matches(headerValue, etag, false);
+        }
+        try {
+            long headerValueTime = request.getDateHeader("If-Range");
+            return lastModified > 0 && lastModified <= headerValueTime + 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Deliver a byte range of a body file, through the container's sendfile support if it has it and the range is
+     * large enough to benefit, otherwise by transferring from the file channel.
+     *
+     * @return true if delivered, false if the file could not be opened and the body should be streamed instead
+     */
+    protected boolean sendFile(HttpServletRequest req, HttpServletResponse res, Path file, long start, long end) {
+        if (end - start + 1 >= m_serverConfigurationService.getInt("content.stream.sendfile.min", 48 * 1024)
+                && ResourceBodyTransfer.sendfile(req, file, start, end)) {
+            return true;
+        }
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file);
+        } catch (IOException e) {
+            log.warn("Could not open body file {}, streaming instead: {}", file, e.toString());
+            return false;
+        }
+        try (FileChannel c = channel; OutputStream out = res.getOutputStream()) {
+            ResourceBodyTransfer.transfer(c, out, start, end);
+        } catch (IOException e) {
+            // usually the client aborted the connection
+            log.debug("Transfer of {} ended early: {}", file, e.toString());
+        }
+        return true;
+    }
+
     /**
      * Copy the partial contents of the specified input stream to the specified
      * output stream.
@@ -14171,14 +14384,7 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
             Range currentRange = (Range) ranges.next();
                   
-            // Writing MIME header.
-            IOUtils.write("\r\n--" + MIME_SEPARATOR + "\r\n", out);
-            if (contentType != null)
-                IOUtils.write("Content-Type: " + contentType + "\r\n", out);
-            IOUtils.write("Content-Range: bytes " + currentRange.start
-                           + "-" + currentRange.end + "/"
-                           + currentRange.length + "\r\n", out);
-            IOUtils.write("\r\n", out);
+            writeRangeHeader(out, currentRange, contentType);
 
             // Printing content
 			InputStream in = null;
@@ -14209,6 +14415,36 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
         }
     }
 
+    /**
+     * Copy the ranges of a body file as multipart chunks, positioning the one channel for each range rather than
+     * reopening and skipping through the body.
+     */
+    protected void copyRanges(FileChannel channel, OutputStream out,
+                      Iterator ranges, String contentType)
+        throws IOException {
+
+        while (ranges.hasNext()) {
+            Range currentRange = (Range) ranges.next();
+            writeRangeHeader(out, currentRange, contentType);
+            ResourceBodyTransfer.transfer(channel, out, currentRange.start, currentRange.end);
+        }
+
+        IOUtils.write("\r\n--" + MIME_SEPARATOR + "--\r\n", out);
+    }
+
+    /**
+     * Write the MIME header of a multipart range chunk.
+     */
+    protected void writeRangeHeader(OutputStream out, Range range, String contentType) throws IOException {
+        IOUtils.write("\r\n--" + MIME_SEPARATOR + "\r\n", out);
+        if (contentType != null)
+            IOUtils.write("Content-Type: " + contentType + "\r\n", out);
+        IOUtils.write("Content-Range: bytes " + range.start
+                       + "-" + range.end + "/"
+                       + range.length + "\r\n", out);
+        IOUtils.write("\r\n", out);
+    }
+
 	/**
 	 * Establish a security advisor to allow the "embedded" azg work to occur with no need for additional security permissions.
 	 */
@@ -14266,17 +14502,21 @@ SiteContentAdvisorProvider, SiteContentAdvisorTypeRegistry, HardDeleteAware
 
             // Get a context
             ContentResourceEdit resource = editResource(resourceId);
-            // Set the updated length for quota checking
-            resource.setContentLength(totalSize);
-            if (log.isDebugEnabled()) log.debug(String.format("Resource is: [%s] Size is [%d]",resourceId, totalSize));
-            // check for over quota.
-            if (overQuota(resource)) {
-                log.error("Zip file for resource ("+resourceId+") would be too large after unzip so it cannot be expanded, totalSize("+totalSize+") exceeds the resource quota");
-                throw new OverQuotaException(resource.getReference());
+            try {
+                // Set the updated length for quota checking
+                resource.setContentLength(totalSize);
+                if (log.isDebugEnabled()) log.debug(String.format("Resource is: [%s] Size is [%d]",resourceId, totalSize));
+                // check for over quota.
+                if (overQuota(resource)) {
+                    log.error("Zip file for resource ("+resourceId+") would be too large after unzip so it cannot be expanded, totalSize("+totalSize+") exceeds the resource quota");
+                    throw new OverQuotaException(resource.getReference());
+                }
+                // zip files are not too large to extract so do the extract
+                extractZipArchive.extractArchive(resourceId);
+            } finally {
+                // release the lock on the zip whether or not it was extracted
+                cancelResource(resource); //commitResource(resource); // KNL-1220
             }
-            // zip files are not too large to extract so do the extract
-            extractZipArchive.extractArchive(resourceId);
-            cancelResource(resource); //commitResource(resource); // KNL-1220
         }
     }
     
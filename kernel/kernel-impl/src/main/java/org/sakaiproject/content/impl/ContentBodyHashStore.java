@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.sakaiproject.content.api.ContentBodyStore;
+import org.sakaiproject.content.api.FileSystemHandler;
+import org.sakaiproject.db.api.SqlService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reference counted sharing of file system resource bodies by their SHA-256 hash.
+ * <p>
+ * A body is written to the resource's own file path as usual while it is hashed. If a body with the same hash is
+ * already in the store the new file is dropped and the resource points at the shared file, otherwise the new file is
+ * registered as the shared copy. Files are never removed while referenced, a shared file is only deleted by
+ * {@link #reclaim(ContentBodyStore.Report)} once it has no references. Reclaiming first marks the row (REF_COUNT -1) so
+ * it can no longer be shared, which keeps it safe against writers sharing the same body at the same time.
+ */
+@Slf4j
+class ContentBodyHashStore
+{
+	static final String ALGORITHM = "SHA-256";
+
+	private final SqlService sqlService;
+	private final ContentServiceSql sql;
+	private final FileSystemHandler handler;
+	private final String bodyPath;
+
+	ContentBodyHashStore(SqlService sqlService, ContentServiceSql sql, FileSystemHandler handler, String bodyPath)
+	{
+		this.sqlService = sqlService;
+		this.sql = sql;
+		this.handler = handler;
+		this.bodyPath = bodyPath;
+	}
+
+	/**
+	 * Write a body, sharing the stored file if an identical body is already in the store.
+	 *
+	 * @param id the resource id
+	 * @param filePath the resource's own file path, which must not be a shared file
+	 * @param stream the body
+	 * @return where the body is now stored
+	 */
+	Stored put(String id, String filePath, InputStream stream) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		long length = handler.saveInputStream(id, bodyPath, filePath, new DigestInputStream(stream, digest));
+		if (length <= 0) return new Stored(filePath, length, false);
+
+		String hash = Hex.encodeHexString(digest.digest());
+		String sharedPath = share(hash);
+		if (sharedPath == null)
+		{
+			if (register(hash, filePath, length)) return new Stored(filePath, length, true);
+
+			// someone else registered the same body meanwhile, or it is being reclaimed and we keep our own file
+			sharedPath = share(hash);
+			if (sharedPath == null) return new Stored(filePath, length, false);
+		}
+		handler.delete(id, bodyPath, filePath);
+		return new Stored(sharedPath, length, true);
+	}
+
+	/**
+	 * Bring an existing body file into the store.
+	 *
+	 * @return the path of the identical shared file the resource should move to (holding a reference for it), the
+	 *         resource's own path if its file is now the shared copy, or null if it should be left alone.
+	 */
+	String adopt(String id, String filePath) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		long length;
+		try (InputStream in = new DigestInputStream(handler.getInputStream(id, bodyPath, filePath), digest))
+		{
+			length = IOUtils.copyLarge(in, new NullOutputStream());
+		}
+		if (length <= 0) return null;
+
+		String hash = Hex.encodeHexString(digest.digest());
+		String sharedPath = share(hash);
+		if (sharedPath != null) return sharedPath;
+		if (register(hash, filePath, length)) return filePath;
+		return share(hash);
+	}
+
+	/**
+	 * @return true if this file path is a shared file with references
+	 */
+	boolean isShared(String filePath)
+	{
+		List<String> rv = sqlService.dbRead(sql.getSharedBodyPathCountSql(), new Object[] {filePath}, null);
+		return !rv.isEmpty() && Long.parseLong(rv.get(0)) > 0;
+	}
+
+	/**
+	 * Add a reference to a shared file, for a copy of a resource whose body is shared.
+	 *
+	 * @return true if the file is shared and the reference was added
+	 */
+	boolean sharePath(String filePath)
+	{
+		return sqlService.dbWriteCount(sql.getShareBodyPathSql(), new Object[] {filePath}, null, null, 0) == 1;
+	}
+
+	/**
+	 * Drop a reference to a file.
+	 *
+	 * @return true if the file is shared, in which case it is left for {@link #reclaim(ContentBodyStore.Report)}, false
+	 *         if the file belongs to the caller alone.
+	 */
+	boolean release(String filePath)
+	{
+		return sqlService.dbWriteCount(sql.getReleaseBodyPathSql(), new Object[] {filePath}, null, null, 0) == 1;
+	}
+
+	/**
+	 * Delete the shared files that have no references.
+	 */
+	void reclaim(ContentBodyStore.Report report)
+	{
+		List<Object[]> unreferenced = sqlService.dbRead(sql.getUnreferencedBodyHashesSql(), null, result -> {
+			try
+			{
+				return new Object[] {result.getString(1), result.getString(2), result.getLong(3)};
+			}
+			catch (SQLException e)
+			{
+				log.warn("Failed to read unreferenced body: {}", e.toString());
+				return null;
+			}
+		});
+		for (Object[] row : unreferenced)
+		{
+			String hash = (String) row[0];
+			String filePath = (String) row[1];
+			// someone may have shared it since we looked
+			if (sqlService.dbWriteCount(sql.getReclaimBodyHashSql(), new Object[] {hash}, null, null, 0) != 1) continue;
+
+			handler.delete(hash, bodyPath, filePath);
+			sqlService.dbWrite(sql.getDeleteBodyHashSql(), new Object[] {hash});
+			report.reclaimed((Long) row[2]);
+			log.debug("Reclaimed shared body {} at {}", hash, filePath);
+		}
+	}
+
+	/**
+	 * Add a reference to the shared file with this hash.
+	 *
+	 * @return the shared file's path, or null if there is none that can be shared
+	 */
+	private String share(String hash)
+	{
+		if (sqlService.dbWriteCount(sql.getShareBodyHashSql(), new Object[] {hash}, null, null, 0) != 1) return null;
+
+		// the reference we hold keeps the row in place
+		List<String> rv = sqlService.dbRead(sql.getBodyHashPathSql(), new Object[] {hash}, null);
+		return rv.isEmpty() ? null : rv.get(0);
+	}
+
+	/**
+	 * Register a file as the shared copy of its body, with one reference. Losing the race to register the same body is
+	 * expected, so a failed insert is reported as the hash being registered already rather than thrown.
+	 *
+	 * @return false if the hash is already registered
+	 */
+	private boolean register(String hash, String filePath, long length)
+	{
+		return sqlService.dbWriteCount(sql.getInsertBodyHashSql(), new Object[] {hash, filePath, length}, null, null, 1) == 1;
+	}
+
+	/**
+	 * Where a body ended up.
+	 */
+	static class Stored
+	{
+		final String filePath;
+		final long length;
+		final boolean shared;
+
+		Stored(String filePath, long length, boolean shared)
+		{
+			this.filePath = filePath;
+			this.length = length;
+			this.shared = shared;
+		}
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(ALGORITHM + " is not available", e);
+		}
+	}
+}
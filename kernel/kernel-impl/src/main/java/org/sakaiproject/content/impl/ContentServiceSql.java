@@ -206,4 +206,107 @@ public interface ContentServiceSql
 	 */
 	String getSelectByResourceTypeQuerySql();
 
+	/**
+	 * returns the sql statement which retrieves the FILE_PATH of a live shared body by its BODY_HASH.
+	 */
+	String getBodyHashPathSql();
+
+	/**
+	 * returns the sql statement which adds a reference to a live shared body by its BODY_HASH.
+	 */
+	String getShareBodyHashSql();
+
+	/**
+	 * returns the sql statement which adds a reference to a referenced shared body by its FILE_PATH.
+	 */
+	String getShareBodyPathSql();
+
+	/**
+	 * returns the sql statement which drops a reference to a shared body by its FILE_PATH.
+	 */
+	String getReleaseBodyPathSql();
+
+	/**
+	 * returns the sql statement which counts the referenced shared bodies with a FILE_PATH.
+	 */
+	String getSharedBodyPathCountSql();
+
+	/**
+	 * returns the sql statement which registers a shared body with one reference.
+	 */
+	String getInsertBodyHashSql();
+
+	/**
+	 * returns the sql statement which retrieves the BODY_HASH, FILE_PATH and FILE_SIZE of the shared bodies with no references.
+	 */
+	String getUnreferencedBodyHashesSql();
+
+	/**
+	 * returns the sql statement which marks an unreferenced shared body as being reclaimed, so it can no longer be shared.
+	 */
+	String getReclaimBodyHashSql();
+
+	/**
+	 * returns the sql statement which removes a reclaimed shared body.
+	 */
+	String getDeleteBodyHashSql();
+
+	/**
+	 * returns the sql statement which retrieves the RESOURCE_ID, FILE_PATH and FILE_SIZE of the file system bodies that are not yet
+	 * shared, after a RESOURCE_ID and in RESOURCE_ID order.
+	 */
+	String getUnsharedResourceBodiesSql();
+
+	/**
+	 * returns the sql statement which retrieves the FILE_SIZE of a resource as stored.
+	 */
+	String getResourceFileSizeSql();
+
+	/**
+	 * returns the sql statement which retrieves the bytes counted for a quota context or dropbox folder.
+	 */
+	String getUsageSql();
+
+	/**
+	 * returns the sql statement which retrieves every quota context or dropbox folder with a usage counter.
+	 */
+	String getUsageKeysSql();
+
+	/**
+	 * returns the sql statement which starts the usage counter of a quota context or dropbox folder.
+	 */
+	String getInsertUsageSql();
+
+	/**
+	 * returns the sql statement which adds to (or takes from) a usage counter.
+	 */
+	String getAddUsageSql();
+
+	/**
+	 * returns the sql statement which sets a usage counter to the bytes summed by sumSql, if it is not already. The
+	 * parameters are those of sumSql, the usage key and those of sumSql again.
+	 */
+	String getReconcileUsageSql(String sumSql);
+
+	/**
+	 * returns the sql condition which is true for rows whose BINARY_ENTITY is a Type1 serialization.
+	 */
+	String getType1EntitySql();
+
+	/**
+	 * returns the sql statement which selects the next batch of ids waiting in a conversion register table.
+	 */
+	String getConversionBatchSql(String register);
+
+	/**
+	 * returns the sql statement which retrieves a page of the ids of the collections in a collection, in id order, starting after a given id if after is true.
+	 */
+	String getCollectionIdPageSql(String table, boolean after, int limit);
+
+	/**
+	 * returns the sql statement which retrieves the id, file size and resource type of a page of the resources in a collection, in id order,
+	 * starting after a given id if after is true.
+	 */
+	String getResourceSummaryPageSql(String table, boolean after, int limit);
+
 }
@@ -78,4 +78,30 @@ public class ContentServiceSqlOracle extends ContentServiceSqlDefault
 		// return "insert into CONTENT_DROPBOX_CHANGES (DROPBOX_ID, IN_COLLECTION, LAST_UPDATE) values (? , ? , ?) on duplicate key update IN_COLLECTION = ?, LAST_UPDATE = ?";
 	}
 
+	@Override
+	public String getType1EntitySql()
+	{
+		return "DBMS_LOB.SUBSTR(BINARY_ENTITY, 4, 7) = HEXTORAW('00000001')";
+	}
+
+	@Override
+	public String getConversionBatchSql(String register)
+	{
+		return "select id from " + register + " where status = 'pending' and rownum <= 100";
+	}
+
+	@Override
+	public String getCollectionIdPageSql(String table, boolean after, int limit)
+	{
+		return "select COLLECTION_ID from (select COLLECTION_ID from " + table + " where IN_COLLECTION = ?" + (after ? " and COLLECTION_ID > ?" : "")
+				+ " order by COLLECTION_ID) where rownum <= " + limit;
+	}
+
+	@Override
+	public String getResourceSummaryPageSql(String table, boolean after, int limit)
+	{
+		return "select RESOURCE_ID, FILE_SIZE, RESOURCE_TYPE_ID from (select RESOURCE_ID, FILE_SIZE, RESOURCE_TYPE_ID from " + table
+				+ " where IN_COLLECTION = ?" + (after ? " and RESOURCE_ID > ?" : "") + " order by RESOURCE_ID) where rownum <= " + limit;
+	}
+
 }
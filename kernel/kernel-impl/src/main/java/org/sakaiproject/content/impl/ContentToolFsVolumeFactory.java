@@ -20,17 +20,19 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
-import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
 import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.api.ContentMemberSummary;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
+import org.sakaiproject.content.util.ContentMemberIterator;
 import org.sakaiproject.elfinder.FsType;
 import org.sakaiproject.elfinder.SakaiFsItem;
 import org.sakaiproject.elfinder.SakaiFsService;
@@ -297,6 +299,10 @@ public class ContentToolFsVolumeFactory implements ToolFsVolumeFactory {
                 // Todo this needs i18n
                 return "Resources";
             }
+            if (fsi.getTitle() != null) {
+                // already read when the item was listed
+                return fsi.getTitle();
+            }
             try {
                 //ask ContentHostingService for name
                 ContentEntity contentEntity;
@@ -370,14 +376,9 @@ public class ContentToolFsVolumeFactory implements ToolFsVolumeFactory {
             String id = fsi.getId();
             try {
                 // For sites that don't have a root folder yet this will fail.
-                ContentCollection collection = contentHostingService.getCollection(id);
-                // Just need to check if any of them are collections
-                for (String member : collection.getMembers()) {
-                    if (contentHostingService.isCollection(member)) {
-                        // Shortcut out on the first one we find
-                        return true;
-                    }
-                }
+                // Member collections are listed first, so only the first member needs to be looked at
+                List<ContentMemberSummary> first = contentHostingService.getMemberSummaries(id, null, 1);
+                return !first.isEmpty() && first.get(0).isCollection();
             } catch (PermissionException pe) {
                 log.info("Permission denied checking for child folders: {}", id);
             } catch (IdUnusedException iue) {
@@ -404,10 +405,13 @@ public class ContentToolFsVolumeFactory implements ToolFsVolumeFactory {
         public SakaiFsItem[] listChildren(SakaiFsItem fsi) throws PermissionException {
             String id = fsi.getId();
             try {
-                ContentCollection collection = contentHostingService.getCollection(id);
                 List<SakaiFsItem> items = new ArrayList<>();
-                for (String member : collection.getMembers()) {
-                    items.add(fromPath(member));
+                // read the members a page at a time and keep their names, so naming them doesn't read each one again
+                Iterator<ContentEntity> members = new ContentMemberIterator(contentHostingService, id);
+                while (members.hasNext()) {
+                    ContentEntity member = members.next();
+                    String title = member.getProperties().getProperty(ResourceProperties.PROP_DISPLAY_NAME);
+                    items.add(new SakaiFsItem(member.getId(), title, this, FsType.CONTENT));
                 }
                 return items.toArray(new SakaiFsItem[0]);
             } catch (IdUnusedException iue) {
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.memory.api.Cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bytes stored per quota context (site or user collection) and per dropbox folder, kept in a side table and
+ * adjusted as resources change so a quota check reads one counter instead of summing the collection.
+ * <p>
+ * A counter is started from the sum of what is stored the first time it is asked for. Adjustments are made after the
+ * resource itself is stored and outside its transaction, so counters can drift a little when writes race or fail
+ * part way; {@link #reconcile(Function)} recounts them. Values are cached briefly, an adjustment drops the
+ * local copy and other servers see it when theirs expires.
+ */
+@Slf4j
+class ContentUsageCounter
+{
+	private final SqlService sqlService;
+	private final ContentServiceSql sql;
+	private final Cache<String, Long> cache;
+
+	ContentUsageCounter(SqlService sqlService, ContentServiceSql sql, Cache<String, Long> cache)
+	{
+		this.sqlService = sqlService;
+		this.sql = sql;
+		this.cache = cache;
+	}
+
+	/**
+	 * @param key the quota context or dropbox folder
+	 * @param sum counts the bytes stored for the key, when there is no counter yet
+	 * @return the bytes stored for the key
+	 */
+	long get(String key, ToLongFunction<String> sum)
+	{
+		Long bytes = cache.get(key);
+		if (bytes != null) return bytes;
+
+		bytes = read(key);
+		if (bytes == null)
+		{
+			long counted = sum.applyAsLong(key);
+			// another server may have started it meanwhile, in which case theirs is as good as ours
+			if (sqlService.dbWriteCount(sql.getInsertUsageSql(), new Object[] {key, counted}, null, null, 0) == 1)
+			{
+				bytes = counted;
+			}
+			else
+			{
+				bytes = read(key);
+				if (bytes == null) return counted;
+			}
+		}
+		cache.put(key, bytes);
+		return bytes;
+	}
+
+	/**
+	 * Adjust a counter, if it has been started.
+	 *
+	 * @param key the quota context or dropbox folder
+	 * @param delta the bytes added, negative for bytes removed
+	 */
+	void add(String key, long delta)
+	{
+		if (key == null || delta == 0) return;
+
+		sqlService.dbWrite(sql.getAddUsageSql(), new Object[] {delta, key});
+		cache.remove(key);
+	}
+
+	/**
+	 * Recount every counter. Each counter is set to its sum in a single update, so an adjustment made meanwhile is
+	 * either counted in the sum or applied after it.
+	 *
+	 * @param sum the query counting the bytes stored for a key
+	 * @return the number of counters corrected
+	 */
+	int reconcile(Function<String, SumQuery> sum)
+	{
+		int corrected = 0;
+		List<String> keys = sqlService.dbRead(sql.getUsageKeysSql());
+		for (String key : keys)
+		{
+			SumQuery query = sum.apply(key);
+			Object[] fields = new Object[query.fields.length * 2 + 1];
+			System.arraycopy(query.fields, 0, fields, 0, query.fields.length);
+			fields[query.fields.length] = key;
+			System.arraycopy(query.fields, 0, fields, query.fields.length + 1, query.fields.length);
+
+			// only counts a counter that was off
+			if (sqlService.dbWriteCount(sql.getReconcileUsageSql(query.sql), fields, null, null, 0) == 1)
+			{
+				log.info("Corrected usage of {}", key);
+				corrected++;
+				cache.remove(key);
+			}
+		}
+		return corrected;
+	}
+
+	private Long read(String key)
+	{
+		List<String> rv = sqlService.dbRead(sql.getUsageSql(), new Object[] {key}, null);
+		return rv.isEmpty() || rv.get(0) == null ? null : Long.valueOf(rv.get(0));
+	}
+
+	/**
+	 * A select of the bytes stored for a key, and its parameters.
+	 */
+	static class SumQuery
+	{
+		final String sql;
+		final Object[] fields;
+
+		SumQuery(String sql, Object[] fields)
+		{
+			this.sql = sql;
+			this.fields = fields;
+		}
+	}
+}
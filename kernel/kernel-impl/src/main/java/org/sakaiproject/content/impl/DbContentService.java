@@ -27,6 +27,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -37,13 +39,18 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -55,15 +62,25 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.content.api.ContentBodyStore;
 import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
+import org.sakaiproject.content.api.ContentEntity;
+import org.sakaiproject.content.api.ContentEntityConverter;
+import org.sakaiproject.content.api.ContentMemberSummary;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
+import org.sakaiproject.content.api.ContentUsageCounters;
 import org.sakaiproject.content.api.FileSystemHandler;
 import org.sakaiproject.content.api.Lock;
 import org.sakaiproject.content.api.LockManager;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentCollectionSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
 import org.sakaiproject.content.impl.serialize.impl.conversion.Type1BlobCollectionConversionHandler;
+import org.sakaiproject.content.impl.serialize.impl.conversion.Type2BlobCollectionConversionHandler;
+import org.sakaiproject.content.impl.serialize.impl.conversion.Type2BlobResourcesConversionHandler;
 import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlReaderFinishedException;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.ResourceProperties;
@@ -90,6 +107,10 @@ import org.sakaiproject.util.DbSingleStorage;
 import org.sakaiproject.util.EntityReaderAdapter;
 import org.sakaiproject.util.SingleStorageUser;
 import org.sakaiproject.util.Xml;
+import org.sakaiproject.util.conversion.SchemaConversionController;
+import org.sakaiproject.util.conversion.SchemaConversionDriver;
+import org.sakaiproject.util.conversion.SchemaConversionException;
+import org.sakaiproject.util.conversion.SchemaConversionHandler;
 
 import static org.sakaiproject.content.util.IdUtil.isolateContainingId;
 
@@ -102,10 +123,13 @@ import static org.sakaiproject.content.util.IdUtil.isolateContainingId;
  * </p>
  */
 @Slf4j
-public class DbContentService extends BaseContentService
+public class DbContentService extends BaseContentService implements ContentBodyStore, ContentUsageCounters, ContentEntityConverter
 {
     private static final Marker FATAL = MarkerFactory.getMarker("FATAL");
 
+    /** How many resources the body deduplication reads at a time. */
+    private static final int DEDUPLICATE_PAGE_SIZE = 100;
+
     /** Table name for collections. */
     protected String m_collectionTableName = "CONTENT_COLLECTION";
 
@@ -201,6 +225,12 @@ public class DbContentService extends BaseContentService
         this.fileSystemHandler = fileSystemHandler;
     }
 
+    /** The store sharing identical file system bodies, null unless content.body.dedup is set. */
+    protected ContentBodyHashStore m_bodyHashStore = null;
+
+    /** The usage counters quota checks read, null unless content.quota.counters is set. */
+    protected ContentUsageCounter m_usageCounter = null;
+
     /** Dependency: LockManager */
     protected LockManager m_lockManager = null;
 
@@ -229,6 +259,20 @@ public class DbContentService extends BaseContentService
         m_sqlService = service;
     }
 
+    /** Dependency: DataSource, for the conversion of stored entities. */
+    protected DataSource m_dataSource = null;
+
+    /**
+     * Dependency: DataSource.
+     * 
+     * @param dataSource
+     *        The DataSource.
+     */
+    public void setDataSource(DataSource dataSource)
+    {
+        m_dataSource = dataSource;
+    }
+
 
     private SessionManager sessionManager;
     public void setSessionManager(SessionManager sessionManager) {
@@ -474,8 +518,38 @@ public class DbContentService extends BaseContentService
                 throw new IllegalStateException("There is no FileSystemHandler set for the ContentService!");
             }
 
+            // share the file of identical bodies between resources
+            if (m_bodyPath != null && m_serverConfigurationService.getBoolean("content.body.dedup", false))
+            {
+                // files must be found by their path, as several resources share one
+                if (fileSystemHandler instanceof DefaultFileSystemHandler && ((DefaultFileSystemHandler) fileSystemHandler).isUseIdForFilePath())
+                {
+                    log.warn("init(): content.body.dedup ignored, the FileSystemHandler stores files by resource id");
+                }
+                else
+                {
+                    if (m_autoDdl)
+                    {
+                        m_sqlService.ddl(this.getClass().getClassLoader(), "sakai_content_body_hash");
+                    }
+                    m_bodyHashStore = new ContentBodyHashStore(m_sqlService, contentServiceSql, fileSystemHandler, m_bodyPath);
+                }
+            }
+
+            // count usage as resources change rather than summing it for each quota check
+            if (m_serverConfigurationService.getBoolean("content.quota.counters", false))
+            {
+                if (m_autoDdl)
+                {
+                    m_sqlService.ddl(this.getClass().getClassLoader(), "sakai_content_usage");
+                }
+                m_usageCounter = new ContentUsageCounter(m_sqlService, contentServiceSql,
+                        m_memoryService.getCache("org.sakaiproject.content.api.ContentHostingService.usageCache"));
+            }
+
             log.info("init(): tables: " + m_collectionTableName + " " + m_resourceTableName + " " + m_resourceBodyTableName + " "
-                    + m_groupTableName + " locks-in-db: " + m_locksInDb + " bodyPath: " + m_bodyPath + " storage: " + m_storage);
+                    + m_groupTableName + " locks-in-db: " + m_locksInDb + " bodyPath: " + m_bodyPath + " storage: " + m_storage
+                    + " dedup: " + (m_bodyHashStore != null) + " quota counters: " + (m_usageCounter != null));
 
         }
         catch (Exception t)
@@ -675,6 +749,7 @@ public class DbContentService extends BaseContentService
         Object[] fields = new Object[1];
         fields[0] = param;
 
+        // not from a read replica, member counts decide whether a collection is removed
         List list = m_sqlService.dbRead(sql, fields, null);
 
         if (list != null)
@@ -1341,22 +1416,7 @@ public class DbContentService extends BaseContentService
                     if (collections == null)
                     {
                         collections = m_collectionStore.getAllResourcesWhere("IN_COLLECTION", target);
-                        if(collections != null && collections.size() > 0 && isSiteLevelDropbox(target))
-                        {
-                            Map<String,Long> updateTimes = getMostRecentUpdate(collection.getId());
-                            Iterator it = collections.iterator();
-                            while(it.hasNext())
-                            {
-                                BaseCollectionEdit dropbox = (BaseCollectionEdit) it.next();
-                                Long update = updateTimes.get(dropbox.getId());
-                                if(update != null)
-                                {
-                                    ResourcePropertiesEdit props = dropbox.getPropertiesEdit();
-                                    Time time = timeService.newTime(update);
-                                    props.addProperty(PROP_DROPBOX_CHANGE_TIMESTAMP, time.toString());
-                                }
-                            }
-                        }
+                        addDropboxChangeTimes(target, collections);
                         threadLocalManager.set("getCollections@" + target, collections);
                         cacheEntities(collections);
                     }
@@ -1373,6 +1433,30 @@ public class DbContentService extends BaseContentService
 
         } // getCollections
 
+        /**
+         * Mark the individual dropboxes of a site level dropbox with the time they last changed.
+         */
+        private void addDropboxChangeTimes(String target, List<ContentCollectionEdit> collections)
+        {
+            if(collections != null && collections.size() > 0 && isSiteLevelDropbox(target))
+            {
+                Map<String,Long> updateTimes = getMostRecentUpdate(target);
+                Iterator it = collections.iterator();
+                while(it.hasNext())
+                {
+                    BaseCollectionEdit dropbox = (BaseCollectionEdit) it.next();
+                    if(dropbox == null) continue;
+                    Long update = updateTimes.get(dropbox.getId());
+                    if(update != null)
+                    {
+                        ResourcePropertiesEdit props = dropbox.getPropertiesEdit();
+                        Time time = timeService.newTime(update);
+                        props.addProperty(PROP_DROPBOX_CHANGE_TIMESTAMP, time.toString());
+                    }
+                }
+            }
+        }
+
         public ContentCollectionEdit putCollection(String id)
         {
             if (id == null || id.trim().length() == 0)
@@ -1613,6 +1697,77 @@ public class DbContentService extends BaseContentService
 
         } // getResources
 
+        public List<ContentCollectionEdit> getCollections(ContentCollection collection, String afterId, int limit)
+        {
+            if (resolver != null)
+            {
+                // handlers may supply members that are not in the table, so page the full list
+                return page(getCollections(collection), afterId, limit);
+            }
+            List<ContentCollectionEdit> collections = m_collectionStore.getAllResourcesWhereAfter("IN_COLLECTION", collection.getId(), afterId, limit);
+            addDropboxChangeTimes(collection.getId(), collections);
+            cacheEntities(collections);
+            return collections;
+        }
+
+        public List<ContentResourceEdit> getResources(ContentCollection collection, String afterId, int limit)
+        {
+            if (resolver != null)
+            {
+                return page(getResources(collection), afterId, limit);
+            }
+            List<ContentResourceEdit> resources = m_resourceStore.getAllResourcesWhereAfter("IN_COLLECTION", collection.getId(), afterId, limit);
+            cacheEntities(resources);
+            return resources;
+        }
+
+        public List<String> getMemberCollectionIds(ContentCollection collection, String afterId, int limit)
+        {
+            if (resolver != null)
+            {
+                return getCollections(collection, afterId, limit).stream().map(c -> c == null ? null : c.getId()).collect(Collectors.toList());
+            }
+            String sql = contentServiceSql.getCollectionIdPageSql(m_collectionTableName, afterId != null, limit);
+            Object[] fields = (afterId != null) ? new Object[] { collection.getId(), afterId } : new Object[] { collection.getId() };
+            return m_sqlService.dbRead(sql, fields, null);
+        }
+
+        public List<ContentMemberSummary> getMemberResourceSummaries(ContentCollection collection, String afterId, int limit)
+        {
+            if (resolver != null || !readyToUseFilesizeColumn())
+            {
+                // the sizes are only in the entities
+                return getResources(collection, afterId, limit).stream()
+                        .map(r -> r == null ? null : new ContentMemberSummary(r.getId(), false, r.getContentLength(), r.getResourceType()))
+                        .collect(Collectors.toList());
+            }
+            String sql = contentServiceSql.getResourceSummaryPageSql(m_resourceTableName, afterId != null, limit);
+            Object[] fields = (afterId != null) ? new Object[] { collection.getId(), afterId } : new Object[] { collection.getId() };
+            return m_sqlService.dbRead(sql, fields, result -> {
+                try
+                {
+                    return new ContentMemberSummary(result.getString(1), false, result.getLong(2), result.getString(3));
+                }
+                catch (SQLException e)
+                {
+                    log.warn("getMemberResourceSummaries: {}", e.getMessage());
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Take a page from a full list of members, sorting it by id as the tables would.
+         */
+        private <E extends ContentEntity> List<E> page(List<E> all, String afterId, int limit)
+        {
+            return all.stream()
+                    .filter(e -> e != null && (afterId == null || e.getId().compareTo(afterId) > 0))
+                    .sorted(Comparator.comparing(ContentEntity::getId))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }
+
         public List getFlatResources(String collectionId)
         {
             List rv = null;
@@ -1794,7 +1949,23 @@ public class DbContentService extends BaseContentService
                             }
                         }
                     }
-                    if (referenceResourceId == null) {
+                    if (referenceResourceId == null && redit.m_sharedBody) {
+                        redit.m_sharedBody = false;
+                        // a copy of a shared body just takes a reference on the file
+                        if (m_bodyHashStore != null && m_bodyHashStore.sharePath(redit.m_filePath)) {
+                            if (log.isDebugEnabled()) log.debug("Resource ("+redit.getId()+") shares body file "+redit.m_filePath);
+                        } else {
+                            // no longer shared since the copy was made, so copy the file after all
+                            try {
+                                redit.m_contentStream = fileSystemHandler.getInputStream(redit.m_id, m_bodyPath, redit.m_filePath);
+                                redit.setFilePath(timeService.newTime());
+                            } catch (IOException e) {
+                                log.warn("Resource ("+redit.getId()+") could not read shared body file "+redit.m_filePath+": "+e);
+                                ok = false;
+                            }
+                        }
+                    }
+                    if (referenceResourceId == null && ok) {
                         // normal handling (write the resource content data)
                         if (log.isDebugEnabled()) log.debug("Normal resource ("+redit.getId()+") body/contentStream storage");
                         if (redit.m_body == null)
@@ -1862,7 +2033,12 @@ public class DbContentService extends BaseContentService
                     {
                         insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
                     }
+                    long storedLength = m_usageCounter != null ? getStoredContentLength(edit.getId()) : 0;
                     m_resourceStore.commitResource(edit);
+                    if (m_usageCounter != null)
+                    {
+                        countUsage(edit, edit.getContentLength() - storedLength);
+                    }
                 }
 
             }
@@ -2031,6 +2207,13 @@ public class DbContentService extends BaseContentService
                    String message = "failed to write file ";
                    BaseResourceEdit redit = (BaseResourceEdit) edit;
 
+                   // a shared body file is not the deleted copy's own, so the copy gets a file of its own
+                   // that purging or restoring it can remove without touching any other deleted copy
+                   if (m_bodyHashStore != null && m_bodyPath != null)
+                   {
+                       redit.setFilePath(timeService.newTime());
+                   }
+
 				   boolean ok = true;
 				   if (redit.m_body == null)
 				   {
@@ -2149,6 +2332,10 @@ public class DbContentService extends BaseContentService
 					   insertIndividualDropboxRecord(getIndividualDropboxId(edit.getId()));
 				   }
 				   m_resourceStore.removeResource(edit);
+				   if (m_usageCounter != null)
+				   {
+					   countUsage(edit, -edit.getContentLength());
+				   }
 
 			   }
 		   }
@@ -2339,6 +2526,73 @@ public class DbContentService extends BaseContentService
         	return null;
         }
 
+        /**
+         * Return the local file holding the resource body, when the body is stored on a local file system and is
+         * delivered as stored.
+         * 
+         * @param resource
+         * @return the path of the body file or null
+         */
+        public Path getResourceBodyPath(ContentResource resource)
+        {
+            // wrapped resources are filtered on the way out and edits may hold a body that is not yet stored
+            if (m_bodyPath == null || resolver != null || resource instanceof WrappedContentResource || !(resource instanceof BaseResourceEdit))
+            {
+                return null;
+            }
+            BaseResourceEdit edit = (BaseResourceEdit) resource;
+            if (edit.m_body != null || edit.m_contentStream != null || edit.m_contentLength <= 0)
+            {
+                return null;
+            }
+
+            Path path = fileSystemHandler.getAssetPath(edit.m_id, m_bodyPath, edit.m_filePath);
+            try
+            {
+                // only trust the file if it matches the stored length, otherwise let the streaming path report it
+                if (path != null && Files.size(path) == edit.m_contentLength)
+                {
+                    return path;
+                }
+            }
+            catch (IOException e)
+            {
+                log.debug("No body file available for resource: {} {}", resource.getId(), e.toString());
+            }
+            return null;
+        }
+
+        /**
+         * Let a copy refer to the source's body file when that file is shared, rather than copying it.
+         * 
+         * @param source
+         * @param edit
+         * @return true if the copy will share the body, false if the body must be copied
+         */
+        public boolean shareResourceBody(ContentResource source, ContentResourceEdit edit)
+        {
+            if (m_bodyHashStore == null || resolver != null || source instanceof WrappedContentResource
+                    || !(source instanceof BaseResourceEdit) || !(edit instanceof BaseResourceEdit))
+            {
+                return false;
+            }
+            BaseResourceEdit from = (BaseResourceEdit) source;
+            if (from.m_body != null || from.m_contentStream != null || from.m_filePath == null || from.m_contentLength <= 0
+                    || !m_bodyHashStore.isShared(from.m_filePath))
+            {
+                return false;
+            }
+
+            // the reference is taken when the copy is committed
+            BaseResourceEdit copy = (BaseResourceEdit) edit;
+            copy.m_filePath = from.m_filePath;
+            copy.m_contentLength = from.m_contentLength;
+            copy.m_body = null;
+            copy.m_contentStream = null;
+            copy.m_sharedBody = true;
+            return true;
+        }
+
         /**
          * Return an input stream.
          * 
@@ -2501,7 +2755,28 @@ public class DbContentService extends BaseContentService
         {
             try
             {
-                long byteCount = fileSystemHandler.saveInputStream(((BaseResourceEdit) resource).m_id, rootFolder, ((BaseResourceEdit) resource).m_filePath, stream);
+                long byteCount;
+                if (m_bodyHashStore != null && rootFolder.equals(m_bodyPath))
+                {
+                    BaseResourceEdit edit = (BaseResourceEdit) resource;
+                    // never write over a shared file, the new body goes to a file of its own
+                    String sharedPath = edit.m_filePath != null && m_bodyHashStore.isShared(edit.m_filePath) ? edit.m_filePath : null;
+                    if (sharedPath != null || edit.m_filePath == null)
+                    {
+                        edit.setFilePath(timeService.newTime());
+                    }
+                    ContentBodyHashStore.Stored stored = m_bodyHashStore.put(edit.m_id, edit.m_filePath, stream);
+                    edit.m_filePath = stored.filePath;
+                    byteCount = stored.length;
+                    if (sharedPath != null)
+                    {
+                        m_bodyHashStore.release(sharedPath);
+                    }
+                }
+                else
+                {
+                    byteCount = fileSystemHandler.saveInputStream(((BaseResourceEdit) resource).m_id, rootFolder, ((BaseResourceEdit) resource).m_filePath, stream);
+                }
                 resource.setContentLength(byteCount);
                 ResourcePropertiesEdit props = resource.getPropertiesEdit();
                 props.addProperty(ResourceProperties.PROP_CONTENT_LENGTH, Long.toString(byteCount));
@@ -2565,6 +2840,12 @@ public class DbContentService extends BaseContentService
          */
         protected void delResourceBodyFilesystem(String rootFolder, ContentResourceEdit resource)
         {
+            // a shared file stays until no resource refers to it and it is reclaimed
+            String filePath = ((BaseResourceEdit) resource).m_filePath;
+            if (m_bodyHashStore != null && filePath != null && rootFolder.equals(m_bodyPath) && m_bodyHashStore.release(filePath))
+            {
+                return;
+            }
             fileSystemHandler.delete(((BaseResourceEdit) resource).m_id, rootFolder, ((BaseResourceEdit) resource).m_filePath);
         }
 
@@ -3069,6 +3350,259 @@ public class DbContentService extends BaseContentService
         log.info("convertToFile: done");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isDeduplicating()
+    {
+        return m_bodyHashStore != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Report deduplicate(int limit)
+    {
+        Report report = new Report();
+        if (m_bodyHashStore == null)
+        {
+            log.warn("deduplicate: content.body.dedup is not enabled");
+            return report;
+        }
+
+        String lastId = "";
+        while (report.getExamined() < limit)
+        {
+            final int page = (int) Math.min(DEDUPLICATE_PAGE_SIZE, limit - report.getExamined());
+            final Counter read = new Counter();
+            List<Object[]> rows = m_sqlService.dbRead(contentServiceSql.getUnsharedResourceBodiesSql(), new Object[] {lastId}, result -> {
+                if (read.value++ >= page) throw new SqlReaderFinishedException();
+                try
+                {
+                    return new Object[] {result.getString(1), result.getString(2), result.getLong(3)};
+                }
+                catch (SQLException e)
+                {
+                    log.warn("deduplicate: " + e);
+                    return null;
+                }
+            });
+            if (rows.isEmpty()) break;
+
+            for (Object[] row : rows)
+            {
+                lastId = (String) row[0];
+                report.examined();
+                deduplicate(lastId, (String) row[1], (Long) row[2], report);
+            }
+        }
+
+        log.info("deduplicate: " + report);
+        return report;
+    }
+
+    /**
+     * Bring one resource's body file into the store.
+     */
+    protected void deduplicate(String id, String filePath, long size, Report report)
+    {
+        String sharedPath;
+        try
+        {
+            sharedPath = m_bodyHashStore.adopt(id, filePath);
+        }
+        catch (IOException e)
+        {
+            log.warn("deduplicate: cannot read body of: " + id + " file: " + filePath + " " + e);
+            report.failed();
+            return;
+        }
+        if (sharedPath == null) return;
+        if (sharedPath.equals(filePath))
+        {
+            report.registered();
+            return;
+        }
+
+        // point the resource at the shared file, unless it changed while we looked
+        DbStorage storage = (DbStorage) m_storage;
+        BaseResourceEdit edit = (BaseResourceEdit) storage.m_resourceStore.editResource(id);
+        if (edit == null || !filePath.equals(edit.m_filePath))
+        {
+            if (edit != null) storage.m_resourceStore.cancelResource(edit);
+            m_bodyHashStore.release(sharedPath);
+            report.failed();
+            return;
+        }
+        edit.m_filePath = sharedPath;
+        storage.m_resourceStore.commitResource(edit);
+
+        // nothing may go on reading the old file once it is gone
+        resourceChangedInStorage(edit);
+        fileSystemHandler.delete(id, m_bodyPath, filePath);
+        report.shared(size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Report reclaim()
+    {
+        Report report = new Report();
+        if (m_bodyHashStore != null)
+        {
+            m_bodyHashStore.reclaim(report);
+            log.info("reclaim: " + report);
+        }
+        return report;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isCounting()
+    {
+        return m_usageCounter != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int reconcile()
+    {
+        if (m_usageCounter == null)
+        {
+            log.warn("reconcile: content.quota.counters is not enabled");
+            return 0;
+        }
+        int corrected = m_usageCounter.reconcile(this::sumQueryForContext);
+        log.info("reconcile: corrected usage counters: " + corrected);
+        return corrected;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isConverting()
+    {
+        return collectionSerializer instanceof Type2BaseContentCollectionSerializer
+                && ((Type2BaseContentCollectionSerializer) collectionSerializer).isWriteType2()
+                && resourceSerializer instanceof Type2BaseContentResourceSerializer
+                && ((Type2BaseContentResourceSerializer) resourceSerializer).isWriteType2();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean convert(int batches)
+    {
+        if (!isConverting())
+        {
+            log.warn("convert: entities are not being saved as Type2");
+            return false;
+        }
+        boolean collections = convert(new Type2BlobCollectionConversionHandler(),
+                conversionDriver(m_collectionTableName, "COLLECTION_ID", "CONTENT_COL_T2REGISTER"), batches);
+        boolean resources = convert(new Type2BlobResourcesConversionHandler(),
+                conversionDriver(m_resourceTableName, "RESOURCE_ID", "CONTENT_RES_T2REGISTER"), batches);
+        return collections && resources;
+    }
+
+    /**
+     * Run batches of a conversion, the register table of ids still to convert is created and filled with the Type1
+     * entities when there is none, and dropped once they have all been converted.
+     * 
+     * @return true if the conversion has finished
+     */
+    protected boolean convert(SchemaConversionHandler handler, SchemaConversionDriver driver, int batches)
+    {
+        SchemaConversionController controller = new SchemaConversionController();
+        try
+        {
+            controller.init(m_dataSource, handler, driver);
+            for (int i = 0; i < batches; i++)
+            {
+                if (controller.migrate(m_dataSource, handler, driver))
+                {
+                    return true;
+                }
+            }
+        }
+        catch (SchemaConversionException e)
+        {
+            log.error("convert: failed to convert " + driver.getHandler() + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * The statements for converting the BINARY_ENTITY of a table to Type2. The stored entity is read for update, so
+     * one saved while it is being converted waits for the conversion and is not overwritten by it.
+     */
+    protected SchemaConversionDriver conversionDriver(String table, String idColumn, String register)
+    {
+        Properties p = new Properties();
+        p.setProperty(register, register);
+        p.setProperty(register + ".create.migrate.table.count", "2");
+        p.setProperty(register + ".create.migrate.table.0", "create table " + register + " ( id varchar(255) not null primary key, status varchar(99) )");
+        p.setProperty(register + ".create.migrate.table.1", "create index " + register + "_STATUS_I on " + register + " (status)");
+        p.setProperty(register + ".drop.migrate.table", "drop table " + register);
+        p.setProperty(register + ".check.migrate.table", "select count(*) from " + register + " where status <> 'done'");
+        p.setProperty(register + ".select.next.batch", contentServiceSql.getConversionBatchSql(register));
+        p.setProperty(register + ".mark.next.batch", "update " + register + " set status = 'locked' where id = ?");
+        p.setProperty(register + ".complete.next.batch", "update " + register + " set status = 'done' where id = ?");
+        p.setProperty(register + ".populate.migrate.table", "insert into " + register + " (id, status) select " + idColumn + ", 'pending' from " + table
+                + " where " + contentServiceSql.getType1EntitySql());
+        p.setProperty(register + ".select.record", "select BINARY_ENTITY from " + table + " where " + idColumn + " = ? for update");
+        p.setProperty(register + ".select.validate.record", "select BINARY_ENTITY from " + table + " where " + idColumn + " = ?");
+        p.setProperty(register + ".update.record", "update " + table + " set BINARY_ENTITY = ? where " + idColumn + " = ?");
+        SchemaConversionDriver driver = new SchemaConversionDriver();
+        driver.load(p, register);
+        return driver;
+    }
+
+    /**
+     * @return the size of the resource as stored, 0 if it is new
+     */
+    protected long getStoredContentLength(String id)
+    {
+        List<Long> rv = m_sqlService.dbRead(contentServiceSql.getResourceFileSizeSql(), new Object[] {id}, result -> {
+            try
+            {
+                long size = result.getLong(1);
+                return result.wasNull() ? -1L : size;
+            }
+            catch (SQLException e)
+            {
+                log.warn("getStoredContentLength: " + id + " " + e);
+                return null;
+            }
+        });
+        if (rv.isEmpty()) return 0L;
+        if (rv.get(0) >= 0) return rv.get(0);
+
+        // a row stored before FILE_SIZE was kept, the length is in the entity
+        ContentResource stored = ((DbStorage) m_storage).getResource(id);
+        return stored == null ? 0L : stored.getContentLength();
+    }
+
+    /**
+     * Adjust the usage counters of the quota context and the dropbox folder that hold a resource.
+     */
+    protected void countUsage(ContentResourceEdit edit, long delta)
+    {
+        if (delta == 0) return;
+
+        m_usageCounter.add(((BaseResourceEdit) edit).getContext(), delta);
+
+        // expect null, "group-user", site id, user id, rest...
+        String[] parts = edit.getId().split(Entity.SEPARATOR);
+        if (edit.getId().startsWith(COLLECTION_DROPBOX) && parts.length > 4)
+        {
+            m_usageCounter.add(COLLECTION_DROPBOX + parts[2] + Entity.SEPARATOR + parts[3] + Entity.SEPARATOR, delta);
+        }
+    }
+
     /**
      * <p>
      * Counter is is a counter that can be marked final.
@@ -3344,8 +3878,19 @@ public class DbContentService extends BaseContentService
 
     protected long getSizeForContext(String context) 
     {
-        long size = 0L;
+        // the dropbox root is summed each time as it leaves out the folders of current users
+        if (m_usageCounter != null && (!context.startsWith(COLLECTION_DROPBOX) || context.split(Entity.SEPARATOR).length == 4))
+        {
+            return m_usageCounter.get(context, this::sumSizeForContext);
+        }
+        return sumSizeForContext(context);
+    }
 
+    /**
+     * The query summing the stored sizes of the resources in a quota context or dropbox folder.
+     */
+    protected ContentUsageCounter.SumQuery sumQueryForContext(String context)
+    {
 	String sql = contentServiceSql.getQuotaQuerySql();
 	Object[] fields = new Object[] { context.startsWith(COLLECTION_DROPBOX) ? StorageUtils.escapeSqlLike(context) + "%" : context };
 	if (context.startsWith(COLLECTION_DROPBOX)) {
@@ -3358,8 +3903,18 @@ public class DbContentService extends BaseContentService
 		sql = contentServiceSql.getDropBoxRootQuotaQuerySql(); 
 	    }
 	}
+        return new ContentUsageCounter.SumQuery(sql, fields);
+    }
 
-        List list = m_sqlService.dbRead(sql, fields, null);
+    /**
+     * Sum the stored sizes of the resources in a quota context or dropbox folder.
+     */
+    protected long sumSizeForContext(String context)
+    {
+        long size = 0L;
+
+        ContentUsageCounter.SumQuery query = sumQueryForContext(context);
+        List list = m_sqlService.dbRead(query.sql, query.fields, null);
         if(list != null && ! list.isEmpty())
         {
             String result = (String) list.get(0);
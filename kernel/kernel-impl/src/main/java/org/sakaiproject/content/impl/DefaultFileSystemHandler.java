@@ -23,6 +23,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.apache.commons.io.IOUtils;
 
@@ -47,6 +49,10 @@ public class DefaultFileSystemHandler implements FileSystemHandler {
         this.useIdForFilePath = useIdForFilePath;
     }
 
+    public boolean isUseIdForFilePath(){
+        return useIdForFilePath;
+    }
+
     /**
      * A Helper method to get the File object for the parameters.
      * This method will look at the property useIdForFilePath to see if the
@@ -70,6 +76,12 @@ public class DefaultFileSystemHandler implements FileSystemHandler {
         return new FileInputStream(getFile(id, root, filePath));
     }
 
+    @Override
+    public Path getAssetPath(String id, String root, String filePath) {
+        Path path = getFile(id, root, filePath).toPath();
+        return Files.isReadable(path) ? path : null;
+    }
+
     @Override
     public long saveInputStream(String id, String root, String filePath, InputStream stream) throws IOException {
         // Do not create the files for resources with zero length bodies
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Helpers for delivering file system backed resource bodies without copying them through heap buffers.
+ * <p>
+ * When the container supports it (Tomcat's sendfile with NIO/APR connectors) the body is handed to the connector
+ * which uses the OS sendfile call. Otherwise the body is read from a {@link FileChannel} at the range offsets into
+ * a reused per-thread buffer and written to the response.
+ */
+final class ResourceBodyTransfer
+{
+	static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+	static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/** A transfer buffer per request thread, reused across requests */
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+	private ResourceBodyTransfer()
+	{
+	}
+
+	/**
+	 * Make a strong entity tag from the resource id, its modified time and its length.
+	 */
+	static String etag(String id, long lastModified, long length)
+	{
+		return "\"" + Integer.toHexString(id.hashCode()) + "-" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+	}
+
+	/**
+	 * Check an If-None-Match or If-Range header against the entity tag. Weak tags match for If-None-Match only.
+	 *
+	 * @param header the header value, may be a comma separated list or *
+	 * @param etag our strong entity tag
+	 * @param weak true if weak comparison is allowed
+	 */
+	static boolean matches(String header, String etag, boolean weak)
+	{
+		if (header == null) return false;
+		for (String tag : header.split(","))
+		{
+			tag = tag.trim();
+			if ("*".equals(tag)) return true;
+			if (tag.startsWith("W/"))
+			{
+				if (!weak) continue;
+				tag = tag.substring(2);
+			}
+			if (tag.equals(etag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Hand the byte range of the file to the container's sendfile support, if it has any.
+	 *
+	 * @return true if the container will write the body, in which case nothing must be written to the response.
+	 */
+	static boolean sendfile(HttpServletRequest req, Path file, long start, long end)
+	{
+		if (!Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORTED))) return false;
+
+		req.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+		req.setAttribute(SENDFILE_START, start);
+		// the container's end is exclusive
+		req.setAttribute(SENDFILE_END, end + 1);
+		return true;
+	}
+
+	/**
+	 * Transfer the inclusive byte range of the channel to the output stream with positional reads, without skipping
+	 * through the file or allocating a buffer per request.
+	 */
+	static void transfer(FileChannel channel, OutputStream out, long start, long end) throws IOException
+	{
+		ByteBuffer buffer = BUFFER.get();
+		long position = start;
+		long remaining = end - start + 1;
+		while (remaining > 0)
+		{
+			buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+			int read = channel.read(buffer, position);
+			if (read < 0)
+			{
+				// the file is shorter than the resource length says
+				throw new IOException("Unexpected end of file at " + position);
+			}
+			out.write(buffer.array(), 0, read);
+			position += read;
+			remaining -= read;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Collection;
+import java.util.Vector;
+
+import org.sakaiproject.content.api.GroupAwareEntity.AccessMode;
+import org.sakaiproject.content.api.ResourceType;
+import org.sakaiproject.content.impl.serialize.api.SerializableCollectionAccess;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.entity.api.serialize.EntitySerializer;
+import org.sakaiproject.entity.api.serialize.SerializableEntity;
+import org.sakaiproject.time.api.Time;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.util.serialize.Type2BaseResourcePropertiesSerializer;
+
+/**
+ * <pre>
+ * Serializes ContentCollections using a Type2 block serializer.
+ * The blocks are those of the Type1 serializer, except that the properties (BLOCK4) are
+ * written by the Type2BaseResourcePropertiesSerializer.
+ * Type1 serializations are parsed by the Type1 serializer, and unless writeType2 is set
+ * Type1 serializations are written.
+ * </pre>
+ * 
+ * @see Type2BaseContentResourceSerializer
+ */
+public class Type2BaseContentCollectionSerializer implements EntitySerializer
+{
+	public static final String BLOB_ID = Type1BaseContentCollectionSerializer.BLOB_ID;
+
+	private static final byte[] BYTE_BLOB_ID = new byte[] { 'C', 'H', 'S', 'B', 'C', 'E' };
+
+	// These are block markers in the serialization, DO NOT reuse,
+	// create a new type or new block.
+	public static final int TYPE2 = 2;
+
+	public static final int BLOCK1 = 10;
+
+	public static final int BLOCK2 = 11;
+
+	public static final int BLOCK3 = 12;
+
+	public static final int BLOCK4 = 13;
+
+	public static final int BLOCK_END = 2;
+
+	private Type2BaseResourcePropertiesSerializer baseResourcePropertiesSerializer = new Type2BaseResourcePropertiesSerializer();
+
+	private Type1BaseContentCollectionSerializer type1 = new Type1BaseContentCollectionSerializer();
+
+	private TimeService timeService;
+
+	private boolean writeType2 = false;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#parse(org.sakaiproject.entity.api.serialize.SerializableEntity,
+	 *      byte[])
+	 */
+	public void parse(SerializableEntity se, byte[] buffer)
+			throws EntityParseException
+	{
+		if (!(se instanceof SerializableCollectionAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableCollectionAccess ");
+		}
+		if (!accept(buffer))
+		{
+			throw new EntityParseException(
+					"Data Block does not belong to this serializer got ["
+							+ new String(buffer, 0, Math.min(buffer.length, BYTE_BLOB_ID.length))
+							+ "] expected [" + BLOB_ID + "]");
+		}
+		if (Type2BaseContentResourceSerializer.getType(buffer) == Type1BaseContentCollectionSerializer.TYPE1)
+		{
+			type1.parse(se, buffer);
+			return;
+		}
+		SerializableCollectionAccess sc = (SerializableCollectionAccess) se;
+		try
+		{
+			DataInputStream ds = new DataInputStream(new ByteArrayInputStream(buffer,
+					BYTE_BLOB_ID.length, buffer.length - BYTE_BLOB_ID.length));
+			doParse(sc, ds);
+		}
+		catch (EntityParseException epe)
+		{
+			throw epe;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to parse entity", ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#serialize(org.sakaiproject.entity.api.serialize.SerializableEntity)
+	 */
+	public byte[] serialize(SerializableEntity se) throws EntityParseException
+	{
+		if (!(se instanceof SerializableCollectionAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableCollectionAccess ");
+		}
+		if (!writeType2)
+		{
+			return type1.serialize(se);
+		}
+		SerializableCollectionAccess sc = (SerializableCollectionAccess) se;
+		try
+		{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream ds = new DataOutputStream(baos);
+			ds.write(BYTE_BLOB_ID);
+			doSerialize(sc, ds);
+			ds.flush();
+			return baos.toByteArray();
+		}
+		catch (EntityParseException epe)
+		{
+			throw epe;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to serialize entity ", ex);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#accept(byte[])
+	 */
+	public boolean accept(byte[] buffer)
+	{
+		return type1.accept(buffer);
+	}
+
+	/**
+	 * @return the timeService
+	 */
+	public TimeService getTimeService()
+	{
+		return timeService;
+	}
+
+	/**
+	 * @param timeService
+	 *        the timeService to set
+	 */
+	public void setTimeService(TimeService timeService)
+	{
+		this.timeService = timeService;
+		type1.setTimeService(timeService);
+	}
+
+	/**
+	 * @return true if Type2 serializations are written, false if Type1 serializations are written
+	 */
+	public boolean isWriteType2()
+	{
+		return writeType2;
+	}
+
+	/**
+	 * @param writeType2 true to write Type2 serializations, once every server can read them
+	 */
+	public void setWriteType2(boolean writeType2)
+	{
+		this.writeType2 = writeType2;
+	}
+
+	private void doParse(SerializableCollectionAccess sc, DataInputStream ds) throws Exception
+	{
+		String id = null;
+		AccessMode access = AccessMode.INHERITED;
+		boolean hidden = false;
+		Time releaseDate = null;
+		Time retractDate = null;
+		Collection<String> groups = new Vector<String>();
+
+		int type = ds.readInt();
+		if (type != TYPE2)
+		{
+			throw new EntityParseException("Unrecognised Record Type " + type);
+		}
+		boolean finished = false;
+		while (!finished)
+		{
+			int block = ds.readInt();
+			switch (block)
+			{
+				case BLOCK1:
+					id = ds.readUTF();
+					if (!ResourceType.TYPE_FOLDER.equals(ds.readUTF()))
+					{
+						throw new EntityParseException("Data block is not of tye "
+								+ ResourceType.TYPE_FOLDER);
+					}
+					access = AccessMode.fromString(ds.readUTF());
+					if (access == null || AccessMode.SITE == access)
+					{
+						access = AccessMode.INHERITED;
+					}
+					hidden = ds.readBoolean();
+					break;
+				case BLOCK2:
+				{
+					long rd = ds.readLong();
+					releaseDate = (rd != -1) ? timeService.newTime(rd) : null;
+					rd = ds.readLong();
+					retractDate = (rd != -1) ? timeService.newTime(rd) : null;
+				}
+					break;
+				case BLOCK3:
+					int sz = ds.readInt();
+					for (int i = 0; i < sz; i++)
+					{
+						groups.add(ds.readUTF());
+					}
+					if (sz > 0)
+					{
+						access = AccessMode.GROUPED;
+					}
+					break;
+				case BLOCK4:
+					baseResourcePropertiesSerializer.parse(sc.getSerializableProperties(), ds);
+					break;
+				case BLOCK_END:
+					finished = true;
+					break;
+				default:
+					throw new EntityParseException("Unrecognised block number " + block);
+			}
+		}
+		sc.setSerializableId(id);
+		sc.setSerializableAccess(access);
+		sc.setSerializableHidden(hidden);
+		sc.setSerializableResourceType(ResourceType.TYPE_FOLDER);
+		sc.setSerializableReleaseDate(releaseDate);
+		sc.setSerializableRetractDate(retractDate);
+		sc.setSerializableGroups(groups);
+	}
+
+	private void doSerialize(SerializableCollectionAccess sc, DataOutputStream ds) throws Exception
+	{
+		String id = sc.getSerializableId();
+		boolean hidden = sc.getSerializableHidden();
+		AccessMode access = sc.getSerializableAccess();
+		Time releaseDate = sc.getSerializableReleaseDate();
+		Time retractDate = sc.getSerializableRetractDate();
+		Collection<String> groups = sc.getSerializableGroup();
+
+		if (access == null || AccessMode.SITE == access)
+		{
+			access = AccessMode.INHERITED;
+		}
+
+		ds.writeInt(TYPE2);
+		ds.writeInt(BLOCK1);
+		ds.writeUTF(id);
+		ds.writeUTF(ResourceType.TYPE_FOLDER);
+		ds.writeUTF(access.toString());
+		ds.writeBoolean(hidden);
+		ds.writeInt(BLOCK2);
+		ds.writeLong(!hidden && releaseDate != null ? releaseDate.getTime() : -1);
+		ds.writeLong(!hidden && retractDate != null ? retractDate.getTime() : -1);
+		if (groups != null)
+		{
+			ds.writeInt(BLOCK3);
+			ds.writeInt(groups.size());
+			for (String groupRef : groups)
+			{
+				ds.writeUTF(groupRef);
+			}
+		}
+		ds.writeInt(BLOCK4);
+		baseResourcePropertiesSerializer.serialize(sc.getSerializableProperties(), ds);
+		ds.writeInt(BLOCK_END);
+	}
+
+}
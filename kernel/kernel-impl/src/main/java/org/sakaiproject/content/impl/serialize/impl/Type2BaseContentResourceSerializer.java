@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Collection;
+import java.util.Vector;
+
+import org.sakaiproject.content.api.GroupAwareEntity.AccessMode;
+import org.sakaiproject.content.api.ResourceType;
+import org.sakaiproject.content.api.ResourceTypeRegistry;
+import org.sakaiproject.content.impl.serialize.api.SerializableResourceAccess;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.entity.api.serialize.EntitySerializer;
+import org.sakaiproject.entity.api.serialize.SerializableEntity;
+import org.sakaiproject.time.api.Time;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.util.serialize.Type2BaseResourcePropertiesSerializer;
+
+/**
+ * <pre>
+ * Serializes ContentResources using a Type2 block serializer.
+ * The blocks are those of the Type1 serializer, except that the properties (BLOCK4) are
+ * written by the Type2BaseResourcePropertiesSerializer, which dictionary encodes the
+ * property names and leaves the properties to be decoded when they are first used.
+ * The same rules as for Type1 apply, DO NOT change the contents of existing blocks.
+ *
+ * Type1 serializations are parsed by the Type1 serializer, so both can be read while
+ * the stored entities are converted. Type1 serializations are written unless writeType2
+ * is set, so servers that only read Type1 can run alongside this one or replace it.
+ * </pre>
+ */
+public class Type2BaseContentResourceSerializer implements EntitySerializer
+{
+	public static final String BLOB_ID = Type1BaseContentResourceSerializer.BLOB_ID;
+
+	private static final byte[] BYTE_BLOB_ID = new byte[] { 'C', 'H', 'S', 'B', 'R', 'E' };
+
+	public static final int TYPE1 = 1;
+
+	public static final int TYPE2 = 2;
+
+	private static final int BLOCK1 = 10;
+
+	private static final int BLOCK3 = 11;
+
+	private static final int BLOCK2 = 12;
+
+	private static final int BLOCK4 = 13;
+
+	private static final int BLOCK5 = 14;
+
+	private static final int BLOCK6 = 15;
+
+	private static final int BLOCK_END = 2;
+
+	private Type2BaseResourcePropertiesSerializer baseResourcePropertiesSerializer = new Type2BaseResourcePropertiesSerializer();
+
+	private Type1BaseContentResourceSerializer type1 = new Type1BaseContentResourceSerializer();
+
+	private TimeService timeService;
+
+	private boolean writeType2 = false;
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#parse(org.sakaiproject.entity.api.serialize.SerializableEntity,
+	 *      byte[])
+	 */
+	public void parse(SerializableEntity se, byte[] buffer)
+			throws EntityParseException
+	{
+		if (!(se instanceof SerializableResourceAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableResourceAccess ");
+		}
+		if (!accept(buffer))
+		{
+			throw new EntityParseException(
+					"Data Block does not belong to this serializer got ["
+							+ new String(buffer, 0, Math.min(buffer.length, BYTE_BLOB_ID.length))
+							+ "] expected [" + BLOB_ID + "]");
+		}
+		if (getType(buffer) == TYPE1)
+		{
+			type1.parse(se, buffer);
+			return;
+		}
+		SerializableResourceAccess sc = (SerializableResourceAccess) se;
+		try
+		{
+			DataInputStream ds = new DataInputStream(new ByteArrayInputStream(buffer,
+					BYTE_BLOB_ID.length, buffer.length - BYTE_BLOB_ID.length));
+			doParse(sc, ds);
+		}
+		catch (EntityParseException epe)
+		{
+			throw epe;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to parse entity", ex);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#serialize(org.sakaiproject.entity.api.serialize.SerializableEntity)
+	 */
+	public byte[] serialize(SerializableEntity se)
+			throws EntityParseException
+	{
+		if (!(se instanceof SerializableResourceAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableResourceAccess ");
+		}
+		if (!writeType2)
+		{
+			return type1.serialize(se);
+		}
+		SerializableResourceAccess sc = (SerializableResourceAccess) se;
+		try
+		{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			DataOutputStream ds = new DataOutputStream(baos);
+			ds.write(BYTE_BLOB_ID);
+			doSerialize(sc, ds);
+			ds.flush();
+			return baos.toByteArray();
+		}
+		catch (EntityParseException epe)
+		{
+			throw epe;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to serialize entity ", ex);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.entity.api.serialize.EntitySerializer#accept(byte[])
+	 */
+	public boolean accept(byte[] buffer)
+	{
+		return type1.accept(buffer);
+	}
+
+	/**
+	 * @param buffer
+	 *        A serialization accepted by this serializer.
+	 * @return The type number of the serialization, or -1 if it is too short to have one.
+	 */
+	public static int getType(byte[] buffer)
+	{
+		int i = BYTE_BLOB_ID.length;
+		if (buffer == null || buffer.length < i + 4)
+		{
+			return -1;
+		}
+		return ((buffer[i] & 0xFF) << 24) | ((buffer[i + 1] & 0xFF) << 16)
+				| ((buffer[i + 2] & 0xFF) << 8) | (buffer[i + 3] & 0xFF);
+	}
+
+	/**
+	 * @return the timeService
+	 */
+	public TimeService getTimeService()
+	{
+		return timeService;
+	}
+
+	/**
+	 * @param timeService the timeService to set
+	 */
+	public void setTimeService(TimeService timeService)
+	{
+		this.timeService = timeService;
+		type1.setTimeService(timeService);
+	}
+
+	/**
+	 * @return true if Type2 serializations are written, false if Type1 serializations are written
+	 */
+	public boolean isWriteType2()
+	{
+		return writeType2;
+	}
+
+	/**
+	 * @param writeType2 true to write Type2 serializations, once every server can read them
+	 */
+	public void setWriteType2(boolean writeType2)
+	{
+		this.writeType2 = writeType2;
+	}
+
+	private void doParse(SerializableResourceAccess sc, DataInputStream ds)
+			throws EntityParseException
+	{
+		String id = null;
+		try
+		{
+			AccessMode access = AccessMode.INHERITED;
+			boolean hidden = false;
+			String resourceType = ResourceType.TYPE_UPLOAD;
+			Time releaseDate = null;
+			Time retractDate = null;
+			Collection<String> groups = new Vector<String>();
+			String contentType = null;
+			long contentLength = 0;
+			String filePath = null;
+			byte[] body = null;
+
+			int type = ds.readInt();
+			if (type != TYPE2)
+			{
+				throw new EntityParseException("Unrecognised Record Type " + type);
+			}
+			boolean finished = false;
+			while (!finished)
+			{
+				int block = ds.readInt();
+				switch (block)
+				{
+					case BLOCK1:
+						id = ds.readUTF();
+						resourceType = ds.readUTF();
+						access = AccessMode.fromString(ds.readUTF());
+						if (access == null || AccessMode.SITE == access)
+						{
+							access = AccessMode.INHERITED;
+						}
+						hidden = ds.readBoolean();
+						break;
+					case BLOCK2:
+					{
+						long rd = ds.readLong();
+						releaseDate = (rd != -1 && !hidden) ? timeService.newTime(rd) : null;
+						rd = ds.readLong();
+						retractDate = (rd != -1 && !hidden) ? timeService.newTime(rd) : null;
+					}
+						break;
+					case BLOCK3:
+						int sz = ds.readInt();
+						for (int i = 0; i < sz; i++)
+						{
+							groups.add(ds.readUTF());
+						}
+						if (sz > 0)
+						{
+							access = AccessMode.GROUPED;
+						}
+						break;
+					case BLOCK4:
+						baseResourcePropertiesSerializer.parse(sc.getSerializableProperties(), ds);
+						break;
+					case BLOCK5:
+						contentType = ds.readUTF();
+						contentLength = ds.readLong();
+						filePath = ds.readUTF();
+						if (resourceType == null)
+						{
+							ResourceTypeRegistry registry = sc.getResourceTypeRegistry();
+							if (registry != null)
+							{
+								resourceType = registry.mimetype2resourcetype(contentType);
+							}
+						}
+						break;
+					case BLOCK6:
+						body = new byte[ds.readInt()];
+						ds.readFully(body);
+						break;
+					case BLOCK_END:
+						finished = true;
+						break;
+					default:
+						throw new EntityParseException("Unrecognised block number " + block);
+				}
+			}
+			if (resourceType == null)
+			{
+				resourceType = ResourceType.TYPE_UPLOAD;
+			}
+
+			sc.setSerializableId(id);
+			sc.setSerializableAccess(access);
+			sc.setSerializableHidden(hidden);
+			sc.setSerializableResourceType(resourceType);
+			sc.setSerializableReleaseDate(releaseDate);
+			sc.setSerializableRetractDate(retractDate);
+			sc.setSerializableGroups(groups);
+			sc.setSerializableContentType(contentType);
+			sc.setSerializableContentLength(contentLength);
+			sc.setSerializableFilePath(filePath);
+			sc.setSerializableBody(body);
+		}
+		catch (EntityParseException epe)
+		{
+			throw epe;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to parse entity [" + id + "]", ex);
+		}
+	}
+
+	private void doSerialize(SerializableResourceAccess sc, DataOutputStream ds) throws Exception
+	{
+		String id = sc.getSerializableId();
+		boolean hidden = sc.getSerializableHidden();
+		AccessMode access = sc.getSerializableAccess();
+		Time releaseDate = sc.getSerializableReleaseDate();
+		Time retractDate = sc.getSerializableRetractDate();
+		Collection<String> groups = sc.getSerializableGroup();
+		byte[] body = sc.getSerializableBody();
+		String contentType = sc.getSerializableContentType();
+		String filePath = sc.getSerializableFilePath();
+		String resourceType = sc.getSerializableResourceType();
+		long contentLength = sc.getSerializableContentLength();
+
+		if (contentType == null)
+		{
+			contentType = "";
+		}
+		if (filePath == null)
+		{
+			filePath = "";
+		}
+		if (resourceType == null)
+		{
+			resourceType = ResourceType.TYPE_UPLOAD;
+		}
+		if (body != null)
+		{
+			contentLength = body.length;
+		}
+		if (access == null || AccessMode.SITE == access)
+		{
+			access = AccessMode.INHERITED;
+		}
+
+		ds.writeInt(TYPE2);
+		ds.writeInt(BLOCK1);
+		ds.writeUTF(id);
+		ds.writeUTF(resourceType);
+		ds.writeUTF(access.toString());
+		ds.writeBoolean(hidden);
+		ds.writeInt(BLOCK2);
+		ds.writeLong(!hidden && releaseDate != null ? releaseDate.getTime() : -1);
+		ds.writeLong(!hidden && retractDate != null ? retractDate.getTime() : -1);
+		if (groups != null)
+		{
+			ds.writeInt(BLOCK3);
+			ds.writeInt(groups.size());
+			for (String groupRef : groups)
+			{
+				ds.writeUTF(groupRef);
+			}
+		}
+		ds.writeInt(BLOCK4);
+		baseResourcePropertiesSerializer.serialize(sc.getSerializableProperties(), ds);
+		ds.writeInt(BLOCK5);
+		ds.writeUTF(contentType);
+		ds.writeLong(contentLength);
+		ds.writeUTF(filePath);
+		if (body != null)
+		{
+			ds.writeInt(BLOCK6);
+			ds.writeInt(body.length);
+			ds.write(body);
+		}
+		ds.writeInt(BLOCK_END);
+	}
+
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl.conversion;
+
+import java.sql.Blob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentCollectionSerializer;
+import org.sakaiproject.util.conversion.SchemaConversionHandler;
+
+/**
+ * Rewrites the Type1 BINARY_ENTITY of CONTENT_COLLECTION rows as Type2. Rows that are no longer
+ * Type1 when they are read, because they have been saved since the register was populated, are left alone.
+ */
+@Slf4j
+public class Type2BlobCollectionConversionHandler implements SchemaConversionHandler
+{
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.sakaiproject.util.conversion.SchemaConversionHandler#getSource(java.lang.String,
+	 *      java.sql.ResultSet)
+	 */
+	public Object getSource(String id, ResultSet rs) throws SQLException
+	{
+		return getBytes(rs);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see org.sakaiproject.util.conversion.SchemaConversionHandler#convertSource(java.lang.String,
+	 *      java.lang.Object, java.sql.PreparedStatement)
+	 */
+	public boolean convertSource(String id, Object source, PreparedStatement updateRecord)
+			throws SQLException
+	{
+		byte[] buffer = (byte[]) source;
+		if (Type2BaseContentResourceSerializer.getType(buffer) != Type2BaseContentResourceSerializer.TYPE1)
+		{
+			log.debug("Not a Type1 entity, already converted {}", id);
+			return false;
+		}
+
+		Type2BaseContentCollectionSerializer t2b = new Type2BaseContentCollectionSerializer();
+		t2b.setTimeService(new ConversionTimeService());
+		SAXSerializableCollectionAccess source1 = new SAXSerializableCollectionAccess();
+		SAXSerializableCollectionAccess result2 = new SAXSerializableCollectionAccess();
+		try
+		{
+			t2b.parse(source1, buffer);
+			byte[] result = t2b.serialize(source1);
+			t2b.parse(result2, result);
+			source1.check(result2);
+
+			updateRecord.setBytes(1, result);
+			updateRecord.setString(2, id);
+			return true;
+		}
+		catch (Exception e)
+		{
+			log.warn("Failed to process record " + id, e);
+		}
+		return false;
+	}
+
+	/**
+	 * @see org.sakaiproject.util.conversion.SchemaConversionHandler#validate(java.lang.String, java.lang.Object, java.lang.Object)
+	 */
+	public void validate(String id, Object source, Object result) throws Exception
+	{
+		Type2BaseContentCollectionSerializer t2b = new Type2BaseContentCollectionSerializer();
+		t2b.setTimeService(new ConversionTimeService());
+		SAXSerializableCollectionAccess sourceEntity = new SAXSerializableCollectionAccess();
+		SAXSerializableCollectionAccess resultEntity = new SAXSerializableCollectionAccess();
+		t2b.parse(sourceEntity, (byte[]) source);
+		t2b.parse(resultEntity, (byte[]) result);
+		sourceEntity.check(resultEntity);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.util.conversion.SchemaConversionHandler#getValidateSource(java.lang.String, java.sql.ResultSet)
+	 */
+	public Object getValidateSource(String id, ResultSet rs) throws SQLException
+	{
+		return getBytes(rs);
+	}
+
+	private byte[] getBytes(ResultSet rs) throws SQLException
+	{
+		ResultSetMetaData metadata = rs.getMetaData();
+		switch (metadata.getColumnType(1))
+		{
+		case Types.BLOB:
+			Blob blob = rs.getBlob(1);
+			return blob == null ? null : blob.getBytes(1L, (int) blob.length());
+		default:
+			return rs.getBytes(1);
+		}
+	}
+}
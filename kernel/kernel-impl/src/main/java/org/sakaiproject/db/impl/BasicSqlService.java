@@ -28,6 +28,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Clob;
@@ -40,7 +41,9 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
@@ -48,15 +51,21 @@ import java.util.Map;
 import java.util.TimeZone;
 import java.util.Vector;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.apache.commons.lang3.StringUtils;
+import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlReaderFinishedException;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.db.api.SqlServiceDeadlockException;
 import org.sakaiproject.db.api.SqlServiceUniqueViolationException;
+import org.sakaiproject.db.api.SqlSlowStatement;
+import org.sakaiproject.db.api.SqlStatementStats;
 import org.sakaiproject.event.api.UsageSessionService;
 import org.sakaiproject.exception.ServerOverloadException;
 import org.sakaiproject.thread_local.api.ThreadLocalManager;
@@ -73,6 +82,15 @@ public abstract class BasicSqlService implements SqlService
 	/** Key name in thread local to find the current transaction connection. */
 	protected static final String TRANSACTION_CONNECTION = "sqlService:transaction_connection";
 
+	/** Key name in thread local to find when the current thread last wrote. */
+	protected static final String LAST_WRITE = "sqlService:last_write";
+
+	/** The name the statement profile is published under over JMX. */
+	protected static final String PROFILE_MBEAN = "org.sakaiproject:name=SqlService";
+
+	/** The name the replica routing counts are published under over JMX. */
+	protected static final String REPLICA_MBEAN = "org.sakaiproject:name=SqlService.replica";
+
 	/** The "shared", "common" database connection pool */
 	protected DataSource defaultDataSource;
 
@@ -192,6 +210,140 @@ public abstract class BasicSqlService implements SqlService
 		m_autoDdl = Boolean.valueOf(value).booleanValue();
 	}
 
+	/** Configuration: to count the statements run, per caller and statement. */
+	protected boolean m_profile = false;
+
+	/**
+	 * Configuration: to count the statements run, per caller and statement, or not.
+	 * 
+	 * @param value
+	 *        the profile value.
+	 */
+	public void setProfile(String value)
+	{
+		m_profile = Boolean.valueOf(value).booleanValue();
+	}
+
+	/** Configuration: to find the calling class and method of each statement profiled. */
+	protected boolean m_profileCallers = false;
+
+	/**
+	 * Configuration: to find the calling class and method of each statement profiled, or count them all together.
+	 * 
+	 * @param value
+	 *        the profileCallers value.
+	 */
+	public void setProfileCallers(String value)
+	{
+		m_profileCallers = Boolean.valueOf(value).booleanValue();
+	}
+
+	/** Configuration: the most caller and statement pairs to profile separately. */
+	protected int m_profileMaxStatements = 2000;
+
+	/**
+	 * Configuration: the most caller and statement pairs to profile separately, any more are counted as "other".
+	 * 
+	 * @param value
+	 *        the number of caller and statement pairs.
+	 */
+	public void setProfileMaxStatements(String value)
+	{
+		m_profileMaxStatements = Integer.parseInt(value);
+	}
+
+	/** Configuration: statements taking at least this many ms are kept as slow statements. */
+	protected long m_slowThreshold = 1000;
+
+	/**
+	 * Configuration: statements taking at least this many ms are kept as slow statements, 0 to keep none.
+	 * 
+	 * @param value
+	 *        the threshold in ms.
+	 */
+	public void setSlowThreshold(String value)
+	{
+		m_slowThreshold = Long.parseLong(value);
+	}
+
+	/** Configuration: capture the caller's stack for one in this many slow statements. */
+	protected int m_slowStackSample = 10;
+
+	/**
+	 * Configuration: capture the caller's stack for one in this many slow statements, 0 for never.
+	 * 
+	 * @param value
+	 *        the sample rate.
+	 */
+	public void setSlowStackSample(String value)
+	{
+		m_slowStackSample = Integer.parseInt(value);
+	}
+
+	/** The statement profile, null if not profiling. */
+	protected SqlProfiler m_profiler;
+
+	/** Configuration: the name of the DataSource bean for the read replica. */
+	protected String m_replicaDataSource = null;
+
+	/**
+	 * Configuration: the name of the DataSource bean for the read replica, defined in sakai-configuration.xml. If not set, all reads
+	 * go to the default pool.
+	 * 
+	 * @param value
+	 *        the bean name.
+	 */
+	public void setReplicaDataSource(String value)
+	{
+		m_replicaDataSource = StringUtils.trimToNull(value);
+	}
+
+	/** Configuration: the callers whose reads can go to the replica. */
+	protected String m_replicaReads = "";
+
+	/**
+	 * Configuration: the callers whose reads can go to the replica, comma separated, as tagged in the statement profile (e.g. DbSiteService or
+	 * DbSiteService$DbStorage.getSites); "*" for every read; or empty for only reads made with dbReadReplica().
+	 * 
+	 * @param value
+	 *        the callers.
+	 */
+	public void setReplicaReads(String value)
+	{
+		m_replicaReads = StringUtils.trimToEmpty(value);
+	}
+
+	/** Configuration: seconds a session or thread reads from the primary after writing. */
+	protected int m_replicaPinSeconds = 10;
+
+	/**
+	 * Configuration: seconds a session or thread reads from the primary after writing, so it sees its own writes.
+	 * 
+	 * @param value
+	 *        the seconds.
+	 */
+	public void setReplicaPinSeconds(String value)
+	{
+		m_replicaPinSeconds = Integer.parseInt(value);
+	}
+
+	/** Configuration: seconds to skip the replica after it fails. */
+	protected int m_replicaRetrySeconds = 30;
+
+	/**
+	 * Configuration: seconds to skip the replica after it fails.
+	 * 
+	 * @param value
+	 *        the seconds.
+	 */
+	public void setReplicaRetrySeconds(String value)
+	{
+		m_replicaRetrySeconds = Integer.parseInt(value);
+	}
+
+	/** The read replica routing, null if there is no replica. */
+	protected ReplicaRouter m_replica;
+
 	/** contains a map of the database dependent handlers. */
 	protected Map<String, SqlServiceSql> databaseBeans;
 
@@ -231,7 +383,48 @@ public abstract class BasicSqlService implements SqlService
 			ddl(getClass().getClassLoader(), "sakai_locks");
 		}
 
-		log.info("init(): vendor: " + m_vendor + " autoDDL: " + m_autoDdl + " deadlockRetries: " + m_deadlockRetries);
+		if (m_profile)
+		{
+			m_profiler = new SqlProfiler(m_profileMaxStatements, m_slowThreshold, m_slowStackSample, m_profileCallers);
+			try
+			{
+				MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(PROFILE_MBEAN);
+				if (mbs.isRegistered(name)) mbs.unregisterMBean(name);
+				mbs.registerMBean(m_profiler, name);
+			}
+			catch (Exception e)
+			{
+				log.warn("init(): could not register the statement profile with JMX: " + e);
+			}
+		}
+
+		if (m_replicaDataSource != null)
+		{
+			Object replica = ComponentManager.get(m_replicaDataSource);
+			if (replica instanceof DataSource)
+			{
+				m_replica = new ReplicaRouter((DataSource) replica, m_replicaReads, m_replicaPinSeconds, m_replicaRetrySeconds);
+				try
+				{
+					MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+					ObjectName name = new ObjectName(REPLICA_MBEAN);
+					if (mbs.isRegistered(name)) mbs.unregisterMBean(name);
+					mbs.registerMBean(m_replica, name);
+				}
+				catch (Exception e)
+				{
+					log.warn("init(): could not register the replica routing with JMX: " + e);
+				}
+			}
+			else
+			{
+				log.warn("init(): replica DataSource not found, reading from the default pool: " + m_replicaDataSource);
+			}
+		}
+
+		log.info("init(): vendor: " + m_vendor + " autoDDL: " + m_autoDdl + " deadlockRetries: " + m_deadlockRetries + " profile: " + m_profile
+				+ " slowThreshold: " + m_slowThreshold + " replica: " + (m_replica != null ? m_replicaDataSource + " (" + m_replicaReads + ")" : "none"));
 	}
 
 	/**
@@ -239,6 +432,29 @@ public abstract class BasicSqlService implements SqlService
 	 */
 	public void destroy()
 	{
+		if (m_profiler != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(PROFILE_MBEAN));
+			}
+			catch (Exception e)
+			{
+				log.debug("destroy(): " + e);
+			}
+		}
+		if (m_replica != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(REPLICA_MBEAN));
+			}
+			catch (Exception e)
+			{
+				log.debug("destroy(): " + e);
+			}
+		}
+
 		log.info("destroy()");
 	}
 
@@ -332,6 +548,7 @@ public abstract class BasicSqlService implements SqlService
 				callback.run();
 
 				connection.commit();
+				wrote();
 
 				return true;
 			}
@@ -430,6 +647,78 @@ public abstract class BasicSqlService implements SqlService
 		return (GregorianCalendar)m_cal.clone();
 	}
 
+	/**
+	 * Count a statement in the profile, if profiling.
+	 * 
+	 * @param sql
+	 *        The sql run.
+	 * @param start
+	 *        System.nanoTime() when the statement was started, before any wait for a connection.
+	 * @param wait
+	 *        The ns spent waiting for a connection.
+	 * @param rows
+	 *        The rows read or changed.
+	 * @param success
+	 *        false if the statement failed.
+	 */
+	protected void profile(String sql, long start, long wait, long rows, boolean success)
+	{
+		if (m_profiler == null) return;
+
+		try
+		{
+			m_profiler.record(sql, System.nanoTime() - start, wait, rows, !success);
+		}
+		catch (RuntimeException e)
+		{
+			log.debug("profile: " + e);
+		}
+	}
+
+	/**
+	 * Note that this thread and session wrote, so their reads stay on the primary for a while.
+	 */
+	protected void wrote()
+	{
+		if (m_replica == null) return;
+
+		threadLocalManager().set(LAST_WRITE, m_replica.wrote(usageSessionService().getSessionId()));
+	}
+
+	/**
+	 * Decide if a read, made outside of a transaction, can go to the replica.
+	 * 
+	 * @param sql
+	 *        The sql statement.
+	 * @param tagged
+	 *        true if the caller marked the read replica safe.
+	 * @return true to read from the replica, false for the primary.
+	 */
+	protected boolean useReplica(String sql, boolean tagged)
+	{
+		if (m_replica == null || !m_replica.routes(sql, tagged)) return false;
+
+		return !m_replica.isPinned(usageSessionService().getSessionId(), (Long) threadLocalManager().get(LAST_WRITE));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<SqlStatementStats> getStatementStats(int limit, String orderBy)
+	{
+		if (m_profiler == null) return Collections.emptyList();
+		return m_profiler.topStatements(limit, orderBy);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<SqlSlowStatement> getSlowStatements()
+	{
+		if (m_profiler == null) return Collections.emptyList();
+		return m_profiler.getSlowStatements();
+	}
+
 	/**
 	 * Read a single field from the db, from multiple records, returned as List<String>, one per record.
 	 * 
@@ -491,6 +780,37 @@ public abstract class BasicSqlService implements SqlService
 			callerConn = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
 		}
 
+		return dbRead(callerConn, sql, fields, reader, callerConn == null && useReplica(sql, false));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List dbReadReplica(String sql, Object[] fields, SqlReader reader)
+	{
+		// in a transaction, read from the transaction's connection
+		Connection callerConn = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+
+		return dbRead(callerConn, sql, fields, reader, callerConn == null && useReplica(sql, true));
+	}
+
+	/**
+	 * Process a query, as dbRead(), from the replica if asked.
+	 * 
+	 * @param callerConn
+	 *        The db connection object to use (if not null).
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param replica
+	 *        true to read from the replica, falling back to the primary if that fails.
+	 * @return The List of things read, one per record.
+	 */
+	protected List dbRead(Connection callerConn, String sql, Object[] fields, SqlReader reader, boolean replica)
+	{
 		if (log.isDebugEnabled())
 		{
 			log.debug("dbRead(Connection " + callerConn + ", String " + sql + ", Object[] " + Arrays.toString(fields) + ", SqlReader " + reader + ")");
@@ -525,6 +845,9 @@ public abstract class BasicSqlService implements SqlService
 		ResultSet result = null;
 		ResultSetMetaData meta = null;
 		List rv = new Vector();
+		long profileStart = System.nanoTime();
+		long profileWait = 0;
+		boolean success = false;
 
         try {
             if (m_showSql) {
@@ -534,10 +857,18 @@ public abstract class BasicSqlService implements SqlService
             // borrow a new connection if we are not provided with one to use
             if (callerConn != null) {
                 conn = callerConn;
+            } else if (replica) {
+                // not shared with the thread, so nested statements (which may write) don't use the replica
+                conn = m_replica.borrowConnection();
+                profileWait = System.nanoTime() - profileStart;
             } else {
                 conn = borrowConnection();
+                profileWait = System.nanoTime() - profileStart;
                 threadLocalManager().set(TRANSACTION_CONNECTION, conn);
             }
+            if (m_replica != null && callerConn == null) {
+                m_replica.read(replica, profileWait);
+            }
             if (m_showSql) {
                 connectionTime = System.currentTimeMillis() - start;
             }
@@ -559,9 +890,7 @@ public abstract class BasicSqlService implements SqlService
             }
 
             while (result.next()) {
-                if (m_showSql) {
-                    count++;
-                }
+                count++;
 
                 // without a reader, we read the first String from each record
                 if (reader == null) {
@@ -589,14 +918,24 @@ public abstract class BasicSqlService implements SqlService
                 }
 
             }
+            success = true;
         } catch (SQLException e) {
-            log.warn("Sql.dbRead: sql: " + sql + debugFields(fields), e);
+            if (replica) {
+                m_replica.failed(e);
+                // the reader has seen rows, which it may have acted on, so reading again from the primary could repeat them
+                if (count > 0) {
+                    throw new RuntimeException("SqlService.dbRead failure", e);
+                }
+            } else {
+                log.warn("Sql.dbRead: sql: " + sql + debugFields(fields), e);
+            }
         } catch (UnsupportedEncodingException e) {
             log.warn("Sql.dbRead: sql: " + sql + debugFields(fields), e);
         } finally {
             if (m_showSql) {
                 resultsTime = System.currentTimeMillis() - start;
             }
+            profile(sql, profileStart, profileWait, count, success);
             if (null != result) {
                 try {
                     result.close();
@@ -623,13 +962,21 @@ public abstract class BasicSqlService implements SqlService
                             log.warn("Sql.dbRead: sql: " + sql + debugFields(fields), e);
                         }
                     }
-                    threadLocalManager().set(TRANSACTION_CONNECTION, null);
+                    if (!replica) {
+                        threadLocalManager().set(TRANSACTION_CONNECTION, null);
+                    }
                     returnConnection(conn);
                 }
             }
 
         }
 
+		// the replica failed before any row was read, read from the primary
+		if (replica && !success)
+		{
+			return dbRead(null, sql, fields, reader, false);
+		}
+
 		if (m_showSql) debug("Sql.dbRead: time: " + connectionTime + " / " + stmtTime + " / " + resultsTime + " #: " + count, sql, fields);
 
 		return rv;
@@ -984,6 +1331,7 @@ public abstract class BasicSqlService implements SqlService
 			// commit and indicate success
 			conn.commit();
 			success = true;
+			wrote();
 		}
 		catch (SQLException e)
 		{
@@ -1167,6 +1515,7 @@ public abstract class BasicSqlService implements SqlService
 	{
 		boolean success = false;
 		PreparedStatement pstmt = null;
+		long profileStart = System.nanoTime();
 
 		try
 		{
@@ -1178,6 +1527,7 @@ public abstract class BasicSqlService implements SqlService
 			}
 			pstmt.executeBatch();
 			success = true;
+			wrote();
 		}
 		catch (UnsupportedEncodingException e)
 		{
@@ -1189,6 +1539,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 		finally
 		{
+			profile(sql, profileStart, 0, success ? fieldsList.size() : 0, success);
 			try
 			{
 				pstmt.close();
@@ -1203,6 +1554,73 @@ public abstract class BasicSqlService implements SqlService
 		return success;
 	}
 
+	/**
+	 * @see org.sakaiproject.db.api.SqlService#dbInsertBatch(Connection, String, List<Object[]>, String)
+	 */
+	public List<Long> dbInsertBatch(Connection callerConnection, String sql, List<Object[]> fieldsList, String autoColumn)
+	{
+		if (!sqlServiceSql.canBatchGeneratedKeys())
+		{
+			List<Long> rv = new ArrayList<>(fieldsList.size());
+			for (Object[] fields : fieldsList)
+			{
+				rv.add(dbInsert(callerConnection, sql, fields, autoColumn));
+			}
+			return rv;
+		}
+
+		List<Long> rv = null;
+		PreparedStatement pstmt = null;
+		long profileStart = System.nanoTime();
+
+		try
+		{
+			pstmt = sqlServiceSql.prepareAutoColumn(callerConnection, sql, autoColumn);
+			for (Object[] fields : fieldsList)
+			{
+			    prepareStatement(pstmt, fields);
+			    pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+			wrote();
+
+			List<Long> keys = sqlServiceSql.getGeneratedKeys(pstmt);
+			if (keys.size() == fieldsList.size())
+			{
+				rv = keys;
+			}
+			else
+			{
+				// the rows are written, but which key belongs to which row is not known
+				log.warn("Sql.dbInsertBatch(): " + keys.size() + " keys returned for " + fieldsList.size() + " rows, sql: " + sql);
+				rv = new ArrayList<>(Collections.nCopies(fieldsList.size(), (Long) null));
+			}
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			log.warn("Sql.dbInsertBatch()", e);
+		}
+		catch (SQLException e)
+		{
+			log.warn("Sql.dbInsertBatch(): error code: " + e.getErrorCode() + " sql: " + sql + " " + e);
+		}
+		finally
+		{
+			profile(sql, profileStart, 0, rv != null ? fieldsList.size() : 0, rv != null);
+			try
+			{
+				if (null != pstmt) pstmt.close();
+			}
+			catch (Exception e)
+			{
+				log.warn("Sql.dbInsertBatch(): " + e);
+				throw new RuntimeException("SqlService.dbInsertBatch failure", e);
+			}
+		}
+
+		return rv;
+	}
+
 	/**
 	 * @see org.sakaiproject.db.api.SqlService#dbWriteCount(String, Object[], String, Connection, int)
 	 */
@@ -1256,6 +1674,8 @@ public abstract class BasicSqlService implements SqlService
 		boolean resetAutoCommit = false;
 
 		boolean success = false;
+		long profileStart = System.nanoTime();
+		long profileWait = 0;
 
 		try
 		{
@@ -1267,6 +1687,7 @@ public abstract class BasicSqlService implements SqlService
 			{
 				if (m_showSql) start = System.currentTimeMillis();
 				conn = borrowConnection();
+				profileWait = System.nanoTime() - profileStart;
 				if (m_showSql) connectionTime = System.currentTimeMillis() - start;
 
 				// make sure we have do not have auto commit - will change and reset if needed
@@ -1301,6 +1722,7 @@ public abstract class BasicSqlService implements SqlService
 
 			// indicate success
 			success = true;
+			wrote();
 		}
 		catch (SQLException e)
 		{
@@ -1350,6 +1772,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 		finally
 		{
+			profile(sql, profileStart, profileWait, Math.max(retval, 0), success);
 			try
 			{
 				if (null != pstmt) pstmt.close();
@@ -1456,6 +1879,8 @@ public abstract class BasicSqlService implements SqlService
 
 		boolean success = false;
 		Long rv = null;
+		long profileStart = System.nanoTime();
+		long profileWait = 0;
 
 		try
 		{
@@ -1467,6 +1892,7 @@ public abstract class BasicSqlService implements SqlService
 			{
 				if (m_showSql) start = System.currentTimeMillis();
 				conn = borrowConnection();
+				profileWait = System.nanoTime() - profileStart;
 				if (m_showSql) connectionTime = System.currentTimeMillis() - start;
 
 				// make sure we have do not have auto commit - will change and reset if needed
@@ -1503,6 +1929,7 @@ public abstract class BasicSqlService implements SqlService
 
 			// indicate success
 			success = true;
+			wrote();
 		}
 		catch (SQLException e)
 		{
@@ -1547,6 +1974,7 @@ public abstract class BasicSqlService implements SqlService
 		}
 		finally
 		{
+			profile(sql, profileStart, profileWait, success ? 1 : 0, success);
 			try
 			{
 				if (null != pstmt) pstmt.close();
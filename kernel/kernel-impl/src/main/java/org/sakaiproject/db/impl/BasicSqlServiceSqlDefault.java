@@ -27,7 +27,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /**
  * methods for accessing sql service methods in a database.
@@ -158,4 +160,25 @@ public class BasicSqlServiceSqlDefault implements SqlServiceSql
 		return null;
 	}
 
+	/**
+	 * returns whether the driver returns a generated key for every row of a batched insert.
+	 */
+	public boolean canBatchGeneratedKeys()
+	{
+		return true;
+	}
+
+	public List<Long> getGeneratedKeys(PreparedStatement pstmt) throws SQLException
+	{
+		List<Long> rv = new ArrayList<>();
+		try (ResultSet keys = pstmt.getGeneratedKeys())
+		{
+			while (keys.next())
+			{
+				rv.add(Long.valueOf(keys.getLong(1)));
+			}
+		}
+		return rv;
+	}
+
 }
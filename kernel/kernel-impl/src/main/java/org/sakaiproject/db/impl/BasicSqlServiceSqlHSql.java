@@ -111,4 +111,13 @@ public class BasicSqlServiceSqlHSql extends BasicSqlServiceSqlDefault
 		return null;
 	}
 
+	/**
+	 * HSQL only reports the last identity, so batched inserts can't return theirs
+	 */
+	@Override
+	public boolean canBatchGeneratedKeys()
+	{
+		return false;
+	}
+
 }
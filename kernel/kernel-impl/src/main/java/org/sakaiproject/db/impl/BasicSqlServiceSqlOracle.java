@@ -57,4 +57,13 @@ public class BasicSqlServiceSqlOracle extends BasicSqlServiceSqlDefault
 	{
 		return "SELECT " + table + ".NEXTVAL FROM DUAL";
 	}
+
+	/**
+	 * the Oracle driver doesn't return generated keys for batched inserts.
+	 */
+	@Override
+	public boolean canBatchGeneratedKeys()
+	{
+		return false;
+	}
 }
@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Decides which reads the SqlService may send to a read replica, and keeps the replica's state.
+ * <p>
+ * A read can go to the replica if it is a plain select run outside a transaction, and it is either marked replica
+ * safe by its caller or comes from one of the configured callers. Sessions and threads that have just written read
+ * from the primary for a while so they see their own writes. A replica that fails is skipped for a while, its reads
+ * running on the primary.
+ * </p>
+ */
+@Slf4j
+public class ReplicaRouter implements ReplicaRouterMXBean
+{
+	private static final Pattern READ_ONLY = Pattern.compile("^\\s*select\\s", Pattern.CASE_INSENSITIVE);
+
+	private static final Pattern LOCKING = Pattern.compile("\\sfor\\s+update\\b|\\block\\s+in\\s+share\\s+mode\\b", Pattern.CASE_INSENSITIVE);
+
+	/** Sweep expired write times once there are this many. */
+	private static final int MAX_SESSIONS = 10000;
+
+	private final DataSource replica;
+
+	private final boolean allCallers;
+
+	private final String[] callers;
+
+	private final long pinMillis;
+
+	private final long retryMillis;
+
+	/** When each session last wrote. */
+	private final Map<String, Long> sessionWrites = new ConcurrentHashMap<>();
+
+	private volatile long downUntil = 0;
+
+	private final LongAdder primaryReads = new LongAdder();
+
+	private final LongAdder replicaReads = new LongAdder();
+
+	private final LongAdder pinnedReads = new LongAdder();
+
+	private final LongAdder fallbacks = new LongAdder();
+
+	private final LongAdder primaryWait = new LongAdder();
+
+	private final LongAdder replicaWait = new LongAdder();
+
+	/**
+	 * @param replica
+	 *        The replica pool.
+	 * @param callers
+	 *        Comma separated callers (class, or class.method, as tagged in the statement profile) whose reads can go to
+	 *        the replica, "*" for every read, or empty for only the reads marked replica safe.
+	 * @param pinSeconds
+	 *        How long a session or thread that wrote reads from the primary.
+	 * @param retrySeconds
+	 *        How long to skip the replica after it fails.
+	 */
+	public ReplicaRouter(DataSource replica, String callers, int pinSeconds, int retrySeconds)
+	{
+		this.replica = replica;
+		this.allCallers = "*".equals(StringUtils.trimToEmpty(callers));
+		this.callers = allCallers ? new String[0] : StringUtils.stripAll(StringUtils.split(StringUtils.trimToEmpty(callers), ","));
+		this.pinMillis = TimeUnit.SECONDS.toMillis(pinSeconds);
+		this.retryMillis = TimeUnit.SECONDS.toMillis(retrySeconds);
+	}
+
+	/**
+	 * @return true if the sql only reads, without taking locks.
+	 */
+	static boolean isReadOnly(String sql)
+	{
+		return sql != null && READ_ONLY.matcher(sql).find() && !LOCKING.matcher(sql).find();
+	}
+
+	/**
+	 * @param tagged
+	 *        true if the caller marked the read replica safe.
+	 * @return true if this read may go to the replica, as far as the statement and caller go.
+	 */
+	public boolean routes(String sql, boolean tagged)
+	{
+		if (!isReplicaAvailable() || !isReadOnly(sql)) return false;
+		if (tagged || allCallers) return true;
+		if (callers.length == 0) return false;
+
+		String caller = SqlProfiler.callerOf();
+		for (String c : callers)
+		{
+			if (caller.startsWith(c)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param sessionId
+	 *        The current session, may be null.
+	 * @param threadWrote
+	 *        When the current thread last wrote, or null.
+	 * @return true if the session or thread wrote recently enough that it must read from the primary.
+	 */
+	public boolean isPinned(String sessionId, Long threadWrote)
+	{
+		long since = System.currentTimeMillis() - pinMillis;
+		boolean pinned = threadWrote != null && threadWrote > since;
+		if (!pinned && sessionId != null)
+		{
+			Long wrote = sessionWrites.get(sessionId);
+			if (wrote != null)
+			{
+				if (wrote > since)
+				{
+					pinned = true;
+				}
+				else
+				{
+					sessionWrites.remove(sessionId, wrote);
+				}
+			}
+		}
+		if (pinned) pinnedReads.increment();
+		return pinned;
+	}
+
+	/**
+	 * Note that a session wrote.
+	 * 
+	 * @return the time of the write.
+	 */
+	public long wrote(String sessionId)
+	{
+		long now = System.currentTimeMillis();
+		if (sessionId != null)
+		{
+			if (sessionWrites.size() >= MAX_SESSIONS)
+			{
+				long since = now - pinMillis;
+				sessionWrites.values().removeIf(t -> t <= since);
+			}
+			sessionWrites.put(sessionId, now);
+		}
+		return now;
+	}
+
+	/**
+	 * Borrow a connection from the replica pool.
+	 */
+	public Connection borrowConnection() throws SQLException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return replica.getConnection();
+		}
+		finally
+		{
+			replicaWait.add(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Count a read.
+	 * 
+	 * @param onReplica
+	 *        true if it ran on the replica.
+	 * @param wait
+	 *        The ns it waited for a connection.
+	 */
+	public void read(boolean onReplica, long wait)
+	{
+		if (onReplica)
+		{
+			replicaReads.increment();
+		}
+		else
+		{
+			primaryReads.increment();
+			primaryWait.add(wait);
+		}
+	}
+
+	/**
+	 * Skip the replica for a while, after it failed.
+	 */
+	public void failed(Exception e)
+	{
+		fallbacks.increment();
+		if (isReplicaAvailable())
+		{
+			log.warn("replica failed, reading from the primary for " + TimeUnit.MILLISECONDS.toSeconds(retryMillis) + "s: " + e);
+		}
+		downUntil = System.currentTimeMillis() + retryMillis;
+	}
+
+	public boolean isReplicaAvailable()
+	{
+		return downUntil <= System.currentTimeMillis();
+	}
+
+	public long getPrimaryReads()
+	{
+		return primaryReads.sum();
+	}
+
+	public long getReplicaReads()
+	{
+		return replicaReads.sum();
+	}
+
+	public long getPinnedReads()
+	{
+		return pinnedReads.sum();
+	}
+
+	public long getFallbacks()
+	{
+		return fallbacks.sum();
+	}
+
+	public long getPrimaryConnectionWait()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(primaryWait.sum());
+	}
+
+	public long getReplicaConnectionWait()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(replicaWait.sum());
+	}
+}
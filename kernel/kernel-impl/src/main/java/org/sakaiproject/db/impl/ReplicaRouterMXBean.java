@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+/**
+ * The read replica routing counts published over JMX, as org.sakaiproject:name=SqlService.replica.
+ * Times are in ms.
+ */
+public interface ReplicaRouterMXBean
+{
+	/** Reads sent to the primary. */
+	long getPrimaryReads();
+
+	/** Reads sent to the replica. */
+	long getReplicaReads();
+
+	/** Replica safe reads kept on the primary as the session or thread had just written. */
+	long getPinnedReads();
+
+	/** Replica reads that failed and were run again on the primary. */
+	long getFallbacks();
+
+	/** false while the replica is skipped after a failure. */
+	boolean isReplicaAvailable();
+
+	/** Time reads spent waiting for a primary connection. */
+	long getPrimaryConnectionWait();
+
+	/** Time reads spent waiting for a replica connection. */
+	long getReplicaConnectionWait();
+}
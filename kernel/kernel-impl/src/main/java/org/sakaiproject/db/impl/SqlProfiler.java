@@ -0,0 +1,425 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.sakaiproject.db.api.SqlSlowStatement;
+import org.sakaiproject.db.api.SqlStatementStats;
+
+/**
+ * Counts the statements run through the SqlService: per caller and statement fingerprint, the runs, failures, a
+ * latency histogram, the rows read or changed, and the time spent waiting for a connection. Statements that run over
+ * the slow threshold are kept in a short list, with the caller's stack for a sample of them.
+ */
+@Slf4j
+public class SqlProfiler implements SqlProfilerMXBean
+{
+	/** Upper bounds of the latency histogram buckets, in ms; the last bucket takes anything longer. */
+	static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+	/** The tag and statement everything is counted under once maxTracked is reached. */
+	static final String OTHER = "other";
+
+	/** Packages and classes whose frames are skipped, past the SqlService itself, when finding the caller of a statement. */
+	private static final String[] PLUMBING = { "org.sakaiproject.db.cover.", "org.sakaiproject.util.BaseDb", "org.sakaiproject.util.Db",
+			"java.", "jdk.", "sun.", "com.sun.", "org.springframework." };
+
+	private static final int MAX_FINGERPRINTS = 10000;
+
+	private static final int MAX_SLOW = 100;
+
+	private static final int MAX_STACK = 30;
+
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.?])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+
+	private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+
+	private static final StackWalker WALKER = StackWalker.getInstance();
+
+	private final int maxTracked;
+
+	private final long slowNanos;
+
+	private final int slowSample;
+
+	private final boolean tagCallers;
+
+	/** Raw sql to fingerprint, so each distinct statement is only normalized once. */
+	private final Map<String, String> fingerprints = new ConcurrentHashMap<>();
+
+	private final Map<String, Counts> counts = new ConcurrentHashMap<>();
+
+	private final ArrayDeque<SqlSlowStatement> slow = new ArrayDeque<>();
+
+	private final LongAdder statements = new LongAdder();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder slowCount = new LongAdder();
+
+	private final LongAdder connectionWait = new LongAdder();
+
+	private final LongAdder untracked = new LongAdder();
+
+	private final AtomicLong slowSeen = new AtomicLong();
+
+	/**
+	 * @param maxTracked
+	 *        The most caller and statement pairs to count separately.
+	 * @param slowThreshold
+	 *        Statements taking at least this many ms are slow, 0 to not keep slow statements.
+	 * @param slowSample
+	 *        Capture the caller's stack for one in this many slow statements, 0 for never.
+	 * @param tagCallers
+	 *        Find the calling class and method for each statement, otherwise all are counted under one tag.
+	 */
+	public SqlProfiler(int maxTracked, long slowThreshold, int slowSample, boolean tagCallers)
+	{
+		this.maxTracked = maxTracked;
+		this.slowNanos = slowThreshold > 0 ? TimeUnit.MILLISECONDS.toNanos(slowThreshold) : Long.MAX_VALUE;
+		this.slowSample = slowSample;
+		this.tagCallers = tagCallers;
+	}
+
+	/**
+	 * Count a statement.
+	 * 
+	 * @param sql
+	 *        The sql run.
+	 * @param elapsed
+	 *        The ns it took, including the wait for a connection.
+	 * @param wait
+	 *        The ns spent waiting for a connection.
+	 * @param rows
+	 *        The rows read or changed.
+	 * @param failed
+	 *        true if the statement failed.
+	 */
+	public void record(String sql, long elapsed, long wait, long rows, boolean failed)
+	{
+		if (sql == null) return;
+
+		String statement = fingerprint(sql);
+		String tag = tagCallers ? callerOf() : OTHER;
+
+		Counts c = counts.get(tag + '\n' + statement);
+		if (c == null)
+		{
+			if (counts.size() < maxTracked)
+			{
+				c = counts.computeIfAbsent(tag + '\n' + statement, k -> new Counts(tag, statement));
+			}
+			else
+			{
+				untracked.increment();
+				c = counts.computeIfAbsent(OTHER + '\n' + OTHER, k -> new Counts(OTHER, OTHER));
+			}
+		}
+		c.add(elapsed, wait, rows, failed);
+
+		statements.increment();
+		if (failed) errors.increment();
+		connectionWait.add(wait);
+
+		if (elapsed >= slowNanos)
+		{
+			slowCount.increment();
+			String stack = null;
+			if (slowSample > 0 && slowSeen.getAndIncrement() % slowSample == 0)
+			{
+				stack = stack();
+			}
+			SqlSlowStatement s = new SqlSlowStatement(System.currentTimeMillis(), tag, statement, TimeUnit.NANOSECONDS.toMillis(elapsed), rows, stack);
+			synchronized (slow)
+			{
+				if (slow.size() == MAX_SLOW) slow.removeLast();
+				slow.addFirst(s);
+			}
+			if (log.isDebugEnabled()) log.debug("slow statement: " + s.getElapsed() + "ms " + tag + " " + statement);
+		}
+	}
+
+	/**
+	 * Reduce a statement to its shape: whitespace collapsed, literals replaced with ?, and lists of placeholders
+	 * folded to one, so the same query with different values or list lengths is counted together.
+	 */
+	static String normalize(String sql)
+	{
+		String rv = WHITESPACE.matcher(sql.trim()).replaceAll(" ");
+		rv = STRING_LITERAL.matcher(rv).replaceAll("?");
+		rv = NUMBER_LITERAL.matcher(rv).replaceAll("?");
+		rv = IN_LIST.matcher(rv).replaceAll("(?+)");
+		return rv;
+	}
+
+	protected String fingerprint(String sql)
+	{
+		String rv = fingerprints.get(sql);
+		if (rv == null)
+		{
+			// statements built with literals could grow this without bound, so start again when it gets big
+			if (fingerprints.size() >= MAX_FINGERPRINTS) fingerprints.clear();
+			rv = normalize(sql);
+			fingerprints.put(sql, rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * @return the class and method that called the SqlService, skipping the service and the generic storage classes.
+	 */
+	static String callerOf()
+	{
+		return WALKER.walk(frames -> frames.filter(f -> !isPlumbing(f.getClassName())).findFirst()
+				.map(f -> simpleName(f.getClassName()) + "." + f.getMethodName()).orElse(OTHER));
+	}
+
+	private static boolean isService(String className)
+	{
+		// the service may be a generated subclass of BasicSqlService
+		return className.startsWith(BasicSqlService.class.getName()) || isClass(className, SqlProfiler.class)
+				|| isClass(className, ReplicaRouter.class);
+	}
+
+	private static boolean isClass(String className, Class<?> c)
+	{
+		return className.equals(c.getName()) || className.startsWith(c.getName() + "$");
+	}
+
+	private static boolean isPlumbing(String className)
+	{
+		if (isService(className)) return true;
+		for (String p : PLUMBING)
+		{
+			if (className.startsWith(p)) return true;
+		}
+		return false;
+	}
+
+	private static String simpleName(String className)
+	{
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	private static String stack()
+	{
+		return WALKER.walk(frames -> frames.dropWhile(f -> isService(f.getClassName())).limit(MAX_STACK)
+				.map(f -> f.toStackTraceElement().toString()).collect(Collectors.joining("\n")));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<SqlStatementStats> topStatements(int limit, String orderBy)
+	{
+		Comparator<SqlStatementStats> order;
+		switch (orderBy == null ? "total" : orderBy)
+		{
+			case "count":
+				order = Comparator.comparingLong(SqlStatementStats::getCount);
+				break;
+			case "max":
+				order = Comparator.comparingLong(SqlStatementStats::getMaxTime);
+				break;
+			case "mean":
+				order = Comparator.comparingDouble(s -> (double) s.getTotalTime() / Math.max(1, s.getCount()));
+				break;
+			case "rows":
+				order = Comparator.comparingLong(SqlStatementStats::getRows);
+				break;
+			case "wait":
+				order = Comparator.comparingLong(SqlStatementStats::getConnectionWait);
+				break;
+			case "errors":
+				order = Comparator.comparingLong(SqlStatementStats::getErrors);
+				break;
+			default:
+				order = Comparator.comparingLong(SqlStatementStats::getTotalTime);
+		}
+
+		List<SqlStatementStats> rv = new ArrayList<>(counts.size());
+		for (Counts c : counts.values())
+		{
+			rv.add(c.snapshot());
+		}
+		rv.sort(order.reversed());
+		return (limit > 0 && rv.size() > limit) ? new ArrayList<>(rv.subList(0, limit)) : rv;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<SqlSlowStatement> getSlowStatements()
+	{
+		synchronized (slow)
+		{
+			return new ArrayList<>(slow);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void reset()
+	{
+		counts.clear();
+		synchronized (slow)
+		{
+			slow.clear();
+		}
+		statements.reset();
+		errors.reset();
+		slowCount.reset();
+		connectionWait.reset();
+		untracked.reset();
+	}
+
+	public long getStatements()
+	{
+		return statements.sum();
+	}
+
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	public long getSlowStatementCount()
+	{
+		return slowCount.sum();
+	}
+
+	public long getConnectionWait()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(connectionWait.sum());
+	}
+
+	public int getTracked()
+	{
+		return counts.size();
+	}
+
+	public long getUntracked()
+	{
+		return untracked.sum();
+	}
+
+	/**
+	 * The counts for one caller and statement.
+	 */
+	static class Counts
+	{
+		final String tag;
+
+		final String statement;
+
+		final LongAdder count = new LongAdder();
+
+		final LongAdder errors = new LongAdder();
+
+		final LongAdder nanos = new LongAdder();
+
+		final LongAdder wait = new LongAdder();
+
+		final LongAdder rows = new LongAdder();
+
+		final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		final LongAdder[] histogram = new LongAdder[BUCKETS.length + 1];
+
+		Counts(String tag, String statement)
+		{
+			this.tag = tag;
+			this.statement = statement;
+			for (int i = 0; i < histogram.length; i++)
+			{
+				histogram[i] = new LongAdder();
+			}
+		}
+
+		void add(long elapsed, long waited, long rowCount, boolean failed)
+		{
+			count.increment();
+			if (failed) errors.increment();
+			nanos.add(elapsed);
+			wait.add(waited);
+			rows.add(rowCount);
+			max.accumulate(elapsed);
+			histogram[bucket(TimeUnit.NANOSECONDS.toMillis(elapsed))].increment();
+		}
+
+		SqlStatementStats snapshot()
+		{
+			long[] h = new long[histogram.length];
+			long n = 0;
+			for (int i = 0; i < h.length; i++)
+			{
+				h[i] = histogram[i].sum();
+				n += h[i];
+			}
+			long maxMs = TimeUnit.NANOSECONDS.toMillis(max.get());
+			return new SqlStatementStats(tag, statement, count.sum(), errors.sum(), TimeUnit.NANOSECONDS.toMillis(nanos.sum()), maxMs,
+					percentile(h, n, 0.50, maxMs), percentile(h, n, 0.95, maxMs), percentile(h, n, 0.99, maxMs), rows.sum(),
+					TimeUnit.NANOSECONDS.toMillis(wait.sum()));
+		}
+	}
+
+	static int bucket(long ms)
+	{
+		for (int i = 0; i < BUCKETS.length; i++)
+		{
+			if (ms < BUCKETS[i]) return i;
+		}
+		return BUCKETS.length;
+	}
+
+	/**
+	 * @return the upper bound of the bucket holding the given percentile, no more than the max seen.
+	 */
+	static long percentile(long[] histogram, long n, double p, long max)
+	{
+		if (n == 0) return 0;
+		long rank = (long) Math.ceil(p * n);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++)
+		{
+			seen += histogram[i];
+			if (seen >= rank)
+			{
+				return i < BUCKETS.length ? Math.min(BUCKETS[i], max) : max;
+			}
+		}
+		return max;
+	}
+}
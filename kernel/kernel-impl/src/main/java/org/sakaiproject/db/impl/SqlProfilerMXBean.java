@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import java.util.List;
+
+import org.sakaiproject.db.api.SqlSlowStatement;
+import org.sakaiproject.db.api.SqlStatementStats;
+
+/**
+ * The SqlService statement profile published over JMX, as org.sakaiproject:name=SqlService.
+ * Times are in ms.
+ */
+public interface SqlProfilerMXBean
+{
+	/** Statements run since startup (or the last reset). */
+	long getStatements();
+
+	/** Statements that failed. */
+	long getErrors();
+
+	/** Statements over the slow threshold. */
+	long getSlowStatementCount();
+
+	/** Time spent waiting for a connection from the pool. */
+	long getConnectionWait();
+
+	/** The caller and statement pairs being counted. */
+	int getTracked();
+
+	/** Statements counted under "other" as too many distinct statements were being counted. */
+	long getUntracked();
+
+	/** The busiest statements, see SqlService.getStatementStats. */
+	List<SqlStatementStats> topStatements(int limit, String orderBy);
+
+	/** The most recent slow statements, newest first. */
+	List<SqlSlowStatement> getSlowStatements();
+
+	/** Start counting again from zero. */
+	void reset();
+}
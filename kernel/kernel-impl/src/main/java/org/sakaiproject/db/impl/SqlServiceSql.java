@@ -26,6 +26,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 /**
  * database methods.
@@ -131,4 +132,19 @@ public interface SqlServiceSql
 	 */
 	public Long getGeneratedKey(PreparedStatement pstmt, String sql) throws SQLException;
 
+	/**
+	 * returns whether the driver returns a generated key for every row of a batched insert.
+	 */
+	public boolean canBatchGeneratedKeys();
+
+	/**
+	 * Extract the generated keys from a just-executed batch of inserts
+	 * 
+	 * @param pstmt
+	 *      The prepared statement just executed
+	 * @return
+	 *      The inserted keys, in batch order
+	 */
+	public List<Long> getGeneratedKeys(PreparedStatement pstmt) throws SQLException;
+
 }
@@ -21,6 +21,7 @@
 
 package org.sakaiproject.email.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
@@ -212,6 +213,27 @@ public class BasicEmailService implements EmailService
 	/** Configuration: Socket I/O timeout value in milliseconds. Default is infinite timeout. */
 	protected String smtpTimeout = null;
 
+	/** Configuration: send through the outbound mail queue, so callers do not wait on the SMTP server. */
+	protected boolean outboundQueue = true;
+
+	/** Configuration: the number of outbound mail senders, each with its own SMTP connection. */
+	protected int outboundThreads = 4;
+
+	/** Configuration: the number of attempts to send a message set before giving up on it. */
+	protected int outboundMaxAttempts = 5;
+
+	/** Configuration: seconds before the first retry of a failed send, doubled for each retry after. */
+	protected int outboundRetryDelay = 60;
+
+	/** Configuration: the most message sets sent to the SMTP server per second, 0 for no limit. */
+	protected double outboundRate = 0;
+
+	/** Configuration: where queued mail is kept until sent, "none" to hold it in memory. Default is mailspool in sakai home. */
+	protected String outboundSpool = null;
+
+	/** The outbound mail queue, when sending through it. */
+	protected OutboundMailQueue outbound = null;
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Init and Destroy
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -261,6 +283,24 @@ public class BasicEmailService implements EmailService
                     , smtp, smtpPort != null ? (":" + smtpPort) : "", smtpFrom, maxRecipients, testMode
 				    , smtpConnectionTimeout != null ? (" smtpConnectionTimeout: " + smtpConnectionTimeout) : ""
 				    , smtpTimeout != null ? (" smtpTimeout: " + smtpTimeout) : "");
+
+		if (outboundQueue && allowTransport && !testMode && smtp != null)
+		{
+			String spool = outboundSpool;
+			if (spool == null && serverConfigurationService.getSakaiHomePath() != null)
+			{
+				spool = serverConfigurationService.getSakaiHomePath() + "mailspool";
+			}
+
+			outbound = new OutboundMailQueue(Session.getInstance(createMailSessionProperties()), this::connectTransport, smtp);
+			outbound.setThreads(outboundThreads);
+			outbound.setMaxAttempts(outboundMaxAttempts);
+			outbound.setRetryDelay(outboundRetryDelay * 1000L);
+			outbound.setRatePerSecond(outboundRate);
+			outbound.setOneMessagePerConnection(oneMessagePerConnection);
+			outbound.setSpoolDir((spool == null || "none".equals(spool)) ? null : new File(spool));
+			outbound.start();
+		}
 	}
 
 	/**
@@ -268,6 +308,12 @@ public class BasicEmailService implements EmailService
 	 */
 	public void destroy()
 	{
+		if (outbound != null)
+		{
+			outbound.stop();
+			outbound = null;
+		}
+
 		log.info("destroy()");
 	}
 
@@ -743,7 +789,36 @@ public class BasicEmailService implements EmailService
 		return messageSets;
 	}
 	
+	/**
+	 * Open a connection to the SMTP server.
+	 */
+	private Transport connectTransport(Session session) throws MessagingException {
+		Transport transport = session.getTransport(protocol);
+		if (smtpUser != null && smtpPassword != null) {
+			transport.connect(smtp, smtpUser, smtpPassword);
+		} else {
+			transport.connect();
+		}
+		return transport;
+	}
+
 	private void transportMessage(Session session, List<Address[]> messageSets, Collection<String> headers, MimeMessage msg) {
+		// hand the message to the outbound queue, if we have one
+		if (outbound != null)
+		{
+			try
+			{
+				msg.saveChanges();
+				outbound.enqueue(msg, messageSets);
+				if (log.isInfoEnabled()) log.info(describeTransport(messageSets, headers).append(" queued").toString());
+			}
+			catch (MessagingException e)
+			{
+				log.warn("transportMessage:" + e);
+			}
+			return;
+		}
+
 		// transport the message
 		long time1 = 0;
 		long time2 = 0;
@@ -757,18 +832,12 @@ public class BasicEmailService implements EmailService
 		int numConnects = 1;
 		try
 		{
-			if (log.isDebugEnabled()) time1 = System.currentTimeMillis();
-			Transport transport = session.getTransport(protocol);
-
-			if (log.isDebugEnabled()) time2 = System.currentTimeMillis();
+			// getting the transport is timed with the connect
+			if (log.isDebugEnabled()) time1 = time2 = System.currentTimeMillis();
 			msg.saveChanges();
 
 			if (log.isDebugEnabled()) time3 = System.currentTimeMillis();
-			if (smtpUser != null && smtpPassword != null) {
-				transport.connect(smtp,smtpUser,smtpPassword);
-			} else {
-				transport.connect();
-			}
+			Transport transport = connectTransport(session);
 
 			if (log.isDebugEnabled()) time4 = System.currentTimeMillis();
 
@@ -820,24 +889,7 @@ public class BasicEmailService implements EmailService
 		// log
 		if (log.isInfoEnabled())
 		{
-			StringBuilder buf = new StringBuilder();
-			buf.append("transportMessage: headers[");
-			for (String header : headers)
-			{
-				buf.append(" ");
-				buf.append(cleanUp(header));
-			}
-			buf.append("]");
-			for (Address[] toAddresses : messageSets)
-			{
-				buf.append(" to[ ");
-				for (int a = 0; a < toAddresses.length; a++)
-				{
-					buf.append(" ");
-					buf.append(toAddresses[a]);
-				}
-				buf.append("]");
-			}
+			StringBuilder buf = describeTransport(messageSets, headers);
 
 			if (log.isDebugEnabled())
 			{
@@ -851,6 +903,29 @@ public class BasicEmailService implements EmailService
 		}
 	}
 
+	private StringBuilder describeTransport(List<Address[]> messageSets, Collection<String> headers)
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("transportMessage: headers[");
+		for (String header : headers)
+		{
+			buf.append(" ");
+			buf.append(cleanUp(header));
+		}
+		buf.append("]");
+		for (Address[] toAddresses : messageSets)
+		{
+			buf.append(" to[ ");
+			for (int a = 0; a < toAddresses.length; a++)
+			{
+				buf.append(" ");
+				buf.append(toAddresses[a]);
+			}
+			buf.append("]");
+		}
+		return buf;
+	}
+
 	private Properties createMailSessionProperties()
 	{
 		Properties props = new Properties();
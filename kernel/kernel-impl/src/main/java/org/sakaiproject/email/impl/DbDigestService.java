@@ -21,7 +21,22 @@
 
 package org.sakaiproject.email.impl;
 
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,6 +45,7 @@ import org.sakaiproject.email.api.Digest;
 import org.sakaiproject.email.api.DigestEdit;
 import org.sakaiproject.util.BaseDbSingleStorage;
 import org.sakaiproject.util.SingleStorageUser;
+import org.sakaiproject.util.SqlBatchWriter;
 
 /**
  * <p>
@@ -47,6 +63,39 @@ public class DbDigestService extends BaseDigestService
 
 	protected SqlService sqlService;
 
+	/** Number of shards the digest messages are spread over. Fixed, so rows queued by any server stay reachable. */
+	protected static final int DIGEST_SHARDS = 64;
+
+	/** Configuration: the number of threads each server sends digests with. */
+	protected static final String DIGEST_THREADS_PROPKEY = "email.digest.threads";
+
+	/** Configuration: the number of users read per page of a shard. */
+	protected static final String DIGEST_PAGE_SIZE_PROPKEY = "email.digest.page.size";
+
+	/** Configuration: seconds before an unfinished shard claimed by another server may be taken over. */
+	protected static final String DIGEST_CLAIM_TIMEOUT_PROPKEY = "email.digest.claim.timeout";
+
+	/** How long the shard claims of finished runs are kept (ms). */
+	protected static final long DIGEST_SHARD_KEEP = 7L * 24 * 60 * 60 * 1000;
+
+	/** Vendor specific sql for the row-per-message digest storage. */
+	protected DigestServiceSql digestServiceSql;
+
+	protected int m_sendThreads = 2;
+
+	protected int m_pageSize = 200;
+
+	protected long m_claimTimeout = 600000L;
+
+	/** The period start of the last send run seen complete, so it is not checked again. */
+	protected long m_lastRunDone = -1;
+
+	/** Set on destroy, to stop the senders between users. */
+	protected volatile boolean m_stopping = false;
+
+	/** Strictly increasing creation stamp for queued messages, to keep their order within a period. */
+	private final AtomicLong m_lastCreated = new AtomicLong();
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Dependencies
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -114,11 +163,18 @@ public class DbDigestService extends BaseDigestService
 			if (m_autoDdl)
 			{
 				sqlService.ddl(this.getClass().getClassLoader(), "sakai_digest");
+				sqlService.ddl(this.getClass().getClassLoader(), "sakai_digest_message");
 			}
 
+			digestServiceSql = "oracle".equals(sqlService.getVendor()) ? new DigestServiceSqlOracle() : new DigestServiceSqlDefault();
+			m_sendThreads = Math.max(1, serverConfigurationService.getInt(DIGEST_THREADS_PROPKEY, m_sendThreads));
+			m_pageSize = Math.max(1, serverConfigurationService.getInt(DIGEST_PAGE_SIZE_PROPKEY, m_pageSize));
+			m_claimTimeout = Math.max(60, serverConfigurationService.getInt(DIGEST_CLAIM_TIMEOUT_PROPKEY, (int) (m_claimTimeout / 1000))) * 1000L;
+
 			super.init();
 
-			log.info("init(): table: " + m_tableName + " locks-in-db: " + m_locksInDb);
+			log.info("init(): table: " + m_tableName + " locks-in-db: " + m_locksInDb + " send threads: " + m_sendThreads
+					+ " page size: " + m_pageSize);
 		}
 		catch (Exception t)
 		{
@@ -130,6 +186,15 @@ public class DbDigestService extends BaseDigestService
 	 * BaseDigestService extensions
 	 *********************************************************************************************************************************************************************************************************************************************************/
 
+	/**
+	 * Returns to uninitialized state.
+	 */
+	public void destroy()
+	{
+		m_stopping = true;
+		super.destroy();
+	}
+
 	/**
 	 * Construct a Storage object.
 	 * 
@@ -140,6 +205,321 @@ public class DbDigestService extends BaseDigestService
 		return new DbStorage(this);
 	}
 
+	/**
+	 * Write the queued digest requests as one row per message, in batches. A batch that fails is written a row at a time,
+	 * and the messages that still could not be written are returned to the queue.
+	 */
+	@Override
+	protected void processQueue()
+	{
+		log.debug("Processing mail digest queue...");
+
+		// grab the queue - any new stuff will be processed next time
+		List<DigestMessage> queue = new ArrayList<>();
+		synchronized (m_digestQueue)
+		{
+			queue.addAll(m_digestQueue);
+			m_digestQueue.clear();
+		}
+		if (queue.isEmpty()) return;
+
+		long period = computeRange(timeService.newTime()).firstTime().getTime();
+		List<Object[]> rows = new ArrayList<>(queue.size());
+		Map<Object[], DigestMessage> messages = new IdentityHashMap<>();
+		for (DigestMessage message : queue)
+		{
+			long created = m_lastCreated.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis()));
+			Object[] row = new Object[] { UUID.randomUUID().toString(), message.getTo(), shardOf(message.getTo()), period, created,
+					message.getSubject(), message.getBody() };
+			rows.add(row);
+			messages.put(row, message);
+		}
+
+		List<DigestMessage> failed = new ArrayList<>();
+		SqlBatchWriter.write(sqlService, digestServiceSql.getInsertMessageSql(), rows, m_pageSize, row -> failed.add(messages.get(row)));
+		if (!failed.isEmpty())
+		{
+			log.warn("processQueue(): could not store {} digest messages, will try again at next digest attempt", failed.size());
+			synchronized (m_digestQueue)
+			{
+				m_digestQueue.addAll(0, failed);
+			}
+		}
+	}
+
+	/**
+	 * Send the digest messages held as rows, then any left in the older per-user xml digests.
+	 */
+	@Override
+	protected void sendDigests()
+	{
+		try
+		{
+			sendDigestMessages();
+		}
+		catch (Exception e)
+		{
+			log.warn("sendDigests(): {}", e.toString(), e);
+		}
+
+		super.sendDigests();
+	}
+
+	/**
+	 * Send everything queued before the current period. The users are spread over DIGEST_SHARDS shards; the threads of every
+	 * server claim shards through SAKAI_DIGEST_SHARD, page through the users of a claimed shard in id order and checkpoint the
+	 * last user sent after each page. A user's rows are deleted once sent, so a shard taken over from a failed server picks up
+	 * where that server stopped.
+	 */
+	protected void sendDigestMessages()
+	{
+		// the run is keyed by the current period start, and covers everything queued before it
+		long now = System.currentTimeMillis();
+		long period = computeRange(timeService.newTime(now)).firstTime().getTime();
+		long cutoff = period;
+		if (m_debugBypass)
+		{
+			period = now;
+			cutoff = Long.MAX_VALUE;
+		}
+		if (period == m_lastRunDone) return;
+
+		Map<Integer, ShardState> shards = readShards(period);
+		long stale = now - m_claimTimeout;
+		List<Integer> open = new ArrayList<>();
+		boolean done = true;
+		for (int shard = 0; shard < DIGEST_SHARDS; shard++)
+		{
+			ShardState state = shards.get(shard);
+			if (state == null || !state.done)
+			{
+				done = false;
+				if (state == null || state.updated < stale) open.add(shard);
+			}
+		}
+
+		if (done)
+		{
+			m_lastRunDone = period;
+			sqlService.dbWrite(digestServiceSql.getDeleteOldShardsSql(), new Object[] { period - DIGEST_SHARD_KEEP });
+			return;
+		}
+		if (open.isEmpty()) return;
+
+		// start on the shards in a different order on each server, so they do not all contend for the same claims
+		Collections.shuffle(open);
+		Queue<Integer> work = new ConcurrentLinkedQueue<>(open);
+
+		int threads = Math.min(m_sendThreads, open.size());
+		log.info("Preparing to send the mail digests for {} from {} shards with {} threads", timeService.newTime(period), open.size(), threads);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService senders = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "digest-sender-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		SendCounts counts = new SendCounts();
+		final long runPeriod = period;
+		final long runCutoff = cutoff;
+		List<Future<?>> running = new ArrayList<>();
+		try
+		{
+			for (int i = 0; i < threads; i++)
+			{
+				running.add(senders.submit(() -> {
+					Integer shard;
+					while (!m_stopping && (shard = work.poll()) != null)
+					{
+						ShardState state = shards.get(shard);
+						if (claimShard(runPeriod, shard, state, stale))
+						{
+							sendShard(runPeriod, runCutoff, shard, state == null ? null : state.lastUserId, counts);
+						}
+					}
+				}));
+			}
+			for (Future<?> f : running)
+			{
+				try
+				{
+					f.get();
+				}
+				catch (ExecutionException e)
+				{
+					log.warn("sendDigestMessages(): {}", e.getCause().toString(), e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			senders.shutdownNow();
+		}
+
+		log.info("Sent the mail digests for {}: shards: {} users: {} messages: {} in {} ms", timeService.newTime(period),
+				counts.shards.get(), counts.users.get(), counts.messages.get(), System.currentTimeMillis() - now);
+	}
+
+	/**
+	 * Send the due messages of one claimed shard, a page of users at a time.
+	 */
+	protected void sendShard(long period, long cutoff, int shard, String lastUserId, SendCounts counts)
+	{
+		String serverId = serverConfigurationService.getServerIdInstance();
+		String after = (lastUserId == null || lastUserId.length() == 0) ? null : lastUserId;
+		while (!m_stopping)
+		{
+			Object[] fields = (after == null) ? new Object[] { shard, cutoff } : new Object[] { shard, cutoff, after };
+			List<String> users = sqlService.dbRead(digestServiceSql.getDueUsersSql(after != null, m_pageSize), fields, null);
+			if (users.isEmpty())
+			{
+				sqlService.dbWrite(digestServiceSql.getUpdateShardDoneSql(),
+						new Object[] { System.currentTimeMillis(), period, shard, serverId });
+				counts.shards.incrementAndGet();
+				return;
+			}
+
+			for (String userId : users)
+			{
+				if (m_stopping) return;
+				sendUser(userId, cutoff, counts);
+			}
+
+			// checkpoint, which also tells us if another server has taken the shard over
+			after = users.get(users.size() - 1);
+			int updated = sqlService.dbWriteCount(digestServiceSql.getUpdateShardCheckpointSql(),
+					new Object[] { after, System.currentTimeMillis(), period, shard, serverId }, null, null, false);
+			if (updated != 1)
+			{
+				log.warn("sendShard(): lost the claim on digest shard {} after user {}", shard, after);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send one user's due messages, one email per period, and delete them.
+	 */
+	protected void sendUser(String userId, long cutoff, SendCounts counts)
+	{
+		List<Object[]> rows = sqlService.dbRead(digestServiceSql.getUserMessagesSql(), new Object[] { userId, cutoff }, result -> {
+			try
+			{
+				return new Object[] { result.getLong(1), result.getLong(2), result.getString(3), result.getString(4) };
+			}
+			catch (SQLException e)
+			{
+				log.warn("sendUser(): {}", e.toString());
+				return null;
+			}
+		});
+
+		long created = -1;
+		long periodStart = -1;
+		List<DigestMessage> msgs = new ArrayList<>();
+		for (Object[] row : rows)
+		{
+			if (row == null) continue;
+			long rowPeriod = (Long) row[0];
+			if (rowPeriod != periodStart && !msgs.isEmpty())
+			{
+				send(userId, msgs, computeRange(timeService.newTime(periodStart)));
+				msgs = new ArrayList<>();
+			}
+			periodStart = rowPeriod;
+			created = Math.max(created, (Long) row[1]);
+			msgs.add(new DigestMessage(userId, (String) row[2], (String) row[3]));
+		}
+		if (!msgs.isEmpty())
+		{
+			send(userId, msgs, computeRange(timeService.newTime(periodStart)));
+		}
+
+		if (created >= 0)
+		{
+			sqlService.dbWrite(digestServiceSql.getDeleteUserMessagesSql(), new Object[] { userId, cutoff, created });
+			counts.users.incrementAndGet();
+			counts.messages.addAndGet(rows.size());
+		}
+	}
+
+	/**
+	 * Claim a shard of a send run: insert the claim if there is none, or take over an unfinished one that has gone stale.
+	 */
+	protected boolean claimShard(long period, int shard, ShardState state, long stale)
+	{
+		String serverId = serverConfigurationService.getServerIdInstance();
+		long now = System.currentTimeMillis();
+		if (state == null)
+		{
+			return sqlService.dbWriteFailQuiet(null, digestServiceSql.getInsertShardSql(), new Object[] { period, shard, serverId, now });
+		}
+		int updated = sqlService.dbWriteCount(digestServiceSql.getClaimStaleShardSql(),
+				new Object[] { serverId, now, period, shard, stale }, null, null, false);
+		if (updated == 1)
+		{
+			log.info("claimShard(): taking over digest shard {} after user {}", shard, state.lastUserId);
+		}
+		return updated == 1;
+	}
+
+	protected Map<Integer, ShardState> readShards(long period)
+	{
+		Map<Integer, ShardState> shards = new HashMap<>();
+		sqlService.dbRead(digestServiceSql.getShardsSql(), new Object[] { period }, result -> {
+			try
+			{
+				ShardState state = new ShardState();
+				state.done = "1".equals(result.getString(2));
+				state.updated = result.getLong(3);
+				state.lastUserId = result.getString(4);
+				shards.put(result.getInt(1), state);
+			}
+			catch (SQLException e)
+			{
+				log.warn("readShards(): {}", e.toString());
+			}
+			return null;
+		});
+		return shards;
+	}
+
+	/**
+	 * The shard a user's messages are held in.
+	 */
+	protected static int shardOf(String userId)
+	{
+		return Math.floorMod(userId.hashCode(), DIGEST_SHARDS);
+	}
+
+	/**
+	 * A shard claim of a send run, as read at the start of the run.
+	 */
+	protected static class ShardState
+	{
+		boolean done;
+
+		long updated;
+
+		String lastUserId;
+	}
+
+	/**
+	 * Totals for a send run.
+	 */
+	protected static class SendCounts
+	{
+		final AtomicInteger shards = new AtomicInteger();
+
+		final AtomicInteger users = new AtomicInteger();
+
+		final AtomicLong messages = new AtomicLong();
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Storage implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
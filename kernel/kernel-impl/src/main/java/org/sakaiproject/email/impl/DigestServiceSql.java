@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+/**
+ * database methods for the row-per-message digest storage.
+ */
+public interface DigestServiceSql
+{
+	/**
+	 * returns the sql statement which inserts a queued message into the sakai_digest_message table.
+	 */
+	String getInsertMessageSql();
+
+	/**
+	 * returns the sql statement which pages through the users of a shard that have messages due before a period start,
+	 * starting after a user id if after is set.
+	 */
+	String getDueUsersSql(boolean after, int limit);
+
+	/**
+	 * returns the sql statement which retrieves a user's messages due before a period start, oldest first.
+	 */
+	String getUserMessagesSql();
+
+	/**
+	 * returns the sql statement which deletes a user's sent messages.
+	 */
+	String getDeleteUserMessagesSql();
+
+	/**
+	 * returns the sql statement which retrieves the shard claims and checkpoints of a send run.
+	 */
+	String getShardsSql();
+
+	/**
+	 * returns the sql statement which claims an unclaimed shard of a send run.
+	 */
+	String getInsertShardSql();
+
+	/**
+	 * returns the sql statement which takes over an unfinished shard whose claim has gone stale.
+	 */
+	String getClaimStaleShardSql();
+
+	/**
+	 * returns the sql statement which records the last user sent by a shard, if the claim is still ours.
+	 */
+	String getUpdateShardCheckpointSql();
+
+	/**
+	 * returns the sql statement which marks a shard done, if the claim is still ours.
+	 */
+	String getUpdateShardDoneSql();
+
+	/**
+	 * returns the sql statement which removes the shard claims of old send runs.
+	 */
+	String getDeleteOldShardsSql();
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+/**
+ * methods for accessing digest data in a database.
+ */
+public class DigestServiceSqlDefault implements DigestServiceSql
+{
+	public String getInsertMessageSql()
+	{
+		return "insert into SAKAI_DIGEST_MESSAGE (MESSAGE_ID, USER_ID, SHARD, PERIOD_START, CREATED, SUBJECT, BODY) values (?, ?, ?, ?, ?, ?, ?)";
+	}
+
+	public String getDueUsersSql(boolean after, int limit)
+	{
+		return "select distinct USER_ID from SAKAI_DIGEST_MESSAGE where SHARD = ? and PERIOD_START < ?" + (after ? " and USER_ID > ?" : "")
+				+ " order by USER_ID limit " + limit;
+	}
+
+	public String getUserMessagesSql()
+	{
+		return "select PERIOD_START, CREATED, SUBJECT, BODY from SAKAI_DIGEST_MESSAGE where USER_ID = ? and PERIOD_START < ? order by PERIOD_START, CREATED";
+	}
+
+	public String getDeleteUserMessagesSql()
+	{
+		return "delete from SAKAI_DIGEST_MESSAGE where USER_ID = ? and PERIOD_START < ? and CREATED <= ?";
+	}
+
+	public String getShardsSql()
+	{
+		return "select SHARD, DONE, UPDATED, LAST_USER_ID from SAKAI_DIGEST_SHARD where PERIOD_START = ?";
+	}
+
+	public String getInsertShardSql()
+	{
+		return "insert into SAKAI_DIGEST_SHARD (PERIOD_START, SHARD, SERVER_ID, LAST_USER_ID, DONE, UPDATED) values (?, ?, ?, null, '0', ?)";
+	}
+
+	public String getClaimStaleShardSql()
+	{
+		return "update SAKAI_DIGEST_SHARD set SERVER_ID = ?, UPDATED = ? where PERIOD_START = ? and SHARD = ? and DONE = '0' and UPDATED < ?";
+	}
+
+	public String getUpdateShardCheckpointSql()
+	{
+		return "update SAKAI_DIGEST_SHARD set LAST_USER_ID = ?, UPDATED = ? where PERIOD_START = ? and SHARD = ? and SERVER_ID = ?";
+	}
+
+	public String getUpdateShardDoneSql()
+	{
+		return "update SAKAI_DIGEST_SHARD set DONE = '1', UPDATED = ? where PERIOD_START = ? and SHARD = ? and SERVER_ID = ?";
+	}
+
+	public String getDeleteOldShardsSql()
+	{
+		return "delete from SAKAI_DIGEST_SHARD where PERIOD_START < ?";
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+/**
+ * methods for accessing digest data in an oracle database.
+ */
+public class DigestServiceSqlOracle extends DigestServiceSqlDefault
+{
+	public String getDueUsersSql(boolean after, int limit)
+	{
+		return "select USER_ID from (select distinct USER_ID from SAKAI_DIGEST_MESSAGE where SHARD = ? and PERIOD_START < ?"
+				+ (after ? " and USER_ID > ?" : "") + " order by USER_ID) where rownum <= " + limit;
+	}
+}
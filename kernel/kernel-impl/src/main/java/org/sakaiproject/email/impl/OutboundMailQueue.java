@@ -0,0 +1,775 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A queue of outbound mail, sent to one SMTP server by a pool of sender threads.
+ * <p>
+ * Each message set (a message and up to maxRecipients envelope recipients) is queued on its own, so the sets of a large
+ * message go out in parallel. Each sender keeps its SMTP connection open between sets until it has been idle for a while.
+ * Sets that fail with a connection or transient error are retried with a doubling delay, for the recipients not yet sent to.
+ * Sends to the server can be rate limited. When a spool directory is set, queued mail is kept there until sent and is
+ * queued again on start, so mail queued before a restart is not lost.
+ * </p>
+ */
+@Slf4j
+public class OutboundMailQueue implements OutboundMailQueueMXBean
+{
+	public static final String MBEAN = "org.sakaiproject:name=OutboundMail";
+
+	private static final String BODY_SUFFIX = ".eml";
+
+	private static final String RCPT_SUFFIX = ".rcpt";
+
+	private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(6);
+
+	/**
+	 * Opens a connected transport to the SMTP server.
+	 */
+	public interface Connector
+	{
+		Transport connect(Session session) throws MessagingException;
+	}
+
+	private final Session session;
+
+	private final Connector connector;
+
+	private final String host;
+
+	private int threads = 4;
+
+	private int maxAttempts = 5;
+
+	private long retryDelay = 60000L;
+
+	private double ratePerSecond = 0;
+
+	private long idleTimeout = 30000L;
+
+	private boolean oneMessagePerConnection = false;
+
+	private File spoolDir = null;
+
+	private final DelayQueue<Entry> queue = new DelayQueue<>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final AtomicLong nextSendSlot = new AtomicLong();
+
+	private ExecutorService senders;
+
+	private volatile boolean running = false;
+
+	private final AtomicInteger sending = new AtomicInteger();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder retried = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private final LongAdder connections = new LongAdder();
+
+	private final Window sendLatency = new Window(1000);
+
+	private final Window deliveryDelay = new Window(1000);
+
+	/**
+	 * @param session
+	 *        The mail session used to read spooled messages and open connections.
+	 * @param connector
+	 *        Opens a connected transport.
+	 * @param host
+	 *        The SMTP server, for logging.
+	 */
+	public OutboundMailQueue(Session session, Connector connector, String host)
+	{
+		this.session = session;
+		this.connector = connector;
+		this.host = host;
+	}
+
+	/** The number of sender threads, and so of SMTP connections. */
+	public void setThreads(int threads)
+	{
+		this.threads = Math.max(1, threads);
+	}
+
+	/** The number of attempts to send a message set before giving up on it. */
+	public void setMaxAttempts(int maxAttempts)
+	{
+		this.maxAttempts = Math.max(1, maxAttempts);
+	}
+
+	/** The delay before the first retry (ms), doubled for each one after. */
+	public void setRetryDelay(long retryDelay)
+	{
+		this.retryDelay = Math.max(0, retryDelay);
+	}
+
+	/** The most message sets sent to the SMTP server per second, across all senders. 0 for no limit. */
+	public void setRatePerSecond(double ratePerSecond)
+	{
+		this.ratePerSecond = Math.max(0, ratePerSecond);
+	}
+
+	/** How long a sender keeps an unused connection open (ms). */
+	public void setIdleTimeout(long idleTimeout)
+	{
+		this.idleTimeout = Math.max(0, idleTimeout);
+	}
+
+	/** Close the connection after each message set. */
+	public void setOneMessagePerConnection(boolean oneMessagePerConnection)
+	{
+		this.oneMessagePerConnection = oneMessagePerConnection;
+	}
+
+	/** Where queued mail is kept until sent; null to hold it in memory only. */
+	public void setSpoolDir(File spoolDir)
+	{
+		this.spoolDir = spoolDir;
+	}
+
+	/**
+	 * Queue anything left in the spool directory and start the senders.
+	 */
+	public void start()
+	{
+		if (spoolDir != null)
+		{
+			if (!spoolDir.isDirectory() && !spoolDir.mkdirs())
+			{
+				log.warn("start(): cannot create mail spool {}, holding queued mail in memory", spoolDir);
+				spoolDir = null;
+			}
+			else
+			{
+				recover();
+			}
+		}
+
+		running = true;
+		AtomicInteger count = new AtomicInteger();
+		senders = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "mail-sender-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < threads; i++)
+		{
+			senders.execute(this::sendLoop);
+		}
+
+		try
+		{
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN);
+			if (mbs.isRegistered(name))
+			{
+				mbs.unregisterMBean(name);
+			}
+			mbs.registerMBean(this, name);
+		}
+		catch (Exception e)
+		{
+			log.warn("start(): could not register {}: {}", MBEAN, e.toString());
+		}
+
+		log.info("start(): smtp: {} senders: {} max attempts: {} retry delay: {}ms rate: {}/s spool: {} queued: {}", host, threads,
+				maxAttempts, retryDelay, ratePerSecond, spoolDir, queue.size());
+	}
+
+	/**
+	 * Stop the senders, letting those sending finish. Mail still queued stays in the spool for the next start.
+	 */
+	public void stop()
+	{
+		running = false;
+		if (senders != null)
+		{
+			senders.shutdown();
+			try
+			{
+				if (!senders.awaitTermination(10, TimeUnit.SECONDS))
+				{
+					senders.shutdownNow();
+				}
+			}
+			catch (InterruptedException e)
+			{
+				senders.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN));
+		}
+		catch (Exception e)
+		{
+			log.debug("stop(): {}", e.toString());
+		}
+
+		if (!queue.isEmpty())
+		{
+			if (spoolDir != null)
+			{
+				log.info("stop(): {} message sets left in {}", queue.size(), spoolDir);
+			}
+			else
+			{
+				log.warn("stop(): {} message sets not sent", queue.size());
+			}
+		}
+	}
+
+	/**
+	 * Queue a message for sending. The message is written out now, so it can be changed, or its attachments removed, once
+	 * this returns.
+	 *
+	 * @param msg
+	 *        The message, with its changes saved.
+	 * @param messageSets
+	 *        The envelope recipients, one entry per message set to send.
+	 * @throws MessagingException
+	 *         if the message cannot be written out.
+	 */
+	public void enqueue(MimeMessage msg, List<Address[]> messageSets) throws MessagingException
+	{
+		if (messageSets.isEmpty()) return;
+
+		byte[] bytes;
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			msg.writeTo(out);
+			bytes = out.toByteArray();
+		}
+		catch (IOException e)
+		{
+			throw new MessagingException("cannot write message", e);
+		}
+
+		String id = UUID.randomUUID().toString();
+		Body body = new Body(id, messageSets.size());
+		if (spoolDir != null)
+		{
+			try
+			{
+				Files.write(body.file().toPath(), bytes);
+				for (int i = 0; i < messageSets.size(); i++)
+				{
+					writeRecipients(id + "." + i, messageSets.get(i));
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn("enqueue(): cannot spool message {}, holding it in memory: {}", id, e.toString());
+				for (int i = 0; i < messageSets.size(); i++)
+				{
+					new File(spoolDir, id + "." + i + RCPT_SUFFIX).delete();
+				}
+				body.file().delete();
+				body.bytes = bytes;
+			}
+		}
+		else
+		{
+			body.bytes = bytes;
+		}
+
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < messageSets.size(); i++)
+		{
+			queue.add(new Entry(body, id + "." + i, messageSets.get(i), now));
+		}
+	}
+
+	private void sendLoop()
+	{
+		Transport transport = null;
+		long lastUsed = 0;
+		try
+		{
+			while (running)
+			{
+				Entry entry = queue.poll(1, TimeUnit.SECONDS);
+				if (entry == null)
+				{
+					if (transport != null && System.currentTimeMillis() - lastUsed > idleTimeout)
+					{
+						transport = close(transport);
+					}
+					continue;
+				}
+
+				sending.incrementAndGet();
+				try
+				{
+					transport = send(entry, transport);
+				}
+				finally
+				{
+					sending.decrementAndGet();
+				}
+				lastUsed = System.currentTimeMillis();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			close(transport);
+		}
+	}
+
+	/**
+	 * Send one message set.
+	 *
+	 * @return the transport to use for the next set, null if it was closed.
+	 */
+	private Transport send(Entry entry, Transport transport) throws InterruptedException
+	{
+		MimeMessage msg;
+		try
+		{
+			msg = entry.body.load();
+		}
+		catch (Exception e)
+		{
+			log.warn("send(): cannot read queued message {}, dropping it: {}", entry.id, e.toString());
+			failed.increment();
+			done(entry);
+			return transport;
+		}
+
+		awaitSendSlot();
+		long start = System.currentTimeMillis();
+		try
+		{
+			if (transport == null || !transport.isConnected())
+			{
+				close(transport);
+				transport = connector.connect(session);
+				connections.increment();
+			}
+			transport.sendMessage(msg, entry.recipients);
+			sent(entry, start);
+		}
+		catch (SendFailedException e)
+		{
+			// with partial sending, the server has taken the valid recipients it could
+			if (e.getInvalidAddresses() != null && e.getInvalidAddresses().length > 0)
+			{
+				log.debug("send(): {} invalid: {}", entry.id, Arrays.toString(e.getInvalidAddresses()));
+			}
+			Address[] unsent = e.getValidUnsentAddresses();
+			if (unsent != null && unsent.length > 0)
+			{
+				retry(entry, unsent, e);
+			}
+			else if (e.getValidSentAddresses() != null && e.getValidSentAddresses().length > 0)
+			{
+				sent(entry, start);
+			}
+			else
+			{
+				failed.increment();
+				done(entry);
+			}
+		}
+		catch (MessagingException e)
+		{
+			// the connection may be broken, start again with a new one
+			transport = close(transport);
+			retry(entry, entry.recipients, e);
+		}
+
+		if (oneMessagePerConnection)
+		{
+			transport = close(transport);
+		}
+		return transport;
+	}
+
+	private void sent(Entry entry, long start)
+	{
+		long now = System.currentTimeMillis();
+		sent.increment();
+		sendLatency.add(now - start);
+		deliveryDelay.add(now - entry.queued);
+		done(entry);
+	}
+
+	private void retry(Entry entry, Address[] recipients, MessagingException e)
+	{
+		entry.attempts++;
+		if (entry.attempts >= maxAttempts)
+		{
+			log.warn("send(): giving up on {} to {} after {} attempts: {}", entry.id, Arrays.toString(recipients), entry.attempts,
+					e.toString());
+			failed.increment();
+			done(entry);
+			return;
+		}
+
+		long delay = Math.min(MAX_RETRY_DELAY, retryDelay << Math.min(20, entry.attempts - 1));
+		log.info("send(): {} to {} failed, attempt {} of {}, retrying in {}ms: {}", entry.id, recipients.length, entry.attempts,
+				maxAttempts, delay, e.toString());
+		if (recipients != entry.recipients)
+		{
+			entry.recipients = recipients;
+			if (entry.body.bytes == null)
+			{
+				try
+				{
+					writeRecipients(entry.id, recipients);
+				}
+				catch (IOException ioe)
+				{
+					log.warn("send(): cannot update spooled recipients of {}: {}", entry.id, ioe.toString());
+				}
+			}
+		}
+		retried.increment();
+		entry.due = System.currentTimeMillis() + delay;
+		queue.add(entry);
+	}
+
+	private void done(Entry entry)
+	{
+		if (entry.body.bytes == null)
+		{
+			new File(spoolDir, entry.id + RCPT_SUFFIX).delete();
+		}
+		entry.body.delete(1);
+	}
+
+	/**
+	 * Wait for the next free slot under the rate limit.
+	 */
+	private void awaitSendSlot() throws InterruptedException
+	{
+		if (ratePerSecond <= 0) return;
+
+		long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		long now = System.nanoTime();
+		long slot = nextSendSlot.getAndAccumulate(now, (next, n) -> Math.max(next, n) + interval);
+		long wait = Math.max(slot, now) - now;
+		if (wait > 0)
+		{
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	private Transport close(Transport transport)
+	{
+		if (transport != null)
+		{
+			try
+			{
+				transport.close();
+			}
+			catch (MessagingException e)
+			{
+				log.debug("close(): {}", e.toString());
+			}
+		}
+		return null;
+	}
+
+	private void writeRecipients(String id, Address[] recipients) throws IOException
+	{
+		Files.write(new File(spoolDir, id + RCPT_SUFFIX).toPath(), InternetAddress.toString(recipients).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Queue the message sets left in the spool directory.
+	 */
+	private void recover()
+	{
+		File[] bodies = spoolDir.listFiles((dir, name) -> name.endsWith(BODY_SUFFIX));
+		if (bodies == null) return;
+
+		long now = System.currentTimeMillis();
+		for (File file : bodies)
+		{
+			String id = file.getName().substring(0, file.getName().length() - BODY_SUFFIX.length());
+			File[] sets = spoolDir.listFiles((dir, name) -> name.startsWith(id + ".") && name.endsWith(RCPT_SUFFIX));
+			if (sets == null || sets.length == 0)
+			{
+				file.delete();
+				continue;
+			}
+
+			Body body = new Body(id, sets.length);
+			for (File set : sets)
+			{
+				String setId = set.getName().substring(0, set.getName().length() - RCPT_SUFFIX.length());
+				try
+				{
+					String recipients = new String(Files.readAllBytes(set.toPath()), StandardCharsets.UTF_8);
+					queue.add(new Entry(body, setId, InternetAddress.parse(recipients), now));
+				}
+				catch (Exception e)
+				{
+					log.warn("recover(): dropping spooled message set {}: {}", setId, e.toString());
+					set.delete();
+					body.delete(1);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getQueueDepth()
+	{
+		return queue.size();
+	}
+
+	@Override
+	public int getSending()
+	{
+		return sending.get();
+	}
+
+	@Override
+	public long getSent()
+	{
+		return sent.sum();
+	}
+
+	@Override
+	public long getRetried()
+	{
+		return retried.sum();
+	}
+
+	@Override
+	public long getFailed()
+	{
+		return failed.sum();
+	}
+
+	@Override
+	public long getConnections()
+	{
+		return connections.sum();
+	}
+
+	@Override
+	public long getSendLatencyP50()
+	{
+		return sendLatency.percentile(50);
+	}
+
+	@Override
+	public long getSendLatencyP95()
+	{
+		return sendLatency.percentile(95);
+	}
+
+	@Override
+	public long getSendLatencyMax()
+	{
+		return sendLatency.percentile(100);
+	}
+
+	@Override
+	public long getDeliveryDelayP50()
+	{
+		return deliveryDelay.percentile(50);
+	}
+
+	@Override
+	public long getDeliveryDelayP95()
+	{
+		return deliveryDelay.percentile(95);
+	}
+
+	@Override
+	public long getDeliveryDelayMax()
+	{
+		return deliveryDelay.percentile(100);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OutboundMailQueue[smtp: " + host + " queued: " + getQueueDepth() + " sending: " + getSending() + " sent: " + getSent()
+				+ " retried: " + getRetried() + " failed: " + getFailed() + " connections: " + getConnections() + "]";
+	}
+
+	/**
+	 * A queued message, shared by its message sets. Held either in memory or in the spool directory.
+	 */
+	private final class Body
+	{
+		final String id;
+
+		final AtomicInteger remaining;
+
+		volatile byte[] bytes;
+
+		Body(String id, int sets)
+		{
+			this.id = id;
+			this.remaining = new AtomicInteger(sets);
+		}
+
+		File file()
+		{
+			return new File(spoolDir, id + BODY_SUFFIX);
+		}
+
+		MimeMessage load() throws MessagingException, IOException
+		{
+			byte[] held = bytes;
+			try (InputStream in = (held != null) ? new ByteArrayInputStream(held) : Files.newInputStream(file().toPath()))
+			{
+				return new MimeMessage(session, in);
+			}
+		}
+
+		/**
+		 * Some of the message sets are finished with; the spooled message is removed with the last of them.
+		 */
+		void delete(int sets)
+		{
+			if (remaining.addAndGet(-sets) <= 0 && bytes == null && spoolDir != null)
+			{
+				file().delete();
+			}
+		}
+	}
+
+	/**
+	 * One message set in the queue, ordered by when it is next due.
+	 */
+	private final class Entry implements Delayed
+	{
+		final Body body;
+
+		final String id;
+
+		final long queued;
+
+		final long sequence = OutboundMailQueue.this.sequence.incrementAndGet();
+
+		volatile Address[] recipients;
+
+		int attempts = 0;
+
+		volatile long due;
+
+		Entry(Body body, String id, Address[] recipients, long queued)
+		{
+			this.body = body;
+			this.id = id;
+			this.recipients = recipients;
+			this.queued = queued;
+			this.due = queued;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit)
+		{
+			return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other)
+		{
+			Entry o = (Entry) other;
+			int c = Long.compare(due, o.due);
+			return (c != 0) ? c : Long.compare(sequence, o.sequence);
+		}
+	}
+
+	/**
+	 * The most recent times recorded, for percentiles.
+	 */
+	private static final class Window
+	{
+		private final long[] values;
+
+		private int next = 0;
+
+		private int size = 0;
+
+		Window(int size)
+		{
+			this.values = new long[size];
+		}
+
+		synchronized void add(long value)
+		{
+			values[next] = value;
+			next = (next + 1) % values.length;
+			if (size < values.length) size++;
+		}
+
+		long percentile(double percentile)
+		{
+			long[] sorted;
+			synchronized (this)
+			{
+				if (size == 0) return 0;
+				sorted = Arrays.copyOf(values, size);
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+			return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+/**
+ * Counts for the outbound mail queue, with latency percentiles over a window of the most recent sends.
+ * Published over JMX as org.sakaiproject:name=OutboundMail.
+ */
+public interface OutboundMailQueueMXBean
+{
+	/** Number of message sets waiting to be sent, including those waiting to be retried. */
+	int getQueueDepth();
+
+	/** Number of message sets being sent now. */
+	int getSending();
+
+	long getSent();
+
+	/** Number of send attempts that failed and were queued again. */
+	long getRetried();
+
+	/** Number of message sets given up on, after their last attempt or for invalid addresses. */
+	long getFailed();
+
+	/** Number of SMTP connections opened. */
+	long getConnections();
+
+	/** Time talking to the SMTP server for one message set (ms). */
+	long getSendLatencyP50();
+
+	long getSendLatencyP95();
+
+	long getSendLatencyMax();
+
+	/** Time from a message set being queued to it being sent (ms). */
+	long getDeliveryDelayP50();
+
+	long getDeliveryDelayP95();
+
+	long getDeliveryDelayMax();
+}
@@ -21,10 +21,20 @@
 
 package org.sakaiproject.event.impl;
 
+import java.lang.management.ManagementFactory;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -32,6 +42,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.EntityManager;
 import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.event.api.Event;
@@ -59,14 +70,19 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	/** An observable object helper. */
 	protected MyObservable m_observableHelper = new MyObservable();
 
-	/** An observable object helper for see-it-first priority observers. */
-	protected MyObservable m_priorityObservableHelper = new MyObservable();
+	/** An observable object helper for see-it-first priority observers, these are always notified on the posting thread. */
+	protected MyObservable m_priorityObservableHelper = new MyObservable(false);
 
 	/** An observable object helper for see-only-local-events observers. */
 	protected MyObservable m_localObservableHelper = new MyObservable();
 
 	protected EventDelayHandler delayHandler;
 
+	/** Delivers events to normal and local observers on their own queues, null to notify them all on the posting thread. */
+	protected ObserverDispatcher m_dispatcher = null;
+
+	private static final String DISPATCH_MBEAN = "org.sakaiproject:name=EventObservers";
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Observable implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -168,9 +184,70 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	public void destroy()
 	{
+		if (m_dispatcher != null)
+		{
+			ObserverDispatcher dispatcher = m_dispatcher;
+			m_dispatcher = null;
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(DISPATCH_MBEAN));
+			}
+			catch (Exception e)
+			{
+				log.debug("Could not unregister {}: {}", DISPATCH_MBEAN, e.toString());
+			}
+			dispatcher.shutdown(5000);
+		}
 		log.info(this + ".destroy()");
 	}
 
+	/**
+	 * Set up asynchronous delivery to observers, if events.dispatch.async is enabled. Normal and local observers then each get
+	 * their own queue and thread, so one slow observer no longer holds up the others or the thread that posted the event.
+	 * Priority observers, and the classes listed in events.dispatch.inline, are still notified on the posting thread.
+	 *
+	 * @param config
+	 *        Where the settings are read from.
+	 * @param afterDelivery
+	 *        Run on an observer thread after each event, may be null.
+	 */
+	protected void initDispatcher(ServerConfigurationService config, Runnable afterDelivery)
+	{
+		if (!config.getBoolean("events.dispatch.async", false)) return;
+
+		ObserverDispatcher.FullPolicy policy;
+		try
+		{
+			policy = ObserverDispatcher.FullPolicy.valueOf(config.getString("events.dispatch.full.policy", "block").toUpperCase());
+		}
+		catch (IllegalArgumentException e)
+		{
+			log.warn("Unknown events.dispatch.full.policy, using block");
+			policy = ObserverDispatcher.FullPolicy.BLOCK;
+		}
+		String[] inline = config.getStrings("events.dispatch.inline");
+		Set<String> inlineClasses = inline == null ? new HashSet<>() : new HashSet<>(Arrays.asList(inline));
+		int capacity = config.getInt("events.dispatch.queue.size", 10000);
+		long blockMillis = config.getInt("events.dispatch.block.ms", 1000);
+
+		m_dispatcher = new ObserverDispatcher(capacity, policy, blockMillis, inlineClasses,
+				config.getBoolean("events.dispatch.virtual.threads", true), afterDelivery);
+
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DISPATCH_MBEAN);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(m_dispatcher, name);
+		}
+		catch (Exception e)
+		{
+			log.warn("Could not register {} with JMX: {}", DISPATCH_MBEAN, e.toString());
+		}
+
+		log.info("Asynchronous event dispatch, queue size: {}, policy: {}, block ms: {}, inline: {}", capacity, policy, blockMillis, inlineClasses);
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * EventTracking implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -497,17 +574,77 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 		m_observableHelper.deleteObserver(observer);
 		m_priorityObservableHelper.deleteObserver(observer);
 		m_localObservableHelper.deleteObserver(observer);
+
+		ObserverDispatcher dispatcher = m_dispatcher;
+		if (dispatcher != null) dispatcher.release(observer);
 	}
 
 	/**
 	 * Extend Observable to "public"ize setChanges, so we can set it. Why a helper object? Cause the service (which is observable) already 'extends' TurbineBaseService, and cannot also 'extend' Observable.
+	 * When there is a dispatcher the observers are notified through it, in the same order Observable would use.
 	 */
 	protected class MyObservable extends Observable
 	{
+		/** The observers, kept here as well as Observable cannot be asked for them. */
+		private final List<Observer> m_observers = new CopyOnWriteArrayList<>();
+
+		/** False if these observers must be notified on the posting thread. */
+		private final boolean m_async;
+
+		public MyObservable()
+		{
+			this(true);
+		}
+
+		public MyObservable(boolean async)
+		{
+			m_async = async;
+		}
+
 		public void setChanged()
 		{
 			super.setChanged();
 		}
+
+		public synchronized void addObserver(Observer o)
+		{
+			super.addObserver(o);
+			if (!m_observers.contains(o)) m_observers.add(o);
+		}
+
+		public synchronized void deleteObserver(Observer o)
+		{
+			super.deleteObserver(o);
+			m_observers.remove(o);
+		}
+
+		public synchronized void deleteObservers()
+		{
+			super.deleteObservers();
+			m_observers.clear();
+		}
+
+		public void notifyObservers(Object arg)
+		{
+			ObserverDispatcher dispatcher = m_dispatcher;
+			if (dispatcher == null)
+			{
+				super.notifyObservers(arg);
+				return;
+			}
+
+			synchronized (this)
+			{
+				if (!hasChanged()) return;
+				clearChanged();
+			}
+
+			// Observable notifies the most recently added observer first
+			for (ListIterator<Observer> i = m_observers.listIterator(m_observers.size()); i.hasPrevious();)
+			{
+				dispatcher.dispatch(this, i.previous(), arg, m_async);
+			}
+		}
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
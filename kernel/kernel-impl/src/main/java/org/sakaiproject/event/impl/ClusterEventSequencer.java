@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Orders the events received from the other servers by sequence number, drops the ones already seen and fetches
+ * any missing sequence numbers with a single range read. Events can be committed out of sequence order by
+ * different servers so a late event is still delivered as long as it has not been seen before.
+ * <p>
+ * The low-water mark only moves over sequence numbers that have been seen, so a hole left by a transaction that
+ * has not committed yet stays open for the db poller, which reads from the low-water mark. A hole further back
+ * than the window is given up on, as its sequence number was most likely rolled back or skipped.
+ */
+@Slf4j
+public class ClusterEventSequencer
+{
+	/**
+	 * Reads the events with a sequence number in (after, before) from storage.
+	 */
+	public interface GapFetcher
+	{
+		List<SimpleEvent> fetch(long after, long before);
+	}
+
+	private final GapFetcher gapFetcher;
+	private final Set<Long> seen;
+	private final int window;
+	/** Every sequence number up to and including this one has been seen (or given up on). */
+	private long lowWaterSeq;
+	/** The highest sequence number a gap has already been looked for below. */
+	private long checkedSeq;
+	private long gapsFetched = 0;
+
+	/**
+	 * @param gapFetcher
+	 *        Used to read missing events.
+	 * @param lastSeq
+	 *        The sequence number after which events are wanted.
+	 * @param window
+	 *        How many recent sequence numbers to remember for duplicate detection.
+	 */
+	public ClusterEventSequencer(GapFetcher gapFetcher, long lastSeq, final int window)
+	{
+		this.gapFetcher = gapFetcher;
+		this.window = window;
+		this.lowWaterSeq = lastSeq;
+		this.checkedSeq = lastSeq;
+		this.seen = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>(window, 0.75f, false)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest)
+			{
+				return size() > window;
+			}
+		});
+	}
+
+	/**
+	 * Record an event written by this server so it is neither delivered nor seen as a gap.
+	 */
+	public synchronized void markLocal(long seq)
+	{
+		seen.add(seq);
+		advance();
+	}
+
+	/**
+	 * Accept a batch of events from another server (or the db poller).
+	 *
+	 * @return the events to deliver, including any fetched to fill a gap, in sequence order
+	 */
+	public synchronized List<SimpleEvent> accept(Collection<SimpleEvent> events)
+	{
+		if (events == null || events.isEmpty()) return Collections.emptyList();
+
+		List<SimpleEvent> candidates = new ArrayList<>(events);
+		candidates.sort(Comparator.comparingLong(SimpleEvent::getSeq));
+
+		long max = candidates.get(candidates.size() - 1).getSeq();
+		if (max - lowWaterSeq > window)
+		{
+			log.debug("giving up on the missing events in ({}, {})", lowWaterSeq, max - window);
+			lowWaterSeq = max - window;
+		}
+
+		// only sequence numbers above the ones already checked can be new gaps, older holes are left to the poller
+		if (hasGap(candidates, Math.max(lowWaterSeq, checkedSeq), max))
+		{
+			gapsFetched++;
+			List<SimpleEvent> fetched = gapFetcher.fetch(lowWaterSeq, max);
+			log.debug("fetched {} events to fill a gap in ({}, {})", fetched.size(), lowWaterSeq, max);
+			candidates.addAll(fetched);
+			candidates.sort(Comparator.comparingLong(SimpleEvent::getSeq));
+		}
+		if (max > checkedSeq) checkedSeq = max;
+
+		List<SimpleEvent> deliver = new ArrayList<>(candidates.size());
+		for (SimpleEvent event : candidates)
+		{
+			if (seen.add(event.getSeq()))
+			{
+				deliver.add(event);
+			}
+		}
+		advance();
+		return deliver;
+	}
+
+	/**
+	 * Move the low-water mark over the run of seen sequence numbers following it.
+	 */
+	private void advance()
+	{
+		while (seen.contains(lowWaterSeq + 1)) lowWaterSeq++;
+	}
+
+	/**
+	 * @return true if some sequence number between after and max is neither seen nor in the batch
+	 */
+	private boolean hasGap(List<SimpleEvent> sorted, long after, long max)
+	{
+		int i = 0;
+		for (long seq = after + 1; seq < max; seq++)
+		{
+			while (i < sorted.size() && sorted.get(i).getSeq() < seq) i++;
+			boolean inBatch = i < sorted.size() && sorted.get(i).getSeq() == seq;
+			if (!inBatch && !seen.contains(seq)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sequence number up to which every event has been seen, the db poller reads the events after it
+	 */
+	public synchronized long getLowWaterSeq()
+	{
+		return lowWaterSeq;
+	}
+
+	public synchronized long getGapsFetched()
+	{
+		return gapsFetched;
+	}
+}
@@ -25,9 +25,13 @@ import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -43,6 +47,8 @@ import org.sakaiproject.event.api.NotificationService;
 import org.sakaiproject.event.api.SimpleEvent;
 import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.springframework.beans.factory.annotation.Autowired;
 
 /**
  * <p>
@@ -70,8 +76,22 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 
 	protected long m_totalEventsCount = 0;
 
-	/** Queue of events to write if we are batching. */
-	protected Collection<Event> m_eventQueue = null;
+	/** Queue of events to write if we are batching, filled by request threads and drained by the writer. */
+	protected Queue<Event> m_eventQueue = null;
+	/** Number of events currently held in m_eventQueue (ConcurrentLinkedQueue.size() is O(n)). */
+	protected final AtomicInteger m_eventQueueSize = new AtomicInteger();
+	/** Max number of events held in the queue before posting threads have to write their event themselves. */
+	protected int m_queueCapacity = 100000;
+	/** Max number of events written in a single dbWriteBatch. */
+	protected int m_batchSize = 500;
+	/** How long to wait in milliseconds between flushes of the event queue. */
+	protected long m_flushLatency = 1000;
+	/** Metrics for the batch writer. */
+	protected final AtomicLong m_eventsWritten = new AtomicLong();
+	protected final AtomicLong m_eventsOverflowed = new AtomicLong();
+	protected final AtomicLong m_eventsDropped = new AtomicLong();
+	protected final AtomicLong m_eventsLate = new AtomicLong();
+	protected volatile int m_maxQueueSize = 0;
 	/** Unless false, check the db for events from the other cluster servers. */
 	protected boolean m_checkDb = true;
 	/** If true, batch events for bulk write. */
@@ -82,6 +102,14 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	private String serverInstance;
 	private String serverId;
 	private ScheduledExecutorService scheduler;
+	private ScheduledExecutorService writer;
+
+	/** Pushes events to the other servers, only used if events.cluster.push.enabled is true. */
+	protected ClusterEventTransport clusterEventTransport;
+	/** Orders and de-duplicates the events received from the other servers when pushing is enabled. */
+	private volatile ClusterEventSequencer sequencer;
+	/** Delivers pushed events to the observers off the transport's threads, one batch at a time. */
+	private ExecutorService receiver;
 
 	/*************************************************************************************************************************************************
 	 * Dependencies
@@ -117,6 +145,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	protected abstract MemoryService memoryService();
 
+	/**
+	 * @return the ThreadLocalManager collaborator.
+	 */
+	protected abstract ThreadLocalManager threadLocalManager();
+
 	/**
 	 * Configuration: set the check-db.
 	 *
@@ -178,6 +211,18 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		this.databaseBeans = databaseBeans;
 	}
 
+	/**
+	 * Configuration: the transport used to push events to the other servers.
+	 *
+	 * @param transport
+	 *        The cluster event transport.
+	 */
+	@Autowired(required = false)
+	public void setClusterEventTransport(ClusterEventTransport transport)
+	{
+		this.clusterEventTransport = transport;
+	}
+
 	public ClusterEventTrackingServiceSql getClusterEventTrackingServiceSql()
 	{
 		return clusterEventTrackingServiceSql;
@@ -215,9 +260,23 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 
 			super.init();
 
+			// observer threads are reused, so clear whatever an observer left in thread locals after each event
+			initDispatcher(serverConfigurationService(), () -> threadLocalManager().clear());
+
 			if (m_batchWrite)
 			{
-				m_eventQueue = new Vector<Event>();
+				m_queueCapacity = serverConfigurationService().getInt("events.batch.queue.capacity", m_queueCapacity);
+				m_batchSize = Math.max(1, serverConfigurationService().getInt("events.batch.size", m_batchSize));
+				m_flushLatency = Math.max(10, serverConfigurationService().getInt("events.batch.flush.ms", (int) m_flushLatency));
+				m_eventQueue = new ConcurrentLinkedQueue<>();
+
+				// a dedicated writer so db writes never wait behind the polling of other servers' events
+				writer = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, this.getClass().getName() + ".writer");
+					t.setDaemon(true);
+					return t;
+				});
+				writer.scheduleWithFixedDelay(this::flushEventQueue, m_flushLatency, m_flushLatency, TimeUnit.MILLISECONDS);
 			}
 
 			// startup the event checking
@@ -225,12 +284,20 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			{
 				initLastEvent();
 
+				int pollPeriod = m_period;
+				if (clusterEventTransport != null && serverConfigurationService().getBoolean("events.cluster.push.enabled", false))
+				{
+					initClusterEventTransport();
+					// with events pushed the db poller is only a safety net
+					pollPeriod = Math.max(m_period, serverConfigurationService().getInt("events.cluster.push.fallback.period", 60));
+				}
+
 				scheduler = Executors.newSingleThreadScheduledExecutor();
 				// schedule task for every pollDelaySeconds
 				scheduler.scheduleWithFixedDelay(
 						this,
 						60, // minimally wait 60 seconds for sakai to start
-						m_period, // run every
+						pollPeriod, // run every
 						TimeUnit.SECONDS
 				);
 			}
@@ -252,7 +319,8 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
     			}
 			}
 
-			log.info("period: {}, batch: {}, checkDb: {}", m_period, m_batchWrite, m_checkDb);
+			log.info("period: {}, batch: {}, checkDb: {}, batchSize: {}, queueCapacity: {}, flushMs: {}",
+					m_period, m_batchWrite, m_checkDb, m_batchSize, m_queueCapacity, m_flushLatency);
 
             String sakaiVersion = serverConfigurationService().getString("version.sakai", "unknown") + "/" + serverConfigurationService().getString("version.service", "unknown");
             log.info("Server Start: serverId={}, serverInstance={}, serverIdInstance={}, version={}",
@@ -304,7 +372,26 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	public void destroy()
 	{
-		scheduler.shutdown();
+		if (scheduler != null) scheduler.shutdown();
+		if (sequencer != null)
+		{
+			clusterEventTransport.stop();
+			receiver.shutdown();
+		}
+		if (writer != null)
+		{
+			writer.shutdown();
+			try
+			{
+				writer.awaitTermination(m_flushLatency * 2, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			// write whatever is still queued so a shutdown doesn't lose events
+			flushEventQueue();
+		}
 		super.destroy();
 	}
 
@@ -338,9 +425,18 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// batch the event if we are batching
 			if (m_batchWrite)
 			{
-				synchronized (m_eventQueue)
+				int size = m_eventQueueSize.incrementAndGet();
+				if (size <= m_queueCapacity)
+				{
+					m_eventQueue.offer(event);
+					if (size > m_maxQueueSize) m_maxQueueSize = size;
+				}
+				else
 				{
-					m_eventQueue.add(event);
+					// backpressure: the writer is behind, so this thread pays for its own write rather than growing the queue
+					m_eventQueueSize.decrementAndGet();
+					m_eventsOverflowed.incrementAndGet();
+					writeEvent(event, null);
 				}
 			}
 
@@ -370,12 +466,13 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		bindValues(event, fields);
 
         // process the insert
-        if (cachingEnabled) {
-            // if caching is enabled, get the last inserted id
+        if (cachingEnabled || sequencer != null) {
+            // if caching or pushing is enabled, get the last inserted id
             Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
             if (eventId != null) {
                 // write event to cache
                 writeEventToCluster(event, eventId);
+                publishEvents(Collections.singletonList(toPublishedEvent(event, eventId)));
             }
         } else {
             boolean ok = sqlService().dbWrite(conn, statement, fields);
@@ -385,6 +482,58 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
         }
     }
 
+	/**
+	 * Drain the event queue, writing the events in batches of at most m_batchSize.
+	 */
+	protected void flushEventQueue()
+	{
+		if (m_eventQueue == null) return;
+
+		try
+		{
+			long lateBefore = System.currentTimeMillis() - (m_flushLatency * 2);
+			List<Event> batch = new ArrayList<>(Math.min(m_batchSize, Math.max(1, m_eventQueueSize.get())));
+			Event event;
+			while ((event = m_eventQueue.poll()) != null)
+			{
+				m_eventQueueSize.decrementAndGet();
+				Date time = ((BaseEvent) event).time;
+				if (time != null && time.getTime() < lateBefore)
+				{
+					m_eventsLate.incrementAndGet();
+				}
+				batch.add(event);
+				if (batch.size() >= m_batchSize)
+				{
+					writeBatchEvents(batch);
+					batch = new ArrayList<>(m_batchSize);
+				}
+			}
+			writeBatchEvents(batch);
+		}
+		catch (Throwable t)
+		{
+			log.error("{}error while flushing the event queue {}", m_logId, t.getMessage(), t);
+		}
+	}
+
+	/**
+	 * @return the number of events waiting to be written
+	 */
+	public int getEventQueueSize()
+	{
+		return m_eventQueueSize.get();
+	}
+
+	/**
+	 * @return a one line summary of the batch writer metrics, suitable for logging
+	 */
+	public String getEventQueueMetrics()
+	{
+		return "queued=" + m_eventQueueSize.get() + ", maxQueued=" + m_maxQueueSize + ", written=" + m_eventsWritten.get()
+				+ ", overflowed=" + m_eventsOverflowed.get() + ", late=" + m_eventsLate.get() + ", dropped=" + m_eventsDropped.get();
+	}
+
 	/**
 	 * Write a batch of events to the db
 	 * 
@@ -395,7 +544,7 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	{
 		// any events to process
 		if (events == null || events.isEmpty()) { return; }
-		log.debug("writing {} batched events", events.size());
+		log.debug("writing {} batched events, {}", events.size(), getEventQueueMetrics());
 
 		// get a connection
 		Connection conn = null;
@@ -407,42 +556,54 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// common preparation for each insert
 			String statement = insertStatement();
 
-			// Setup a batch of events if not using a cluster
+			// Setup a batch of events
 			List<Object[]> eventList = new ArrayList<>();
+			// the events to push to the other servers once committed
+			List<SimpleEvent> published = new ArrayList<>();
 
-			// write all events
 			for (Event event : events)
 			{
 				Object fields[] = new Object[6];
 				bindValues(event, fields);
 				eventList.add(fields);
+			}
 
-				// For clustered setups with caching enabled, use legacy, individual inserts
-				// TODO: it might be possible to write the entire batch to database and still get return values. But this will need testing on MySQL and Oracle.
-				if (cachingEnabled) {
-					Long eventId = sqlService().dbInsert(conn, statement, fields, "EVENT_ID");
-					if (eventId != null) {
-						// write event to cache
-						writeEventToCluster(event, eventId);
+			// For clustered setups with caching or pushing enabled, the batch returns the event ids
+			boolean ok;
+			if (cachingEnabled || sequencer != null) {
+				List<Long> eventIds = sqlService().dbInsertBatch(conn, statement, eventList, "EVENT_ID");
+				ok = eventIds != null;
+				if (ok) {
+					Iterator<Long> ids = eventIds.iterator();
+					for (Event event : events) {
+						Long eventId = ids.next();
+						// without an id the event is left to the db poller
+						if (eventId != null) {
+							// write event to cache
+							writeEventToCluster(event, eventId);
+							if (sequencer != null) published.add(toPublishedEvent(event, eventId));
+						}
 					}
 				}
+			} else {
+				ok = sqlService().dbWriteBatch(conn, statement, eventList);
 			}
-
-			// Write all of these events in a batch if not using clustering
-			if (!cachingEnabled) {
-				boolean ok = sqlService().dbWriteBatch(conn, statement, eventList);
-				if (!ok) {
-					log.warn("dbWriteBatch failed: event count: {}", eventList.size());
-				}
+			if (!ok) {
+				m_eventsDropped.addAndGet(eventList.size());
+				log.warn("dbWriteBatch failed: event count: {}", eventList.size());
+			} else {
+				m_eventsWritten.addAndGet(eventList.size());
 			}
 
 			// commit
 			if (!conn.isClosed()) {
 			    conn.commit();
 			}
+			publishEvents(published);
 		}
 		catch (Exception e)
 		{
+			m_eventsDropped.addAndGet(events.size());
 			if (conn != null)
 			{
 				try
@@ -535,18 +696,6 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			// wait for sakai's ComponentManager to finish starting before processing events
 			ComponentManager.waitTillConfigured();
 
-			// write any events we have
-			if (m_batchWrite)
-			{
-				Collection<Event> batchEvents;
-				synchronized (m_eventQueue)
-				{
-					batchEvents = new ArrayList<>(m_eventQueue);
-					m_eventQueue.clear();
-				}
-				writeBatchEvents(batchEvents);
-			}
-
 			log.debug("checking for events > {}", m_lastEventSeq);
 			// check the db for new events
 			// We do a left join which gets us records from non-sessions also (SESSION_SERVER may be null when non-session events are returned)
@@ -557,7 +706,16 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			fields[0] = Long.valueOf(m_lastEventSeq);
 
 			List<Event> events = new ArrayList<>();
-			if (cachingEnabled) { // KNL-1184
+			if (sequencer != null) {
+				// fallback for anything the transport didn't deliver, read from the sequencer's low-water mark so
+				// events committed late are still found, duplicates are dropped by the sequencer
+				fields[0] = sequencer.getLowWaterSeq();
+				List<SimpleEvent> polled = new ArrayList<>();
+				for (Object o : sqlService().dbReadReplica(statement, fields, newEventReader())) {
+					polled.add(toReceivedEvent((BaseEvent) o));
+				}
+				events.addAll(sequencer.accept(polled));
+			} else if (cachingEnabled) { // KNL-1184
 				// set to last event id processed + 1 since we've already processed the last event id
 				long beginEventId = m_lastEventSeq + 1;
 				// set m_lastEventSeq to latest key value in event cache
@@ -596,7 +754,25 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 					}
 				}
 			} else {
-				events = sqlService().dbRead(statement, fields, new SqlReader() {
+				events = sqlService().dbReadReplica(statement, fields, newEventReader());
+			}
+			// for each new event found, notify observers
+			for (Event event : events) {
+				notifyObservers(event, false);
+			}
+		}
+		catch (Throwable t)
+		{
+			log.error("{}error during execution {}", m_logId, t.getMessage(), t);
+		}
+	}
+
+	/**
+	 * @return a reader turning SAKAI_EVENT rows into events, skipping the ones posted by this server
+	 */
+	protected SqlReader newEventReader()
+	{
+		return new SqlReader() {
 					public Object readSqlResultRecord(ResultSet result) {
 						try {
 							Long id = result.getLong(1);
@@ -647,17 +823,67 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 							return null;
 						}
 					}
-				});
+				};
+	}
+
+	/**
+	 * Start pushing events to and receiving events from the other servers.
+	 */
+	protected void initClusterEventTransport()
+	{
+		final String rangeSql = clusterEventTrackingServiceSql.getEventRangeSql();
+		sequencer = new ClusterEventSequencer((after, before) -> {
+			List<SimpleEvent> fetched = new ArrayList<>();
+			for (Object o : sqlService().dbRead(rangeSql, new Object[] {after, before}, newEventReader())) {
+				fetched.add(toReceivedEvent((BaseEvent) o));
 			}
-			// for each new event found, notify observers
-			for (Event event : events) {
-				notifyObservers(event, false);
+			return fetched;
+		}, m_lastEventSeq, serverConfigurationService().getInt("events.cluster.push.window", 10000));
+
+		receiver = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, this.getClass().getName() + ".receiver");
+			t.setDaemon(true);
+			return t;
+		});
+		clusterEventTransport.start(events -> receiver.execute(() -> {
+			try {
+				for (SimpleEvent event : sequencer.accept(events)) {
+					notifyObservers(event, false);
+				}
+			} catch (Exception e) {
+				log.warn("{}error while delivering pushed events {}", m_logId, e.getMessage(), e);
 			}
+		}));
+		log.info("Pushing events to the cluster using {}", clusterEventTransport.getClass().getName());
+	}
+
+	/**
+	 * Push events written by this server to the other servers.
+	 */
+	private void publishEvents(List<SimpleEvent> events)
+	{
+		if (sequencer == null || events.isEmpty()) return;
+		for (SimpleEvent event : events) {
+			sequencer.markLocal(event.getSeq());
 		}
-		catch (Throwable t)
-		{
-			log.error("{}error during execution {}", m_logId, t.getMessage(), t);
-		}
+		clusterEventTransport.publish(events);
+	}
+
+	private SimpleEvent toPublishedEvent(Event event, Long eventId)
+	{
+		SimpleEvent simpleEvent = new SimpleEvent(ensureBaseEvent(event), serverInstance);
+		simpleEvent.setSeq(eventId);
+		// LRS statements are only used on the server that posted the event
+		simpleEvent.setLRSStatement(null);
+		return simpleEvent;
+	}
+
+	private SimpleEvent toReceivedEvent(BaseEvent event)
+	{
+		// the originating server is unknown for events read from the db, they are never from this server
+		SimpleEvent simpleEvent = new SimpleEvent(event, "");
+		simpleEvent.setSeq(event.getSeq());
+		return simpleEvent;
 	}
 
 	/**
@@ -36,6 +36,11 @@ public interface ClusterEventTrackingServiceSql
 	 */
 	String getEventSql();
 
+	/**
+	 * returns the sql statement which retrieves the events with an id in a range (exclusive) from the sakai_event and sakai_session tables.
+	 */
+	String getEventRangeSql();
+
 	/**
 	 * returns the sql statement which retrieves the largest event id from the sakai_event table.
 	 */
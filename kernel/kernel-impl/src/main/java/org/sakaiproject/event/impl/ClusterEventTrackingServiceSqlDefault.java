@@ -51,6 +51,14 @@ public class ClusterEventTrackingServiceSqlDefault implements ClusterEventTracki
 	            + "where (SAKAI_EVENT.EVENT_ID > ?)";
 	}
 
+	/**
+	 * returns the sql statement which retrieves the events with an id in a range (exclusive) from the sakai_event and sakai_session tables.
+	 */
+	public String getEventRangeSql()
+	{
+	    return getEventSql() + " and (SAKAI_EVENT.EVENT_ID < ?)";
+	}
+
 	/**
 	 * returns the sql statement which retrieves the largest event id from the sakai_event table.
 	 */
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.List;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * Pushes events written by this server to the other servers in the cluster so they don't have to wait for the
+ * next poll of SAKAI_EVENT. Delivery is best effort: receivers detect holes in the event sequence and fetch them
+ * from the database, and the database poller keeps running as a (slower) fallback.
+ */
+public interface ClusterEventTransport
+{
+	/**
+	 * Receives the batches of events published by the other servers, in the order each server published them.
+	 */
+	interface Listener
+	{
+		void onEvents(List<SimpleEvent> events);
+	}
+
+	/**
+	 * Start receiving events from the other servers.
+	 *
+	 * @param listener
+	 *        Called with each batch of events received.
+	 */
+	void start(Listener listener);
+
+	/**
+	 * Send a batch of events, which must already have their sequence number set, to the other servers.
+	 *
+	 * @param events
+	 *        The events in sequence order.
+	 */
+	void publish(List<SimpleEvent> events);
+
+	/**
+	 * Stop receiving events.
+	 */
+	void stop();
+}
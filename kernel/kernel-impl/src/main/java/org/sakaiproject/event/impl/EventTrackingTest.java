@@ -27,6 +27,7 @@ import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.EntityManager;
 import org.sakaiproject.event.api.UsageSessionService;
 import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.time.api.TimeService;
 import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.tool.api.ToolManager;
@@ -75,6 +76,14 @@ public class EventTrackingTest extends ClusterEventTracking
 		return null;
 	}
 
+	/**
+	 * @return the ThreadLocalManager collaborator.
+	 */
+	protected ThreadLocalManager threadLocalManager()
+	{
+		return null;
+	}
+
 	/**
 	 * @return the TimeService collaborator.
 	 */
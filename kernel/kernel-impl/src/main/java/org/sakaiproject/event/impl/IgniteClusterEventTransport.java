@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.ignite.Ignite;
+import org.apache.ignite.cluster.ClusterGroup;
+import org.apache.ignite.lang.IgniteBiPredicate;
+import org.sakaiproject.event.api.SimpleEvent;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A ClusterEventTransport using Ignite ordered messaging, so batches from one server arrive in the order they were sent.
+ */
+@Slf4j
+public class IgniteClusterEventTransport implements ClusterEventTransport
+{
+	public static final String TOPIC = "org.sakaiproject.event.impl.ClusterEventTracking.events";
+
+	@Setter private Ignite ignite;
+	/** Timeout in ms for ordered messages, 0 uses the ignite default. */
+	@Setter private long sendTimeout = 0;
+
+	private IgniteBiPredicate<UUID, Object> messageListener;
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void start(Listener listener)
+	{
+		messageListener = (nodeId, message) -> {
+			if (message instanceof List)
+			{
+				try
+				{
+					listener.onEvents((List<SimpleEvent>) message);
+				}
+				catch (Exception e)
+				{
+					log.warn("Could not process events from node {}, {}", nodeId, e.toString());
+				}
+			}
+			// keep listening
+			return true;
+		};
+		ignite.message().localListen(TOPIC, messageListener);
+		log.info("Listening for cluster events on topic {}", TOPIC);
+	}
+
+	@Override
+	public void publish(List<SimpleEvent> events)
+	{
+		if (events == null || events.isEmpty()) return;
+
+		ClusterGroup remotes = ignite.cluster().forRemotes();
+		if (remotes.nodes().isEmpty()) return;
+
+		try
+		{
+			ignite.message(remotes).sendOrdered(TOPIC, new ArrayList<>(events), sendTimeout);
+		}
+		catch (Exception e)
+		{
+			// the other servers will pick these up through gap detection or the db poller
+			log.warn("Could not publish {} events to the cluster, {}", events.size(), e.toString());
+		}
+	}
+
+	@Override
+	public void stop()
+	{
+		if (messageListener != null)
+		{
+			ignite.message().stopLocalListen(TOPIC, messageListener);
+			messageListener = null;
+		}
+	}
+}
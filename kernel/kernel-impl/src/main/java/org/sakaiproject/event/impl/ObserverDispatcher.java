@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Delivers events to observers so that a slow observer only holds up itself. Each observer gets its own bounded queue,
+ * drained in order by its own thread (a virtual thread when the JVM has them), so every observer still sees events in
+ * the order they were posted. When a queue is full the poster either waits, for up to the block time, or the event is
+ * dropped for that observer. Observers can also be delivered to inline, on the posting thread, as before. Counts and
+ * timings are kept per observer and published over JMX.
+ */
+@Slf4j
+public class ObserverDispatcher implements ObserverDispatcherMXBean
+{
+	public enum FullPolicy
+	{
+		BLOCK, DROP
+	}
+
+	private static final Delivery STOP = new Delivery(null, null, 0);
+
+	private final int capacity;
+	private final FullPolicy policy;
+	private final long blockMillis;
+	private final Set<String> inlineClasses;
+	private final ThreadFactory threadFactory;
+	private final Runnable afterDelivery;
+	private final Map<Observer, Channel> channels = new ConcurrentHashMap<>();
+	private volatile boolean running = true;
+
+	/**
+	 * @param capacity
+	 *        How many events may wait for each observer.
+	 * @param policy
+	 *        What to do with an event when an observer's queue is full.
+	 * @param blockMillis
+	 *        How long to wait for space with the BLOCK policy before dropping the event anyway, so an observer that posts
+	 *        events itself cannot deadlock on its own queue.
+	 * @param inlineClasses
+	 *        Class names of observers that are always delivered to on the posting thread, subclasses included.
+	 * @param virtualThreads
+	 *        Use virtual threads for the observer queues when the JVM supports them.
+	 * @param afterDelivery
+	 *        Run on an observer thread after each event, to clear thread locals the observer may have left. May be null.
+	 */
+	public ObserverDispatcher(int capacity, FullPolicy policy, long blockMillis, Set<String> inlineClasses, boolean virtualThreads, Runnable afterDelivery)
+	{
+		this.capacity = Math.max(1, capacity);
+		this.policy = policy;
+		this.blockMillis = blockMillis;
+		this.inlineClasses = inlineClasses == null ? Collections.<String>emptySet() : inlineClasses;
+		this.threadFactory = virtualThreads ? virtualThreadFactory() : null;
+		this.afterDelivery = afterDelivery;
+	}
+
+	/**
+	 * Deliver an event to an observer.
+	 *
+	 * @param source
+	 *        The observable passed to the observer.
+	 * @param observer
+	 *        The observer.
+	 * @param arg
+	 *        The event.
+	 * @param async
+	 *        False to deliver on this thread whatever the observer is, as for priority observers.
+	 */
+	public void dispatch(Observable source, Observer observer, Object arg, boolean async)
+	{
+		Channel channel = channels.computeIfAbsent(observer, Channel::new);
+		if (!async || channel.inline || !running)
+		{
+			channel.deliver(source, arg, System.nanoTime());
+		}
+		else
+		{
+			channel.enqueue(source, arg);
+		}
+	}
+
+	/**
+	 * Stop delivering to an observer, events already queued for it are still delivered.
+	 */
+	public void release(Observer observer)
+	{
+		Channel channel = channels.remove(observer);
+		if (channel != null) channel.stop();
+	}
+
+	/**
+	 * Stop all the observer threads, waiting up to the given time for queued events to be delivered.
+	 */
+	public void shutdown(long waitMillis)
+	{
+		running = false;
+		List<Channel> stopping = new ArrayList<>(channels.values());
+		channels.clear();
+		for (Channel channel : stopping)
+		{
+			channel.stop();
+		}
+		long deadline = System.currentTimeMillis() + waitMillis;
+		for (Channel channel : stopping)
+		{
+			channel.join(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+	}
+
+	@Override
+	public List<ObserverStats> getObservers()
+	{
+		List<ObserverStats> stats = new ArrayList<>();
+		for (Channel channel : channels.values())
+		{
+			stats.add(channel.stats());
+		}
+		stats.sort((a, b) -> Long.compare(b.getBusyMillis(), a.getBusyMillis()));
+		return stats;
+	}
+
+	@Override
+	public long getQueued()
+	{
+		long queued = 0;
+		for (Channel channel : channels.values())
+		{
+			queued += channel.queued();
+		}
+		return queued;
+	}
+
+	@Override
+	public long getDropped()
+	{
+		long dropped = 0;
+		for (Channel channel : channels.values())
+		{
+			dropped += channel.dropped.get();
+		}
+		return dropped;
+	}
+
+	@Override
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	@Override
+	public String getPolicy()
+	{
+		return policy.name();
+	}
+
+	/**
+	 * Finds Thread.ofVirtual().factory() reflectively, as the kernel is still built for a JVM without it.
+	 */
+	private static ThreadFactory virtualThreadFactory()
+	{
+		try
+		{
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			return (ThreadFactory) builder.getMethod("factory").invoke(ofVirtual.invoke(null));
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			log.debug("Virtual threads are not available, observers will use platform threads");
+			return null;
+		}
+	}
+
+	private static final class Delivery
+	{
+		final Observable source;
+		final Object arg;
+		final long queuedAt;
+
+		Delivery(Observable source, Object arg, long queuedAt)
+		{
+			this.source = source;
+			this.arg = arg;
+			this.queuedAt = queuedAt;
+		}
+	}
+
+	private final class Channel implements Runnable
+	{
+		final Observer observer;
+		final String name;
+		final boolean inline;
+		final BlockingQueue<Delivery> queue;
+		final AtomicLong delivered = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong busyNanos = new AtomicLong();
+		final AtomicLong maxNanos = new AtomicLong();
+		volatile long lagNanos = 0;
+		private Thread thread;
+
+		Channel(Observer observer)
+		{
+			this.observer = observer;
+			this.name = observer.getClass().getName();
+			this.inline = isInline(observer.getClass());
+			this.queue = inline ? null : new ArrayBlockingQueue<>(capacity);
+		}
+
+		/**
+		 * Spring makes subclasses of beans with lookup methods, so the classes an observer extends are matched too.
+		 */
+		private boolean isInline(Class<?> type)
+		{
+			for (Class<?> c = type; c != null; c = c.getSuperclass())
+			{
+				if (inlineClasses.contains(c.getName())) return true;
+			}
+			return false;
+		}
+
+		void enqueue(Observable source, Object arg)
+		{
+			start();
+			Delivery delivery = new Delivery(source, arg, System.nanoTime());
+			boolean queued;
+			if (policy == FullPolicy.BLOCK && blockMillis > 0)
+			{
+				try
+				{
+					queued = queue.offer(delivery, blockMillis, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					queued = false;
+				}
+			}
+			else
+			{
+				queued = queue.offer(delivery);
+			}
+			if (!queued && dropped.incrementAndGet() % 1000 == 1)
+			{
+				log.warn("Observer {} is not keeping up, {} events dropped so far, latest: {}", name, dropped.get(), arg);
+			}
+		}
+
+		void deliver(Observable source, Object arg, long queuedAt)
+		{
+			long start = System.nanoTime();
+			try
+			{
+				observer.update(source, arg);
+			}
+			catch (Throwable t)
+			{
+				failed.incrementAndGet();
+				log.warn("Observer {} failed on event {}", name, arg, t);
+			}
+			long end = System.nanoTime();
+			long took = end - start;
+			busyNanos.addAndGet(took);
+			maxNanos.accumulateAndGet(took, Math::max);
+			lagNanos = start - queuedAt;
+			delivered.incrementAndGet();
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				Delivery delivery;
+				try
+				{
+					delivery = queue.take();
+				}
+				catch (InterruptedException e)
+				{
+					log.debug("Observer thread for {} interrupted", name);
+					return;
+				}
+				if (delivery == STOP) return;
+				try
+				{
+					deliver(delivery.source, delivery.arg, delivery.queuedAt);
+				}
+				finally
+				{
+					if (afterDelivery != null) afterDelivery.run();
+				}
+			}
+		}
+
+		synchronized void start()
+		{
+			if (thread != null) return;
+			String threadName = "event-observer-" + observer.getClass().getSimpleName();
+			if (threadFactory != null)
+			{
+				thread = threadFactory.newThread(this);
+				thread.setName(threadName);
+			}
+			else
+			{
+				thread = new Thread(this, threadName);
+				thread.setDaemon(true);
+			}
+			thread.start();
+		}
+
+		synchronized void stop()
+		{
+			if (thread == null) return;
+			if (!queue.offer(STOP))
+			{
+				// the observer is that far behind, drop what it has not got to
+				log.warn("Observer {} stopped with {} events undelivered", name, queue.size());
+				queue.clear();
+				queue.offer(STOP);
+			}
+		}
+
+		void join(long millis)
+		{
+			Thread t;
+			synchronized (this)
+			{
+				t = thread;
+			}
+			if (t == null) return;
+			try
+			{
+				t.join(millis);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		int queued()
+		{
+			return queue == null ? 0 : queue.size();
+		}
+
+		ObserverStats stats()
+		{
+			return new ObserverStats(name, inline ? "inline" : "queued", queued(), delivered.get(), dropped.get(), failed.get(),
+					TimeUnit.NANOSECONDS.toMillis(busyNanos.get()), TimeUnit.NANOSECONDS.toMillis(maxNanos.get()),
+					TimeUnit.NANOSECONDS.toMillis(lagNanos));
+		}
+	}
+
+	/**
+	 * A snapshot of the counts for one observer.
+	 */
+	public static class ObserverStats
+	{
+		private final String observer;
+		private final String mode;
+		private final int queued;
+		private final long delivered;
+		private final long dropped;
+		private final long failed;
+		private final long busyMillis;
+		private final long maxMillis;
+		private final long lagMillis;
+
+		public ObserverStats(String observer, String mode, int queued, long delivered, long dropped, long failed, long busyMillis, long maxMillis, long lagMillis)
+		{
+			this.observer = observer;
+			this.mode = mode;
+			this.queued = queued;
+			this.delivered = delivered;
+			this.dropped = dropped;
+			this.failed = failed;
+			this.busyMillis = busyMillis;
+			this.maxMillis = maxMillis;
+			this.lagMillis = lagMillis;
+		}
+
+		/** The observer class. */
+		public String getObserver()
+		{
+			return observer;
+		}
+
+		/** inline or queued. */
+		public String getMode()
+		{
+			return mode;
+		}
+
+		/** Events waiting to be delivered. */
+		public int getQueued()
+		{
+			return queued;
+		}
+
+		/** Events delivered. */
+		public long getDelivered()
+		{
+			return delivered;
+		}
+
+		/** Events dropped because the queue was full. */
+		public long getDropped()
+		{
+			return dropped;
+		}
+
+		/** Events the observer threw on. */
+		public long getFailed()
+		{
+			return failed;
+		}
+
+		/** Total time spent in the observer. */
+		public long getBusyMillis()
+		{
+			return busyMillis;
+		}
+
+		/** Longest time spent on one event. */
+		public long getMaxMillis()
+		{
+			return maxMillis;
+		}
+
+		/** How long the most recently delivered event waited in the queue. */
+		public long getLagMillis()
+		{
+			return lagMillis;
+		}
+	}
+}
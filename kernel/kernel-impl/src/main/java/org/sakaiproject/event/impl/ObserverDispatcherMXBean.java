@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import java.util.List;
+
+/**
+ * The event observer counts published over JMX, as org.sakaiproject:name=EventObservers.
+ */
+public interface ObserverDispatcherMXBean
+{
+	/** Per observer counts, the busiest first. */
+	List<ObserverDispatcher.ObserverStats> getObservers();
+
+	/** Events waiting across all observer queues. */
+	long getQueued();
+
+	/** Events dropped across all observers. */
+	long getDropped();
+
+	/** The size of each observer queue. */
+	int getCapacity();
+
+	/** BLOCK or DROP. */
+	String getPolicy();
+}
@@ -168,6 +168,9 @@ public class BaseSite implements Site
 	/** The azg from the AuthzGroupService that is my AuthzGroup impl. */
 	protected AuthzGroup m_azg = null;
 
+	/** The sites this site was listed with, which read their lazy parts together; null if read on its own. */
+	protected transient SiteBatch m_batch = null;
+
 	private AuthzGroupService authzGroupService;
 	private FormattedText formattedText;
 	/**
@@ -795,9 +798,7 @@ public class BaseSite implements Site
 		// if lazy, resolve unless requested to avoid fetching (as for copy constructor)
 		if (allowFetch && ((BaseResourceProperties) m_properties).isLazy())
 		{
-			siteService.storage().readSiteProperties(
-					this, m_properties);
-			((BaseResourcePropertiesEdit) m_properties).setLazy(false);
+			readProperties();
 		}
 
 		return m_properties;
@@ -992,9 +993,17 @@ public class BaseSite implements Site
 	{
 		if (allowFetch && m_pagesLazy)
 		{
-			siteService.storage().readSitePages(this,
-					m_pages);
-			m_pagesLazy = false;
+			// read the pages of all the sites this one was listed with
+			if (m_batch != null)
+			{
+				m_batch.readPages();
+			}
+			if (m_pagesLazy)
+			{
+				siteService.storage().readSitePages(this,
+						m_pages);
+				m_pagesLazy = false;
+			}
 		}
 
 		return m_pages;
@@ -1027,9 +1036,17 @@ public class BaseSite implements Site
 		// Avoid fetching if requested (as for copy constructor)
 		if (allowFetch && m_groupsLazy)
 		{
-			siteService.storage().readSiteGroups(
-					this, m_groups);
-			m_groupsLazy = false;
+			// read the groups of all the sites this one was listed with
+			if (m_batch != null)
+			{
+				m_batch.readGroups();
+			}
+			if (m_groupsLazy)
+			{
+				siteService.storage().readSiteGroups(
+						this, m_groups);
+				m_groupsLazy = false;
+			}
 		}
 
 		return m_groups;
@@ -1619,13 +1636,28 @@ public class BaseSite implements Site
 	{
 		// if lazy, resolve
 		if (((BaseResourceProperties) m_properties).isLazy())
+		{
+			readProperties();
+		}
+
+		return m_properties;
+	}
+
+	/**
+	 * Read the lazy properties, along with those of all the sites this one was listed with.
+	 */
+	protected void readProperties()
+	{
+		if (m_batch != null)
+		{
+			m_batch.readProperties();
+		}
+		if (((BaseResourceProperties) m_properties).isLazy())
 		{
 			siteService.storage().readSiteProperties(
 					this, m_properties);
 			((BaseResourcePropertiesEdit) m_properties).setLazy(false);
 		}
-
-		return m_properties;
 	}
 
 	/**
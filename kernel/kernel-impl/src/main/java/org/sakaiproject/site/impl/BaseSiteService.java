@@ -22,6 +22,7 @@
 package org.sakaiproject.site.impl;
 
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -40,6 +41,8 @@ import java.util.Stack;
 import java.util.Vector;
 import java.util.concurrent.CopyOnWriteArraySet;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -161,6 +164,12 @@ public abstract class BaseSiteService implements SiteService, Observer
 	/** Cache for sites accessible to a given user. */
 	protected Cache m_userSiteCache = null;
 
+	/** The ids and summaries of the sites accessible to each user, kept in the user-site cache. */
+	protected UserSiteIndex m_userSiteIndex = null;
+
+	/** The JMX name the user-site index counts are published under. */
+	protected static final String USER_SITE_MBEAN = "org.sakaiproject:name=SiteService.userSites";
+
 	/** A set of observers watching site removals **/
 	protected Set<SiteRemovalAdvisor> siteRemovalAdvisors;
 
@@ -523,7 +532,23 @@ public abstract class BaseSiteService implements SiteService, Observer
 			if (serverConfigurationService().getBoolean(PROP_CACHE_USER_SITES, true))
 			{
 				m_userSiteCache = memoryService().newCache(USER_SITE_CACHE);
+				m_userSiteIndex = new UserSiteIndex(m_userSiteCache);
 				eventTrackingService().addObserver(this);
+
+				try
+				{
+					MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+					ObjectName name = new ObjectName(USER_SITE_MBEAN);
+					if (mbs.isRegistered(name))
+					{
+						mbs.unregisterMBean(name);
+					}
+					mbs.registerMBean(m_userSiteIndex, name);
+				}
+				catch (Exception e)
+				{
+					log.warn("init(): could not register {}: {}", USER_SITE_MBEAN, e.toString());
+				}
 			}
 
 			// register as an entity producer
@@ -572,6 +597,18 @@ public abstract class BaseSiteService implements SiteService, Observer
 		// Stop listening for site update events
 		eventTrackingService().deleteObserver(this);
 
+		if (m_userSiteIndex != null)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(USER_SITE_MBEAN));
+			}
+			catch (Exception e)
+			{
+				log.debug("destroy(): {}", e.toString());
+			}
+		}
+
 		log.info("destroy()");
 	}
 
@@ -957,10 +994,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 			throw new IdUnusedException(site.getId());
 		}
 		
-		// Invalidate the user-site cache.
+		// Bring the user-site cache up to date with the site.
 		Site cached = getCachedSite(site.getId());
 		if (cached != null ) {
-			clearUserCacheForSite(site);
+			updateUserCacheForSite(cached, site);
 		}
 		cacheSite(site);
 
@@ -994,10 +1031,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 			throw new IdUnusedException(site.getId());
 		}
 		
-		// Invalidate the user-site cache.
+		// Bring the user-site cache up to date with the site.
 		Site cached = getCachedSite(site.getId());
 		if (cached != null ) {
-			clearUserCacheForSite(site);
+			updateUserCacheForSite(cached, site);
 		}
 		cacheSite(site);
 
@@ -1047,10 +1084,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 		// complete the edit
 		storage().save(site);
 		
-		// Invalidate the user-site cache.
+		// Bring the user-site cache up to date with the site.
 		Site cached = getCachedSite(site.getId());
 		if (cached != null ) {
-			clearUserCacheForSite(site);
+			updateUserCacheForSite(cached, site);
 		}
 		cacheSite(site);
 
@@ -1518,10 +1555,10 @@ public abstract class BaseSiteService implements SiteService, Observer
 			advisor.removed(site);
 		}
 
-		// Invalidate the user-site cache.
+		// Drop the site from its members' user-site cache.
 		Site cached = getCachedSite(site.getId());
-		if (cached != null ) {
-			clearUserCacheForSite(site);
+		if (cached != null && m_userSiteIndex != null) {
+			m_userSiteIndex.siteRemoved(site);
 		}
 		
 		// complete the edit
@@ -2160,7 +2197,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 	public List<Site> getUserSites( boolean requireDescription, boolean includeUnpublishedSites, List excludedSites )
 	{
 		String userID = sessionManager().getCurrentSessionUserId();
-		List<Site> userSites = getCachedUserSites( userID );
+		List<Site> userSites = getCachedUserSites( userID, requireDescription );
 		
 
 		// Retrieve sites on cache miss or anonymous user
@@ -2169,7 +2206,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 			userSites = getUserSitesByPublishedStatus( requireDescription, null, includeUnpublishedSites, excludedSites );
 
 			// Cache the results
-			setCachedUserSites( userID, userSites );
+			setCachedUserSites( userID, userSites, includeUnpublishedSites );
 		}
 
 		return userSites;
@@ -2196,14 +2233,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 */
 	public List<Site> getUserSites( boolean requireDescription, String userID, boolean includeUnpublishedSites, List excludedSites )
 	{
-		List<Site> userSites = getCachedUserSites( userID );
+		List<Site> userSites = getCachedUserSites( userID, requireDescription );
 
 		if( userSites == null )
 		{
 			userSites = getUserSitesByPublishedStatus( requireDescription, userID, includeUnpublishedSites, excludedSites );
 
 			// Cache the results
-			setCachedUserSites( userID, userSites );
+			setCachedUserSites( userID, userSites, includeUnpublishedSites );
 		}
 
 		return userSites;
@@ -2212,12 +2249,15 @@ public abstract class BaseSiteService implements SiteService, Observer
 	/**
 	 * Cache the list of accessible Sites for a user.
 	 *
+	 * Only the ids and a summary of each site are kept; the sites themselves stay in the site cache.
+	 *
 	 * @param userId the (internal) user ID for whom to cache sites; null will result in a no-op
 	 * @param sites the list of sites that are accessible for the user; may be null to remove the user from the cache
+	 * @param includesUnpublished true if the sites were selected including unpublished sites
 	 */
-	protected void setCachedUserSites(String userId, List<Site> sites)
+	protected void setCachedUserSites(String userId, List<Site> sites, boolean includesUnpublished)
 	{
-		if (m_userSiteCache != null && userId != null)
+		if (m_userSiteIndex != null && userId != null)
 		{
 			if (sites == null)
 			{
@@ -2225,7 +2265,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 			}
 			else
 			{
-				m_userSiteCache.put(userId, sites);
+				m_userSiteIndex.put(userId, sites, includesUnpublished);
 			}
 		}
 	}
@@ -2237,9 +2277,9 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 */
 	protected void clearUserCacheForUser(String userId)
 	{
-		if (m_userSiteCache != null && userId != null)
+		if (m_userSiteIndex != null && userId != null)
 		{
-			m_userSiteCache.remove(userId);
+			m_userSiteIndex.evict(userId);
 		}
 	}
 
@@ -2247,16 +2287,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 	 * Clear the user-site cache for all the members of this site.
 	 *
 	 * This is provided to force retrieval of the user-site list for all members of an updated site.
-	 *
-	 * If the site and user-site cache were more tightly integrated, we could update, but membership
-	 * updates are relatively rare and the retrieval is relatively cheap when done occasionally.
+	 * Where the site is known before and after a change, prefer {@link #updateUserCacheForSite(Site, Site)}.
 	 *
 	 * @param site The site for which all members' site cache should be cleared.
 	 *
 	 */
 	protected void clearUserCacheForSite(Site site)
 	{
-		if (m_userSiteCache != null && site != null)
+		if (m_userSiteIndex != null && site != null)
 		{
 			for (Member member : site.getMembers())
 			{
@@ -2265,19 +2303,50 @@ public abstract class BaseSiteService implements SiteService, Observer
 		}
 	}
 
+	/**
+	 * Bring the user-site cache of the site's members up to date with a change to the site.
+	 *
+	 * The site is patched into or dropped from each member's entry where that can be done safely, so a title or
+	 * membership change does not force every member of a large site to select their sites again. Members the site
+	 * has become newly accessible to are still cleared, as where it belongs in their list depends on the selection.
+	 *
+	 * @param before The site as it was before the change, or null if not known; its members are checked too, to catch drops.
+	 * @param after The site as it is now.
+	 */
+	protected void updateUserCacheForSite(Site before, Site after)
+	{
+		if (m_userSiteIndex != null && after != null)
+		{
+			m_userSiteIndex.siteUpdated(before, after);
+		}
+	}
+
 	/**
 	 * Get the list of sites that are accessible to a given user from the cache.
 	 *
-	 * @param the internal user ID to check in the cache; null results in a null return
+	 * The sites are resolved from the site cache, and any not there are loaded together from storage.
+	 *
+	 * @param userId the internal user ID to check in the cache; null results in a null return
+	 * @param requireDescription when true, sites are loaded with their full description
 	 * @return a List of Sites that are accessible to the user, null on cache miss
 	 */
-	@SuppressWarnings("unchecked")
-	protected List<Site> getCachedUserSites(String userId)
+	protected List<Site> getCachedUserSites(String userId, boolean requireDescription)
 	{
-		List<Site> userSites = null;
-		if (m_userSiteCache != null && userId != null)
+		if (m_userSiteIndex == null || userId == null) return null;
+
+		List<String> siteIds = m_userSiteIndex.getSiteIds(userId);
+		if (siteIds == null) return null;
+
+		List<Site> userSites = storage().getSites(siteIds, requireDescription);
+		if (userSites.size() != siteIds.size())
 		{
-			userSites = (List<Site>) m_userSiteCache.get(userId);
+			// some sites are gone; forget them rather than looking for them on every request
+			List<String> found = new ArrayList<>(userSites.size());
+			for (Site site : userSites)
+			{
+				found.add(site.getId());
+			}
+			m_userSiteIndex.retain(userId, found);
 		}
 		return userSites;
 	}
@@ -3272,6 +3341,17 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 */
 		public List<Site> getSites(SelectionType type, Object ofType, String criteria, Map propertyCriteria, List excludedSites, SortType sort, PagingPosition page, boolean requireDescription, String userId);
 
+		/**
+		 * Get the Sites with these ids, using cached sites where possible and loading the rest in batches.
+		 *
+		 * @param siteIds
+		 *        The site ids.
+		 * @param requireDescription
+		 *        When true, force a full retrieval of each description; when false, return any uncached descriptions as the empty string
+		 * @return The Sites found, in the order of the ids; ids of sites that don't exist are skipped.
+		 */
+		public List<Site> getSites(List<String> siteIds, boolean requireDescription);
+
 		/**
 		 * Get the Site IDs for all sites matching criteria.
 		 * This is useful when you only need the listing of site ids (for other operations) and do not need the actual Site objects.
@@ -3381,6 +3461,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 */
 		public void readSiteProperties(Site site, ResourcePropertiesEdit props);
 
+		/**
+		 * Read the properties of many sites from storage at once, into each site's lazy properties.
+		 * 
+		 * @param sites
+		 *        The sites for which properties are desired.
+		 */
+		public void readSitesProperties(List<Site> sites);
+
 		/**
 		 * Read properties for all pages in the site
 		 * 
@@ -3429,6 +3517,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 */
 		public void readSitePages(Site site, ResourceVector pages);
 
+		/**
+		 * Read the pages of many sites, with the tools of those pages, from storage at once into each site's lazy pages.
+		 * 
+		 * @param sites
+		 *        The sites for which pages are desired.
+		 */
+		public void readSitesPages(List<Site> sites);
+
 		/**
 		 * Read site page tools from storage into the page's tools.
 		 * 
@@ -3508,6 +3604,14 @@ public abstract class BaseSiteService implements SiteService, Observer
 		 *        The Collection to fill in.
 		 */
 		public void readSiteGroups(Site site, Collection groups);
+
+		/**
+		 * Read the groups of many sites from storage at once, into each site's lazy groups.
+		 * 
+		 * @param sites
+		 *        The sites for which groups are desired.
+		 */
+		public void readSitesGroups(List<Site> sites);
 		
 		/**
 		 * Get all sites that have been softly deleted
@@ -3780,13 +3884,13 @@ public abstract class BaseSiteService implements SiteService, Observer
 		// TODO: Update this dispatching once ETS can register listeners for specific events
 		Event event = (Event) eventObj;
 
-		// When membership updates come in, we purge the user-site cache for all members.
-		// This could be optimized by integrating the site and user-site caches more closely, but
-		// it is a reasonable cost since the user-site cache will be regenerated for each user on
-		// on their first portal hit. Membership updates are much more rare than visits, so this
-		// allows the cache to have a reasonably high TTL across the cluster. The site will be
-		// cached on every server, so it will not force each user to retrieve it, just recalculate
-		// based on the cache and any other uncached sites on the next portal hit.
+		// When membership updates come in, we bring the user-site cache of all members up to date.
+		// The user-site cache only holds site ids and summaries, so members who keep access have
+		// the site patched in place and those who lose it have it dropped; only members the site
+		// is new to are purged, and regenerated on their first portal hit. Membership updates are
+		// much more rare than visits, so this allows the cache to have a reasonably high TTL across
+		// the cluster. The site will be cached on every server, so the sites themselves are resolved
+		// from the site cache, loading any other uncached sites together on the next portal hit.
 		//
 		// We are catching adds and role updates with the invalidate event. The denied visit event
 		// captures the case where someone visits a site from which they were removed. Drops are
@@ -3809,7 +3913,7 @@ public abstract class BaseSiteService implements SiteService, Observer
                 case EVENT_SITE_USER_INVALIDATE:
                     try {
                         Site site = getSite(event.getResource());
-                        clearUserCacheForSite(site);
+                        updateUserCacheForSite(null, site);
                     } catch (IdUnusedException iue) {
                         log.warn("Site not found when handling event ({})", event);
                     }
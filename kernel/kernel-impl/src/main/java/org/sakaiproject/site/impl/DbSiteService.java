@@ -27,6 +27,7 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -35,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -43,11 +45,13 @@ import org.sakaiproject.db.api.SqlReaderFinishedException;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.entity.api.ResourcePropertiesEdit;
 import org.sakaiproject.javax.PagingPosition;
+import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.site.api.Group;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SitePage;
 import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.util.BaseDbFlatStorage;
+import org.sakaiproject.util.BaseResourceProperties;
 import org.sakaiproject.util.BaseResourcePropertiesEdit;
 
 import lombok.extern.slf4j.Slf4j;
@@ -1116,7 +1120,8 @@ public abstract class DbSiteService extends BaseSiteService
 
 			log.debug("getSiteIds SQL: {}, values: {}", sql, java.util.Arrays.toString(values));
 
-			List<String> results = sqlService().dbRead(sql, values, siteIdReader);
+			// a listing, so it can come from a replica; the session's own recent writes are still read from the primary
+			List<String> results = sqlService().dbReadReplica(sql, values, siteIdReader);
 			Set<String> siteIds = new LinkedHashSet<>();
 			if (results != null) siteIds.addAll(results);
 			Set<String> excludedSiteIds = new LinkedHashSet<>();
@@ -1215,6 +1220,37 @@ public abstract class DbSiteService extends BaseSiteService
 				order = getSitesOrder(sort);
 			}
 
+			loadSites(siteMap, reader, order);
+			List<Site> sites = new ArrayList<>(siteMap.values());
+			SiteBatch.attach(this, sites);
+			return sites;
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		public List<Site> getSites(List<String> siteIds, boolean requireDescription)
+		{
+			LinkedHashMap<String, Site> siteMap = getOrderedSiteMap(siteIds, requireDescription);
+			loadSites(siteMap, requireDescription ? fullSiteReader : lightSiteReader, null);
+			List<Site> sites = new ArrayList<>(siteMap.values());
+			SiteBatch.attach(this, sites);
+			return sites;
+		}
+
+		/**
+		 * Fill in the sites missing from an ordered site map, in batches, and drop any that could not be found.
+		 *
+		 * @param siteMap
+		 *        The map from {@link #getOrderedSiteMap(List, boolean)}.
+		 * @param reader
+		 *        The reader for the site rows.
+		 * @param order
+		 *        The order by clause for the queries, or null.
+		 */
+		@SuppressWarnings("unchecked")
+		protected void loadSites(LinkedHashMap<String, Site> siteMap, SqlReader reader, String order)
+		{
 			// Account for limitations in the number of IN parameters we can use by batching
 			// Load just the sites that weren't found in cache
 			List<String> siteIdsToLoad = siteMap.entrySet().stream().filter(e -> e.getValue() == null)
@@ -1251,8 +1287,6 @@ public abstract class DbSiteService extends BaseSiteService
 			{
 				if (i.next() == null) i.remove();
 			}
-
-			return new ArrayList<>(siteMap.values());
 		}
 
 		/**
@@ -2532,6 +2566,228 @@ public abstract class DbSiteService extends BaseSiteService
 			});
 		}
 
+		/**
+		 * @inheritDoc
+		 */
+		public void readSitesProperties(List<Site> sites)
+		{
+			// take what we can from the properties cache, as readSiteProperties would
+			Cache propertiesCache = getCache(m_sitePropTableName);
+			final Map<String, BaseSite> toRead = new LinkedHashMap<>();
+			for (Site s : sites)
+			{
+				BaseSite site = (BaseSite) s;
+				if (!((BaseResourceProperties) site.m_properties).isLazy()) continue;
+
+				Object cached = propertiesCache == null ? null : propertiesCache.get(getSitePropertiesCacheKey(site.getId()));
+				if (cached instanceof ResourcePropertiesEdit)
+				{
+					site.m_properties.addAll((ResourcePropertiesEdit) cached);
+					((BaseResourcePropertiesEdit) site.m_properties).setLazy(false);
+				}
+				else
+				{
+					toRead.put(caseId(site.getId()), site);
+				}
+			}
+
+			readForSites(new ArrayList<>(toRead.keySet()), siteServiceSql::getSitesPropertiesSql, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						BaseSite site = toRead.get(result.getString(1));
+						String name = result.getString(2);
+						String value = result.getString(3);
+						if ((site != null) && (name != null) && (value != null))
+						{
+							site.m_properties.addProperty(name, value);
+						}
+						return null;
+					}
+					catch (SQLException e)
+					{
+						log.warn("readSitesProperties: " + e);
+						return null;
+					}
+				}
+			});
+
+			for (BaseSite site : toRead.values())
+			{
+				((BaseResourcePropertiesEdit) site.m_properties).setLazy(false);
+				if (propertiesCache != null)
+				{
+					// cache a copy, so changes to the site's properties don't reach the cache unsaved
+					ResourcePropertiesEdit copy = new BaseResourcePropertiesEdit();
+					copy.addAll(site.m_properties);
+					propertiesCache.put(getSitePropertiesCacheKey(site.getId()), copy);
+				}
+			}
+		}
+
+		/**
+		 * The key site properties are cached under by readSiteProperties.
+		 */
+		protected String getSitePropertiesCacheKey(String siteId)
+		{
+			return m_sitePropTableName + ":" + m_siteIdFieldName + ":" + caseId(siteId);
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		public void readSitesPages(List<Site> sites)
+		{
+			final Map<String, BaseSite> toRead = new LinkedHashMap<>();
+			for (Site s : sites)
+			{
+				BaseSite site = (BaseSite) s;
+				if (site.m_pagesLazy) toRead.put(caseId(site.getId()), site);
+			}
+			if (toRead.isEmpty()) return;
+
+			final Map<String, BaseSitePage> pages = new HashMap<>();
+			readForSites(new ArrayList<>(toRead.keySet()), siteServiceSql::getSitesPageFieldsSql, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						BaseSite site = toRead.get(result.getString(1));
+						if (site == null) return null;
+
+						String id = result.getString(2);
+						String title = result.getString(3);
+						String layout = result.getString(4);
+						boolean popup = "1".equals(result.getString(5)) ? true : false;
+
+						// make the page, and add it to the pages
+						BaseSitePage page = new BaseSitePage(DbSiteService.this, site, id, title, layout, popup);
+						site.m_pages.add(page);
+						pages.put(id, page);
+
+						return null;
+					}
+					catch (SQLException e)
+					{
+						log.warn("readSitesPages: " + e);
+						return null;
+					}
+				}
+			});
+
+			for (BaseSite site : toRead.values())
+			{
+				site.m_pagesLazy = false;
+			}
+
+			// the tools of all the pages, as readSiteTools does for a site
+			readForSites(new ArrayList<>(toRead.keySet()), siteServiceSql::getSitesToolFieldsSql, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						String id = result.getString(2);
+						String pageId = result.getString(3);
+						String registration = result.getString(4);
+						String title = result.getString(5);
+						String layout = result.getString(6);
+						int pageOrder = result.getInt(7);
+
+						BaseSitePage page = pages.get(pageId);
+						if ((page != null) && (page.m_toolsLazy))
+						{
+							// make the tool, and add it to the tools
+							BaseToolConfiguration tool = new BaseToolConfiguration(DbSiteService.this, page, id, registration, title, layout, pageOrder);
+							page.m_tools.add(tool);
+						}
+
+						return null;
+					}
+					catch (SQLException e)
+					{
+						log.warn("readSitesPages: " + e);
+						return null;
+					}
+				}
+			});
+
+			for (BaseSitePage page : pages.values())
+			{
+				page.m_toolsLazy = false;
+			}
+		}
+
+		/**
+		 * @inheritDoc
+		 */
+		public void readSitesGroups(List<Site> sites)
+		{
+			final Map<String, BaseSite> toRead = new LinkedHashMap<>();
+			for (Site s : sites)
+			{
+				BaseSite site = (BaseSite) s;
+				if (site.m_groupsLazy) toRead.put(caseId(site.getId()), site);
+			}
+			if (toRead.isEmpty()) return;
+
+			readForSites(new ArrayList<>(toRead.keySet()), siteServiceSql::getSitesGroupFieldsSql, new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						BaseSite site = toRead.get(result.getString(1));
+						if (site == null) return null;
+
+						String groupId = result.getString(2);
+						String title = result.getString(3);
+						String description = result.getString(4);
+
+						// make the group, and add it to the groups
+						site.m_groups.add(new BaseGroup(DbSiteService.this, groupId, title, description, site));
+
+						return null;
+					}
+					catch (SQLException e)
+					{
+						log.warn("readSitesGroups: " + e);
+						return null;
+					}
+				}
+			});
+
+			for (BaseSite site : toRead.values())
+			{
+				site.m_groupsLazy = false;
+			}
+		}
+
+		/**
+		 * Run a read for many sites, in batches of site ids as getSites does.
+		 *
+		 * @param siteIds
+		 *        The site ids.
+		 * @param sql
+		 *        Makes the statement from the SITE_ID IN (?,?,...) condition for a batch.
+		 * @param reader
+		 *        Reads the records, with the site id as the first field.
+		 */
+		protected void readForSites(List<String> siteIds, Function<String, String> sql, SqlReader reader)
+		{
+			int remaining = siteIds.size();
+			while (remaining > 0)
+			{
+				int start = siteIds.size() - remaining;
+				Object[] values = getFilledBucket(siteIds.subList(start, siteIds.size()));
+				m_sql.dbRead(sql.apply(getWhereIdIn(m_siteIdFieldName, values.length)), values, reader);
+				remaining -= values.length;
+			}
+		}
+
 		/**
 		 * Get the fields for the database from the edit for this id, and the id again at the end if needed
 		 * 
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.impl.BaseSiteService.Storage;
+import org.sakaiproject.util.BaseResourceProperties;
+
+/**
+ * Sites read together for one list. A site is read at summary level and its properties, pages (with their tools) and
+ * groups are each read on first use. When a site of a batch reads one of those, it is read for every site of the batch
+ * still without it, a few queries for the whole list instead of one or more for every site.
+ * The batch only holds weak references, so keeping one site of a list doesn't keep the rest.
+ */
+public class SiteBatch
+{
+	private final Storage storage;
+	private final List<WeakReference<BaseSite>> sites;
+
+	private SiteBatch(Storage storage, List<BaseSite> sites)
+	{
+		this.storage = storage;
+		this.sites = new ArrayList<>(sites.size());
+		for (BaseSite site : sites)
+		{
+			this.sites.add(new WeakReference<>(site));
+		}
+	}
+
+	/**
+	 * Put the sites of a list in a batch together, if there is more than one to share it.
+	 *
+	 * @param storage
+	 *        The storage the sites are read from.
+	 * @param sites
+	 *        The sites as listed.
+	 */
+	public static void attach(Storage storage, List<? extends Site> sites)
+	{
+		if (sites == null || sites.size() < 2) return;
+
+		List<BaseSite> members = new ArrayList<>(sites.size());
+		for (Site site : sites)
+		{
+			if (site instanceof BaseSite) members.add((BaseSite) site);
+		}
+		if (members.size() < 2) return;
+
+		SiteBatch batch = new SiteBatch(storage, members);
+		for (BaseSite site : members)
+		{
+			site.m_batch = batch;
+		}
+	}
+
+	/**
+	 * Read the properties of the sites that haven't got them yet.
+	 */
+	void readProperties()
+	{
+		read(site -> ((BaseResourceProperties) site.m_properties).isLazy(), storage::readSitesProperties);
+	}
+
+	/**
+	 * Read the pages, and their tools, of the sites that haven't got them yet.
+	 */
+	void readPages()
+	{
+		read(site -> site.m_pagesLazy, storage::readSitesPages);
+	}
+
+	/**
+	 * Read the groups of the sites that haven't got them yet.
+	 */
+	void readGroups()
+	{
+		read(site -> site.m_groupsLazy, storage::readSitesGroups);
+	}
+
+	private void read(Predicate<BaseSite> lazy, Consumer<List<Site>> reader)
+	{
+		List<Site> toRead = new ArrayList<>();
+		for (WeakReference<BaseSite> ref : sites)
+		{
+			BaseSite site = ref.get();
+			if (site != null && lazy.test(site)) toRead.add(site);
+		}
+		if (!toRead.isEmpty())
+		{
+			reader.accept(toRead);
+		}
+	}
+}
@@ -323,6 +323,26 @@ public interface SiteServiceSql
 	 */
 	String getPageFields2Sql();
 
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_page table for the sites in the in clause.
+	 */
+	String getSitesPageFieldsSql(String inClause);
+
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_tool table for the sites in the in clause.
+	 */
+	String getSitesToolFieldsSql(String inClause);
+
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_group table for the sites in the in clause.
+	 */
+	String getSitesGroupFieldsSql(String inClause);
+
+	/**
+	 * returns the sql statement which retrieves the properties from the sakai_site_property table for the sites in the in clause.
+	 */
+	String getSitesPropertiesSql(String inClause);
+
 	/**
 	 * returns the sql statement which retrieves the site id for a given page from the sakai_site_page table.
 	 */
@@ -515,6 +515,39 @@ public class SiteServiceSqlDefault implements SiteServiceSql
 		return "select PAGE_ID, TITLE, LAYOUT, POPUP from SAKAI_SITE_PAGE where SITE_ID = ? order by SITE_ORDER ASC";
 	}
 
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_page table for the sites in the in clause.
+	 */
+	public String getSitesPageFieldsSql(String inClause)
+	{
+		return "select SITE_ID, PAGE_ID, TITLE, LAYOUT, POPUP from SAKAI_SITE_PAGE where " + inClause + " order by SITE_ID, SITE_ORDER ASC";
+	}
+
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_tool table for the sites in the in clause.
+	 */
+	public String getSitesToolFieldsSql(String inClause)
+	{
+		return "select SITE_ID, TOOL_ID, PAGE_ID, REGISTRATION, TITLE, LAYOUT_HINTS, PAGE_ORDER from SAKAI_SITE_TOOL where " + inClause
+				+ " order by SITE_ID, PAGE_ID, PAGE_ORDER ASC";
+	}
+
+	/**
+	 * returns the sql statement which retrieves various fields from the sakai_site_group table for the sites in the in clause.
+	 */
+	public String getSitesGroupFieldsSql(String inClause)
+	{
+		return "select SS.SITE_ID, SS.GROUP_ID, SS.TITLE, SS.DESCRIPTION from SAKAI_SITE_GROUP SS where SS." + inClause + " order by SS.SITE_ID, SS.TITLE";
+	}
+
+	/**
+	 * returns the sql statement which retrieves the properties from the sakai_site_property table for the sites in the in clause.
+	 */
+	public String getSitesPropertiesSql(String inClause)
+	{
+		return "select SITE_ID, NAME, VALUE from SAKAI_SITE_PROPERTY where " + inClause;
+	}
+
 	/**
 	 * returns the sql statement which retrieves the site id for a given page from the sakai_site_page table.
 	 */
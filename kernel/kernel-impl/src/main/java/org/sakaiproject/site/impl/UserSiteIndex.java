@@ -0,0 +1,412 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.site.api.Site;
+
+/**
+ * The sites each user can access, kept as site ids with a small summary of each site rather than as full Site objects.
+ * The sites themselves are resolved from the site cache when asked for, and entries are patched in place when a site
+ * changes, instead of being thrown away for every member of the site.
+ * Counts are published over JMX as org.sakaiproject:name=SiteService.userSites.
+ */
+public class UserSiteIndex implements UserSiteIndexMXBean
+{
+	/** The site property holding the academic term. */
+	public static final String PROP_TERM = "term";
+
+	private final Cache<String, Entry> cache;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder builds = new LongAdder();
+	private final LongAdder builtSites = new LongAdder();
+	private final LongAccumulator largestEntry = new LongAccumulator(Math::max, 0);
+	private final LongAdder updates = new LongAdder();
+	private final LongAdder removals = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder staleSites = new LongAdder();
+
+	/**
+	 * @param cache
+	 *        The cache holding an entry per user id.
+	 */
+	public UserSiteIndex(Cache<String, Entry> cache)
+	{
+		this.cache = cache;
+	}
+
+	/**
+	 * @param userId
+	 *        The internal user id.
+	 * @return the ids of the sites the user can access, in the order they were listed, or null if the user is not indexed.
+	 */
+	public List<String> getSiteIds(String userId)
+	{
+		List<SiteSummary> summaries = getSummaries(userId);
+		if (summaries == null) return null;
+		return summaries.stream().map(SiteSummary::getId).collect(Collectors.toList());
+	}
+
+	/**
+	 * @param userId
+	 *        The internal user id.
+	 * @return the summaries of the sites the user can access, in the order they were listed, or null if the user is not indexed.
+	 */
+	public List<SiteSummary> getSummaries(String userId)
+	{
+		Entry entry = userId == null ? null : cache.get(userId);
+		if (entry == null)
+		{
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return entry.sites;
+	}
+
+	/**
+	 * Index the sites a user can access.
+	 *
+	 * @param userId
+	 *        The internal user id.
+	 * @param sites
+	 *        The sites, in the order they should be listed.
+	 * @param includesUnpublished
+	 *        true if the sites were selected including unpublished sites.
+	 */
+	public void put(String userId, List<Site> sites, boolean includesUnpublished)
+	{
+		if (userId == null || sites == null) return;
+		List<SiteSummary> summaries = new ArrayList<>(sites.size());
+		for (Site site : sites)
+		{
+			summaries.add(new SiteSummary(site));
+		}
+		cache.put(userId, new Entry(summaries, includesUnpublished));
+		builds.increment();
+		builtSites.add(summaries.size());
+		largestEntry.accumulate(summaries.size());
+	}
+
+	/**
+	 * Forget the sites of a user, so they are selected again on the next request.
+	 */
+	public void evict(String userId)
+	{
+		if (userId != null && cache.remove(userId))
+		{
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Drop the sites that could no longer be found from a user's entry.
+	 *
+	 * @param userId
+	 *        The internal user id.
+	 * @param found
+	 *        The ids of the user's sites that still exist.
+	 */
+	public void retain(String userId, Collection<String> found)
+	{
+		Entry entry = userId == null ? null : cache.get(userId);
+		if (entry == null) return;
+		Set<String> keep = new LinkedHashSet<>(found);
+		List<SiteSummary> summaries = entry.sites.stream().filter(s -> keep.contains(s.getId())).collect(Collectors.toList());
+		if (summaries.size() != entry.sites.size())
+		{
+			staleSites.add(entry.sites.size() - summaries.size());
+			cache.put(userId, new Entry(summaries, entry.includesUnpublished));
+		}
+	}
+
+	/**
+	 * Bring the entries of the site's members, before and after the change, up to date with the site.
+	 * A site a member can no longer access is dropped from their entry, and the summary of one they still can is replaced.
+	 * A member whose entry can't be patched safely (the site is new to them, their role changed, the title the sites
+	 * are sorted by changed, or the site is unpublished and the entry was selected without unpublished sites) is evicted.
+	 *
+	 * @param before
+	 *        The site as it was, or null if not known.
+	 * @param after
+	 *        The site as it is now.
+	 */
+	public void siteUpdated(Site before, Site after)
+	{
+		if (after == null) return;
+
+		Set<String> userIds = new LinkedHashSet<>();
+		if (before != null)
+		{
+			for (Member member : before.getMembers())
+			{
+				userIds.add(member.getUserId());
+			}
+		}
+		for (Member member : after.getMembers())
+		{
+			userIds.add(member.getUserId());
+		}
+
+		SiteSummary summary = new SiteSummary(after);
+		for (String userId : userIds)
+		{
+			Entry entry = cache.get(userId);
+			if (entry == null) continue;
+
+			Member member = after.getMember(userId);
+			boolean active = member != null && member.isActive();
+			if (active && entry.dependsOnPermission(summary))
+			{
+				// unpublished sites are still listed to the members allowed to visit them, which is only known to the db
+				evict(userId);
+				continue;
+			}
+			boolean accessible = active && entry.admits(summary);
+			SiteSummary listed = entry.find(summary.getId());
+
+			if (listed != null && !accessible)
+			{
+				cache.put(userId, entry.without(summary.getId()));
+				removals.increment();
+			}
+			else if (listed != null && Objects.equals(listed.getTitle(), summary.getTitle())
+					&& sameRole(before == null ? null : before.getMember(userId), member))
+			{
+				cache.put(userId, entry.with(summary));
+				updates.increment();
+			}
+			else if (listed != null || accessible)
+			{
+				evict(userId);
+			}
+		}
+	}
+
+	/**
+	 * Drop a removed site from the entries of its members.
+	 */
+	public void siteRemoved(Site site)
+	{
+		if (site == null) return;
+		for (Member member : site.getMembers())
+		{
+			Entry entry = cache.get(member.getUserId());
+			if (entry != null && entry.find(site.getId()) != null)
+			{
+				cache.put(member.getUserId(), entry.without(site.getId()));
+				removals.increment();
+			}
+		}
+	}
+
+	private boolean sameRole(Member before, Member after)
+	{
+		if (before == null || after == null) return before == after;
+		if (before.getRole() == null || after.getRole() == null) return before.getRole() == after.getRole();
+		return Objects.equals(before.getRole().getId(), after.getRole().getId());
+	}
+
+	@Override
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	@Override
+	public long getBuilds()
+	{
+		return builds.sum();
+	}
+
+	@Override
+	public long getAverageEntrySize()
+	{
+		long count = builds.sum();
+		return count == 0 ? 0 : builtSites.sum() / count;
+	}
+
+	@Override
+	public long getLargestEntrySize()
+	{
+		return largestEntry.get();
+	}
+
+	@Override
+	public long getUpdates()
+	{
+		return updates.sum();
+	}
+
+	@Override
+	public long getRemovals()
+	{
+		return removals.sum();
+	}
+
+	@Override
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	@Override
+	public long getStaleSites()
+	{
+		return staleSites.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "UserSiteIndex[hits: " + getHits() + " misses: " + getMisses() + " builds: " + getBuilds() + " average size: "
+				+ getAverageEntrySize() + " largest: " + getLargestEntrySize() + " updates: " + getUpdates() + " removals: "
+				+ getRemovals() + " evictions: " + getEvictions() + " stale: " + getStaleSites() + "]";
+	}
+
+	/**
+	 * The sites of one user. Entries are never changed once cached, a changed copy is put in their place.
+	 */
+	public static class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final List<SiteSummary> sites;
+		private final boolean includesUnpublished;
+
+		Entry(List<SiteSummary> sites, boolean includesUnpublished)
+		{
+			this.sites = Collections.unmodifiableList(sites);
+			this.includesUnpublished = includesUnpublished;
+		}
+
+		/**
+		 * @return true if a site like this one belongs in the entry, given how the entry was selected.
+		 */
+		boolean admits(SiteSummary site)
+		{
+			return !site.isSoftlyDeleted() && (site.isPublished() || includesUnpublished);
+		}
+
+		/**
+		 * @return true if whether the site belongs in the entry depends on the user's permission to visit unpublished sites,
+		 *         as the select compares SAKAI_SITE_USER.PERMISSION with SAKAI_SITE.PUBLISHED.
+		 */
+		boolean dependsOnPermission(SiteSummary site)
+		{
+			return !site.isSoftlyDeleted() && !site.isPublished() && !includesUnpublished;
+		}
+
+		SiteSummary find(String siteId)
+		{
+			for (SiteSummary site : sites)
+			{
+				if (site.getId().equals(siteId)) return site;
+			}
+			return null;
+		}
+
+		Entry with(SiteSummary summary)
+		{
+			List<SiteSummary> copy = new ArrayList<>(sites);
+			copy.replaceAll(s -> s.getId().equals(summary.getId()) ? summary : s);
+			return new Entry(copy, includesUnpublished);
+		}
+
+		Entry without(String siteId)
+		{
+			List<SiteSummary> copy = new ArrayList<>(sites);
+			copy.removeIf(s -> s.getId().equals(siteId));
+			return new Entry(copy, includesUnpublished);
+		}
+	}
+
+	/**
+	 * What a site list needs to know about a site without loading it.
+	 */
+	public static class SiteSummary implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String id;
+		private final String title;
+		private final String type;
+		private final boolean published;
+		private final boolean softlyDeleted;
+		private final String term;
+
+		SiteSummary(Site site)
+		{
+			this.id = site.getId();
+			this.title = site.getTitle();
+			this.type = site.getType();
+			this.published = site.isPublished();
+			this.softlyDeleted = site.isSoftlyDeleted();
+			this.term = site.getProperties() == null ? null : site.getProperties().getProperty(PROP_TERM);
+		}
+
+		public String getId()
+		{
+			return id;
+		}
+
+		public String getTitle()
+		{
+			return title;
+		}
+
+		public String getType()
+		{
+			return type;
+		}
+
+		public boolean isPublished()
+		{
+			return published;
+		}
+
+		public boolean isSoftlyDeleted()
+		{
+			return softlyDeleted;
+		}
+
+		public String getTerm()
+		{
+			return term;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+/**
+ * Counts for the user-site index, published over JMX as org.sakaiproject:name=SiteService.userSites.
+ */
+public interface UserSiteIndexMXBean
+{
+	/** Requests for a user's sites answered from the index. */
+	long getHits();
+
+	/** Requests for a user's sites that had to select them from storage. */
+	long getMisses();
+
+	/** Entries written after selecting a user's sites. */
+	long getBuilds();
+
+	/** Sites in an entry when it is written, on average. */
+	long getAverageEntrySize();
+
+	/** The most sites written to a single entry. */
+	long getLargestEntrySize();
+
+	/** Site summaries replaced in place after a site was saved. */
+	long getUpdates();
+
+	/** Sites dropped from an entry after the user lost access or the site was removed. */
+	long getRemovals();
+
+	/** Entries thrown away so they are selected again. */
+	long getEvictions();
+
+	/** Sites dropped from an entry as they could no longer be found. */
+	long getStaleSites();
+}
@@ -20,11 +20,13 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +37,10 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.function.Function;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.authz.api.AuthzGroupService;
@@ -129,6 +135,18 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 	/** A cache of users' id/eid map */
 	protected Cache<String, String> m_userCache = null;
 
+	/** A short lived cache of ids and eids that were not found, so lookups of departed users skip storage and the provider */
+	protected Cache<String, Boolean> m_notFoundCache = null;
+
+	/** Key prefixes for the not found cache */
+	protected static final String NOT_FOUND_ID = "id:";
+	protected static final String NOT_FOUND_EID = "eid:";
+
+	/** Counts for user lookups */
+	protected final UserResolutionStats m_resolutionStats = new UserResolutionStats(1000);
+
+	protected static final String RESOLUTION_MBEAN = "org.sakaiproject:name=UserDirectory";
+
 	/** Optional service to provide site-specific aliases for a user's display ID and display name. */
 	protected ContextualUserDisplayService m_contextualUserDisplayService = null;
 	
@@ -609,6 +627,22 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
                 m_userCacheObserver = new UserCacheObserver();
                 eventTrackingService().addObserver(m_userCacheObserver);
             }
+            m_notFoundCache = memoryService().getCache("org.sakaiproject.user.api.UserDirectoryService.notFoundCache");
+
+            try
+            {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(RESOLUTION_MBEAN);
+                if (mbs.isRegistered(name))
+                {
+                    mbs.unregisterMBean(name);
+                }
+                mbs.registerMBean(m_resolutionStats, name);
+            }
+            catch (Exception e)
+            {
+                log.warn("init(): could not register {}: {}", RESOLUTION_MBEAN, e.toString());
+            }
 
 			// register as an entity producer
 			entityManager().registerEntityProducer(this, REFERENCE_ROOT);
@@ -705,6 +739,16 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		m_passwordPolicyProvider = null;
 		m_callCache.close();
 		m_userCacheObserver = null;
+		m_notFoundCache = null;
+
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(RESOLUTION_MBEAN));
+		}
+		catch (Exception e)
+		{
+			log.debug("destroy(): {}", e.toString());
+		}
 
 		log.info("destroy()");
 	}
@@ -840,6 +884,13 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		UserEdit user = getCachedUser(ref);
 		if (user == null)
 		{
+			// skip the lookup if we recently didn't find this user
+			Set<String> notFoundKey = Collections.singleton(StringUtils.defaultString(cleanEid(id)));
+			if (skipNotFound(NOT_FOUND_ID, notFoundKey).isEmpty())
+			{
+				throw new UserNotDefinedException(id);
+			}
+
 			// find our user record, and use it if we have it
 			user = m_storage.getById(id);
 
@@ -862,6 +913,10 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			{
 				putCachedUser(ref, user);
 			}
+			else
+			{
+				rememberNotFound(NOT_FOUND_ID, notFoundKey, Collections.emptyList(), User::getId);
+			}
 		}
 
 		// if not found
@@ -899,6 +954,7 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			user = getProvidedUserByEid(id, eid);
 			if (user == null) throw new UserNotDefinedException(eid);
 		}
+		clearNotFound(user.getId(), eid);
 		putCachedUser(userReference(user.getId()), user);
 
 		return user;
@@ -917,10 +973,15 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			id = cleanEid(id);
 			if (id != null) searchIds.add(id);
 		}
+
+		// skip the ids we recently didn't find
+		searchIds = skipNotFound(NOT_FOUND_ID, searchIds);
 		
 		if (m_separateIdEid)
 		{
-			return m_storage.getUsersByIds(searchIds);
+			List<User> found = m_storage.getUsersByIds(searchIds);
+			rememberNotFound(NOT_FOUND_ID, searchIds, found, User::getId);
+			return found;
 		}
 		
 		// Fall back to the old logic if this is a legacy system where 
@@ -985,6 +1046,7 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			}
 		}
 
+		rememberNotFound(NOT_FOUND_ID, searchIds, rv, User::getId);
 		return rv;
 	}
 	
@@ -1005,8 +1067,13 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			eid = cleanEid(eid);
 			if (eid != null) searchEids.add(eid);
 		}
-		
-		return m_storage.getUsersByEids(searchEids);
+
+		// skip the eids we recently didn't find
+		searchEids = skipNotFound(NOT_FOUND_EID, searchEids);
+
+		List<User> found = m_storage.getUsersByEids(searchEids);
+		rememberNotFound(NOT_FOUND_EID, searchEids, found, User::getEid);
+		return found;
 	}
 
 	/**
@@ -1297,6 +1364,7 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		((BaseUserEdit) user).closeEdit();
 
 		// Update the caches to match any changed data.
+		clearNotFound(user.getId(), user.getEid());
 		putCachedUser(ref, user);
 
 	}
@@ -1842,10 +1910,119 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			{
 				userEdit = (UserEdit) cachedRef;
 			}
+			m_resolutionStats.cacheLookup(userEdit != null ? 1 : 0, userEdit != null ? 0 : 1);
 		}
 		return userEdit;
 	}
 
+	/**
+	 * Look up many users in the cache at once.
+	 *
+	 * @param ids
+	 *        The user ids.
+	 * @return The cached users, keyed by user reference.
+	 */
+	protected Map<String, UserEdit> getCachedUsers(Collection<String> ids)
+	{
+		Map<String, UserEdit> rv = new HashMap<>();
+		if (m_callCache == null || ids.isEmpty()) return rv;
+
+		Set<String> refs = new HashSet<>();
+		for (String id : ids)
+		{
+			refs.add(userReference(id));
+		}
+		for (Map.Entry<String, UserEdit> entry : m_callCache.getAll(refs).entrySet())
+		{
+			if (entry.getValue() != null) rv.put(entry.getKey(), entry.getValue());
+		}
+		m_resolutionStats.cacheLookup(rv.size(), refs.size() - rv.size());
+		return rv;
+	}
+
+	/**
+	 * Drop the ids (or eids) that were recently not found.
+	 *
+	 * @param prefix
+	 *        NOT_FOUND_ID or NOT_FOUND_EID.
+	 * @param keys
+	 *        The cleaned ids or eids.
+	 * @return The ones still to look up.
+	 */
+	protected Set<String> skipNotFound(String prefix, Set<String> keys)
+	{
+		if (m_notFoundCache == null || keys.isEmpty()) return keys;
+
+		Set<String> cacheKeys = new HashSet<>();
+		for (String key : keys)
+		{
+			cacheKeys.add(prefix + key);
+		}
+		Map<String, Boolean> hits = m_notFoundCache.getAll(cacheKeys);
+		if (hits.isEmpty()) return keys;
+
+		Set<String> rv = new HashSet<>();
+		for (String key : keys)
+		{
+			if (hits.get(prefix + key) == null) rv.add(key);
+		}
+		m_resolutionStats.notFoundHits(keys.size() - rv.size());
+		return rv;
+	}
+
+	/**
+	 * Remember the ids (or eids) that were looked up and not found, for the life of the not found cache.
+	 *
+	 * @param prefix
+	 *        NOT_FOUND_ID or NOT_FOUND_EID.
+	 * @param keys
+	 *        The cleaned ids or eids looked up.
+	 * @param found
+	 *        The users found.
+	 * @param key
+	 *        Gets the id or eid of a found user.
+	 */
+	protected void rememberNotFound(String prefix, Set<String> keys, Collection<? extends User> found, Function<User, String> key)
+	{
+		if (m_notFoundCache == null || keys.isEmpty() || keys.size() == found.size()) return;
+
+		Set<String> missing = new HashSet<>(keys);
+		for (User user : found)
+		{
+			missing.remove(cleanEid(key.apply(user)));
+		}
+		if (missing.isEmpty()) return;
+
+		Map<String, Boolean> entries = new HashMap<>();
+		for (String m : missing)
+		{
+			entries.put(prefix + m, Boolean.TRUE);
+		}
+		m_notFoundCache.putAll(entries);
+		m_resolutionStats.notFound(missing.size());
+	}
+
+	/**
+	 * Forget that a user was not found, now that it exists.
+	 */
+	protected void clearNotFound(String id, String eid)
+	{
+		if (m_notFoundCache == null) return;
+
+		Set<String> keys = new HashSet<>();
+		if (id != null) keys.add(NOT_FOUND_ID + cleanEid(id));
+		if (eid != null) keys.add(NOT_FOUND_EID + cleanEid(eid));
+		m_notFoundCache.removeAll(keys);
+	}
+
+	/**
+	 * @return the counts for user lookups.
+	 */
+	public UserResolutionStats getResolutionStats()
+	{
+		return m_resolutionStats;
+	}
+
 	protected void putCachedUser(String ref, UserEdit user)
 	{
 		// KNL-1241 removed caching in threadlocal
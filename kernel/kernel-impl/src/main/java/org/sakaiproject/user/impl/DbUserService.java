@@ -658,15 +658,73 @@ public abstract class DbUserService extends BaseUserDirectoryService
 			return user;
 		}
 
+		/**
+		 * Look up many users in the cache by eid at once, through the id/eid mapping cache.
+		 *
+		 * @return The cached users, keyed by eid.
+		 */
+		protected Map<String, UserEdit> getCachedUsersByEids(Collection<String> eids)
+		{
+			Map<String, UserEdit> rv = new HashMap<String, UserEdit>();
+			if (!m_separateIdEid)
+			{
+				for (Map.Entry<String, UserEdit> entry : getCachedUsers(eids).entrySet())
+				{
+					rv.put(entry.getValue().getEid(), entry.getValue());
+				}
+				return rv;
+			}
+
+			Set<String> keys = new HashSet<String>();
+			for (String eid : eids)
+			{
+				keys.add(IDCACHE + eid);
+			}
+			Map<String, String> idsByEid = new HashMap<String, String>();
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) cache.getAll(keys)).entrySet())
+			{
+				if (entry.getValue() != null)
+				{
+					idsByEid.put(((String) entry.getKey()).substring(IDCACHE.length()), (String) entry.getValue());
+				}
+			}
+
+			Map<String, UserEdit> cachedUsers = getCachedUsers(idsByEid.values());
+			for (Map.Entry<String, String> entry : idsByEid.entrySet())
+			{
+				UserEdit user = cachedUsers.get(userReference(entry.getValue()));
+				if (user != null) rv.put(entry.getKey(), user);
+			}
+			return rv;
+		}
+
+		/**
+		 * Have the provider fill in, or remove, the given users, in one call.
+		 */
+		protected void getProvidedUsers(Collection<UserEdit> users)
+		{
+			int count = users.size();
+			long start = System.currentTimeMillis();
+			try
+			{
+				m_provider.getUsers(users);
+			}
+			finally
+			{
+				m_resolutionStats.providerCall(count, System.currentTimeMillis() - start);
+			}
+		}
+
 		public List<User> getUsersByIds(Collection<String> ids)
 		{
 			List<User> foundUsers = new ArrayList<User>();
 
 			// Put all the already cached user records to one side.
 			Set<String> idsToSearch = new HashSet<String>();
+			Map<String, UserEdit> cachedUsers = getCachedUsers(ids);
 			for (String id : ids)
 			{
-				UserEdit cachedUser = getCachedUser(userReference(id));
+				UserEdit cachedUser = cachedUsers.get(userReference(id));
 				if (cachedUser != null)
 				{
 					foundUsers.add(cachedUser);
@@ -687,7 +745,7 @@ public abstract class DbUserService extends BaseUserDirectoryService
 			List<UserEdit> usersToQueryProvider = userWithEidReader.getUsersToQueryProvider();
 			if ((m_provider != null) && !usersToQueryProvider.isEmpty())
 			{
-				m_provider.getUsers(usersToQueryProvider);
+				getProvidedUsers(usersToQueryProvider);
 
 				// Make sure that returned users are mapped and cached correctly.
 				for (UserEdit user : usersToQueryProvider)
@@ -706,9 +764,10 @@ public abstract class DbUserService extends BaseUserDirectoryService
 
 			// Put all the already cached user records to one side.
 			Set<String> eidsToSearch = new HashSet<String>();
+			Map<String, UserEdit> cachedUsers = getCachedUsersByEids(eids);
 			for (String eid : eids)
 			{
-				UserEdit cachedUser = getCachedUserByEid(eid);
+				UserEdit cachedUser = cachedUsers.get(eid);
 				if (cachedUser != null)
 				{
 					foundUsers.add(cachedUser);
@@ -745,7 +804,7 @@ public abstract class DbUserService extends BaseUserDirectoryService
 			// Finally, fill in the provided user records.
 			if ((m_provider != null) && !usersToQueryProvider.isEmpty())
 			{
-				m_provider.getUsers(usersToQueryProvider);
+				getProvidedUsers(usersToQueryProvider);
 
 				// Make sure that returned users are mapped and cached correctly.
 				for (UserEdit user : usersToQueryProvider)
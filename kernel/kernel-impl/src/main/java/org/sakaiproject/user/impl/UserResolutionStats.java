@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.user.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts for user lookups, with provider latency percentiles over a window of the most recent provider calls.
+ * Published over JMX as org.sakaiproject:name=UserDirectory.
+ */
+public class UserResolutionStats implements UserResolutionStatsMXBean
+{
+	private final long[] window;
+	private int next = 0;
+	private int size = 0;
+
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LongAdder notFoundHits = new LongAdder();
+	private final LongAdder notFound = new LongAdder();
+	private final LongAdder providerCalls = new LongAdder();
+	private final LongAdder providerUsers = new LongAdder();
+
+	/**
+	 * @param windowSize
+	 *        The number of recent provider call times the percentiles are taken over.
+	 */
+	public UserResolutionStats(int windowSize)
+	{
+		this.window = new long[Math.max(1, windowSize)];
+	}
+
+	/**
+	 * Users were looked for in the user cache.
+	 */
+	public void cacheLookup(int hits, int misses)
+	{
+		cacheHits.add(hits);
+		cacheMisses.add(misses);
+	}
+
+	/**
+	 * Ids or eids were skipped as they were recently not found.
+	 */
+	public void notFoundHits(int count)
+	{
+		notFoundHits.add(count);
+	}
+
+	/**
+	 * Ids or eids were not found, and remembered as such.
+	 */
+	public void notFound(int count)
+	{
+		notFound.add(count);
+	}
+
+	/**
+	 * The provider was asked for users.
+	 *
+	 * @param users
+	 *        How many users it was asked for.
+	 * @param millis
+	 *        How long it took.
+	 */
+	public void providerCall(int users, long millis)
+	{
+		providerCalls.increment();
+		providerUsers.add(users);
+		synchronized (window)
+		{
+			window[next] = millis;
+			next = (next + 1) % window.length;
+			if (size < window.length) size++;
+		}
+	}
+
+	/**
+	 * @param percentile
+	 *        0 - 100
+	 * @return the provider call time in ms at the percentile, over the recent window, 0 if the provider was not called yet.
+	 */
+	public long getProviderLatency(double percentile)
+	{
+		long[] sorted;
+		synchronized (window)
+		{
+			if (size == 0) return 0;
+			sorted = Arrays.copyOf(window, size);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+		return sorted[Math.min(sorted.length - 1, Math.max(0, index))];
+	}
+
+	@Override
+	public long getCacheHits()
+	{
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMisses()
+	{
+		return cacheMisses.sum();
+	}
+
+	@Override
+	public long getNotFoundHits()
+	{
+		return notFoundHits.sum();
+	}
+
+	@Override
+	public long getNotFound()
+	{
+		return notFound.sum();
+	}
+
+	@Override
+	public long getProviderCalls()
+	{
+		return providerCalls.sum();
+	}
+
+	@Override
+	public long getProviderUsers()
+	{
+		return providerUsers.sum();
+	}
+
+	@Override
+	public long getProviderLatencyP50()
+	{
+		return getProviderLatency(50);
+	}
+
+	@Override
+	public long getProviderLatencyP95()
+	{
+		return getProviderLatency(95);
+	}
+
+	@Override
+	public long getProviderLatencyMax()
+	{
+		return getProviderLatency(100);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "UserResolutionStats[cache hits: " + getCacheHits() + " misses: " + getCacheMisses() + " not found hits: "
+				+ getNotFoundHits() + " not found: " + getNotFound() + " provider calls: " + getProviderCalls() + " users: "
+				+ getProviderUsers() + " p95: " + getProviderLatencyP95() + "ms]";
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.user.impl;
+
+/**
+ * Counts for user lookups, published over JMX as org.sakaiproject:name=UserDirectory.
+ */
+public interface UserResolutionStatsMXBean
+{
+	/** Users found in the user cache. */
+	long getCacheHits();
+
+	/** Users looked for in the user cache and not found there. */
+	long getCacheMisses();
+
+	/** Ids and eids skipped as they were recently not found. */
+	long getNotFoundHits();
+
+	/** Ids and eids not found by storage or the provider, and remembered as such. */
+	long getNotFound();
+
+	/** Calls made to the provider for users. */
+	long getProviderCalls();
+
+	/** Users asked of the provider. */
+	long getProviderUsers();
+
+	/** Time taken by a provider call (ms). */
+	long getProviderLatencyP50();
+
+	long getProviderLatencyP95();
+
+	long getProviderLatencyMax();
+}
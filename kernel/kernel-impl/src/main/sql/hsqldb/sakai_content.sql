@@ -13,7 +13,8 @@ CREATE TABLE CONTENT_COLLECTION
 
 CREATE INDEX CONTENT_IN_COLLECTION_INDEX ON CONTENT_COLLECTION
 (
-	IN_COLLECTION
+	IN_COLLECTION,
+	COLLECTION_ID
 );
 
 INSERT INTO CONTENT_COLLECTION VALUES ('/','',
@@ -135,7 +136,8 @@ CREATE TABLE CONTENT_RESOURCE
 
 CREATE INDEX CONTENT_IN_RESOURCE_INDEX ON CONTENT_RESOURCE
 (
-	IN_COLLECTION
+	IN_COLLECTION,
+	RESOURCE_ID
 );
 
 CREATE INDEX CONTENT_UUID_RESOURCE_INDEX ON CONTENT_RESOURCE
@@ -0,0 +1,18 @@
+-----------------------------------------------------------------------------
+-- CONTENT_BODY_HASH
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_BODY_HASH
+(
+    BODY_HASH VARCHAR (64) NOT NULL,
+    FILE_PATH VARCHAR (128) NOT NULL,
+    FILE_SIZE BIGINT,
+    REF_COUNT INT NOT NULL,
+    CONSTRAINT CONTENT_BODY_HASH_PK PRIMARY KEY (BODY_HASH),
+    CONSTRAINT CONTENT_BODY_HASH_PATH_I UNIQUE (FILE_PATH)
+);
+
+CREATE INDEX CONTENT_BODY_HASH_REF_I ON CONTENT_BODY_HASH
+(
+	REF_COUNT
+);
@@ -0,0 +1,17 @@
+-- Widen the IN_COLLECTION indexes to cover the member id, so that a folder's
+-- members can be listed a page at a time in id order (keyset paging) straight
+-- from the index. New installs get these from sakai_content.sql.
+
+DROP INDEX CONTENT_IN_COLLECTION_INDEX ON CONTENT_COLLECTION;
+CREATE INDEX CONTENT_IN_COLLECTION_INDEX ON CONTENT_COLLECTION
+(
+	IN_COLLECTION,
+	COLLECTION_ID
+);
+
+DROP INDEX CONTENT_IN_RESOURCE_INDEX ON CONTENT_RESOURCE;
+CREATE INDEX CONTENT_IN_RESOURCE_INDEX ON CONTENT_RESOURCE
+(
+	IN_COLLECTION,
+	RESOURCE_ID
+);
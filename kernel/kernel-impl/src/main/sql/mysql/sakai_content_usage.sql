@@ -0,0 +1,10 @@
+-----------------------------------------------------------------------------
+-- CONTENT_USAGE
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_USAGE
+(
+    USAGE_KEY VARCHAR (255) NOT NULL,
+    BYTES BIGINT NOT NULL,
+    PRIMARY KEY (USAGE_KEY)
+);
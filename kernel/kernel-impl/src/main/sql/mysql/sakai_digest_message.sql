@@ -0,0 +1,47 @@
+-----------------------------------------------------------------------------
+-- SAKAI_DIGEST_MESSAGE
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_DIGEST_MESSAGE
+(
+    MESSAGE_ID VARCHAR (36) NOT NULL,
+    USER_ID VARCHAR (99) NOT NULL,
+    SHARD INT NOT NULL,
+    PERIOD_START BIGINT NOT NULL,
+    CREATED BIGINT NOT NULL,
+    SUBJECT MEDIUMTEXT,
+    BODY MEDIUMTEXT,
+    PRIMARY KEY (MESSAGE_ID)
+);
+
+CREATE INDEX SAKAI_DIGEST_MSG_SHARD ON SAKAI_DIGEST_MESSAGE
+(
+	SHARD,
+	USER_ID
+);
+
+CREATE INDEX SAKAI_DIGEST_MSG_USER ON SAKAI_DIGEST_MESSAGE
+(
+	USER_ID,
+	PERIOD_START
+);
+
+-----------------------------------------------------------------------------
+-- SAKAI_DIGEST_SHARD
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_DIGEST_SHARD
+(
+    PERIOD_START BIGINT NOT NULL,
+    SHARD INT NOT NULL,
+    SERVER_ID VARCHAR (64),
+    LAST_USER_ID VARCHAR (99),
+    DONE CHAR (1) NOT NULL,
+    UPDATED BIGINT NOT NULL
+);
+
+CREATE UNIQUE INDEX SAKAI_DIGEST_SHARD_INDEX ON SAKAI_DIGEST_SHARD
+(
+	PERIOD_START,
+	SHARD
+);
@@ -0,0 +1,22 @@
+-----------------------------------------------------------------------------
+-- CONTENT_BODY_HASH
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_BODY_HASH
+(
+    BODY_HASH VARCHAR2 (64) NOT NULL,
+    FILE_PATH VARCHAR2 (128) NOT NULL,
+    FILE_SIZE NUMBER(18),
+    REF_COUNT NUMBER(10) NOT NULL,
+    CONSTRAINT CONTENT_BODY_HASH_PK PRIMARY KEY (BODY_HASH)
+);
+
+CREATE UNIQUE INDEX CONTENT_BODY_HASH_PATH_I ON CONTENT_BODY_HASH
+(
+	FILE_PATH
+);
+
+CREATE INDEX CONTENT_BODY_HASH_REF_I ON CONTENT_BODY_HASH
+(
+	REF_COUNT
+);
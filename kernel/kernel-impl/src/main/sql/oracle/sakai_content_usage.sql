@@ -0,0 +1,10 @@
+-----------------------------------------------------------------------------
+-- CONTENT_USAGE
+-----------------------------------------------------------------------------
+
+CREATE TABLE CONTENT_USAGE
+(
+    USAGE_KEY VARCHAR2 (255) NOT NULL,
+    BYTES NUMBER(18) NOT NULL,
+    CONSTRAINT CONTENT_USAGE_PK PRIMARY KEY (USAGE_KEY)
+);
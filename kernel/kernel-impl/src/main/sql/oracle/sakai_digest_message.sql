@@ -0,0 +1,47 @@
+-----------------------------------------------------------------------------
+-- SAKAI_DIGEST_MESSAGE
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_DIGEST_MESSAGE
+(
+    MESSAGE_ID VARCHAR2 (36) NOT NULL,
+    USER_ID VARCHAR2 (99) NOT NULL,
+    SHARD NUMBER(10) NOT NULL,
+    PERIOD_START NUMBER(19) NOT NULL,
+    CREATED NUMBER(19) NOT NULL,
+    SUBJECT CLOB,
+    BODY CLOB,
+    PRIMARY KEY (MESSAGE_ID)
+);
+
+CREATE INDEX SAKAI_DIGEST_MSG_SHARD ON SAKAI_DIGEST_MESSAGE
+(
+	SHARD,
+	USER_ID
+);
+
+CREATE INDEX SAKAI_DIGEST_MSG_USER ON SAKAI_DIGEST_MESSAGE
+(
+	USER_ID,
+	PERIOD_START
+);
+
+-----------------------------------------------------------------------------
+-- SAKAI_DIGEST_SHARD
+-----------------------------------------------------------------------------
+
+CREATE TABLE SAKAI_DIGEST_SHARD
+(
+    PERIOD_START NUMBER(19) NOT NULL,
+    SHARD NUMBER(10) NOT NULL,
+    SERVER_ID VARCHAR2 (64),
+    LAST_USER_ID VARCHAR2 (99),
+    DONE CHAR (1) NOT NULL,
+    UPDATED NUMBER(19) NOT NULL
+);
+
+CREATE UNIQUE INDEX SAKAI_DIGEST_SHARD_INDEX ON SAKAI_DIGEST_SHARD
+(
+	PERIOD_START,
+	SHARD
+);
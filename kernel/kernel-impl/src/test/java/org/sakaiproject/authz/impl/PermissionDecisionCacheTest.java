@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PermissionDecisionCacheTest {
+
+    private PermissionDecisionCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new PermissionDecisionCache(60000, 1000);
+    }
+
+    @Test
+    public void testGetPut() {
+        assertNull(cache.get("user1", "site.visit", "/site/1"));
+        cache.put("user1", "site.visit", "/site/1", true);
+        cache.put("user1", "site.upd", "/site/1", false);
+
+        assertTrue(cache.get("user1", "site.visit", "/site/1"));
+        assertFalse(cache.get("user1", "site.upd", "/site/1"));
+        assertNull(cache.get("user1", "annc.new", "/site/1"));
+        assertNull(cache.get("user2", "site.visit", "/site/1"));
+        assertNull(cache.get("user1", "site.visit", "/site/2"));
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testManyFunctions() {
+        for (int i = 0; i < 200; i++) {
+            cache.put("user1", "function" + i, "/site/1", i % 3 == 0);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i % 3 == 0, cache.get("user1", "function" + i, "/site/1"));
+        }
+        // a decision can change
+        cache.put("user1", "function0", "/site/1", false);
+        assertFalse(cache.get("user1", "function0", "/site/1"));
+    }
+
+    @Test
+    public void testInvalidateRealm() {
+        cache.put("user1", "site.visit", "/site/1", true);
+        cache.put("user2", "site.visit", "/site/1", true);
+        cache.put("user1", "site.visit", "/site/2", true);
+
+        cache.invalidateRealm("/site/1");
+
+        assertNull(cache.get("user1", "site.visit", "/site/1"));
+        assertNull(cache.get("user2", "site.visit", "/site/1"));
+        assertTrue(cache.get("user1", "site.visit", "/site/2"));
+        assertEquals(2, cache.getInvalidations());
+
+        // the realm can be cached again
+        cache.put("user1", "site.visit", "/site/1", false);
+        assertFalse(cache.get("user1", "site.visit", "/site/1"));
+    }
+
+    @Test
+    public void testInvalidateUser() {
+        cache.put("user1", "site.visit", "/site/1", true);
+        cache.put("user1", "site.visit", "/site/2", true);
+        cache.put("user2", "site.visit", "/site/1", true);
+
+        cache.invalidateUser("user1");
+        cache.invalidate("user2", "/site/1");
+
+        assertEquals(0, cache.size());
+        cache.invalidateRealm("/site/3");
+        assertEquals(3, cache.getInvalidations());
+    }
+
+    @Test
+    public void testExpiry() {
+        cache = new PermissionDecisionCache(-1, 1000);
+        cache.put("user1", "site.visit", "/site/1", true);
+        assertNull(cache.get("user1", "site.visit", "/site/1"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache = new PermissionDecisionCache(60000, 10);
+        for (int i = 0; i < 25; i++) {
+            cache.put("user" + i, "site.visit", "/site/1", true);
+        }
+        assertTrue(cache.size() <= 10);
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.get("user24", "site.visit", "/site/1"));
+    }
+
+    @Test
+    public void testClear() {
+        cache.put("user1", "site.visit", "/site/1", true);
+        cache.clear();
+        assertNull(cache.get("user1", "site.visit", "/site/1"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RealmRefreshStatsTest {
+
+    private AtomicInteger queued;
+    private RealmRefreshStats stats;
+
+    @Before
+    public void setUp() {
+        queued = new AtomicInteger();
+        stats = new RealmRefreshStats(100, queued::get);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, stats.getLatencyP50());
+        assertEquals(0, stats.getLatencyMax());
+        assertEquals(0, stats.getRefreshed());
+    }
+
+    @Test
+    public void testPercentiles() {
+        for (int i = 100; i >= 1; i--) {
+            stats.started();
+            stats.finished(i, true);
+        }
+        assertEquals(50, stats.getLatencyP50());
+        assertEquals(95, stats.getLatencyP95());
+        assertEquals(99, stats.getLatencyP99());
+        assertEquals(100, stats.getLatencyMax());
+        assertEquals(100, stats.getRefreshed());
+        assertEquals(0, stats.getRunning());
+    }
+
+    @Test
+    public void testWindow() {
+        for (int i = 0; i < 100; i++) {
+            stats.finished(10000, true);
+        }
+        // the slow refreshes roll out of the window
+        for (int i = 0; i < 100; i++) {
+            stats.finished(10, i % 10 != 0);
+        }
+        assertEquals(10, stats.getLatencyMax());
+        assertEquals(200, stats.getRefreshed());
+        assertEquals(10, stats.getFailed());
+    }
+
+    @Test
+    public void testQueueDepth() {
+        queued.set(42);
+        stats.deferred(7);
+        assertEquals(42, stats.getQueueDepth());
+        assertEquals(7, stats.getDeferred());
+    }
+}
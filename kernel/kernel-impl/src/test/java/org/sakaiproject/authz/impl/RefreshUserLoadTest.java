@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.authz.impl;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.GroupProvider;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Load harness for refreshing a user's provided grants on login, against the test HSQLDB. It compares the
+ * statements each login takes when reconciled a row at a time with the bulk refresh, counting the calls the storage
+ * makes on its SqlService, a batch counting as one.
+ */
+@Slf4j
+public class RefreshUserLoadTest extends SakaiKernelTestBase {
+
+	private static final int REALMS = 60;
+
+	private static DbAuthzGroupService authzGroupService;
+	private static DbAuthzGroupService.DbStorage storage;
+	private static GroupProvider oldProvider;
+	private static SqlService sqlService;
+	private static final AtomicLong statements = new AtomicLong();
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		oneTimeSetup();
+
+		authzGroupService = (DbAuthzGroupService) getService(AuthzGroupService.class);
+		storage = (DbAuthzGroupService.DbStorage) authzGroupService.m_storage;
+		oldProvider = authzGroupService.m_provider;
+
+		sqlService = (SqlService) FieldUtils.readField(storage, "m_sql", true);
+		FieldUtils.writeField(storage, "m_sql", countingSqlService(sqlService), true);
+
+		GroupProvider provider = mock(GroupProvider.class);
+		when(provider.unpackId(anyString())).thenAnswer(i -> new String[] {i.getArgument(0)});
+		authzGroupService.setProvider(provider);
+
+		Session session = getService(SessionManager.class).getCurrentSession();
+		session.setUserEid("admin");
+		session.setUserId("admin");
+
+		for (int i = 0; i < REALMS; i++) {
+			AuthzGroup realm = authzGroupService.addAuthzGroup(realmId(i));
+			realm.addRole("access");
+			realm.addRole("maintain");
+			realm.setProviderGroupId(providerId(i));
+			authzGroupService.save(realm);
+		}
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+		FieldUtils.writeField(storage, "m_sql", sqlService, true);
+		authzGroupService.setProvider(oldProvider);
+		storage.setBulkUserRefresh(true);
+	}
+
+	/** Passes every call on to the real service, counting the ones that run a statement */
+	private static SqlService countingSqlService(SqlService sql) {
+		return (SqlService) Proxy.newProxyInstance(SqlService.class.getClassLoader(), new Class<?>[] {SqlService.class},
+				(proxy, method, args) -> {
+					String name = method.getName();
+					if (name.startsWith("dbRead") || name.startsWith("dbWrite") || name.equals("dbInsert")) {
+						statements.incrementAndGet();
+					}
+					try {
+						return method.invoke(sql, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+	private static String realmId(int i) {
+		return "/realm/refreshUserLoad" + i;
+	}
+
+	private static String providerId(int i) {
+		return "refreshUserLoad-provider-" + i;
+	}
+
+	/** The first term: access in every realm */
+	private static Map<String, String> firstLogin() {
+		Map<String, String> grants = new HashMap<>();
+		for (int i = 0; i < REALMS; i++) {
+			grants.put(providerId(i), "access");
+		}
+		return grants;
+	}
+
+	/** A role changes in a third of the realms, and the user is dropped from a sixth */
+	private static Map<String, String> secondLogin() {
+		Map<String, String> grants = new HashMap<>();
+		for (int i = 0; i < REALMS; i++) {
+			if (i % 6 == 0) continue;
+			grants.put(providerId(i), i % 3 == 1 ? "maintain" : "access");
+		}
+		return grants;
+	}
+
+	private long login(String userId, Map<String, String> grants) {
+		long before = statements.get();
+		storage.refreshUser(userId, grants);
+		return statements.get() - before;
+	}
+
+	private void assertGrants(String userId, Map<String, String> grants) {
+		for (int i = 0; i < REALMS; i++) {
+			Assert.assertEquals(realmId(i), grants.get(providerId(i)), authzGroupService.getUserRole(userId, realmId(i)));
+		}
+	}
+
+	@Test
+	public void testStatementsPerLogin() throws Exception {
+		long[] byRow = new long[3];
+		long[] bulk = new long[3];
+		List<Map<String, String>> logins = new ArrayList<>();
+		logins.add(firstLogin());
+		logins.add(secondLogin());
+		logins.add(secondLogin());
+
+		storage.setBulkUserRefresh(false);
+		for (int i = 0; i < logins.size(); i++) {
+			byRow[i] = login("refreshUserLoadByRow", logins.get(i));
+			assertGrants("refreshUserLoadByRow", logins.get(i));
+		}
+
+		storage.setBulkUserRefresh(true);
+		for (int i = 0; i < logins.size(); i++) {
+			bulk[i] = login("refreshUserLoadBulk", logins.get(i));
+			assertGrants("refreshUserLoadBulk", logins.get(i));
+		}
+
+		for (int i = 0; i < logins.size(); i++) {
+			log.info("Login {}: {} statements a row at a time, {} statements in bulk", i + 1, byRow[i], bulk[i]);
+		}
+
+		// two reads, the lock, one batch for each of delete, update and insert, the unlock
+		Assert.assertTrue(bulk[0] <= 5);
+		Assert.assertTrue(bulk[1] <= 6);
+		Assert.assertTrue(bulk[0] < byRow[0]);
+		Assert.assertTrue(bulk[1] < byRow[1]);
+		// nothing to do, just the two reads
+		Assert.assertEquals(2, bulk[2]);
+	}
+
+	@Test
+	public void testConcurrentLogins() throws Exception {
+		storage.setBulkUserRefresh(true);
+		int threads = 8;
+		RealmRefreshStats stats = authzGroupService.getRefreshStats();
+		long refreshes = stats.getUserRefreshes() + stats.getUserRefreshesCoalesced();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> logins = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			logins.add(executor.submit(() -> {
+				start.await();
+				storage.refreshUser("refreshUserLoadConcurrent", firstLogin());
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> login : logins) {
+			login.get();
+		}
+		executor.shutdown();
+
+		assertGrants("refreshUserLoadConcurrent", firstLogin());
+		Assert.assertEquals(threads, stats.getUserRefreshes() + stats.getUserRefreshesCoalesced() - refreshes);
+		log.info("{} concurrent logins, {} coalesced", threads, stats.getUserRefreshesCoalesced());
+	}
+}
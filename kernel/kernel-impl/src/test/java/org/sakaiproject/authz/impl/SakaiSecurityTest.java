@@ -40,6 +40,8 @@ import java.util.Set;
 import static java.util.Collections.singleton;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -150,4 +152,28 @@ public class SakaiSecurityTest {
         assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1", "unlock@2@@function@/site/1"));
     }
 
+    @Test
+    public void testMembersRemovedFromRealmSV() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getString(eq("studentview.roles"), anyString())).thenReturn("student");
+        sakaiSecurity.init();
+
+        sakaiSecurity.cacheDecision("1", null, "site.visit", "/site/1", true);
+        sakaiSecurity.cacheDecision("1", "student", "site.visit", "/site/1", true);
+        sakaiSecurity.cacheDecision("2", "student", "site.visit", "/site/1", true);
+
+        // This collects all the flushes
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        sakaiSecurity.notifyMembersRemovedFromRealm(singleton("1"), "/site/1");
+
+        assertNull(sakaiSecurity.getCachedDecision("1", null, "site.visit", "/site/1"));
+        assertNull(sakaiSecurity.getCachedDecision("1", "student", "site.visit", "/site/1"));
+        assertEquals(Boolean.TRUE, sakaiSecurity.getCachedDecision("2", "student", "site.visit", "/site/1"));
+        assertThat(flushed, containsInAnyOrder("unlock@1@@site.visit@/site/1", "unlock@1@student@site.visit@/site/1"));
+    }
+
 }
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.content.api.ContentBodyStore;
+import org.sakaiproject.db.api.SqlService;
+
+public class ContentBodyHashStoreTest {
+
+	private static final byte[] BODY = "the same body".getBytes(StandardCharsets.UTF_8);
+	private static final String HASH = DigestUtils.sha256Hex(BODY);
+
+	private Path root;
+	private SqlService sqlService;
+	private ContentServiceSql sql;
+	private ContentBodyHashStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("bodies");
+		sqlService = mock(SqlService.class);
+		sql = new ContentServiceSqlDefault();
+		store = new ContentBodyHashStore(sqlService, sql, new DefaultFileSystemHandler(), root.toString());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root.toFile());
+	}
+
+	@Test
+	public void testFirstBodyIsRegistered() throws IOException {
+		when(sqlService.dbWriteCount(eq(sql.getShareBodyHashSql()), any(), isNull(), isNull(), eq(0))).thenReturn(0);
+		when(sqlService.dbWriteCount(eq(sql.getInsertBodyHashSql()), any(), isNull(), isNull(), eq(1))).thenReturn(1);
+
+		ContentBodyHashStore.Stored stored = store.put("/group/a/one.txt", "/2023/one", new ByteArrayInputStream(BODY));
+
+		assertEquals("/2023/one", stored.filePath);
+		assertEquals(BODY.length, stored.length);
+		assertTrue(stored.shared);
+		assertTrue(Files.exists(root.resolve("2023/one")));
+		verify(sqlService).dbWriteCount(eq(sql.getInsertBodyHashSql()), aryEq(new Object[] {HASH, "/2023/one", (long) BODY.length}), isNull(), isNull(), eq(1));
+	}
+
+	@Test
+	public void testIdenticalBodyIsShared() throws IOException {
+		when(sqlService.dbWriteCount(eq(sql.getShareBodyHashSql()), aryEq(new Object[] {HASH}), isNull(), isNull(), eq(0))).thenReturn(1);
+		when(sqlService.dbRead(eq(sql.getBodyHashPathSql()), aryEq(new Object[] {HASH}), isNull())).thenReturn(Collections.singletonList("/2023/one"));
+
+		ContentBodyHashStore.Stored stored = store.put("/group/a/two.txt", "/2023/two", new ByteArrayInputStream(BODY));
+
+		assertEquals("/2023/one", stored.filePath);
+		assertTrue(stored.shared);
+		assertFalse(Files.exists(root.resolve("2023/two")));
+		verify(sqlService, never()).dbWriteCount(eq(sql.getInsertBodyHashSql()), any(), isNull(), isNull(), eq(1));
+	}
+
+	@Test
+	public void testBodyBeingReclaimedIsKept() throws IOException {
+		// the hash is registered but tombstoned, so it can neither be shared nor registered again
+		when(sqlService.dbWriteCount(eq(sql.getShareBodyHashSql()), any(), isNull(), isNull(), eq(0))).thenReturn(0);
+		when(sqlService.dbWriteCount(eq(sql.getInsertBodyHashSql()), any(), isNull(), isNull(), eq(1))).thenReturn(-1);
+
+		ContentBodyHashStore.Stored stored = store.put("/group/a/two.txt", "/2023/two", new ByteArrayInputStream(BODY));
+
+		assertEquals("/2023/two", stored.filePath);
+		assertFalse(stored.shared);
+		assertTrue(Files.exists(root.resolve("2023/two")));
+	}
+
+	@Test
+	public void testEmptyBodyIsNotStored() throws IOException {
+		ContentBodyHashStore.Stored stored = store.put("/group/a/empty.txt", "/2023/empty", new ByteArrayInputStream(new byte[0]));
+
+		assertEquals("/2023/empty", stored.filePath);
+		assertFalse(stored.shared);
+		verify(sqlService, never()).dbWriteCount(eq(sql.getShareBodyHashSql()), any(), isNull(), isNull(), eq(0));
+	}
+
+	@Test
+	public void testAdoptSharesExistingFile() throws IOException {
+		Files.createDirectories(root.resolve("2023"));
+		Files.write(root.resolve("2023/two"), BODY);
+		when(sqlService.dbWriteCount(eq(sql.getShareBodyHashSql()), aryEq(new Object[] {HASH}), isNull(), isNull(), eq(0))).thenReturn(1);
+		when(sqlService.dbRead(eq(sql.getBodyHashPathSql()), aryEq(new Object[] {HASH}), isNull())).thenReturn(Collections.singletonList("/2023/one"));
+
+		assertEquals("/2023/one", store.adopt("/group/a/two.txt", "/2023/two"));
+		// the caller removes its own file once the resource points at the shared one
+		assertTrue(Files.exists(root.resolve("2023/two")));
+	}
+
+	@Test
+	public void testReleaseOfSharedFile() {
+		when(sqlService.dbWriteCount(eq(sql.getReleaseBodyPathSql()), aryEq(new Object[] {"/2023/one"}), isNull(), isNull(), eq(0))).thenReturn(1);
+
+		assertTrue(store.release("/2023/one"));
+		assertFalse(store.release("/2023/own"));
+	}
+
+	@Test
+	public void testReclaimDeletesUnreferencedFiles() throws IOException {
+		Files.createDirectories(root.resolve("2023"));
+		Files.write(root.resolve("2023/one"), BODY);
+		Files.write(root.resolve("2023/three"), BODY);
+		when(sqlService.dbRead(eq(sql.getUnreferencedBodyHashesSql()), isNull(), any())).thenReturn(Arrays.asList(
+				new Object[] {HASH, "/2023/one", (long) BODY.length},
+				new Object[] {"other", "/2023/three", (long) BODY.length}));
+		when(sqlService.dbWriteCount(eq(sql.getReclaimBodyHashSql()), aryEq(new Object[] {HASH}), isNull(), isNull(), eq(0))).thenReturn(1);
+		// shared again before it could be reclaimed
+		when(sqlService.dbWriteCount(eq(sql.getReclaimBodyHashSql()), aryEq(new Object[] {"other"}), isNull(), isNull(), eq(0))).thenReturn(0);
+
+		ContentBodyStore.Report report = new ContentBodyStore.Report();
+		store.reclaim(report);
+
+		assertFalse(Files.exists(root.resolve("2023/one")));
+		assertTrue(Files.exists(root.resolve("2023/three")));
+		assertEquals(1, report.getReclaimedFiles());
+		assertEquals(BODY.length, report.getReclaimedBytes());
+		verify(sqlService).dbWrite(eq(sql.getDeleteBodyHashSql()), aryEq(new Object[] {HASH}));
+		verify(sqlService, never()).dbWrite(eq(sql.getDeleteBodyHashSql()), aryEq(new Object[] {"other"}));
+	}
+}
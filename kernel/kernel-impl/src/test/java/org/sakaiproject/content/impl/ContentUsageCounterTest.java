@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.memory.api.Cache;
+
+public class ContentUsageCounterTest {
+
+	private SqlService sqlService;
+	private ContentServiceSql sql;
+	private Cache<String, Long> cache;
+	private ContentUsageCounter counter;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		sqlService = mock(SqlService.class);
+		sql = new ContentServiceSqlDefault();
+		cache = mock(Cache.class);
+		counter = new ContentUsageCounter(sqlService, sql, cache);
+	}
+
+	@Test
+	public void testCachedUsageIsNotRead() {
+		when(cache.get("site")).thenReturn(42L);
+
+		assertEquals(42L, counter.get("site", key -> { throw new AssertionError("summed"); }));
+		verify(sqlService, never()).dbRead(eq(sql.getUsageSql()), any(), any());
+	}
+
+	@Test
+	public void testStoredUsageIsCached() {
+		when(sqlService.dbRead(eq(sql.getUsageSql()), aryEq(new Object[] {"site"}), isNull())).thenReturn(Collections.singletonList("1000"));
+
+		assertEquals(1000L, counter.get("site", key -> { throw new AssertionError("summed"); }));
+		verify(cache).put("site", 1000L);
+	}
+
+	@Test
+	public void testMissingCounterIsStartedFromSum() {
+		when(sqlService.dbRead(eq(sql.getUsageSql()), aryEq(new Object[] {"site"}), isNull())).thenReturn(Collections.emptyList());
+		when(sqlService.dbWriteCount(eq(sql.getInsertUsageSql()), aryEq(new Object[] {"site", 500L}), isNull(), isNull(), eq(0))).thenReturn(1);
+
+		assertEquals(500L, counter.get("site", key -> 500L));
+		verify(cache).put("site", 500L);
+	}
+
+	@Test
+	public void testCounterStartedElsewhereIsUsed() {
+		when(sqlService.dbRead(eq(sql.getUsageSql()), aryEq(new Object[] {"site"}), isNull()))
+				.thenReturn(Collections.emptyList(), Collections.singletonList("700"));
+		when(sqlService.dbWriteCount(eq(sql.getInsertUsageSql()), any(), isNull(), isNull(), eq(0))).thenReturn(-1);
+
+		assertEquals(700L, counter.get("site", key -> 500L));
+	}
+
+	@Test
+	public void testAddDropsCachedUsage() {
+		counter.add("site", -300L);
+
+		verify(sqlService).dbWrite(eq(sql.getAddUsageSql()), aryEq(new Object[] {-300L, "site"}));
+		verify(cache).remove("site");
+	}
+
+	@Test
+	public void testNothingToAdd() {
+		counter.add("site", 0L);
+		counter.add(null, 10L);
+
+		verify(sqlService, never()).dbWrite(eq(sql.getAddUsageSql()), any());
+	}
+
+	@Test
+	public void testReconcileCorrectsDrift() {
+		String reconcile = sql.getReconcileUsageSql(sql.getQuotaQuerySql());
+		when(sqlService.dbRead(sql.getUsageKeysSql())).thenReturn(Arrays.asList("good", "drifted"));
+		// the update only matches a counter that differs from the sum
+		when(sqlService.dbWriteCount(eq(reconcile), aryEq(new Object[] {"good", "good", "good"}), isNull(), isNull(), eq(0))).thenReturn(0);
+		when(sqlService.dbWriteCount(eq(reconcile), aryEq(new Object[] {"drifted", "drifted", "drifted"}), isNull(), isNull(), eq(0))).thenReturn(1);
+
+		assertEquals(1, counter.reconcile(key -> new ContentUsageCounter.SumQuery(sql.getQuotaQuerySql(), new Object[] {key})));
+		verify(cache).remove("drifted");
+		verify(cache, never()).remove("good");
+		// counted and corrected in one statement, the counter is never read first
+		verify(sqlService, never()).dbRead(eq(sql.getUsageSql()), any(), any());
+	}
+
+	@Test
+	public void testReconcileSql() {
+		assertEquals("update CONTENT_USAGE set BYTES = coalesce((select SUM(FILE_SIZE) from CONTENT_RESOURCE where CONTEXT = ?), 0) "
+				+ "where USAGE_KEY = ? and BYTES <> coalesce((select SUM(FILE_SIZE) from CONTENT_RESOURCE where CONTEXT = ?), 0)",
+				sql.getReconcileUsageSql(sql.getQuotaQuerySql()));
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the streamed delivery of a file system body (as BaseContentService.copyRange does it) with the channel
+ * transfer used by the zero copy path. Not run as part of the build, run it with:
+ * <pre>
+ * java -cp target/test-classes:target/classes org.sakaiproject.content.impl.ResourceBodyTransferBenchmark [sizeMb] [iterations]
+ * </pre>
+ * It reports throughput, bytes allocated on the heap by the delivering thread and collections during each run.
+ * Delivery is to a discarding stream so the numbers measure the server side copy only, sendfile removes that copy entirely.
+ */
+public class ResourceBodyTransferBenchmark {
+
+	private static final int STREAM_BUFFER_SIZE = 102400;
+
+	interface Delivery {
+		void deliver(Path file, OutputStream out, long start, long end) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		Path file = Files.createTempFile("body", ".bin");
+		try {
+			byte[] chunk = new byte[1024 * 1024];
+			new Random(42).nextBytes(chunk);
+			try (OutputStream out = Files.newOutputStream(file)) {
+				for (int i = 0; i < sizeMb; i++) out.write(chunk);
+			}
+			long length = Files.size(file);
+
+			Delivery streamed = ResourceBodyTransferBenchmark::stream;
+			Delivery transferred = (f, out, start, end) -> {
+				try (FileChannel channel = FileChannel.open(f)) {
+					ResourceBodyTransfer.transfer(channel, out, start, end);
+				}
+			};
+
+			// warm up both paths before measuring
+			run("warmup", streamed, file, 0, length - 1, 3);
+			run("warmup", transferred, file, 0, length - 1, 3);
+
+			run("stream full", streamed, file, 0, length - 1, iterations);
+			run("transfer full", transferred, file, 0, length - 1, iterations);
+			// a seek near the end, as a video player does
+			run("stream tail range", streamed, file, length - length / 10, length - 1, iterations);
+			run("transfer tail range", transferred, file, length - length / 10, length - 1, iterations);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static void run(String name, Delivery delivery, Path file, long start, long end, int iterations) throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		long gcBefore = gcCount();
+		long allocatedBefore = threads.getThreadAllocatedBytes(tid);
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			delivery.deliver(file, OutputStream.nullOutputStream(), start, end);
+		}
+		long nanos = System.nanoTime() - startNanos;
+		long allocated = threads.getThreadAllocatedBytes(tid) - allocatedBefore;
+		long gcs = gcCount() - gcBefore;
+
+		if (name.equals("warmup")) return;
+		double mb = (end - start + 1) * (double) iterations / (1024 * 1024);
+		System.out.printf("%-20s %10.1f MB/s %12d bytes allocated/request %4d collections%n",
+				name, mb / (nanos / 1e9), allocated / iterations, gcs);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * The streamed delivery, as BaseContentService.copyRange does it.
+	 */
+	private static void stream(Path file, OutputStream out, long start, long end) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), STREAM_BUFFER_SIZE)) {
+			in.skip(start);
+			long bytesToRead = end - start + 1;
+			byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+			while (bytesToRead > 0) {
+				int len = in.read(buffer);
+				if (len < 0) break;
+				out.write(buffer, 0, (int) Math.min(len, bytesToRead));
+				bytesToRead -= len;
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceBodyTransferTest {
+
+	private Path file;
+	private byte[] body;
+
+	@Before
+	public void setUp() throws IOException {
+		body = new byte[300_000];
+		new Random(42).nextBytes(body);
+		file = Files.createTempFile("body", ".bin");
+		Files.write(file, body);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Test
+	public void testTransferWholeBody() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(file)) {
+			ResourceBodyTransfer.transfer(channel, out, 0, body.length - 1);
+		}
+		assertArrayEquals(body, out.toByteArray());
+	}
+
+	@Test
+	public void testTransferRanges() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (FileChannel channel = FileChannel.open(file)) {
+			// out of order on the same channel, as multipart ranges are
+			ResourceBodyTransfer.transfer(channel, out, 200_000, 200_009);
+			ResourceBodyTransfer.transfer(channel, out, 5, 5);
+		}
+		byte[] expected = new byte[11];
+		System.arraycopy(body, 200_000, expected, 0, 10);
+		expected[10] = body[5];
+		assertArrayEquals(expected, out.toByteArray());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTransferPastEndOfFile() throws IOException {
+		try (FileChannel channel = FileChannel.open(file)) {
+			ResourceBodyTransfer.transfer(channel, new ByteArrayOutputStream(), body.length - 10, body.length + 10);
+		}
+	}
+
+	@Test
+	public void testEtag() {
+		String etag = ResourceBodyTransfer.etag("/group/site/file.mp4", 1000L, 42L);
+		assertEquals(etag, ResourceBodyTransfer.etag("/group/site/file.mp4", 1000L, 42L));
+		assertFalse(etag.equals(ResourceBodyTransfer.etag("/group/site/file.mp4", 2000L, 42L)));
+		assertFalse(etag.equals(ResourceBodyTransfer.etag("/group/site/other.mp4", 1000L, 42L)));
+
+		assertTrue(ResourceBodyTransfer.matches(etag, etag, false));
+		assertTrue(ResourceBodyTransfer.matches("\"x\", " + etag, etag, false));
+		assertTrue(ResourceBodyTransfer.matches("*", etag, false));
+		assertTrue(ResourceBodyTransfer.matches("W/" + etag, etag, true));
+		assertFalse(ResourceBodyTransfer.matches("W/" + etag, etag, false));
+		assertFalse(ResourceBodyTransfer.matches("\"x\"", etag, true));
+		assertFalse(ResourceBodyTransfer.matches(null, etag, true));
+	}
+
+	@Test
+	public void testSendfile() {
+		HttpServletRequest req = mock(HttpServletRequest.class);
+		assertFalse(ResourceBodyTransfer.sendfile(req, file, 0, 99));
+
+		when(req.getAttribute(ResourceBodyTransfer.SENDFILE_SUPPORTED)).thenReturn(Boolean.TRUE);
+		assertTrue(ResourceBodyTransfer.sendfile(req, file, 10, 99));
+		verify(req).setAttribute(ResourceBodyTransfer.SENDFILE_FILENAME, file.toAbsolutePath().toString());
+		verify(req).setAttribute(ResourceBodyTransfer.SENDFILE_START, 10L);
+		verify(req).setAttribute(ResourceBodyTransfer.SENDFILE_END, 100L);
+	}
+}
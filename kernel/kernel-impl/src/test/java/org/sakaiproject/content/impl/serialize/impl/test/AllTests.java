@@ -30,6 +30,7 @@ import org.junit.runners.Suite.SuiteClasses;
 	ProfileSerializerTest.class,
 	ByteStorageConversionCheck.class,
 	Type1BaseContentResourceSerializerTest.class,
-	Type1BaseContentCollectionSerializerTest.class
+	Type1BaseContentCollectionSerializerTest.class,
+	Type2BaseContentResourceSerializerTest.class
 })
 public class AllTests { }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl.test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentResourceSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.EntitySerializer;
+import org.sakaiproject.entity.api.serialize.SerializableEntity;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.util.BaseResourcePropertiesEdit;
+
+/**
+ * Compares parsing resources with many properties from Type1 and Type2 serializations. Not run as part of the build,
+ * run it with:
+ * <pre>
+ * java -cp target/test-classes:target/classes org.sakaiproject.content.impl.serialize.impl.test.ContentEntitySerializerBenchmark [properties] [iterations]
+ * </pre>
+ * It reports the serialized size, the time per parse and bytes allocated on the heap by the parsing thread, both when
+ * only the display name is read (as a listing does) and when every property is read.
+ */
+public class ContentEntitySerializerBenchmark {
+
+	interface Access {
+		void read(BaseResourcePropertiesEdit properties);
+	}
+
+	/**
+	 * A resource whose properties are real resource properties, so Type2 can defer decoding them.
+	 */
+	static class Resource extends MockSerializableResourceAcccess {
+		BaseResourcePropertiesEdit resourceProperties = new BaseResourcePropertiesEdit();
+
+		@Override
+		public SerializableEntity getSerializableProperties() {
+			return resourceProperties;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int properties = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+		Resource resource = new Resource();
+		ResourceProperties props = resource.resourceProperties;
+		props.addProperty(ResourceProperties.PROP_DISPLAY_NAME, "Week 1 lecture notes.pdf");
+		props.addProperty(ResourceProperties.PROP_CREATOR, "3c2a1f0e-9b7d-4c1e-8f6a-2d5b4e3c1a09");
+		props.addProperty(ResourceProperties.PROP_MODIFIED_BY, "3c2a1f0e-9b7d-4c1e-8f6a-2d5b4e3c1a09");
+		props.addProperty(ResourceProperties.PROP_CREATION_DATE, "20230901101500000");
+		props.addProperty(ResourceProperties.PROP_MODIFIED_DATE, "20230901101500000");
+		props.addProperty(ResourceProperties.PROP_CONTENT_LENGTH, "1048576");
+		props.addProperty(ResourceProperties.PROP_CONTENT_TYPE, "application/pdf");
+		props.addProperty(ResourceProperties.PROP_COPYRIGHT_CHOICE, "I hold copyright.");
+		props.addProperty(ResourceProperties.PROP_CONTENT_PRIORITY, "3");
+		for (int i = props.size(); i < properties; i++) {
+			props.addProperty("custom:property-" + i, "a value for property " + i);
+		}
+
+		TimeService timeService = MockTimeService.mockTimeMillisSince();
+		Type1BaseContentResourceSerializer type1 = new Type1BaseContentResourceSerializer();
+		type1.setTimeService(timeService);
+		Type2BaseContentResourceSerializer type2 = new Type2BaseContentResourceSerializer();
+		type2.setTimeService(timeService);
+		type2.setWriteType2(true);
+		byte[] type1Bytes = type1.serialize(resource);
+		byte[] type2Bytes = type2.serialize(resource);
+		System.out.printf("%d properties, Type1 %d bytes, Type2 %d bytes%n", props.size(), type1Bytes.length, type2Bytes.length);
+
+		Access displayName = p -> p.getProperty(ResourceProperties.PROP_DISPLAY_NAME);
+		Access all = p -> p.getPropertyNames().forEachRemaining(p::get);
+
+		// warm up both serializers before measuring
+		run("warmup", type1, type1Bytes, all, iterations);
+		run("warmup", type2, type2Bytes, all, iterations);
+
+		run("type1 display name", type1, type1Bytes, displayName, iterations);
+		run("type2 display name", type2, type2Bytes, displayName, iterations);
+		run("type1 all", type1, type1Bytes, all, iterations);
+		run("type2 all", type2, type2Bytes, all, iterations);
+	}
+
+	private static void run(String name, EntitySerializer serializer, byte[] serialized, Access access, int iterations) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long tid = Thread.currentThread().getId();
+		long gcBefore = gcCount();
+		long allocatedBefore = threads.getThreadAllocatedBytes(tid);
+		long startNanos = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			Resource resource = new Resource();
+			serializer.parse(resource, serialized);
+			access.read(resource.resourceProperties);
+		}
+		long nanos = System.nanoTime() - startNanos;
+		long allocated = threads.getThreadAllocatedBytes(tid) - allocatedBefore;
+		long gcs = gcCount() - gcBefore;
+
+		if (name.equals("warmup")) return;
+		System.out.printf("%-20s %10.2f us/parse %12d bytes allocated/parse %4d collections%n",
+				name, nanos / 1e3 / iterations, allocated / iterations, gcs);
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.impl.serialize.impl.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentCollectionSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentResourceSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentCollectionSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type2BaseContentResourceSerializer;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.util.BaseResourcePropertiesEdit;
+import org.sakaiproject.util.serialize.Type1BaseResourcePropertiesSerializer;
+import org.sakaiproject.util.serialize.Type2BaseResourcePropertiesSerializer;
+
+public class Type2BaseContentResourceSerializerTest
+{
+	@Test
+	public final void testParse() throws Exception
+	{
+		Type2BaseContentResourceSerializer t2 = new Type2BaseContentResourceSerializer();
+		t2.setTimeService(MockTimeService.mockTimeMillisSince());
+		t2.setWriteType2(true);
+		MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+		byte[] serialized = t2.serialize(sc);
+		Assert.assertEquals(Type2BaseContentResourceSerializer.TYPE2, Type2BaseContentResourceSerializer.getType(serialized));
+		t2.parse(sc, serialized);
+		sc.check();
+		sc.properties.check();
+	}
+
+	@Test
+	public final void testParseType1() throws Exception
+	{
+		Type1BaseContentResourceSerializer t1 = new Type1BaseContentResourceSerializer();
+		t1.setTimeService(MockTimeService.mockTimeMillisSince());
+		Type2BaseContentResourceSerializer t2 = new Type2BaseContentResourceSerializer();
+		t2.setTimeService(MockTimeService.mockTimeMillisSince());
+		MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+		t2.parse(sc, t1.serialize(sc));
+		sc.check();
+		sc.properties.check();
+	}
+
+	@Test
+	public final void testWriteType1() throws Exception
+	{
+		Type2BaseContentResourceSerializer t2 = new Type2BaseContentResourceSerializer();
+		t2.setTimeService(MockTimeService.mockTimeMillisSince());
+		Assert.assertFalse(t2.isWriteType2());
+		MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+		byte[] serialized = t2.serialize(sc);
+		Assert.assertEquals(Type2BaseContentResourceSerializer.TYPE1, Type2BaseContentResourceSerializer.getType(serialized));
+
+		Type1BaseContentResourceSerializer t1 = new Type1BaseContentResourceSerializer();
+		t1.setTimeService(MockTimeService.mockTimeMillisSince());
+		t1.parse(sc, serialized);
+		sc.check();
+	}
+
+	@Test
+	public final void testCollection() throws Exception
+	{
+		Type2BaseContentCollectionSerializer t2 = new Type2BaseContentCollectionSerializer();
+		t2.setTimeService(MockTimeService.mockTimeMillisSince());
+		t2.setWriteType2(true);
+		MockSerializableCollectionAcccess sc = new MockSerializableCollectionAcccess();
+		t2.parse(sc, t2.serialize(sc));
+		sc.check();
+
+		Type1BaseContentCollectionSerializer t1 = new Type1BaseContentCollectionSerializer();
+		t1.setTimeService(MockTimeService.mockTimeMillisSince());
+		sc = new MockSerializableCollectionAcccess();
+		t2.parse(sc, t1.serialize(sc));
+		sc.check();
+
+		try
+		{
+			t2.serialize(new MockSerializableResourceAcccess());
+			Assert.fail("Should have refused to serialize a ResourceAccess Object");
+		}
+		catch (EntityParseException epe)
+		{
+		}
+	}
+
+	@Test
+	public final void testAccept()
+	{
+		Type2BaseContentResourceSerializer t2 = new Type2BaseContentResourceSerializer();
+		Assert.assertTrue(t2.accept((Type1BaseContentResourceSerializer.BLOB_ID + "the rest of the  blob").getBytes()));
+		Assert.assertFalse(t2.accept((Type1BaseContentCollectionSerializer.BLOB_ID + "the rest of the  blob").getBytes()));
+		Assert.assertFalse(t2.accept(null));
+		Assert.assertEquals(-1, Type2BaseContentResourceSerializer.getType(Type1BaseContentResourceSerializer.BLOB_ID.getBytes()));
+	}
+
+	@Test
+	public final void testDeferredProperties() throws Exception
+	{
+		char[] big = new char[70000];
+		Arrays.fill(big, '\u00e9');
+		BaseResourcePropertiesEdit props = new BaseResourcePropertiesEdit();
+		props.addProperty(ResourceProperties.PROP_DISPLAY_NAME, "Syllabus \u00fcber alles.pdf");
+		props.addProperty(ResourceProperties.PROP_DESCRIPTION, new String(big));
+		props.addProperty("some:custom-property", "value");
+		props.addPropertyToList("some:custom-list", "one");
+		props.addPropertyToList("some:custom-list", "two");
+
+		Type2BaseResourcePropertiesSerializer t2 = new Type2BaseResourcePropertiesSerializer();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		t2.serialize(props, new DataOutputStream(baos));
+
+		BaseResourcePropertiesEdit parsed = new BaseResourcePropertiesEdit();
+		parsed.addProperty("stale", "value");
+		t2.parse(parsed, new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+		Assert.assertEquals(4, parsed.size());
+		Assert.assertNull(parsed.getProperty("stale"));
+		Assert.assertEquals("Syllabus \u00fcber alles.pdf", parsed.getProperty(ResourceProperties.PROP_DISPLAY_NAME));
+		Assert.assertEquals(new String(big), parsed.getProperty(ResourceProperties.PROP_DESCRIPTION));
+		Assert.assertEquals("value", parsed.getProperty("some:custom-property"));
+		Assert.assertEquals(Arrays.asList("one", "two"), parsed.getPropertyList("some:custom-list"));
+	}
+
+	@Test
+	public final void testDictionaryIsSmaller() throws Exception
+	{
+		BaseResourcePropertiesEdit props = new BaseResourcePropertiesEdit();
+		props.addProperty(ResourceProperties.PROP_DISPLAY_NAME, "name");
+		props.addProperty(ResourceProperties.PROP_CREATOR, "admin");
+		props.addProperty(ResourceProperties.PROP_MODIFIED_BY, "admin");
+		props.addProperty(ResourceProperties.PROP_CREATION_DATE, "20230101120000000");
+		props.addProperty(ResourceProperties.PROP_MODIFIED_DATE, "20230101120000000");
+		props.addProperty(ResourceProperties.PROP_CONTENT_LENGTH, "1024");
+		props.addProperty(ResourceProperties.PROP_CONTENT_TYPE, "application/pdf");
+
+		ByteArrayOutputStream type1 = new ByteArrayOutputStream();
+		new Type1BaseResourcePropertiesSerializer().serialize(props, new DataOutputStream(type1));
+		ByteArrayOutputStream type2 = new ByteArrayOutputStream();
+		new Type2BaseResourcePropertiesSerializer().serialize(props, new DataOutputStream(type2));
+		Assert.assertTrue(type2.size() < type1.size() / 2);
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.OngoingStubbing;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+
+public class BasicSqlServiceReplicaTest {
+
+    private static final String SQL = "select A from T";
+
+    private DataSource primary;
+    private DataSource replica;
+    private BasicSqlService sqlService;
+
+    @Before
+    public void setUp() {
+        primary = mock(DataSource.class);
+        replica = mock(DataSource.class);
+        UsageSessionService usageSessionService = mock(UsageSessionService.class);
+        ThreadLocalManager threadLocalManager = mock(ThreadLocalManager.class);
+        sqlService = new BasicSqlService() {
+            @Override
+            protected UsageSessionService usageSessionService() {
+                return usageSessionService;
+            }
+
+            @Override
+            protected ThreadLocalManager threadLocalManager() {
+                return threadLocalManager;
+            }
+        };
+        sqlService.defaultDataSource = primary;
+        sqlService.m_replica = new ReplicaRouter(replica, "", 10, 30);
+    }
+
+    /** A connection whose query result gives these rows, then fails if failAfter is set. */
+    private static Connection connection(List<String> rows, boolean failAfter) throws SQLException {
+        Connection conn = mock(Connection.class);
+        PreparedStatement pstmt = mock(PreparedStatement.class);
+        ResultSet result = mock(ResultSet.class);
+        when(conn.prepareStatement(anyString())).thenReturn(pstmt);
+        when(pstmt.executeQuery()).thenReturn(result);
+        OngoingStubbing<Boolean> next = when(result.next());
+        OngoingStubbing<String> value = when(result.getString(1));
+        for (String row : rows) {
+            next = next.thenReturn(true);
+            value = value.thenReturn(row);
+        }
+        if (failAfter) {
+            next.thenThrow(new SQLException("replica went away"));
+        } else {
+            next.thenReturn(false);
+        }
+        return conn;
+    }
+
+    @Test
+    public void testReadsFromReplica() throws SQLException {
+        when(replica.getConnection()).thenReturn(connection(Arrays.asList("a", "b"), false));
+
+        List<String> read = sqlService.dbReadReplica(SQL, null, result -> getString(result));
+
+        assertEquals(Arrays.asList("a", "b"), read);
+        assertEquals(1, sqlService.m_replica.getReplicaReads());
+        verifyNoInteractions(primary);
+    }
+
+    @Test
+    public void testFallsBackWhenReplicaFailsBeforeAnyRow() throws SQLException {
+        when(replica.getConnection()).thenThrow(new SQLException("replica down"));
+        when(primary.getConnection()).thenReturn(connection(Arrays.asList("a", "b"), false));
+
+        List<String> read = sqlService.dbReadReplica(SQL, null, result -> getString(result));
+
+        assertEquals(Arrays.asList("a", "b"), read);
+        assertEquals(1, sqlService.m_replica.getFallbacks());
+        assertFalse(sqlService.m_replica.isReplicaAvailable());
+    }
+
+    @Test
+    public void testNoFallbackAfterRowsWereRead() throws SQLException {
+        when(replica.getConnection()).thenReturn(connection(Collections.singletonList("a"), true));
+
+        try {
+            sqlService.dbReadReplica(SQL, null, result -> getString(result));
+            fail("a read that failed part way through should not be repeated on the primary");
+        } catch (RuntimeException e) {
+            assertEquals("replica went away", e.getCause().getMessage());
+        }
+        assertEquals(1, sqlService.m_replica.getFallbacks());
+        verifyNoInteractions(primary);
+    }
+
+    private static String getString(ResultSet result) {
+        try {
+            return result.getString(1);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+
+import org.junit.Test;
+
+public class ReplicaRouterTest {
+
+    @Test
+    public void testReadOnly() {
+        assertTrue(ReplicaRouter.isReadOnly("  SELECT A from T where B = ?"));
+        assertTrue(ReplicaRouter.isReadOnly("select\nA from T"));
+        assertFalse(ReplicaRouter.isReadOnly("select A from T where B = ? for update"));
+        assertFalse(ReplicaRouter.isReadOnly("select A from T lock in share mode"));
+        assertFalse(ReplicaRouter.isReadOnly("update T set A = ?"));
+        assertFalse(ReplicaRouter.isReadOnly(null));
+    }
+
+    @Test
+    public void testRoutesByCaller() {
+        ReplicaRouter tagged = new ReplicaRouter(null, "", 10, 30);
+        assertFalse(tagged.routes("select A from T", false));
+        assertTrue(tagged.routes("select A from T", true));
+        assertFalse(tagged.routes("delete from T", true));
+
+        ReplicaRouter byCaller = new ReplicaRouter(null, "SomeStorage, ReplicaRouterTest.testRoutesByCaller", 10, 30);
+        assertTrue(byCaller.routes("select A from T", false));
+        ReplicaRouter otherCaller = new ReplicaRouter(null, "SomeStorage", 10, 30);
+        assertFalse(otherCaller.routes("select A from T", false));
+        assertTrue(new ReplicaRouter(null, "*", 10, 30).routes("select A from T", false));
+    }
+
+    @Test
+    public void testReadYourWrites() {
+        ReplicaRouter router = new ReplicaRouter(null, "*", 10, 30);
+        assertFalse(router.isPinned("session", null));
+
+        long wrote = router.wrote("session");
+        assertTrue(router.isPinned("session", null));
+        assertFalse(router.isPinned("other", null));
+        assertTrue(router.isPinned("other", wrote));
+        assertFalse(router.isPinned(null, wrote - 11000));
+        assertEquals(2, router.getPinnedReads());
+
+        ReplicaRouter noPin = new ReplicaRouter(null, "*", 0, 30);
+        noPin.wrote("session");
+        assertFalse(noPin.isPinned("session", null));
+    }
+
+    @Test
+    public void testFallback() {
+        ReplicaRouter router = new ReplicaRouter(null, "*", 10, 30);
+        assertTrue(router.isReplicaAvailable());
+        router.failed(new SQLException("down"));
+        assertFalse(router.isReplicaAvailable());
+        assertFalse(router.routes("select A from T", true));
+        assertEquals(1, router.getFallbacks());
+
+        ReplicaRouter retry = new ReplicaRouter(null, "*", 10, 0);
+        retry.failed(new SQLException("down"));
+        assertTrue(retry.isReplicaAvailable());
+    }
+}
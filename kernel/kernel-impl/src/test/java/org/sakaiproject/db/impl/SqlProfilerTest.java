@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.db.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlSlowStatement;
+import org.sakaiproject.db.api.SqlStatementStats;
+
+public class SqlProfilerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testNormalize() {
+        assertEquals("select A from T where B = ? and C in (?+)",
+                SqlProfiler.normalize("select A from T\n  where B = 'x''y'   and C in (?, ?,?)"));
+        assertEquals("select * from SAKAI_SITE2 where X = ? and Y > ? limit ?",
+                SqlProfiler.normalize("select * from SAKAI_SITE2 where X = 12 and Y > -1.5 limit 10"));
+        assertEquals("select T.A from T where T.B = ?", SqlProfiler.normalize("select T.A from T where T.B = ?"));
+    }
+
+    @Test
+    public void testGroupsByCallerAndFingerprint() {
+        SqlProfiler profiler = new SqlProfiler(100, 0, 0, true);
+        profiler.record("select A from T where B in (?, ?)", 3 * MS, MS, 2, false);
+        profiler.record("select A from T where B in (?, ?, ?)", 30 * MS, 0, 3, false);
+        profiler.record("update T set A = ?", 1 * MS, 0, 0, true);
+
+        List<SqlStatementStats> stats = profiler.topStatements(0, "total");
+        assertEquals(2, stats.size());
+        SqlStatementStats read = stats.get(0);
+        assertEquals("SqlProfilerTest.testGroupsByCallerAndFingerprint", read.getTag());
+        assertEquals("select A from T where B in (?+)", read.getStatement());
+        assertEquals(2, read.getCount());
+        assertEquals(33, read.getTotalTime());
+        assertEquals(30, read.getMaxTime());
+        assertEquals(5, read.getP50());
+        assertEquals(30, read.getP99());
+        assertEquals(5, read.getRows());
+        assertEquals(1, read.getConnectionWait());
+
+        assertEquals("update T set A = ?", profiler.topStatements(1, "errors").get(0).getStatement());
+        assertEquals(3, profiler.getStatements());
+        assertEquals(1, profiler.getErrors());
+    }
+
+    @Test
+    public void testOverflowCountedAsOther() {
+        SqlProfiler profiler = new SqlProfiler(2, 0, 0, false);
+        for (int i = 0; i < 5; i++) {
+            profiler.record("select A from T" + i, MS, 0, 1, false);
+        }
+        assertEquals(3, profiler.getTracked());
+        assertEquals(3, profiler.getUntracked());
+        assertEquals(5, profiler.getStatements());
+    }
+
+    @Test
+    public void testSlowStatementsSampled() {
+        SqlProfiler profiler = new SqlProfiler(100, 100, 2, true);
+        profiler.record("select A from T", 50 * MS, 0, 1, false);
+        profiler.record("select B from T", 150 * MS, 0, 1, false);
+        profiler.record("select C from T", 200 * MS, 0, 1, false);
+
+        assertEquals(2, profiler.getSlowStatementCount());
+        List<SqlSlowStatement> slow = profiler.getSlowStatements();
+        assertEquals(2, slow.size());
+        assertEquals("select C from T", slow.get(0).getStatement());
+        assertEquals(200, slow.get(0).getElapsed());
+        assertNull(slow.get(0).getStackTrace());
+        assertNotNull(slow.get(1).getStackTrace());
+        assertTrue(slow.get(1).getStackTrace().contains("testSlowStatementsSampled"));
+
+        profiler.reset();
+        assertEquals(0, profiler.getStatements());
+        assertTrue(profiler.getSlowStatements().isEmpty());
+    }
+}
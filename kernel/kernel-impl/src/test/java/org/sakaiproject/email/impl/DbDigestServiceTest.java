@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.time.api.Time;
+import org.sakaiproject.time.api.TimeRange;
+import org.sakaiproject.time.api.TimeService;
+
+public class DbDigestServiceTest
+{
+	private static final long PERIOD = 1700000000000L;
+
+	@Rule
+	public MockitoRule mockito = MockitoJUnit.rule();
+
+	@Mock private SqlService sqlService;
+	@Mock private TimeService timeService;
+	@Mock private ServerConfigurationService serverConfigurationService;
+	@Mock private Connection connection;
+	@Mock private Time periodStart;
+	@Mock private TimeRange range;
+
+	private RecordingDigestService service;
+	private DigestServiceSql sql;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		service = new RecordingDigestService();
+		service.setSqlService(sqlService);
+		service.timeService = timeService;
+		service.serverConfigurationService = serverConfigurationService;
+		sql = new DigestServiceSqlDefault();
+		service.digestServiceSql = sql;
+		service.m_pageSize = 2;
+
+		when(periodStart.getTime()).thenReturn(PERIOD);
+		when(range.firstTime()).thenReturn(periodStart);
+		when(timeService.newTime()).thenReturn(periodStart);
+		when(timeService.newTime(anyLong())).thenReturn(periodStart);
+		when(serverConfigurationService.getServerIdInstance()).thenReturn("server-1");
+		when(sqlService.borrowConnection()).thenReturn(connection);
+		when(connection.getAutoCommit()).thenReturn(true);
+	}
+
+	@Test
+	public void processQueueWritesPagesAsBatches()
+	{
+		queue("alice", "bob", "carol", "dave", "erin");
+		when(sqlService.dbWriteBatch(eq(connection), eq(sql.getInsertMessageSql()), any())).thenReturn(true);
+		when(sqlService.dbWrite(eq(sql.getInsertMessageSql()), any(Object[].class))).thenReturn(true);
+
+		service.processQueue();
+
+		// two pages of two as batches, the last single row on its own
+		ArgumentCaptor<List<Object[]>> batches = ArgumentCaptor.forClass(List.class);
+		verify(sqlService, times(2)).dbWriteBatch(eq(connection), eq(sql.getInsertMessageSql()), batches.capture());
+		verify(sqlService, times(1)).dbWrite(eq(sql.getInsertMessageSql()), any(Object[].class));
+		verify(connection, times(2)).commit();
+		assertEquals("bob", batches.getAllValues().get(0).get(1)[1]);
+		assertEquals(DbDigestService.shardOf("bob"), batches.getAllValues().get(0).get(1)[2]);
+		assertEquals(PERIOD, batches.getAllValues().get(0).get(1)[3]);
+		assertTrue(service.m_digestQueue.isEmpty());
+	}
+
+	@Test
+	public void processQueueFallsBackToSingleRows()
+	{
+		service.m_pageSize = 3;
+		queue("alice", "bad", "carol");
+		when(sqlService.dbWriteBatch(eq(connection), eq(sql.getInsertMessageSql()), any())).thenReturn(false);
+		when(sqlService.dbWrite(eq(sql.getInsertMessageSql()), any(Object[].class)))
+				.thenAnswer(invocation -> !"bad".equals(((Object[]) invocation.getArgument(1))[1]));
+
+		service.processQueue();
+
+		verify(connection).rollback();
+		verify(connection, never()).commit();
+		verify(sqlService, times(3)).dbWrite(eq(sql.getInsertMessageSql()), any(Object[].class));
+		verify(sqlService).returnConnection(connection);
+
+		// only the row that failed on its own goes back to the queue
+		assertEquals(1, service.m_digestQueue.size());
+		assertEquals("bad", ((DigestMessage) service.m_digestQueue.get(0)).getTo());
+	}
+
+	@Test
+	public void claimShardInsertsNewClaims()
+	{
+		when(sqlService.dbWriteFailQuiet(isNull(), eq(sql.getInsertShardSql()), any())).thenReturn(true, false);
+
+		assertTrue(service.claimShard(PERIOD, 3, null, PERIOD));
+		// another server inserted it first
+		assertFalse(service.claimShard(PERIOD, 3, null, PERIOD));
+		verify(sqlService, never()).dbWriteCount(eq(sql.getClaimStaleShardSql()), any(), any(), any(), eq(false));
+	}
+
+	@Test
+	public void claimShardTakesOverStaleClaims()
+	{
+		DbDigestService.ShardState state = new DbDigestService.ShardState();
+		state.updated = PERIOD - 1;
+		state.lastUserId = "bob";
+		when(sqlService.dbWriteCount(eq(sql.getClaimStaleShardSql()), any(), isNull(), isNull(), eq(false))).thenReturn(1, 0);
+
+		assertTrue(service.claimShard(PERIOD, 3, state, PERIOD));
+		// another server took it over first
+		assertFalse(service.claimShard(PERIOD, 3, state, PERIOD));
+		verify(sqlService, never()).dbWriteFailQuiet(any(), eq(sql.getInsertShardSql()), any());
+	}
+
+	@Test
+	public void sendShardPagesAndCheckpoints()
+	{
+		List<String> users = usersOfShard(0, 3);
+		dueUsers(users.toArray(new String[0]));
+		userMessages();
+		when(sqlService.dbWriteCount(eq(sql.getUpdateShardCheckpointSql()), any(), isNull(), isNull(), eq(false))).thenReturn(1);
+
+		DbDigestService.SendCounts counts = new DbDigestService.SendCounts();
+		service.sendShard(PERIOD, PERIOD, 0, null, counts);
+
+		assertEquals(users, service.sent());
+		ArgumentCaptor<Object[]> checkpoints = ArgumentCaptor.forClass(Object[].class);
+		verify(sqlService, times(2)).dbWriteCount(eq(sql.getUpdateShardCheckpointSql()), checkpoints.capture(), isNull(), isNull(), eq(false));
+		assertEquals(users.get(1), checkpoints.getAllValues().get(0)[0]);
+		assertEquals(users.get(2), checkpoints.getAllValues().get(1)[0]);
+		verify(sqlService).dbWrite(eq(sql.getUpdateShardDoneSql()), any(Object[].class));
+		verify(sqlService, times(3)).dbWrite(eq(sql.getDeleteUserMessagesSql()), any(Object[].class));
+		assertEquals(1, counts.shards.get());
+		assertEquals(3, counts.users.get());
+		assertEquals(3, counts.messages.get());
+	}
+
+	@Test
+	public void sendShardResumesAfterCheckpoint()
+	{
+		List<String> users = usersOfShard(0, 3);
+		dueUsers(users.toArray(new String[0]));
+		userMessages();
+		when(sqlService.dbWriteCount(eq(sql.getUpdateShardCheckpointSql()), any(), isNull(), isNull(), eq(false))).thenReturn(1);
+
+		service.sendShard(PERIOD, PERIOD, 0, users.get(0), new DbDigestService.SendCounts());
+
+		assertEquals(users.subList(1, 3), service.sent());
+	}
+
+	@Test
+	public void sendShardStopsOnLostClaim()
+	{
+		List<String> users = usersOfShard(0, 3);
+		dueUsers(users.toArray(new String[0]));
+		userMessages();
+		when(sqlService.dbWriteCount(eq(sql.getUpdateShardCheckpointSql()), any(), isNull(), isNull(), eq(false))).thenReturn(0);
+
+		DbDigestService.SendCounts counts = new DbDigestService.SendCounts();
+		service.sendShard(PERIOD, PERIOD, 0, null, counts);
+
+		assertEquals(users.subList(0, 2), service.sent());
+		verify(sqlService, never()).dbWrite(eq(sql.getUpdateShardDoneSql()), any(Object[].class));
+		assertEquals(0, counts.shards.get());
+	}
+
+	@Test
+	public void sendDigestMessagesSendsEveryUserOnce()
+	{
+		service.m_sendThreads = 4;
+		List<String> users = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+		{
+			users.add("user" + i);
+		}
+		dueUsers(users.toArray(new String[0]));
+		userMessages();
+		doAnswer(invocation -> Collections.emptyList()).when(sqlService).dbRead(eq(sql.getShardsSql()), any(), any());
+		when(sqlService.dbWriteFailQuiet(isNull(), eq(sql.getInsertShardSql()), any())).thenReturn(true);
+		when(sqlService.dbWriteCount(eq(sql.getUpdateShardCheckpointSql()), any(), isNull(), isNull(), eq(false))).thenReturn(1);
+
+		service.sendDigestMessages();
+
+		assertEquals(users.size(), service.sends.size());
+		assertTrue(service.sends.values().stream().allMatch(count -> count.get() == 1));
+		verify(sqlService, times(DbDigestService.DIGEST_SHARDS)).dbWriteFailQuiet(isNull(), eq(sql.getInsertShardSql()), any());
+		verify(sqlService, times(DbDigestService.DIGEST_SHARDS)).dbWrite(eq(sql.getUpdateShardDoneSql()), any(Object[].class));
+		verify(sqlService, atLeastOnce()).dbWrite(eq(sql.getDeleteUserMessagesSql()), any(Object[].class));
+	}
+
+	private void queue(String... users)
+	{
+		for (String user : users)
+		{
+			service.m_digestQueue.add(new DigestMessage(user, "subject " + user, "body " + user));
+		}
+	}
+
+	/**
+	 * Users whose messages are held in the shard, in id order.
+	 */
+	private List<String> usersOfShard(int shard, int count)
+	{
+		TreeSet<String> users = new TreeSet<>();
+		for (int i = 0; users.size() < count; i++)
+		{
+			if (DbDigestService.shardOf("user" + i) == shard) users.add("user" + i);
+		}
+		return new ArrayList<>(users);
+	}
+
+	/**
+	 * Answer the due users query of a shard from the given users, in id order and a page at a time.
+	 */
+	private void dueUsers(String... users)
+	{
+		TreeSet<String> due = new TreeSet<>(List.of(users));
+		doAnswer(invocation -> {
+			Object[] fields = invocation.getArgument(1);
+			int shard = (Integer) fields[0];
+			String after = fields.length > 2 ? (String) fields[2] : null;
+			return (after == null ? due : due.tailSet(after, false)).stream()
+					.filter(user -> DbDigestService.shardOf(user) == shard)
+					.limit(service.m_pageSize)
+					.collect(Collectors.toList());
+		}).when(sqlService).dbRead(any(String.class), any(), isNull());
+	}
+
+	/**
+	 * Answer one message from the last period for any user.
+	 */
+	private void userMessages()
+	{
+		AtomicInteger created = new AtomicInteger();
+		doAnswer(invocation -> {
+			Object[] fields = invocation.getArgument(1);
+			List<Object[]> rows = new ArrayList<>();
+			rows.add(new Object[] { PERIOD - 1, (long) created.incrementAndGet(), "subject", "body " + fields[0] });
+			return rows;
+		}).when(sqlService).dbRead(eq(sql.getUserMessagesSql()), any(), any());
+	}
+
+	/**
+	 * Records the digests sent rather than mailing them.
+	 */
+	private class RecordingDigestService extends DbDigestService
+	{
+		final Map<String, AtomicInteger> sends = new ConcurrentHashMap<>();
+
+		final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		protected TimeRange computeRange(Time time)
+		{
+			return range;
+		}
+
+		@Override
+		protected void send(String id, List msgs, TimeRange period)
+		{
+			sends.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+			order.add(id);
+		}
+
+		List<String> sent()
+		{
+			return new ArrayList<>(order);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.email.impl.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BooleanSupplier;
+
+import javax.mail.Address;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.subethamail.wiser.Wiser;
+
+import org.sakaiproject.email.impl.OutboundMailQueue;
+
+/**
+ * Sends through the outbound mail queue to an in-JVM SMTP server.
+ */
+public class OutboundMailQueueTest
+{
+	private static final String HOST = "localhost";
+	private static final int PORT = 8026;
+
+	private Wiser wiser;
+	private Session session;
+	private OutboundMailQueue queue;
+	private File spool;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		Properties props = new Properties();
+		props.put("mail.smtp.host", HOST);
+		props.put("mail.smtp.port", Integer.toString(PORT));
+		props.put("mail.smtp.connectiontimeout", "2000");
+		props.put("mail.smtp.timeout", "2000");
+		session = Session.getInstance(props);
+		spool = Files.createTempDirectory("mailspool").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception
+	{
+		if (queue != null) queue.stop();
+		if (wiser != null) wiser.stop();
+		File[] files = spool.listFiles();
+		if (files != null) for (File f : files) f.delete();
+		spool.delete();
+	}
+
+	private OutboundMailQueue newQueue(int threads)
+	{
+		OutboundMailQueue q = new OutboundMailQueue(session, s -> {
+			Transport transport = s.getTransport("smtp");
+			transport.connect();
+			return transport;
+		}, HOST);
+		q.setThreads(threads);
+		q.setRetryDelay(200);
+		q.setSpoolDir(spool);
+		return q;
+	}
+
+	private void startServer()
+	{
+		wiser = Wiser.port(PORT);
+		wiser.start();
+	}
+
+	private MimeMessage message(String subject) throws Exception
+	{
+		MimeMessage msg = new MimeMessage(session);
+		msg.setFrom(new InternetAddress("from@example.com"));
+		msg.setSubject(subject);
+		msg.setText("Super cool test content");
+		msg.saveChanges();
+		return msg;
+	}
+
+	private List<Address[]> sets(int sets, int perSet) throws Exception
+	{
+		List<Address[]> messageSets = new ArrayList<>();
+		for (int s = 0; s < sets; s++)
+		{
+			Address[] to = new Address[perSet];
+			for (int r = 0; r < perSet; r++)
+			{
+				to[r] = new InternetAddress("to" + s + "-" + r + "@example.com");
+			}
+			messageSets.add(to);
+		}
+		return messageSets;
+	}
+
+	private static void await(BooleanSupplier condition, long millis) throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + millis;
+		while (!condition.getAsBoolean() && System.currentTimeMillis() < end)
+		{
+			Thread.sleep(20);
+		}
+	}
+
+	private int spooled()
+	{
+		String[] files = spool.list();
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void testSendsOverReusedConnections() throws Exception
+	{
+		startServer();
+		queue = newQueue(3);
+		queue.start();
+
+		for (int i = 0; i < 10; i++)
+		{
+			queue.enqueue(message("message " + i), sets(3, 2));
+		}
+
+		// wiser keeps a message per recipient
+		await(() -> wiser.getMessages().size() == 60, 10000);
+		Assert.assertEquals(60, wiser.getMessages().size());
+		await(() -> spooled() == 0, 2000);
+		Assert.assertEquals(30, queue.getSent());
+		Assert.assertEquals(0, queue.getFailed());
+		Assert.assertTrue("connections: " + queue.getConnections(), queue.getConnections() <= 3);
+		Assert.assertEquals(0, spooled());
+	}
+
+	@Test
+	public void testRetriesUntilServerIsUp() throws Exception
+	{
+		queue = newQueue(1);
+		queue.start();
+		queue.enqueue(message("retried"), sets(1, 1));
+
+		await(() -> queue.getRetried() > 0, 5000);
+		Assert.assertTrue(queue.getRetried() > 0);
+		Assert.assertEquals(0, queue.getSent());
+
+		startServer();
+		await(() -> queue.getSent() == 1, 10000);
+		Assert.assertEquals(1, wiser.getMessages().size());
+		Assert.assertEquals("retried", wiser.getMessages().get(0).getMimeMessage().getSubject());
+	}
+
+	@Test
+	public void testSpooledMailIsSentAfterRestart() throws Exception
+	{
+		OutboundMailQueue first = newQueue(1);
+		first.setRetryDelay(60000);
+		first.start();
+		first.enqueue(message("spooled"), sets(2, 1));
+		await(() -> first.getRetried() == 2, 5000);
+		first.stop();
+		Assert.assertEquals(3, spooled());
+
+		startServer();
+		queue = newQueue(2);
+		queue.start();
+		await(() -> wiser.getMessages().size() == 2, 10000);
+		Assert.assertEquals(2, wiser.getMessages().size());
+		await(() -> spooled() == 0, 2000);
+		Assert.assertEquals(0, spooled());
+	}
+
+	@Test
+	public void testRateLimit() throws Exception
+	{
+		startServer();
+		queue = newQueue(4);
+		queue.setRatePerSecond(20);
+		queue.start();
+
+		long start = System.currentTimeMillis();
+		queue.enqueue(message("limited"), sets(10, 1));
+		await(() -> queue.getSent() == 10, 10000);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Assert.assertEquals(10, queue.getSent());
+		// ten sends at 20 a second are spread over at least 450ms
+		Assert.assertTrue("elapsed: " + elapsed, elapsed >= 400);
+	}
+
+	@Test
+	public void testMemoryOnlyWhenNoSpool() throws Exception
+	{
+		startServer();
+		queue = newQueue(1);
+		queue.setSpoolDir(null);
+		queue.start();
+		queue.enqueue(message("memory"), Collections.singletonList(new Address[] { new InternetAddress("to@example.com") }));
+
+		await(() -> queue.getSent() == 1, 10000);
+		Assert.assertEquals(1, wiser.getMessages().size());
+		Assert.assertEquals(0, spooled());
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * Runs several "servers" in one JVM sharing an in memory event table and an in memory transport,
+ * checking that events are delivered once, in order, and that lost messages are recovered from the table.
+ */
+public class ClusterEventSequencerTest {
+
+	/** Stands in for SAKAI_EVENT, only committed events are visible. */
+	private Map<Long, SimpleEvent> table;
+	private long nextId;
+	private LocalTransport transport;
+
+	@Before
+	public void setUp() {
+		table = new ConcurrentSkipListMap<>();
+		nextId = 0;
+		transport = new LocalTransport();
+	}
+
+	@Test
+	public void testEventsDeliveredInOrder() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+
+		// batches can arrive in any order, but each is delivered sorted
+		a.publish(a.write("e1"), a.write("e2"), a.write("e3"));
+		a.publish(a.write("e4"));
+
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), b.deliveredSeqs());
+		assertEquals(Collections.emptyList(), a.deliveredSeqs());
+	}
+
+	@Test
+	public void testLostMessageRecoveredFromTable() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+		Node c = new Node("c");
+
+		a.publish(a.write("e1"));
+		transport.dropNext = true;
+		a.publish(a.write("e2"), a.write("e3"));
+		a.publish(a.write("e4"));
+
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), b.deliveredSeqs());
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), c.deliveredSeqs());
+		assertEquals(1, b.sequencer.getGapsFetched());
+	}
+
+	@Test
+	public void testInterleavedWritersAreNotGaps() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+		Node c = new Node("c");
+
+		a.publish(a.write("a1"));
+		b.publish(b.write("b1"));
+		a.publish(a.write("a2"));
+		b.publish(b.write("b2"));
+
+		assertEquals(Arrays.asList(2L, 4L), a.deliveredSeqs());
+		assertEquals(Arrays.asList(1L, 3L), b.deliveredSeqs());
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L), c.deliveredSeqs());
+		assertEquals(0, c.sequencer.getGapsFetched());
+	}
+
+	@Test
+	public void testLateCommitStillDelivered() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+		Node c = new Node("c");
+
+		// a takes id 1 but commits after b has published id 2
+		SimpleEvent late = a.reserve("late");
+		b.publish(b.write("early"));
+		a.commit(late);
+		a.publish(late);
+
+		assertEquals(Arrays.asList(2L, 1L), c.deliveredSeqs());
+	}
+
+	@Test
+	public void testHoleFilledLateFoundByPoller() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+		Node c = new Node("c");
+
+		// a takes id 1 but commits after b has published id 2, and the push of id 1 is lost
+		SimpleEvent late = a.reserve("late");
+		b.publish(b.write("early"));
+		a.commit(late);
+		transport.dropNext = true;
+		a.publish(late);
+		b.publish(b.write("next"));
+
+		assertEquals(Arrays.asList(2L, 3L), c.deliveredSeqs());
+		assertEquals(0, c.sequencer.getLowWaterSeq());
+
+		c.poll();
+
+		assertEquals(Arrays.asList(2L, 3L, 1L), c.deliveredSeqs());
+		assertEquals(3, c.sequencer.getLowWaterSeq());
+	}
+
+	@Test
+	public void testHoleNeverFilledIsGivenUp() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+
+		// id 1 is rolled back and never shows up
+		a.reserve("rolledBack");
+		for (int i = 0; i < 101; i++) {
+			a.publish(a.write("e" + i));
+		}
+
+		assertEquals(101, b.deliveredSeqs().size());
+		assertEquals(102, b.sequencer.getLowWaterSeq());
+		// the hole is looked for once, not on every batch after it
+		assertEquals(1, b.sequencer.getGapsFetched());
+	}
+
+	@Test
+	public void testPolledDuplicatesDropped() {
+		Node a = new Node("a");
+		Node b = new Node("b");
+
+		a.publish(a.write("e1"), a.write("e2"));
+		// the fallback poller re-reads what was pushed
+		b.deliver(b.sequencer.accept(new ArrayList<>(table.values())));
+
+		assertEquals(Arrays.asList(1L, 2L), b.deliveredSeqs());
+	}
+
+	private SimpleEvent newEvent(String name, String server) {
+		Event event = mock(Event.class);
+		when(event.getEvent()).thenReturn(name);
+		return new SimpleEvent(event, server);
+	}
+
+	/**
+	 * An in memory ClusterEventTransport which delivers synchronously to every other node.
+	 */
+	private class LocalTransport {
+		private final List<Node> nodes = new ArrayList<>();
+		private boolean dropNext = false;
+
+		void publish(Node from, List<SimpleEvent> events) {
+			if (dropNext) {
+				dropNext = false;
+				return;
+			}
+			for (Node node : nodes) {
+				if (node != from) node.listener.onEvents(events);
+			}
+		}
+	}
+
+	private class Node implements ClusterEventTransport {
+		private final String serverId;
+		private final ClusterEventSequencer sequencer;
+		private final List<SimpleEvent> delivered = new ArrayList<>();
+		private Listener listener;
+
+		Node(String serverId) {
+			this.serverId = serverId;
+			this.sequencer = new ClusterEventSequencer((after, before) -> table.values().stream()
+					.filter(e -> e.getSeq() > after && e.getSeq() < before && !serverId.equals(e.getServerId()))
+					.collect(Collectors.toList()), nextId, 100);
+			start(events -> deliver(sequencer.accept(events)));
+			transport.nodes.add(this);
+		}
+
+		SimpleEvent reserve(String name) {
+			SimpleEvent event = newEvent(name, serverId);
+			event.setSeq(++nextId);
+			return event;
+		}
+
+		void commit(SimpleEvent event) {
+			table.put(event.getSeq(), event);
+			sequencer.markLocal(event.getSeq());
+		}
+
+		SimpleEvent write(String name) {
+			SimpleEvent event = reserve(name);
+			commit(event);
+			return event;
+		}
+
+		void publish(SimpleEvent... events) {
+			publish(Arrays.asList(events));
+		}
+
+		/**
+		 * What the fallback poller does, reading the committed events of the other servers after the low-water mark.
+		 */
+		void poll() {
+			deliver(sequencer.accept(table.values().stream()
+					.filter(e -> e.getSeq() > sequencer.getLowWaterSeq() && !serverId.equals(e.getServerId()))
+					.collect(Collectors.toList())));
+		}
+
+		void deliver(List<SimpleEvent> events) {
+			delivered.addAll(events);
+		}
+
+		List<Long> deliveredSeqs() {
+			return delivered.stream().map(SimpleEvent::getSeq).collect(Collectors.toList());
+		}
+
+		@Override
+		public void start(Listener listener) {
+			this.listener = listener;
+		}
+
+		@Override
+		public void publish(List<SimpleEvent> events) {
+			transport.publish(this, events);
+		}
+
+		@Override
+		public void stop() {
+			transport.nodes.remove(this);
+		}
+	}
+}
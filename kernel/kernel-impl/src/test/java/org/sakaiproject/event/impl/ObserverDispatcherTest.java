@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.event.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ObserverDispatcherTest {
+
+	private ObserverDispatcher dispatcher;
+
+	private final Observable source = new Observable();
+
+	@After
+	public void tearDown() {
+		if (dispatcher != null) dispatcher.shutdown(1000);
+	}
+
+	/** The counts are updated just after the observer returns, so wait for them to catch up. */
+	private void awaitDelivered(long delivered) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (dispatcher.getObservers().get(0).getDelivered() < delivered && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	/** Records what it is given and which thread it was given it on. */
+	private static class Recorder implements Observer {
+		final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+		volatile Thread thread;
+		final CountDownLatch done;
+
+		Recorder(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		public void update(Observable o, Object arg) {
+			thread = Thread.currentThread();
+			events.add(arg);
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testQueuedInOrderOffThePostingThread() throws Exception {
+		dispatcher = new ObserverDispatcher(100, ObserverDispatcher.FullPolicy.BLOCK, 1000, null, false, null);
+		Recorder recorder = new Recorder(50);
+		List<Object> posted = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			posted.add(i);
+			dispatcher.dispatch(source, recorder, i, true);
+		}
+		assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+		assertEquals(posted, recorder.events);
+		assertNotSame(Thread.currentThread(), recorder.thread);
+		awaitDelivered(50);
+		assertEquals(50, dispatcher.getObservers().get(0).getDelivered());
+	}
+
+	@Test
+	public void testSlowObserverDoesNotHoldUpOthers() throws Exception {
+		dispatcher = new ObserverDispatcher(100, ObserverDispatcher.FullPolicy.BLOCK, 1000, null, false, null);
+		CountDownLatch release = new CountDownLatch(1);
+		Observer slow = (o, arg) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		Recorder fast = new Recorder(10);
+		for (int i = 0; i < 10; i++) {
+			dispatcher.dispatch(source, slow, i, true);
+			dispatcher.dispatch(source, fast, i, true);
+		}
+		assertTrue(fast.done.await(5, TimeUnit.SECONDS));
+		assertTrue(dispatcher.getQueued() > 0);
+		release.countDown();
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		dispatcher = new ObserverDispatcher(2, ObserverDispatcher.FullPolicy.DROP, 0, null, false, null);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Observer stuck = (o, arg) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		};
+		dispatcher.dispatch(source, stuck, 0, true);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		// two fit in the queue behind the one being delivered
+		for (int i = 1; i <= 5; i++) {
+			dispatcher.dispatch(source, stuck, i, true);
+		}
+		assertEquals(3, dispatcher.getDropped());
+		release.countDown();
+	}
+
+	@Test
+	public void testInlineObservers() {
+		dispatcher = new ObserverDispatcher(100, ObserverDispatcher.FullPolicy.BLOCK, 1000,
+				Collections.singleton(Recorder.class.getName()), false, null);
+		Recorder listed = new Recorder(1);
+		dispatcher.dispatch(source, listed, "a", true);
+		assertSame(Thread.currentThread(), listed.thread);
+
+		// priority observers are never queued
+		Observer priority = (o, arg) -> assertSame(source, o);
+		dispatcher.dispatch(source, priority, "b", false);
+		assertEquals(0, dispatcher.getQueued());
+	}
+
+	@Test
+	public void testFailureDoesNotStopTheQueue() throws Exception {
+		dispatcher = new ObserverDispatcher(100, ObserverDispatcher.FullPolicy.BLOCK, 1000, null, false, null);
+		CountDownLatch done = new CountDownLatch(3);
+		List<Object> seen = Collections.synchronizedList(new ArrayList<>());
+		Observer flaky = (o, arg) -> {
+			seen.add(arg);
+			done.countDown();
+			if ("bad".equals(arg)) throw new IllegalStateException("bad event");
+		};
+		dispatcher.dispatch(source, flaky, "one", true);
+		dispatcher.dispatch(source, flaky, "bad", true);
+		dispatcher.dispatch(source, flaky, "two", true);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(3, seen.size());
+		awaitDelivered(3);
+		assertEquals(1, dispatcher.getObservers().get(0).getFailed());
+	}
+}
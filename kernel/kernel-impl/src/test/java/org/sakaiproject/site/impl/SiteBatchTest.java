@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.SiteService.SelectionType;
+import org.sakaiproject.site.api.SiteService.SortType;
+import org.sakaiproject.test.SakaiKernelTestBase;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Checks that sites listed together read their properties, pages and groups together, and compares the time taken to
+ * list sites and use those parts of every one of them with and without the batch. The number of sites defaults to 50 to
+ * keep the build quick, run with -DsiteBatchTest.sites=500 for the comparison on a realistic list.
+ */
+@Slf4j
+public class SiteBatchTest extends SakaiKernelTestBase {
+
+	private static final int SITES = Integer.getInteger("siteBatchTest.sites", 50);
+
+	private static String type;
+
+	@BeforeClass
+	public static void beforeClass() {
+		try {
+			oneTimeSetup();
+			oneTimeSetupAfter();
+		} catch (Exception e) {
+			log.warn(e.getMessage(), e);
+		}
+	}
+
+	private static void oneTimeSetupAfter() throws Exception {
+		Session session = getService(SessionManager.class).getCurrentSession();
+		session.setUserEid("admin");
+		session.setUserId("admin");
+
+		// Use a random type so database state can't break the test.
+		type = "site-batch-" + UUID.randomUUID().toString().substring(0, 8);
+		SiteService siteService = getService(SiteService.class);
+		for (int i = 0; i < SITES; i++) {
+			Site site = siteService.addSite(UUID.randomUUID().toString(), type);
+			site.setTitle(String.format("Site %04d", i));
+			site.setPublished(true);
+			site.getPropertiesEdit().addProperty("term", "Term " + (i % 4));
+			for (int p = 0; p < 3; p++) {
+				SitePage page = site.addPage();
+				page.setTitle("Page " + p);
+				page.addTool().setTitle("Tool " + p);
+			}
+			site.addGroup().setTitle("Group " + i);
+			siteService.save(site);
+		}
+	}
+
+	private List<Site> list() {
+		return getService(SiteService.class).getSites(SelectionType.ANY, type, null, null, SortType.TITLE_ASC, null, false);
+	}
+
+	/**
+	 * Use the parts of a site a site list typically shows.
+	 */
+	private int use(Site site) {
+		int used = site.getProperties().getProperty("term").length();
+		for (SitePage page : site.getPages()) {
+			used += page.getTools().size();
+		}
+		return used + site.getGroups().size();
+	}
+
+	@Test
+	public void testListedSitesReadTogether() throws Exception {
+		List<Site> sites = list();
+		Assert.assertEquals(SITES, sites.size());
+		for (Site site : sites) {
+			Assert.assertNotNull(((BaseSite) site).m_batch);
+		}
+
+		// reading the first site's parts reads them for the whole list
+		use(sites.get(0));
+		for (Site s : sites) {
+			BaseSite site = (BaseSite) s;
+			Assert.assertFalse(site.m_pagesLazy);
+			Assert.assertFalse(site.m_groupsLazy);
+			for (SitePage page : site.getPages(false)) {
+				Assert.assertFalse(((BaseSitePage) page).m_toolsLazy);
+			}
+		}
+
+		// and reads the same as each site on its own
+		SiteService siteService = getService(SiteService.class);
+		for (Site listed : sites) {
+			Site single = siteService.getSite(listed.getId());
+			Assert.assertEquals(single.getProperties().getProperty("term"), listed.getProperties().getProperty("term"));
+			Assert.assertEquals(titles(single.getPages()), titles(listed.getPages()));
+			Assert.assertEquals(single.getPages().get(0).getTools().size(), listed.getPages().get(0).getTools().size());
+			Assert.assertEquals(groupTitles(single), groupTitles(listed));
+		}
+	}
+
+	@Test
+	public void testCompareListing() {
+		// warm up both ways first
+		run(false);
+		run(true);
+
+		long single = run(false);
+		long batched = run(true);
+		log.info("Listing {} sites and using their properties, pages, tools and groups: {}ms one site at a time, {}ms in a batch",
+				SITES, single / 1000000, batched / 1000000);
+	}
+
+	private long run(boolean batched) {
+		long start = System.nanoTime();
+		List<Site> sites = list();
+		if (!batched) {
+			for (Site site : sites) {
+				((BaseSite) site).m_batch = null;
+			}
+		}
+		int used = 0;
+		for (Site site : sites) {
+			used += use(site);
+		}
+		Assert.assertTrue(used > 0);
+		return System.nanoTime() - start;
+	}
+
+	private List<String> titles(List<SitePage> pages) {
+		List<String> titles = new ArrayList<>();
+		for (SitePage page : pages) {
+			titles.add(page.getTitle());
+		}
+		return titles;
+	}
+
+	private List<String> groupTitles(Site site) {
+		List<String> titles = new ArrayList<>();
+		for (Group group : site.getGroups()) {
+			titles.add(group.getTitle());
+		}
+		return titles;
+	}
+}
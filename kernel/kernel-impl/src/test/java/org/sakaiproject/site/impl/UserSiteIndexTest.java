@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.site.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.mock.MemoryService;
+import org.sakaiproject.site.api.Site;
+
+public class UserSiteIndexTest {
+
+	private UserSiteIndex index;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		Cache cache = new MemoryService().newCache("userSiteIndexTest");
+		index = new UserSiteIndex(cache);
+	}
+
+	private Member member(String userId, String role, boolean active) {
+		Member member = mock(Member.class);
+		Role r = mock(Role.class);
+		when(r.getId()).thenReturn(role);
+		when(member.getUserId()).thenReturn(userId);
+		when(member.getRole()).thenReturn(r);
+		when(member.isActive()).thenReturn(active);
+		return member;
+	}
+
+	private Site site(String id, String title, boolean published, Member... members) {
+		Site site = mock(Site.class);
+		when(site.getId()).thenReturn(id);
+		when(site.getTitle()).thenReturn(title);
+		when(site.getType()).thenReturn("course");
+		when(site.isPublished()).thenReturn(published);
+		when(site.getProperties()).thenReturn(mock(ResourceProperties.class));
+		Set<Member> set = new HashSet<>(Arrays.asList(members));
+		when(site.getMembers()).thenReturn(set);
+		for (Member member : members) {
+			when(site.getMember(member.getUserId())).thenReturn(member);
+		}
+		return site;
+	}
+
+	@Test
+	public void testPutAndGet() {
+		assertNull(index.getSiteIds("alice"));
+		index.put("alice", Arrays.asList(site("a", "A", true), site("b", "B", true)), false);
+
+		assertEquals(Arrays.asList("a", "b"), index.getSiteIds("alice"));
+		assertEquals(1, index.getHits());
+		assertEquals(1, index.getMisses());
+		assertEquals(2, index.getLargestEntrySize());
+	}
+
+	@Test
+	public void testSummaryUpdatedInPlace() {
+		Member alice = member("alice", "access", true);
+		Site before = site("a", "A", true, alice);
+		index.put("alice", Arrays.asList(before, site("b", "B", true)), false);
+
+		Site after = site("a", "A", true, alice);
+		when(after.getType()).thenReturn("project");
+		index.siteUpdated(before, after);
+
+		List<UserSiteIndex.SiteSummary> summaries = index.getSummaries("alice");
+		assertEquals("project", summaries.get(0).getType());
+		assertEquals(1, index.getUpdates());
+		assertEquals(0, index.getEvictions());
+	}
+
+	@Test
+	public void testDroppedMemberLosesSite() {
+		Member alice = member("alice", "access", true);
+		Member bob = member("bob", "access", true);
+		Site before = site("a", "A", true, alice, bob);
+		index.put("alice", Collections.singletonList(before), false);
+		index.put("bob", Arrays.asList(before, site("b", "B", true)), false);
+
+		index.siteUpdated(before, site("a", "A", true, alice));
+
+		assertEquals(Collections.singletonList("a"), index.getSiteIds("alice"));
+		assertEquals(Collections.singletonList("b"), index.getSiteIds("bob"));
+		assertEquals(1, index.getRemovals());
+	}
+
+	@Test
+	public void testUnpublishedSiteDroppedUnlessSelected() {
+		Member alice = member("alice", "access", true);
+		Member bob = member("bob", "maintain", true);
+		Site before = site("a", "A", true, alice, bob);
+		index.put("alice", Collections.singletonList(before), false);
+		index.put("bob", Collections.singletonList(before), true);
+
+		index.siteUpdated(before, site("a", "A", false, alice, bob));
+
+		// whether alice may still visit the site is only known to the db
+		assertNull(index.getSiteIds("alice"));
+		assertEquals(Collections.singletonList("a"), index.getSiteIds("bob"));
+	}
+
+	@Test
+	public void testMaintainerSavesUnpublishedSite() {
+		Member bob = member("bob", "maintain", true);
+		Site before = site("a", "A", false, bob);
+		// listed without unpublished sites, as bob may visit unpublished sites
+		index.put("bob", Arrays.asList(before, site("b", "B", true)), false);
+
+		Site after = site("a", "A", false, bob);
+		when(after.getType()).thenReturn("project");
+		index.siteUpdated(before, after);
+
+		// the entry is selected again rather than losing the site
+		assertNull(index.getSiteIds("bob"));
+		assertEquals(0, index.getRemovals());
+		assertEquals(1, index.getEvictions());
+
+		// a new unpublished site is not missing from the maintainer's list either
+		index.put("bob", Collections.singletonList(site("b", "B", true)), false);
+		index.siteUpdated(null, site("c", "C", false, bob));
+		assertNull(index.getSiteIds("bob"));
+	}
+
+	@Test
+	public void testEvictedWhenPlacementUnknown() {
+		Member alice = member("alice", "access", true);
+		Member bob = member("bob", "access", true);
+		Site before = site("a", "A", true, alice);
+		index.put("alice", Collections.singletonList(before), false);
+		index.put("bob", Collections.singletonList(site("b", "B", true)), false);
+
+		// a new title changes the sort order, and bob is new to the site
+		index.siteUpdated(before, site("a", "Z", true, alice, bob));
+
+		assertNull(index.getSiteIds("alice"));
+		assertNull(index.getSiteIds("bob"));
+		assertEquals(2, index.getEvictions());
+	}
+
+	@Test
+	public void testRoleChangeEvicts() {
+		Site before = site("a", "A", true, member("alice", "access", true));
+		index.put("alice", Collections.singletonList(before), false);
+
+		index.siteUpdated(before, site("a", "A", true, member("alice", "maintain", true)));
+
+		assertNull(index.getSiteIds("alice"));
+	}
+
+	@Test
+	public void testSiteRemovedAndRetain() {
+		Member alice = member("alice", "access", true);
+		Site a = site("a", "A", true, alice);
+		index.put("alice", Arrays.asList(a, site("b", "B", true), site("c", "C", true)), false);
+
+		index.siteRemoved(a);
+		assertEquals(Arrays.asList("b", "c"), index.getSiteIds("alice"));
+
+		index.retain("alice", Collections.singletonList("c"));
+		assertEquals(Collections.singletonList("c"), index.getSiteIds("alice"));
+		assertEquals(1, index.getStaleSites());
+	}
+}
@@ -17,6 +17,7 @@
 package org.sakaiproject.user.impl.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -36,6 +37,7 @@ import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.user.api.User;
 import org.sakaiproject.user.api.UserDirectoryProvider;
 import org.sakaiproject.user.api.UserEdit;
+import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.user.impl.DbUserService;
 
 /**
@@ -221,6 +223,39 @@ public class GetUsersByEidTest extends SakaiKernelTestBase {
 		Assert.assertEquals(0, TestProvider.GET_USER_CALLS_COUNTER);
 	}
 	
+	@Test
+	public void testNotFoundIsRemembered() throws Exception {
+		String departedEid = "departed_for_not_found_test";
+		String departedId = "departed-id-for-not-found-test";
+		long notFoundHits = dbUserService.getResolutionStats().getNotFoundHits();
+
+		// The provider is asked about an unknown EID once, and not again while it is remembered.
+		TestProvider.GET_USERS_CALLS_COUNTER = 0;
+		Assert.assertTrue(dbUserService.getUsersByEids(Arrays.asList(departedEid)).isEmpty());
+		Assert.assertEquals(1, TestProvider.GET_USERS_CALLS_COUNTER);
+		Assert.assertTrue(dbUserService.getUsersByEids(Arrays.asList(departedEid, departedEid.toUpperCase())).isEmpty());
+		Assert.assertEquals(1, TestProvider.GET_USERS_CALLS_COUNTER);
+
+		// Unknown IDs are remembered for both bulk and single lookups.
+		Assert.assertTrue(dbUserService.getUsers(Arrays.asList(departedId)).isEmpty());
+		Assert.assertTrue(dbUserService.getUsers(Arrays.asList(departedId)).isEmpty());
+		try {
+			dbUserService.getUser(departedId);
+			Assert.fail();
+		} catch (UserNotDefinedException e) {
+			// expected
+		}
+		Assert.assertEquals(notFoundHits + 3, dbUserService.getResolutionStats().getNotFoundHits());
+
+		// A user added with a remembered EID is found straight away.
+		actAsAdmin();
+		User user = dbUserService.addUser(null, departedEid, "Joe", "Gone", "gone@somewhere.edu", "pw", "Student", null);
+		clearUserFromServiceCaches(user.getId());
+		List<User> found = dbUserService.getUsersByEids(Arrays.asList(departedEid));
+		Assert.assertEquals(1, found.size());
+		Assert.assertEquals(user.getId(), found.get(0).getId());
+	}
+
 	@Test
 	public void testSearchUsers() {
 		List<User> users = dbUserService.searchUsers("Joe", 1, 1);
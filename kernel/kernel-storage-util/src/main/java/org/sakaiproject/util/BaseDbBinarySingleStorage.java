@@ -1367,4 +1367,14 @@ public class BaseDbBinarySingleStorage implements DbSingleStorage
 		return loadResources(sql, fields);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.util.DbSingleStorage#getAllResourcesWhereAfter(java.lang.String, java.lang.String, java.lang.String, int)
+	 */
+	public List getAllResourcesWhereAfter(String selectBy, String selectByValue, String afterId, int maxCount)
+	{
+		String sql = singleStorageSql.getXmlWhereAfterLimitSql(selectBy, m_resourceTableIdField, m_resourceTableName, afterId != null, maxCount);
+		Object[] fields = (afterId != null) ? new Object[] { selectByValue, afterId } : new Object[] { selectByValue };
+		return loadResources(sql, fields);
+	}
+
 }
@@ -506,6 +506,16 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		return loadResources(sql, fields);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.util.DbSingleStorage#getAllResourcesWhereAfter(java.lang.String, java.lang.String, java.lang.String, int)
+	 */
+	public List getAllResourcesWhereAfter(String selectBy, String selectByValue, String afterId, int maxCount)
+	{
+		String sql = singleStorageSql.getXmlWhereAfterLimitSql(selectBy, m_resourceTableIdField, m_resourceTableName, afterId != null, maxCount);
+		Object[] fields = (afterId != null) ? new Object[] { selectByValue, afterId } : new Object[] { selectByValue };
+		return loadResources(sql, fields);
+	}
+
 	protected List loadResources(String sql, Object[] fields)
 	{
 		List all = m_sql.dbRead(sql, fields, new SqlReader()
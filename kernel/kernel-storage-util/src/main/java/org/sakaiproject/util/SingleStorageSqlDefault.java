@@ -104,6 +104,15 @@ public class SingleStorageSqlDefault implements SingleStorageSql
 	{
 		return "select XML from " + tableName + " where ( " + selectBy + " = ? ) order by " + orderBy + " asc limit " + maxCount + " offset " + first ;
 	}
+
+	/**
+	 * returns the SQL statement which retrieves a limited number of rows selected by a particular value for a specified field
+	 * in ascending order by the id field, starting after a given id when after is true.
+	 */
+	public String getXmlWhereAfterLimitSql(String selectBy, String idField, String tableName, boolean after, int maxCount)
+	{
+		return "select XML from " + tableName + " where ( " + selectBy + " = ? " + (after ? "and " + idField + " > ? " : "") + ") order by " + idField + " asc limit " + maxCount;
+	}
 	
 	/**
 	 * returns the sql statement which retrieves the specified field and the xml field from the specified table.
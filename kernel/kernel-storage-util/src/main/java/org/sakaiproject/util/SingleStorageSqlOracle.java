@@ -54,6 +54,16 @@ public class SingleStorageSqlOracle extends SingleStorageSqlDefault
 			+ (first + maxCount - 1) + ") where rnum >= " + first;
 	}
 
+	/**
+	 * returns the SQL statement which retrieves a limited number of rows selected by a particular value for a specified field
+	 * in ascending order by the id field, starting after a given id when after is true.
+	 */
+	public String getXmlWhereAfterLimitSql(String selectBy, String idField, String tableName, boolean after, int maxCount)
+	{
+		return "select XML from ( select XML from " + tableName + " where ( " + selectBy + " = ? " + (after ? "and " + idField + " > ? " : "")
+			+ ") order by " + idField + " asc ) where rownum <= " + maxCount;
+	}
+
 	/**
 	 * returns an array of objects needed for the getXmlSql statement with limits.
 	 */
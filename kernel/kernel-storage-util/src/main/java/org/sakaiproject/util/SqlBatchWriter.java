@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.sakaiproject.db.api.SqlService;
+
+/**
+ * Writes many rows with one statement as JDBC batches, each batch committed on its own connection from the pool.
+ * A batch that fails is rolled back and its rows are written again one at a time, so one bad row does not lose the rest.
+ */
+@Slf4j
+public final class SqlBatchWriter
+{
+	private SqlBatchWriter()
+	{
+	}
+
+	/**
+	 * Write the rows in batches.
+	 * 
+	 * @param sqlService
+	 *        The service to write through.
+	 * @param sql
+	 *        The statement, run once for each row.
+	 * @param rows
+	 *        The fields of each row.
+	 * @param batchSize
+	 *        The most rows to write in one batch.
+	 * @param failed
+	 *        Given each row that could not be written on its own, or null.
+	 * @return the number of statements run, a batch counting as one
+	 */
+	public static int write(SqlService sqlService, String sql, List<Object[]> rows, int batchSize, Consumer<Object[]> failed)
+	{
+		int statements = 0;
+		for (int i = 0; i < rows.size(); i += batchSize)
+		{
+			List<Object[]> batch = rows.subList(i, Math.min(rows.size(), i + batchSize));
+			if (batch.size() > 1)
+			{
+				statements++;
+				if (writeBatch(sqlService, sql, batch)) continue;
+			}
+			for (Object[] fields : batch)
+			{
+				statements++;
+				if (!sqlService.dbWrite(sql, fields) && failed != null)
+				{
+					failed.accept(fields);
+				}
+			}
+		}
+		return statements;
+	}
+
+	/**
+	 * Write the rows as one batch, committed on its own.
+	 * 
+	 * @return true if every row was written, false if the batch was rolled back
+	 */
+	public static boolean writeBatch(SqlService sqlService, String sql, List<Object[]> rows)
+	{
+		Connection conn = null;
+		boolean wasCommit = true;
+		try
+		{
+			conn = sqlService.borrowConnection();
+			wasCommit = conn.getAutoCommit();
+			if (wasCommit)
+			{
+				conn.setAutoCommit(false);
+			}
+			if (sqlService.dbWriteBatch(conn, sql, rows))
+			{
+				conn.commit();
+				return true;
+			}
+			conn.rollback();
+		}
+		catch (Exception e)
+		{
+			log.warn("writeBatch(): batch of {} failed: {}", rows.size(), e.toString());
+			if (conn != null)
+			{
+				try
+				{
+					conn.rollback();
+				}
+				catch (Exception ee)
+				{
+					log.warn("while rolling back: {}", ee.getMessage(), ee);
+				}
+			}
+		}
+		finally
+		{
+			if (conn != null)
+			{
+				try
+				{
+					if (!conn.isClosed() && conn.getAutoCommit() != wasCommit)
+					{
+						conn.setAutoCommit(wasCommit);
+					}
+				}
+				catch (Exception e)
+				{
+					log.warn("while setting auto commit: {}", e.getMessage(), e);
+				}
+				sqlService.returnConnection(conn);
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util.serialize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Vector;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.entity.api.serialize.DataStreamEntitySerializer;
+import org.sakaiproject.entity.api.serialize.EntityParseException;
+import org.sakaiproject.entity.api.serialize.SerializableEntity;
+import org.sakaiproject.entity.api.serialize.SerializablePropertiesAccess;
+
+/**
+ * <pre>
+ * Serializes resource properties in a more compact form than the Type1 serializer.
+ *
+ * TYPE2
+ * BLOCK1
+ * Int: length of the property block, followed by the property block.
+ *
+ * The property block is written with variable length ints (7 bits per byte) and holds
+ * the number of properties, then for each property a kind byte (string or list), the name
+ * and the value(s). Names in the DICTIONARY are written as their index + 1, any other name
+ * is written as 0 followed by the name. Strings are written as length:UTF8byte[] so are not
+ * limited to 64K.
+ *
+ * As the property block is length prefixed it is handed to the properties undecoded, and is
+ * only decoded when the properties are first used.
+ *
+ * The DICTIONARY is part of the format, entries MUST only ever be appended.
+ * </pre>
+ */
+@Slf4j
+public class Type2BaseResourcePropertiesSerializer implements DataStreamEntitySerializer
+{
+
+	private static final int TYPE2 = 2;
+
+	private static final int BLOCK1 = 200;
+
+	private static final int KIND_STRING = 1;
+
+	private static final int KIND_LIST = 2;
+
+	private static final String[] DICTIONARY = {
+		ResourceProperties.PROP_CREATOR,
+		ResourceProperties.PROP_MODIFIED_BY,
+		ResourceProperties.PROP_CREATION_DATE,
+		ResourceProperties.PROP_DISPLAY_NAME,
+		ResourceProperties.PROP_ORIGINAL_FILENAME,
+		ResourceProperties.PROP_COPYRIGHT,
+		ResourceProperties.PROP_COPYRIGHT_CHOICE,
+		ResourceProperties.PROP_COPYRIGHT_ALERT,
+		ResourceProperties.PROP_CONTENT_LENGTH,
+		ResourceProperties.PROP_CONTENT_TYPE,
+		ResourceProperties.PROP_MODIFIED_DATE,
+		ResourceProperties.PROP_IS_COLLECTION,
+		ResourceProperties.PROP_COLLECTION_BODY_QUOTA,
+		ResourceProperties.PROP_DESCRIPTION,
+		ResourceProperties.PROP_PUBVIEW,
+		ResourceProperties.PROP_CONTENT_ENCODING,
+		ResourceProperties.PROP_STRUCTOBJ_TYPE,
+		ResourceProperties.PROP_CONTENT_PRIORITY,
+		ResourceProperties.PROP_HAS_CUSTOM_SORT,
+		ResourceProperties.PROP_RESOURCE_TYPE,
+		ResourceProperties.PROP_ADD_HTML,
+		ResourceProperties.PROP_HIDDEN_WITH_ACCESSIBLE_CONTENT,
+		ResourceProperties.PROP_DO_NOT_DUPLICATE,
+		ResourceProperties.PROP_SECURED,
+		ResourceProperties.PROP_ALLOW_INLINE
+	};
+
+	private static final Map<String, Integer> DICTIONARY_INDEX = new HashMap<String, Integer>();
+
+	static
+	{
+		for (int i = 0; i < DICTIONARY.length; i++)
+		{
+			DICTIONARY_INDEX.put(DICTIONARY[i], i + 1);
+		}
+	}
+
+	/**
+	 * @see org.sakaiproject.entity.api.serialize.DataStreamEntitySerializer#parse(org.sakaiproject.entity.api.serialize.SerializableEntity,
+	 *      java.io.DataInputStream)
+	 */
+	public void parse(SerializableEntity se, DataInputStream ds)
+			throws EntityParseException
+	{
+		if (!(se instanceof SerializablePropertiesAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableProperties ");
+		}
+		SerializablePropertiesAccess sp = (SerializablePropertiesAccess) se;
+		try
+		{
+			int type = ds.readInt();
+			if (type != TYPE2)
+			{
+				throw new EntityParseException(
+						"Cant Parse block, resource properties is not type 2 " + type);
+			}
+			int block = ds.readInt();
+			if (block != BLOCK1)
+			{
+				throw new EntityParseException(
+						"Failed to parse entity, unrecognised block " + block);
+			}
+			final byte[] properties = new byte[ds.readInt()];
+			ds.readFully(properties);
+			sp.setDeferredSerializableProperties(() -> {
+				try
+				{
+					return decode(properties);
+				}
+				catch (RuntimeException ex)
+				{
+					throw new IllegalStateException("Failed to decode properties", ex);
+				}
+			});
+		}
+		catch (EntityParseException ep)
+		{
+			throw ep;
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to parse entity ", ex);
+		}
+	}
+
+	/**
+	 * @see org.sakaiproject.entity.api.serialize.DataStreamEntitySerializer#serialize(org.sakaiproject.entity.api.serialize.SerializableEntity,
+	 *      java.io.DataOutputStream)
+	 */
+	public void serialize(SerializableEntity se, DataOutputStream ds)
+			throws EntityParseException
+	{
+		if (!(se instanceof SerializablePropertiesAccess))
+		{
+			throw new EntityParseException("Cant serialize " + se
+					+ " as it is not a SerializableProperties ");
+		}
+		SerializablePropertiesAccess sp = (SerializablePropertiesAccess) se;
+		try
+		{
+			byte[] properties = encode(sp.getSerializableProperties());
+			ds.writeInt(TYPE2);
+			ds.writeInt(BLOCK1);
+			ds.writeInt(properties.length);
+			ds.write(properties);
+		}
+		catch (Exception ex)
+		{
+			throw new EntityParseException("Failed to serialize properties ", ex);
+		}
+	}
+
+	private static byte[] encode(Map<String, Object> properties) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		int n = 0;
+		for (Entry<String, Object> entry : properties.entrySet())
+		{
+			String key = entry.getKey();
+			Object value = entry.getValue();
+			if (key == null || value == null)
+			{
+				continue;
+			}
+			if (value instanceof String)
+			{
+				body.write(KIND_STRING);
+				writeName(body, key);
+				writeString(body, (String) value);
+			}
+			else if (value instanceof List)
+			{
+				List<?> l = (List<?>) value;
+				int s = 0;
+				for (Object v : l)
+				{
+					if (v instanceof String)
+					{
+						s++;
+					}
+					else if (v != null)
+					{
+						log.warn("Non String found in property list " + v);
+					}
+				}
+				body.write(KIND_LIST);
+				writeName(body, key);
+				writeInt(body, s);
+				for (Object v : l)
+				{
+					if (v instanceof String)
+					{
+						writeString(body, (String) v);
+					}
+				}
+			}
+			else
+			{
+				log.warn("Non String found in property " + value);
+				continue;
+			}
+			n++;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 5);
+		writeInt(out, n);
+		body.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private static Map<String, Object> decode(byte[] buffer)
+	{
+		int[] pos = new int[1];
+		int n = readInt(buffer, pos);
+		Map<String, Object> properties = new HashMap<String, Object>(n * 2);
+		for (int i = 0; i < n; i++)
+		{
+			int kind = buffer[pos[0]++];
+			String key = readName(buffer, pos);
+			switch (kind)
+			{
+				case KIND_STRING:
+					properties.put(key, readString(buffer, pos));
+					break;
+				case KIND_LIST:
+				{
+					int s = readInt(buffer, pos);
+					List<String> l = new Vector<String>(s);
+					for (int j = 0; j < s; j++)
+					{
+						l.add(readString(buffer, pos));
+					}
+					properties.put(key, l);
+				}
+					break;
+				default:
+					throw new IllegalArgumentException("Unrecognised property kind " + kind);
+			}
+		}
+		return properties;
+	}
+
+	private static void writeName(ByteArrayOutputStream out, String name)
+	{
+		Integer index = DICTIONARY_INDEX.get(name);
+		if (index != null)
+		{
+			writeInt(out, index);
+		}
+		else
+		{
+			writeInt(out, 0);
+			writeString(out, name);
+		}
+	}
+
+	private static String readName(byte[] buffer, int[] pos)
+	{
+		int index = readInt(buffer, pos);
+		if (index == 0)
+		{
+			return readString(buffer, pos);
+		}
+		return DICTIONARY[index - 1];
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String s)
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeInt(out, b.length);
+		out.write(b, 0, b.length);
+	}
+
+	private static String readString(byte[] buffer, int[] pos)
+	{
+		int length = readInt(buffer, pos);
+		String s = new String(buffer, pos[0], length, StandardCharsets.UTF_8);
+		pos[0] += length;
+		return s;
+	}
+
+	private static void writeInt(ByteArrayOutputStream out, int v)
+	{
+		while ((v & ~0x7F) != 0)
+		{
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private static int readInt(byte[] buffer, int[] pos)
+	{
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			int b = buffer[pos[0]++];
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return v;
+			}
+		}
+		throw new IllegalArgumentException("Malformed int in property block");
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.sakaiproject.content.api.ContentEntity;
+import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.exception.TypeException;
+
+/**
+ * Walks the members of a collection a page at a time, using ContentHostingService.getMemberResources(id, afterId, limit),
+ * so that at most one page of members is held while a large collection is listed. The first page is read, and access to the
+ * collection checked, when the iterator is made.
+ */
+@Slf4j
+public class ContentMemberIterator implements Iterator<ContentEntity>
+{
+	private final ContentHostingService contentHostingService;
+
+	private final String collectionId;
+
+	private final int pageSize;
+
+	private List<ContentEntity> page;
+
+	private int next = 0;
+
+	public ContentMemberIterator(ContentHostingService contentHostingService, String collectionId, int pageSize)
+			throws IdUnusedException, TypeException, PermissionException
+	{
+		this.contentHostingService = contentHostingService;
+		this.collectionId = collectionId;
+		this.pageSize = pageSize;
+		this.page = contentHostingService.getMemberResources(collectionId, null, pageSize);
+	}
+
+	public ContentMemberIterator(ContentHostingService contentHostingService, String collectionId)
+			throws IdUnusedException, TypeException, PermissionException
+	{
+		this(contentHostingService, collectionId, ContentHostingService.MAXIMUM_PAGE_SIZE);
+	}
+
+	public boolean hasNext()
+	{
+		if (next < page.size()) return true;
+		if (page.isEmpty()) return false;
+
+		String afterId = page.get(page.size() - 1).getId();
+		try
+		{
+			page = contentHostingService.getMemberResources(collectionId, afterId, pageSize);
+		}
+		catch (IdUnusedException | TypeException | PermissionException e)
+		{
+			// the collection went away, or access to it did, part way through
+			log.warn("Stopped listing {} after {}: {}", collectionId, afterId, e.toString());
+			page = Collections.emptyList();
+		}
+		next = 0;
+		return !page.isEmpty();
+	}
+
+	public ContentEntity next()
+	{
+		if (!hasNext()) throw new NoSuchElementException();
+		return page.get(next++);
+	}
+}
@@ -0,0 +1,743 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.content.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes a zip archive to a stream, compressing entries on a shared pool while keeping them in the order they were added.
+ * Each entry is opened on the thread adding it, so the body is fetched with that thread's session and permissions, then
+ * read and deflated by a pool thread into a spool (memory for small entries, a temp file past the memory threshold). The
+ * spools are copied to the archive in turn, so at most maxPending entries are in flight per archive.
+ * Entries larger than the inline threshold are not spooled at all, they are deflated straight into the archive on the
+ * calling thread and followed by a data descriptor. Names are written as UTF-8 and ZIP64 records are added when sizes,
+ * offsets or the entry count need them.
+ */
+@Slf4j
+public class ParallelZipWriter implements Closeable {
+
+	/**
+	 * Opens the body of an entry, called on the thread adding the entry.
+	 */
+	@FunctionalInterface
+	public interface EntrySource {
+		InputStream open() throws Exception;
+	}
+
+	private static final int BUFFER_SIZE = 32768;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int EXT_SIG = 0x08074b50;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int ZIP64_END_SIG = 0x06064b50;
+	private static final int ZIP64_LOC_SIG = 0x07064b50;
+
+	private static final int FLAG_DESCRIPTOR = 0x0008;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final int DIRECTORY_ATTRIBUTE = 0x10;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	private final CountingOutputStream out;
+	private final ExecutorService executor;
+	private final int level;
+	private final int maxPending;
+	private final int memoryThreshold;
+	private final long inlineThreshold;
+
+	private final Deque<Pending> pending = new ArrayDeque<>();
+	private final List<Written> written = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private volatile int entryCount = 0;
+	private volatile long bytesRead = 0;
+	private volatile boolean closed = false;
+	private boolean finished = false;
+	private boolean failed = false;
+
+	/**
+	 * @param out the stream to write the archive to, closed with the writer
+	 * @param executor the pool entries are compressed on
+	 * @param level the deflate level for compressed entries
+	 * @param maxPending how many entries may be compressing or waiting to be written at once
+	 * @param memoryThreshold spools larger than this many bytes move to a temp file
+	 * @param inlineThreshold entries larger than this many bytes are deflated inline instead of spooled
+	 */
+	public ParallelZipWriter(OutputStream out, ExecutorService executor, int level, int maxPending, int memoryThreshold, long inlineThreshold) {
+		this.out = new CountingOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+		this.executor = executor;
+		this.level = level;
+		this.maxPending = Math.max(1, maxPending);
+		this.memoryThreshold = memoryThreshold;
+		this.inlineThreshold = inlineThreshold;
+	}
+
+	/**
+	 * Add an empty directory entry, a trailing / is added to the name if it is missing.
+	 *
+	 * @return false if an entry with this name was already added
+	 */
+	public boolean addDirectory(String name, long time) throws IOException {
+		if (!name.endsWith("/")) {
+			name = name + "/";
+		}
+		if (!claim(name)) {
+			return false;
+		}
+		enqueue(new Pending(name, time, true, false, CompletableFuture.completedFuture(Spool.EMPTY), null));
+		return true;
+	}
+
+	/**
+	 * Add a file entry.
+	 *
+	 * @param name the path of the entry within the archive
+	 * @param time the modification time of the entry
+	 * @param sizeHint the expected size of the body, used to decide whether to compress it inline
+	 * @param stored true to store the body uncompressed, for content that is compressed already
+	 * @param source opens the body
+	 * @return false if an entry with this name was already added
+	 */
+	public boolean addEntry(String name, long time, long sizeHint, boolean stored, EntrySource source) throws IOException {
+		if (!claim(name)) {
+			return false;
+		}
+		if (inlineThreshold > 0 && sizeHint > inlineThreshold) {
+			try {
+				drain(0);
+				writeInline(name, time, sizeHint, stored, source);
+			} catch (IOException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+			return true;
+		}
+		InputStream in;
+		try {
+			in = open(source);
+		} catch (IOException | RuntimeException e) {
+			// reported in turn, when the entry would have been written
+			CompletableFuture<Spool> failure = new CompletableFuture<>();
+			failure.completeExceptionally(e);
+			enqueue(new Pending(name, time, false, stored, failure, null));
+			return true;
+		}
+		Future<Spool> future;
+		try {
+			future = executor.submit(() -> spool(in, stored));
+		} catch (RuntimeException e) {
+			closeQuietly(in);
+			throw e;
+		}
+		enqueue(new Pending(name, time, false, stored, future, in));
+		return true;
+	}
+
+	/**
+	 * @return the number of entries written to the archive so far
+	 */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/**
+	 * @return the uncompressed bytes of the entries written to the archive so far
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * @return the bytes of archive written so far
+	 */
+	public long getBytesWritten() {
+		return out.count;
+	}
+
+	/**
+	 * Write any entries still in flight and the central directory, without closing the underlying stream.
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		try {
+			drain(0);
+			writeCentralDirectory();
+			out.flush();
+			finished = true;
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Finish the archive and close the underlying stream. If adding an entry failed the archive is abandoned instead, entries
+	 * still in flight are cancelled and their spools removed.
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (!failed) {
+				finish();
+			}
+		} finally {
+			closed = true;
+			abandon();
+			out.close();
+		}
+	}
+
+	private boolean claim(String name) throws IOException {
+		if (closed || finished) {
+			throw new IOException("Archive is already finished");
+		}
+		if (!names.add(name)) {
+			log.debug("Skipping duplicate zip entry {}", name);
+			return false;
+		}
+		return true;
+	}
+
+	private void enqueue(Pending next) throws IOException {
+		pending.addLast(next);
+		try {
+			drain(maxPending - 1);
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Write completed entries until no more than the given number are left in flight.
+	 */
+	private void drain(int leave) throws IOException {
+		while (pending.size() > leave) {
+			Pending next = pending.peekFirst();
+			Spool spool;
+			try {
+				spool = next.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for zip entry " + next.name);
+			} catch (ExecutionException e) {
+				throw new IOException("Failed to read zip entry " + next.name, e.getCause());
+			}
+			pending.removeFirst();
+			try {
+				writeSpooled(next, spool);
+			} finally {
+				spool.discard();
+			}
+		}
+	}
+
+	private void abandon() {
+		for (Pending next : pending) {
+			if (next.future.cancel(true)) {
+				// the pool may not have started on it, so nothing else will close the body
+				closeQuietly(next.body);
+			} else {
+				try {
+					next.future.get().discard();
+				} catch (Exception e) {
+					// failed or cancelled, there is no spool to remove
+				}
+			}
+		}
+		pending.clear();
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (in == null) {
+			return;
+		}
+		try {
+			in.close();
+		} catch (IOException e) {
+			log.debug("Failed to close zip entry body: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Read and, unless stored, deflate one entry into a spool, closing the body. Runs on a pool thread.
+	 */
+	private Spool spool(InputStream body, boolean stored) throws IOException {
+		Spool spool = new Spool(memoryThreshold);
+		CRC32 crc = new CRC32();
+		Deflater deflater = stored ? null : new Deflater(level, true);
+		byte[] buf = new byte[BUFFER_SIZE];
+		long size = 0;
+		try (InputStream in = body) {
+			OutputStream sink = stored ? spool : new DeflaterOutputStream(spool, deflater, BUFFER_SIZE);
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				if (closed) {
+					throw new InterruptedIOException("Archive was closed");
+				}
+				crc.update(buf, 0, n);
+				sink.write(buf, 0, n);
+				size += n;
+			}
+			if (!stored) {
+				((DeflaterOutputStream) sink).finish();
+			}
+			spool.close();
+		} catch (IOException | RuntimeException e) {
+			spool.discard();
+			throw e;
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+		spool.crc = crc.getValue();
+		spool.size = size;
+		if (closed) {
+			// the archive was abandoned while this entry was compressing, nobody will collect the spool
+			spool.discard();
+		}
+		return spool;
+	}
+
+	private InputStream open(EntrySource source) throws IOException {
+		try {
+			InputStream in = source.open();
+			if (in == null) {
+				throw new IOException("No content");
+			}
+			return in;
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void writeSpooled(Pending entry, Spool spool) throws IOException {
+		byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+		long offset = out.count;
+		long compressed = spool.length();
+		int method = entry.stored || entry.directory ? STORED : DEFLATED;
+		int dosTime = dosTime(entry.time);
+		boolean zip64 = spool.size >= ZIP64_MAGIC || compressed >= ZIP64_MAGIC;
+
+		writeInt(LOC_SIG);
+		writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+		writeShort(FLAG_UTF8);
+		writeShort(method);
+		writeInt(dosTime);
+		writeInt(spool.crc);
+		writeInt(zip64 ? ZIP64_MAGIC : compressed);
+		writeInt(zip64 ? ZIP64_MAGIC : spool.size);
+		writeShort(name.length);
+		writeShort(zip64 ? 20 : 0);
+		out.write(name);
+		if (zip64) {
+			writeShort(0x0001);
+			writeShort(16);
+			writeLong(spool.size);
+			writeLong(compressed);
+		}
+		spool.writeTo(out);
+
+		written.add(new Written(name, FLAG_UTF8, method, dosTime, spool.crc, compressed, spool.size, offset, entry.directory));
+		entryCount++;
+		bytesRead += spool.size;
+	}
+
+	/**
+	 * Deflate one large entry straight into the archive. The sizes and CRC are not known until the body has been read, so
+	 * they follow it in a data descriptor. Content that is compressed already is deflated at level 0, which only frames it
+	 * in stored blocks, as readers do not accept data descriptors on stored entries.
+	 */
+	private void writeInline(String entryName, long time, long sizeHint, boolean stored, EntrySource source) throws IOException {
+		byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+		long offset = out.count;
+		int flags = FLAG_UTF8 | FLAG_DESCRIPTOR;
+		int dosTime = dosTime(time);
+		boolean zip64 = sizeHint >= ZIP64_MAGIC;
+
+		writeInt(LOC_SIG);
+		writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+		writeShort(flags);
+		writeShort(DEFLATED);
+		writeInt(dosTime);
+		writeInt(0);
+		writeInt(zip64 ? ZIP64_MAGIC : 0);
+		writeInt(zip64 ? ZIP64_MAGIC : 0);
+		writeShort(name.length);
+		writeShort(zip64 ? 20 : 0);
+		out.write(name);
+		if (zip64) {
+			writeShort(0x0001);
+			writeShort(16);
+			writeLong(0);
+			writeLong(0);
+		}
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(stored ? Deflater.NO_COMPRESSION : level, true);
+		long start = out.count;
+		long size = 0;
+		try (InputStream in = open(source)) {
+			DeflaterOutputStream sink = new DeflaterOutputStream(new NonClosingOutputStream(out), deflater, BUFFER_SIZE);
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, n);
+				sink.write(buffer, 0, n);
+				size += n;
+			}
+			sink.finish();
+		} finally {
+			deflater.end();
+		}
+		long compressed = out.count - start;
+
+		writeInt(EXT_SIG);
+		writeInt(crc.getValue());
+		if (zip64 || size >= ZIP64_MAGIC || compressed >= ZIP64_MAGIC) {
+			writeLong(compressed);
+			writeLong(size);
+		} else {
+			writeInt(compressed);
+			writeInt(size);
+		}
+
+		written.add(new Written(name, flags, DEFLATED, dosTime, crc.getValue(), compressed, size, offset, false));
+		entryCount++;
+		bytesRead += size;
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		long start = out.count;
+		for (Written entry : written) {
+			boolean largeSize = entry.size >= ZIP64_MAGIC;
+			boolean largeCompressed = entry.compressed >= ZIP64_MAGIC;
+			boolean largeOffset = entry.offset >= ZIP64_MAGIC;
+			int extra = (largeSize ? 8 : 0) + (largeCompressed ? 8 : 0) + (largeOffset ? 8 : 0);
+			int version = extra > 0 ? VERSION_ZIP64 : VERSION;
+
+			writeInt(CEN_SIG);
+			writeShort(version);
+			writeShort(version);
+			writeShort(entry.flags);
+			writeShort(entry.method);
+			writeInt(entry.dosTime);
+			writeInt(entry.crc);
+			writeInt(largeCompressed ? ZIP64_MAGIC : entry.compressed);
+			writeInt(largeSize ? ZIP64_MAGIC : entry.size);
+			writeShort(entry.name.length);
+			writeShort(extra > 0 ? extra + 4 : 0);
+			writeShort(0);
+			writeShort(0);
+			writeShort(0);
+			writeInt(entry.directory ? DIRECTORY_ATTRIBUTE : 0);
+			writeInt(largeOffset ? ZIP64_MAGIC : entry.offset);
+			out.write(entry.name);
+			if (extra > 0) {
+				writeShort(0x0001);
+				writeShort(extra);
+				if (largeSize) {
+					writeLong(entry.size);
+				}
+				if (largeCompressed) {
+					writeLong(entry.compressed);
+				}
+				if (largeOffset) {
+					writeLong(entry.offset);
+				}
+			}
+		}
+		long end = out.count;
+		long length = end - start;
+		int count = written.size();
+
+		if (count >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || length >= ZIP64_MAGIC) {
+			writeInt(ZIP64_END_SIG);
+			writeLong(44);
+			writeShort(VERSION_ZIP64);
+			writeShort(VERSION_ZIP64);
+			writeInt(0);
+			writeInt(0);
+			writeLong(count);
+			writeLong(count);
+			writeLong(length);
+			writeLong(start);
+
+			writeInt(ZIP64_LOC_SIG);
+			writeInt(0);
+			writeLong(end);
+			writeInt(1);
+		}
+
+		writeInt(END_SIG);
+		writeShort(0);
+		writeShort(0);
+		writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+		writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+		writeInt(Math.min(length, ZIP64_MAGIC));
+		writeInt(Math.min(start, ZIP64_MAGIC));
+		writeShort(0);
+	}
+
+	/**
+	 * MS-DOS date and time, as the local time the archive is made in. Dates before 1980 cannot be represented.
+	 */
+	static int dosTime(long time) {
+		LocalDateTime d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+		if (d.getYear() < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (d.getYear() - 1980) << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16
+				| d.getHour() << 11 | d.getMinute() << 5 | d.getSecond() >> 1;
+	}
+
+	private void writeShort(int v) throws IOException {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+	}
+
+	private void writeInt(long v) throws IOException {
+		writeShort((int) (v & 0xffff));
+		writeShort((int) ((v >>> 16) & 0xffff));
+	}
+
+	private void writeLong(long v) throws IOException {
+		writeInt(v & ZIP64_MAGIC);
+		writeInt(v >>> 32);
+	}
+
+	private static final class Pending {
+		final String name;
+		final long time;
+		final boolean directory;
+		final boolean stored;
+		final Future<Spool> future;
+		final InputStream body;
+
+		Pending(String name, long time, boolean directory, boolean stored, Future<Spool> future, InputStream body) {
+			this.name = name;
+			this.time = time;
+			this.directory = directory;
+			this.stored = stored;
+			this.future = future;
+			this.body = body;
+		}
+	}
+
+	private static final class Written {
+		final byte[] name;
+		final int flags;
+		final int method;
+		final int dosTime;
+		final long crc;
+		final long compressed;
+		final long size;
+		final long offset;
+		final boolean directory;
+
+		Written(byte[] name, int flags, int method, int dosTime, long crc, long compressed, long size, long offset, boolean directory) {
+			this.name = name;
+			this.flags = flags;
+			this.method = method;
+			this.dosTime = dosTime;
+			this.crc = crc;
+			this.compressed = compressed;
+			this.size = size;
+			this.offset = offset;
+			this.directory = directory;
+		}
+	}
+
+	/**
+	 * Holds the bytes of one entry, in memory until they pass the threshold and in a temp file after that.
+	 */
+	private static final class Spool extends OutputStream {
+		static final Spool EMPTY = new Spool(0);
+
+		private final int threshold;
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private File file;
+		private OutputStream fileOut;
+		private long length = 0;
+		long crc;
+		long size;
+
+		Spool(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (fileOut == null && length + len > threshold) {
+				file = File.createTempFile("sakai_zip-", ".tmp");
+				file.deleteOnExit();
+				fileOut = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+				memory.writeTo(fileOut);
+				memory = null;
+			}
+			if (fileOut != null) {
+				fileOut.write(b, off, len);
+			} else {
+				memory.write(b, off, len);
+			}
+			length += len;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileOut != null) {
+				fileOut.close();
+			}
+		}
+
+		long length() {
+			return length;
+		}
+
+		void writeTo(OutputStream target) throws IOException {
+			if (file != null) {
+				try (InputStream in = new FileInputStream(file)) {
+					byte[] buf = new byte[BUFFER_SIZE];
+					int n;
+					while ((n = in.read(buf)) != -1) {
+						target.write(buf, 0, n);
+					}
+				}
+			} else if (memory != null) {
+				memory.writeTo(target);
+			}
+		}
+
+		void discard() {
+			if (this == EMPTY) {
+				return;
+			}
+			memory = null;
+			if (fileOut != null) {
+				try {
+					fileOut.close();
+				} catch (IOException e) {
+					// already closed
+				}
+			}
+			if (file != null && file.exists() && !file.delete()) {
+				log.warn("Failed to remove zip spool {}", file);
+			}
+		}
+	}
+
+	private static final class CountingOutputStream extends OutputStream {
+		private final OutputStream target;
+		long count = 0;
+
+		CountingOutputStream(OutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			target.close();
+		}
+	}
+
+	/**
+	 * Lets a DeflaterOutputStream be finished over the archive without closing it.
+	 */
+	private static final class NonClosingOutputStream extends OutputStream {
+		private final OutputStream target;
+
+		NonClosingOutputStream(OutputStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			target.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			target.write(b, off, len);
+		}
+
+		@Override
+		public void close() {
+			// the archive stays open
+		}
+	}
+}
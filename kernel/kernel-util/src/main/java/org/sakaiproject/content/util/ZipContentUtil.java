@@ -15,10 +15,10 @@
  */
 package org.sakaiproject.content.util;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -29,11 +29,19 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import javax.activation.MimetypesFileTypeMap;
 import javax.servlet.http.HttpServletResponse;
@@ -46,6 +54,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
+import org.sakaiproject.content.api.ContentEntity;
 import org.sakaiproject.content.cover.ContentHostingService;
 import org.sakaiproject.content.api.ContentResource;
 import org.sakaiproject.content.api.ContentResourceEdit;
@@ -55,9 +64,12 @@ import org.sakaiproject.entity.api.ResourcePropertiesEdit;
 import org.sakaiproject.event.api.NotificationService;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.exception.IdUsedException;
+import org.sakaiproject.exception.OverQuotaException;
 import org.sakaiproject.exception.PermissionException;
 import org.sakaiproject.exception.ServerOverloadException;
 import org.sakaiproject.exception.TypeException;
+import org.sakaiproject.thread_local.cover.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.tool.api.ToolSession;
 import org.sakaiproject.tool.cover.SessionManager;
 import org.sakaiproject.util.Resource;
@@ -67,7 +79,6 @@ import org.sakaiproject.util.ResourceLoader;
 @Slf4j
 public class ZipContentUtil {
 	private static final String ZIP_EXTENSION = ".zip";
-	private static final int BUFFER_SIZE = 32000;
 	private static final MimetypesFileTypeMap mime = new MimetypesFileTypeMap();
 	public static final String PREFIX = "resources.";
 	public static final String REQUEST = "request.";
@@ -79,6 +90,24 @@ public class ZipContentUtil {
 	 */
     public static final int MAX_ZIP_EXTRACT_FILES_DEFAULT = 1000;
 	private static Integer MAX_ZIP_EXTRACT_FILES;
+
+	/**
+	 * Content types stored without compression, as deflating them again costs time and saves nothing. An entry ending in /
+	 * matches every subtype.
+	 */
+	private static final String[] STORE_TYPES_DEFAULT = {
+			"image/jpeg", "image/png", "image/gif", "image/webp", "audio/", "video/",
+			"application/zip", "application/x-zip-compressed", "application/gzip", "application/x-gzip",
+			"application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar",
+			"application/vnd.openxmlformats-officedocument."
+	};
+	private static final long ASYNC_SIZE_DEFAULT = 500L * 1024 * 1024;
+	private static final int SPOOL_MEMORY_DEFAULT = 1024 * 1024;
+	private static final long INLINE_SIZE_DEFAULT = 100L * 1024 * 1024;
+
+	private static ExecutorService compressionPool;
+	private static ExecutorService folderPool;
+	private static final Map<String, CompressionProgress> COMPRESSIONS = new ConcurrentHashMap<>();
     
     private static final String DEFAULT_RESOURCECLASS = "org.sakaiproject.localization.util.ContentProperties";
     private static final String DEFAULT_RESOURCEBUNDLE = "org.sakaiproject.localization.bundle.content.content";
@@ -98,7 +127,7 @@ public class ZipContentUtil {
     }
 
     public void compressSelectedResources(String siteId, String siteTitle, List<String> selectedFolderIds, List<String> selectedFiles, HttpServletResponse response) {
-		Map<String, ContentResource> resourcesToZip = new HashMap<>();
+		Map<String, ContentResource> resourcesToZip = new LinkedHashMap<>();
 
 		try {
 			// Add any files in the selected folders to the files to be in the zip.
@@ -121,7 +150,7 @@ public class ZipContentUtil {
 			log.error(e.getMessage(), e);
 		}
 
-		try (OutputStream zipOut = response.getOutputStream(); ZipOutputStream out = new ZipOutputStream(zipOut)) {
+		try (OutputStream zipOut = response.getOutputStream(); ParallelZipWriter out = newZipWriter(zipOut, Deflater.DEFAULT_COMPRESSION)) {
 			// If in dropbox need to add the word Dropbox to the end of the zip filename - use the first entry in the resourcesToZip map to find if we are in the dropthe user ID.
 			if (!resourcesToZip.isEmpty()) {
 				String firstContentResourceId = resourcesToZip.entrySet().iterator().next().getKey();
@@ -150,32 +179,103 @@ public class ZipContentUtil {
 			log.error(e.getMessage(), e);
 		}
 	}
+
 	/**
-	 * Compresses a ContentCollection to a new zip archive with the same folder name
+	 * Compresses a ContentCollection to a new zip archive with the same folder name. Folders holding more than
+	 * content.zip.async.size bytes are compressed in the background, the user is told the archive is being made and it
+	 * appears in the folder once it is done. {@link #getCompressionProgress(String)} reports on a folder being compressed.
 	 * 
 	 * @param reference sakai entity reference
-	 * @throws Exception on failure
 	 */
     public void compressFolder(Reference reference) { 
-		File temp = null;
-		FileInputStream fis = null;
 		ToolSession toolSession = SessionManager.getCurrentToolSession();
+		String collectionId = reference.getId();
+		if (COMPRESSIONS.containsKey(collectionId)) {
+			addAlert(toolSession, rb.getString("zip_in_progress"));
+			return;
+		}
+
+		// Size what is to be compressed, holding a page of members at a time, it is walked again as it is written
+		long[] totals = new long[2];
 		try {
-			// Create the compressed archive in the filesystem
-			ZipOutputStream out = null;
+			ContentCollection collection = ContentHostingService.getCollection(collectionId);
+			walkContentCollection(collection, entity -> {
+				totals[0]++;
+				if (!entity.isCollection()) {
+					totals[1] += ((ContentResource) entity).getContentLength();
+				}
+			});
+		} catch (PermissionException pE) {
+			addAlert(toolSession, rb.getString("permission_error_zip"));
+			log.warn(pE.getMessage(), pE);
+			return;
+		} catch (Exception e) {
+			addAlert(toolSession, rb.getString("generic_error_zip"));
+			log.error(e.getMessage(), e);
+			return;
+		}
+
+		long totalBytes = totals[1];
+		CompressionProgress progress = new CompressionProgress((int) totals[0], totalBytes);
+		if (COMPRESSIONS.putIfAbsent(collectionId, progress) != null) {
+			addAlert(toolSession, rb.getString("zip_in_progress"));
+			return;
+		}
+
+		long asyncSize = ServerConfigurationService.getInstance().getLong("content.zip.async.size", ASYNC_SIZE_DEFAULT);
+		if (asyncSize <= 0 || totalBytes <= asyncSize) {
 			try {
-				temp = File.createTempFile("sakai_content-", ".tmp");
-				ContentCollection collection = ContentHostingService.getCollection(reference.getId());
-				out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(temp),BUFFER_SIZE),java.nio.charset.StandardCharsets.UTF_8);
-				out.setLevel(ServerConfigurationService.getInt("zip.compression.level", 1));
-				storeContentCollection(reference.getId(),collection,out);
+				compressFolder(reference, toolSession, progress);
 			} finally {
-				if (out != null) {
-					try {
-						out.close();
-					} catch (IOException e) {
-					}
+				COMPRESSIONS.remove(collectionId);
+			}
+			return;
+		}
+
+		Session session = SessionManager.getCurrentSession();
+		try {
+			getFolderPool().execute(() -> {
+				SessionManager.setCurrentSession(session);
+				SessionManager.setCurrentToolSession(toolSession);
+				try {
+					compressFolder(reference, toolSession, progress);
+				} finally {
+					COMPRESSIONS.remove(collectionId);
+					ThreadLocalManager.clear();
 				}
+			});
+			addAlert(toolSession, rb.getString("zip_in_progress"));
+		} catch (RuntimeException e) {
+			COMPRESSIONS.remove(collectionId);
+			addAlert(toolSession, rb.getString("generic_error_zip"));
+			log.error(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param collectionId the id of a collection
+	 * @return how far compressing this collection has got, or null if it is not being compressed
+	 */
+	public static CompressionProgress getCompressionProgress(String collectionId) {
+		return COMPRESSIONS.get(collectionId);
+	}
+
+	private void compressFolder(Reference reference, ToolSession toolSession, CompressionProgress progress) {
+		File temp = null;
+		FileInputStream fis = null;
+		try {
+			// Create the compressed archive in the filesystem, adding members as the collection is walked
+			ContentCollection collection = ContentHostingService.getCollection(reference.getId());
+			temp = File.createTempFile("sakai_content-", ".tmp");
+			try (ParallelZipWriter out = newZipWriter(new FileOutputStream(temp), ServerConfigurationService.getInt("zip.compression.level", 1))) {
+				progress.writer = out;
+				walkContentCollection(collection, member -> {
+					if (member.isCollection()) {
+						storeEmptyFolder(reference.getId(), (ContentCollection) member, out);
+					} else {
+						storeContentResource(reference.getId(), (ContentResource) member, out);
+					}
+				});
 			}
 			
 			
@@ -313,8 +413,10 @@ public class ZipContentUtil {
 					continue;
 				}
 				ZipFile zipFile = null;
+				ExtractBudget budget = null;
 				try {
 					zipFile = new ZipFile(temp, charset);
+					budget = new ExtractBudget(zipFile);
 					Enumeration<? extends ZipEntry> entries = zipFile.entries();
 					while (entries.hasMoreElements()) {
 						ZipEntry nextElement = entries.nextElement();
@@ -324,14 +426,23 @@ public class ZipContentUtil {
 							}
 							else {
 								if(!nextElement.getName().contains(".DS_Store")){
-									createContentResource(rootCollectionId, nextElement, zipFile);
+									createContentResource(rootCollectionId, nextElement, zipFile, budget);
 								}
 							}
 						}
 					}
 					extracted = true;
 					break;
+				} catch (OverQuotaException e) {
+					// each entry is checked against the quota as it is committed, there is no point trying another charset
+					log.warn("Stopped extracting archive {}, the site is over quota", referenceId);
+					throw e;
 				} catch (Exception e) {
+					if (budget != null && budget.exceeded) {
+						// the entries hold more than the archive declared, which was what the quota was checked against
+						log.warn("Stopped extracting archive {}, it expands to more than the {} bytes it declares", referenceId, budget.declared);
+						throw new OverQuotaException(resource.getReference());
+					}
 					log.error(e.getMessage(), e);
 					log.warn(String.format("Cannot extract archive %s with charset %s.", referenceId, charset));
 				} finally {
@@ -343,6 +454,8 @@ public class ZipContentUtil {
 			if (!extracted) {
 				log.warn(String.format("Cannot extract archives %s with any charset %s.", referenceId, getZipCharsets()));
 			}
+		} catch (OverQuotaException e) {
+			throw e;
 		} catch (Exception e) {
 			log.error(e.getMessage(), e);
 		} finally {
@@ -442,10 +555,11 @@ public class ZipContentUtil {
 	 * @param rootCollectionId
 	 * @param nextElement
 	 * @param zipFile
+	 * @param budget counts the bytes extracted from the archive
 	 * @throws Exception
 	 */
 	private void createContentResource(String rootCollectionId,
-			ZipEntry nextElement, ZipFile zipFile) throws Exception {
+			ZipEntry nextElement, ZipFile zipFile, ExtractBudget budget) throws Exception {
 		String resourceId = rootCollectionId + nextElement.getName();
 		String resourceName = extractName(nextElement.getName());
 		ContentResourceEdit resourceEdit;
@@ -456,7 +570,7 @@ public class ZipContentUtil {
 			log.debug("Content resource with ID " + resourceId + " exists. Editing instead.");
 			resourceEdit = ContentHostingService.editResource(resourceId);
 		}
-		resourceEdit.setContent(zipFile.getInputStream(nextElement));
+		resourceEdit.setContent(budget.count(zipFile.getInputStream(nextElement)));
 		resourceEdit.setContentType(mime.getContentType(resourceName));
 		ResourcePropertiesEdit props = resourceEdit.getPropertiesEdit();
 		props.addProperty(ResourcePropertiesEdit.PROP_DISPLAY_NAME, resourceName);
@@ -524,29 +638,32 @@ public class ZipContentUtil {
 	}
     
 	/**
-	 * Iterates the collection.getMembers() and streams content resources recursively to the ZipOutputStream
+	 * Walks the resources under a collection, and any empty folders, depth first. Only a page of members is held for each
+	 * level of folders, so large trees are never listed in memory.
 	 * 
-	 * @param rootId
 	 * @param collection
-	 * @param out
+	 * @param visitor given each resource and each empty collection found
 	 * @throws Exception
 	 */
-	private void storeContentCollection(String rootId, ContentCollection collection, ZipOutputStream out) throws Exception {
-		List<String> members = collection.getMembers();
-		if (members.isEmpty()) storeEmptyFolder(rootId,collection,out);
-		else {
-			for (String memberId: members) {
-				if (memberId.endsWith(Entity.SEPARATOR)) {
-					ContentCollection memberCollection = ContentHostingService.getCollection(memberId);
-					storeContentCollection(rootId,memberCollection,out);
-				} 
-				else {
-					ContentResource resource = ContentHostingService.getResource(memberId);
-					storeContentResource(rootId, resource, out);
-				}
+	private void walkContentCollection(ContentCollection collection, ContentVisitor visitor) throws Exception {
+		ContentMemberIterator it = new ContentMemberIterator(ContentHostingService.getInstance(), collection.getId());
+		if (!it.hasNext()) {
+			visitor.visit(collection);
+			return;
+		}
+		while (it.hasNext()) {
+			ContentEntity member = it.next();
+			if (member.isCollection()) {
+				walkContentCollection((ContentCollection) member, visitor);
+			} else {
+				visitor.visit(member);
 			}
 		}
 	}
+
+	private interface ContentVisitor {
+		void visit(ContentEntity entity) throws Exception;
+	}
 	
 	/**
 	 * Add an empty folder to the zip
@@ -556,8 +673,12 @@ public class ZipContentUtil {
 	 * @param out
 	 * @throws Exception
 	 */
-	private void storeEmptyFolder(String rootId, ContentCollection resource, ZipOutputStream out) throws Exception {
+	private void storeEmptyFolder(String rootId, ContentCollection resource, ParallelZipWriter out) throws Exception {
 		String folderName = resource.getId().substring(rootId.length(),resource.getId().length());
+		if (folderName.isEmpty()) {
+			// the folder being compressed is itself empty
+			return;
+		}
 		if(ContentHostingService.isInDropbox(rootId) && ServerConfigurationService.getBoolean("dropbox.zip.haveDisplayname", true)) {
 			try {
 				folderName = getContainingFolderDisplayName(rootId, folderName);
@@ -566,20 +687,18 @@ public class ZipContentUtil {
 				return;
 			}
 		}
-		ZipEntry zipEntry = new ZipEntry(folderName);
-		out.putNextEntry(zipEntry);
-		out.closeEntry();
+		out.addDirectory(folderName, System.currentTimeMillis());
 	}
 
 	/**
-	 * Streams content resource to the ZipOutputStream
+	 * Queues a content resource to be streamed into the archive, the body is opened here and read and compressed on the zip pool
 	 * 
 	 * @param rootId
 	 * @param resource
 	 * @param out
 	 * @throws Exception
 	 */
-	private void storeContentResource(String rootId, ContentResource resource, ZipOutputStream out) throws Exception {
+	private void storeContentResource(String rootId, ContentResource resource, ParallelZipWriter out) throws Exception {
 		String filename = resource.getId().substring(rootId.length(),resource.getId().length());
 		//Inorder to have username as the folder name rather than having eids
 		if(ContentHostingService.isInDropbox(rootId) && ServerConfigurationService.getBoolean("dropbox.zip.haveDisplayname", true)) {
@@ -599,20 +718,68 @@ public class ZipContentUtil {
 				return;
 			}
 		}
-		ZipEntry zipEntry = new ZipEntry(filename);
-		zipEntry.setSize(resource.getContentLength());
-		out.putNextEntry(zipEntry);
-		InputStream contentStream = null;
-		try {
-			contentStream = resource.streamContent();
-			IOUtils.copy(contentStream, out);
-		} finally {
-			if (contentStream != null) {
-				contentStream.close();
+		out.addEntry(filename, System.currentTimeMillis(), resource.getContentLength(), isCompressed(resource.getContentType()), resource::streamContent);
+	}
+
+	private ParallelZipWriter newZipWriter(OutputStream out, int level) {
+		return new ParallelZipWriter(out, getCompressionPool(), level, getCompressionThreads() * 2,
+				ServerConfigurationService.getInt("content.zip.spool.memory", SPOOL_MEMORY_DEFAULT),
+				ServerConfigurationService.getInstance().getLong("content.zip.inline.size", INLINE_SIZE_DEFAULT));
+	}
+
+	/**
+	 * @return true if content of this type is compressed already, and so is better stored than deflated
+	 */
+	static boolean isCompressed(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		String[] storeTypes = ServerConfigurationService.getStrings("content.zip.store.types");
+		if (storeTypes == null) {
+			storeTypes = STORE_TYPES_DEFAULT;
+		}
+		String type = contentType.toLowerCase();
+		for (String storeType : storeTypes) {
+			if (storeType.endsWith("/") || storeType.endsWith(".") ? type.startsWith(storeType) : type.equals(storeType)) {
+				return true;
 			}
 		}
+		return false;
 	}
-	
+
+	private static int getCompressionThreads() {
+		return Math.max(1, ServerConfigurationService.getInt("content.zip.threads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+	}
+
+	private static synchronized ExecutorService getCompressionPool() {
+		if (compressionPool == null) {
+			int threads = getCompressionThreads();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreads("zip-compress-"));
+			pool.allowCoreThreadTimeOut(true);
+			compressionPool = pool;
+		}
+		return compressionPool;
+	}
+
+	private static synchronized ExecutorService getFolderPool() {
+		if (folderPool == null) {
+			int threads = Math.max(1, ServerConfigurationService.getInt("content.zip.async.threads", 2));
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreads("zip-folder-"));
+			pool.allowCoreThreadTimeOut(true);
+			folderPool = pool;
+		}
+		return folderPool;
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
 	private String extractZipCollectionPrefix(ContentResource resource) {
 		String idPrefix = resource.getContainingCollection().getId() + 
 			extractZipCollectionName(resource) +
@@ -665,4 +832,85 @@ public class ZipContentUtil {
 
 	}
 
+	/**
+	 * How far compressing a folder has got.
+	 */
+	public static class CompressionProgress {
+		private final int totalEntries;
+		private final long totalBytes;
+		private volatile ParallelZipWriter writer;
+
+		CompressionProgress(int totalEntries, long totalBytes) {
+			this.totalEntries = totalEntries;
+			this.totalBytes = totalBytes;
+		}
+
+		public int getTotalEntries() {
+			return totalEntries;
+		}
+
+		public long getTotalBytes() {
+			return totalBytes;
+		}
+
+		public int getCompletedEntries() {
+			ParallelZipWriter w = writer;
+			return w == null ? 0 : w.getEntryCount();
+		}
+
+		public long getCompletedBytes() {
+			ParallelZipWriter w = writer;
+			return w == null ? 0 : w.getBytesRead();
+		}
+	}
+
+	/**
+	 * Counts the bytes actually read out of an archive against the total its entries declare. The quota was checked against
+	 * the declared total before extraction started, so an archive that expands to more than that is stopped.
+	 */
+	private static class ExtractBudget {
+		private final long declared;
+		private long read = 0;
+		private boolean exceeded = false;
+
+		ExtractBudget(ZipFile zipFile) {
+			long total = 0;
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				total += Math.max(0, entries.nextElement().getSize());
+			}
+			this.declared = total;
+		}
+
+		InputStream count(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b != -1) {
+						add(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						add(n);
+					}
+					return n;
+				}
+			};
+		}
+
+		private void add(long n) throws IOException {
+			read += n;
+			if (read > declared) {
+				exceeded = true;
+				throw new IOException("Archive expands to more than the " + declared + " bytes it declares");
+			}
+		}
+	}
+
 }
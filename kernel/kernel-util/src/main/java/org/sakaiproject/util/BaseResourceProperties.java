@@ -21,6 +21,8 @@
 
 package org.sakaiproject.util;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Date;
@@ -32,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Stack;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.component.cover.ComponentManager;
@@ -73,6 +76,9 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	/** If the full properties have not yet been read. */
 	protected transient boolean m_lazy = false;
 
+	/** Source of properties that have been read but not yet decoded, null once they are in m_props. */
+	private transient volatile Supplier<Map<String, Object>> m_deferred = null;
+
 	/**
 	 * Construct.
 	 */
@@ -128,13 +134,13 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				if ("list".equals(element.getAttribute("list")))
 				{
 					// accumulate multiple values in a list
-					Object current = m_props.get(name);
+					Object current = props().get(name);
 
 					// if we don't have a value yet, make a list to hold this one
 					if (current == null)
 					{
 						List<String> values = new ArrayList<>();
-						m_props.put(name, values);
+						props().put(name, values);
 						values.add(value);
 					}
 
@@ -152,7 +158,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				}
 				else
 				{
-					m_props.put(name, value);
+					props().put(name, value);
 				}
 			}
 		}
@@ -172,11 +178,11 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	{
 		Element properties = doc.createElement("properties");
 		((Element) stack.peek()).appendChild(properties);
-		Enumeration props = m_props.keys();
+		Enumeration props = props().keys();
 		while (props.hasMoreElements())
 		{
 			String name = (String) props.nextElement();
-			Object value = m_props.get(name);
+			Object value = props().get(name);
 			if (value instanceof String)
 			{
 				Element propElement = doc.createElement("property");
@@ -221,6 +227,29 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		return m_lazy;
 	}
 
+	/**
+	 * Access the property table, decoding any deferred serialized properties first.
+	 * 
+	 * @return The hashtable of properties.
+	 */
+	protected Hashtable<String, Object> props()
+	{
+		if (m_deferred != null)
+		{
+			synchronized (this)
+			{
+				Supplier<Map<String, Object>> deferred = m_deferred;
+				if (deferred != null)
+				{
+					m_props.clear();
+					m_props.putAll(deferred.get());
+					m_deferred = null;
+				}
+			}
+		}
+		return m_props;
+	}
+
 	/**
 	 * Access an iterator on the names of the defined properties (Strings).
 	 * 
@@ -229,24 +258,24 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public Iterator<String> getPropertyNames()
 	{
-		if (m_props.size() == 0)
+		if (props().size() == 0)
 		{
 			return new EmptyIterator();
 		}
 
-		return new EnumerationIterator(m_props.keys());
+		return new EnumerationIterator(props().keys());
 	}
 
 	@Override
 	public int size()
 	{
-		return m_props.size();
+		return props().size();
 	}
 
 	@Override
 	public boolean isEmpty()
 	{
-		return m_props.isEmpty();
+		return props().isEmpty();
 	}
 
 	/**
@@ -259,7 +288,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public String getProperty(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 		if (value instanceof String) return (String) value;
 
 		return null;
@@ -271,7 +300,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public Object get(String name)
 	{
-		return m_props.get(name);
+		return props().get(name);
 	}
 
 	/**
@@ -284,7 +313,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public List<String> getPropertyList(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 		if (value == null) return null;
 
 		if (value instanceof String)
@@ -334,7 +363,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public String getPropertyFormatted(String name)
 	{
-		Object value = m_props.get(name);
+		Object value = props().get(name);
 
 		// if missing, return blank
 		if (value == null) return "";
@@ -896,7 +925,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		// protect against a null put
 		if (value == null) value = "";
 
-		m_props.put(name, value);
+		props().put(name, value);
 	}
 
 	/**
@@ -914,13 +943,13 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 		if (value == null) value = "";
 
 		// accumulate multiple values in a list
-		Object current = m_props.get(name);
+		Object current = props().get(name);
 
 		// if we don't have a value yet, make a list to hold this one
 		if (current == null)
 		{
 			List values = new ArrayList<>();
-			m_props.put(name, values);
+			props().put(name, values);
 			values.add(value);
 		}
 
@@ -958,7 +987,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				// Strings are immutable so can be placed directly in
 				if (value instanceof String)
 				{
-					m_props.put(name, value);
+					props().put(name, value);
 				}
 				
 				// deep copy the list
@@ -966,7 +995,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 				{
 					List list = new ArrayList<>();
 					list.addAll((List) value);
-					m_props.put(name, list);					
+					props().put(name, list);					
 				}
 			}
 		}
@@ -990,11 +1019,11 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 			{
 				List list = new ArrayList<>();
 				list.addAll((List) value);
-				m_props.put(name, list);
+				props().put(name, list);
 			}
 			else
 			{
-				m_props.put(name, value);
+				props().put(name, value);
 			}
 		}
 	}
@@ -1005,6 +1034,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public void clear()
 	{
+		m_deferred = null;
 		m_props.clear();
 	}
 
@@ -1017,7 +1047,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public void removeProperty(String name)
 	{
-		m_props.remove(name);
+		props().remove(name);
 	}
 
 	/**
@@ -1076,14 +1106,14 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 					if ("list".equals(attributes.getValue("list")))
 					{
 						// accumulate multiple values in a list
-						Object current = m_props.get(name);
+						Object current = props().get(name);
 
 						// if we don't have a value yet, make a list to hold
 						// this one
 						if (current == null)
 						{
 							List values = new ArrayList<>();
-							m_props.put(name, values);
+							props().put(name, values);
 							values.add(value);
 						}
 
@@ -1101,7 +1131,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 					}
 					else
 					{
-						m_props.put(name, value);
+						props().put(name, value);
 					}
 				}
 			}
@@ -1116,7 +1146,7 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	public Map<String, Object> getSerializableProperties()
 	{
 		Map<String, Object>  m = new HashMap<String, Object>();
-		m.putAll(m_props);
+		m.putAll(props());
 		return m;
 	}
 
@@ -1126,8 +1156,27 @@ public class BaseResourceProperties implements ResourceProperties, SerializableP
 	@Override
 	public void setSerializableProperties(Map<String, Object> properties)
 	{
+		m_deferred = null;
 		m_props.clear();
 		m_props.putAll(properties);
 		
 	}
+
+	/**
+	 * Hold on to the serialized properties and only decode them when a property is first read or written.
+	 * 
+	 * @see org.sakaiproject.entity.api.serialize.SerializablePropertiesAccess#setDeferredSerializableProperties(java.util.function.Supplier)
+	 */
+	@Override
+	public void setDeferredSerializableProperties(Supplier<Map<String, Object>> properties)
+	{
+		m_props.clear();
+		m_deferred = properties;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		props();
+		out.defaultWriteObject();
+	}
 }
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.sakaiproject.content.api.ContentEntity;
+import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.content.util.ContentMemberIterator;
+import org.sakaiproject.exception.PermissionException;
+
+public class ContentMemberIteratorTest {
+
+	private ContentEntity entity(String id) {
+		ContentEntity entity = mock(ContentEntity.class);
+		when(entity.getId()).thenReturn(id);
+		return entity;
+	}
+
+	private List<String> ids(ContentMemberIterator it) {
+		List<String> ids = new ArrayList<>();
+		it.forEachRemaining(e -> ids.add(e.getId()));
+		return ids;
+	}
+
+	@Test
+	public void testPagesFollowTheLastId() throws Exception {
+		ContentHostingService chs = mock(ContentHostingService.class);
+		List<ContentEntity> first = Arrays.asList(entity("/c/a/"), entity("/c/b/"));
+		List<ContentEntity> second = Arrays.asList(entity("/c/x"));
+		when(chs.getMemberResources("/c/", null, 2)).thenReturn(first);
+		when(chs.getMemberResources("/c/", "/c/b/", 2)).thenReturn(second);
+		when(chs.getMemberResources("/c/", "/c/x", 2)).thenReturn(Collections.emptyList());
+
+		assertEquals(Arrays.asList("/c/a/", "/c/b/", "/c/x"), ids(new ContentMemberIterator(chs, "/c/", 2)));
+	}
+
+	@Test
+	public void testEmptyCollection() throws Exception {
+		ContentHostingService chs = mock(ContentHostingService.class);
+		when(chs.getMemberResources("/c/", null, 10)).thenReturn(Collections.emptyList());
+
+		ContentMemberIterator it = new ContentMemberIterator(chs, "/c/", 10);
+		assertFalse(it.hasNext());
+		verify(chs).getMemberResources("/c/", null, 10);
+	}
+
+	@Test
+	public void testStopsWhenAccessIsLost() throws Exception {
+		ContentHostingService chs = mock(ContentHostingService.class);
+		List<ContentEntity> first = Arrays.asList(entity("/c/a"));
+		when(chs.getMemberResources("/c/", null, 1)).thenReturn(first);
+		when(chs.getMemberResources("/c/", "/c/a", 1)).thenThrow(new PermissionException("user", "content.read", "/c/"));
+
+		assertEquals(Arrays.asList("/c/a"), ids(new ContentMemberIterator(chs, "/c/", 1)));
+	}
+
+	@Test(expected = PermissionException.class)
+	public void testFirstPageChecksAccess() throws Exception {
+		ContentHostingService chs = mock(ContentHostingService.class);
+		when(chs.getMemberResources(eq("/c/"), isNull(), anyInt())).thenThrow(new PermissionException("user", "content.read", "/c/"));
+
+		new ContentMemberIterator(chs, "/c/");
+	}
+}
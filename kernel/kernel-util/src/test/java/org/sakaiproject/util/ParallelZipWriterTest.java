@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.content.util.ParallelZipWriter;
+
+public class ParallelZipWriterTest {
+
+	private ExecutorService pool;
+
+	private byte[] text;
+
+	private byte[] random;
+
+	@Before
+	public void setUp() {
+		pool = Executors.newFixedThreadPool(3);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append("line ").append(i).append('\n');
+		}
+		text = sb.toString().getBytes(StandardCharsets.UTF_8);
+		random = new byte[70000];
+		new Random(42).nextBytes(random);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	private File write(int memoryThreshold, long inlineThreshold) throws IOException {
+		File file = File.createTempFile("parallel-zip-test", ".zip");
+		file.deleteOnExit();
+		try (ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(file), pool, 6, 2, memoryThreshold, inlineThreshold)) {
+			assertTrue(out.addEntry("a/text.txt", System.currentTimeMillis(), text.length, false, () -> new ByteArrayInputStream(text)));
+			assertTrue(out.addEntry("a/random.jpg", System.currentTimeMillis(), random.length, true, () -> new ByteArrayInputStream(random)));
+			assertTrue(out.addDirectory("empty", System.currentTimeMillis()));
+			assertTrue(out.addEntry("b/été.txt", System.currentTimeMillis(), 0, false, () -> new ByteArrayInputStream(new byte[0])));
+			assertFalse(out.addEntry("a/text.txt", System.currentTimeMillis(), text.length, false, () -> new ByteArrayInputStream(text)));
+		}
+		return file;
+	}
+
+	private void assertReadable(File file) throws IOException {
+		List<String> names = new ArrayList<>();
+		try (ZipFile zip = new ZipFile(file)) {
+			Enumeration<? extends ZipEntry> entries = zip.entries();
+			while (entries.hasMoreElements()) {
+				names.add(entries.nextElement().getName());
+			}
+			assertArrayEquals(text, IOUtils.toByteArray(zip.getInputStream(zip.getEntry("a/text.txt"))));
+			assertArrayEquals(random, IOUtils.toByteArray(zip.getInputStream(zip.getEntry("a/random.jpg"))));
+			assertTrue(zip.getEntry("empty/").isDirectory());
+			assertEquals(0, zip.getEntry("b/été.txt").getSize());
+		}
+		assertEquals(4, names.size());
+		assertEquals("a/text.txt", names.get(0));
+		assertEquals("b/été.txt", names.get(3));
+
+		try (ZipInputStream in = new ZipInputStream(new FileInputStream(file))) {
+			assertEquals("a/text.txt", in.getNextEntry().getName());
+			assertArrayEquals(text, IOUtils.toByteArray(in));
+			assertEquals("a/random.jpg", in.getNextEntry().getName());
+			assertArrayEquals(random, IOUtils.toByteArray(in));
+			assertEquals("empty/", in.getNextEntry().getName());
+			assertEquals("b/été.txt", in.getNextEntry().getName());
+			assertNull(in.getNextEntry());
+		}
+	}
+
+	@Test
+	public void testSpooledInMemory() throws IOException {
+		File file = write(1024 * 1024, 0);
+		assertReadable(file);
+		try (ZipFile zip = new ZipFile(file)) {
+			assertEquals(ZipEntry.STORED, zip.getEntry("a/random.jpg").getMethod());
+			assertEquals(ZipEntry.DEFLATED, zip.getEntry("a/text.txt").getMethod());
+			assertTrue(zip.getEntry("a/text.txt").getCompressedSize() < text.length);
+		}
+	}
+
+	@Test
+	public void testSpooledToFile() throws IOException {
+		assertReadable(write(1024, 0));
+	}
+
+	@Test
+	public void testInline() throws IOException {
+		File file = write(1024 * 1024, 1000);
+		assertReadable(file);
+		try (ZipFile zip = new ZipFile(file)) {
+			// inline entries are always deflated as they carry a data descriptor
+			assertEquals(ZipEntry.DEFLATED, zip.getEntry("a/random.jpg").getMethod());
+		}
+	}
+
+	@Test
+	public void testFailedEntry() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ParallelZipWriter out = new ParallelZipWriter(bytes, pool, 6, 2, 1024, 0);
+		out.addEntry("ok.txt", System.currentTimeMillis(), text.length, false, () -> new ByteArrayInputStream(text));
+		out.addEntry("broken.txt", System.currentTimeMillis(), 10, false, () -> {
+			throw new IOException("gone");
+		});
+		try {
+			out.finish();
+			fail("Entry failure should stop the archive");
+		} catch (IOException e) {
+			// expected
+		}
+		out.close();
+		try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			assertEquals("ok.txt", in.getNextEntry().getName());
+		}
+	}
+
+	@Test
+	public void testOpenedOnCallingThread() throws IOException {
+		Thread caller = Thread.currentThread();
+		List<Thread> openedOn = new ArrayList<>();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ParallelZipWriter out = new ParallelZipWriter(bytes, pool, 6, 2, 1024, 0)) {
+			for (int i = 0; i < 5; i++) {
+				out.addEntry("f" + i, System.currentTimeMillis(), text.length, false, () -> {
+					openedOn.add(Thread.currentThread());
+					return new ByteArrayInputStream(text);
+				});
+			}
+		}
+		assertEquals(5, openedOn.size());
+		for (Thread thread : openedOn) {
+			assertEquals(caller, thread);
+		}
+	}
+
+	@Test
+	public void testEntryCount() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ParallelZipWriter out = new ParallelZipWriter(bytes, pool, 1, 4, 1024, 0)) {
+			for (int i = 0; i < 20; i++) {
+				out.addEntry("f" + i, System.currentTimeMillis(), text.length, false, () -> new ByteArrayInputStream(text));
+			}
+			out.finish();
+			assertEquals(20, out.getEntryCount());
+			assertEquals(20L * text.length, out.getBytesRead());
+		}
+		int n = 0;
+		try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+				assertEquals("f" + n++, e.getName());
+				assertArrayEquals(text, IOUtils.toByteArray(in));
+			}
+		}
+		assertEquals(20, n);
+	}
+}
@@ -49,6 +49,7 @@ import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.event.api.UsageSession;
 import org.sakaiproject.event.cover.UsageSessionService;
 import org.sakaiproject.exception.IdUnusedException;
@@ -96,6 +97,7 @@ import org.sakaiproject.portal.charon.handlers.ToolResetHandler;
 import org.sakaiproject.portal.charon.handlers.WorksiteHandler;
 import org.sakaiproject.portal.charon.handlers.WorksiteResetHandler;
 import org.sakaiproject.portal.charon.handlers.XLoginHandler;
+import org.sakaiproject.portal.charon.site.PortalNavigationCache;
 import org.sakaiproject.portal.charon.site.PortalSiteHelperImpl;
 import org.sakaiproject.portal.render.api.RenderResult;
 import org.sakaiproject.portal.render.cover.ToolRenderService;
@@ -203,6 +205,10 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
     
 	private PortalSiteHelper siteHelper = null;
 
+	private PortalNavigationCache navigationCache = null;
+
+	private ToolRenderTimer toolRenderTimer = null;
+
 
 	// private HashMap<String, PortalHandler> handlerMap = new HashMap<String,
 	// PortalHandler>();
@@ -264,6 +270,18 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 		log.info("destroy()");
 		portalService.removePortal(this);
 
+		if (navigationCache != null)
+		{
+			log.info("destroy(): {}", navigationCache);
+			navigationCache.destroy();
+			navigationCache = null;
+		}
+
+		if (toolRenderTimer != null)
+		{
+			log.info("destroy(): {}", toolRenderTimer);
+		}
+
 		super.destroy();
 	}
 
@@ -758,13 +776,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 			String doPreFetch  = placement.getConfig().getProperty(Portal.JSR_168_PRE_RENDER);
 			if ( ! "false".equals(doPreFetch) ) 
 			{
-				try {
-					renderResult.getContent();
-				} catch (Throwable t) {
-					ErrorReporter err = new ErrorReporter();
-					String str = err.reportFragment(req, res, t);
-					renderResult.setContent(str);
-				}
+				toolRenderTimer.render(placement, renderResult, req, res);
 			}
 
 			toolMap.put("toolPlacementIDJS", "_self");
@@ -2022,7 +2034,20 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 
 		boolean findPageAliases = ServerConfigurationService.getBoolean("portal.use.page.aliases", false);
 
-		siteHelper = new PortalSiteHelperImpl(this, findPageAliases);
+		PortalSiteHelperImpl portalSiteHelper = new PortalSiteHelperImpl(this, findPageAliases);
+		if (ServerConfigurationService.getBoolean("portal.navigation.cache", false))
+		{
+			navigationCache = new PortalNavigationCache(
+					ServerConfigurationService.getInt("portal.navigation.cache.freshSeconds", 60),
+					ServerConfigurationService.getInt("portal.navigation.cache.staleSeconds", 60),
+					ServerConfigurationService.getBoolean("portal.navigation.cache.staleWhileRevalidate", true),
+					ServerConfigurationService.getInt("portal.navigation.cache.maxEntries", 5000));
+			navigationCache.init(ComponentManager.get(EventTrackingService.class));
+			portalSiteHelper.setNavigationCache(navigationCache);
+		}
+		siteHelper = portalSiteHelper;
+
+		toolRenderTimer = new ToolRenderTimer(ServerConfigurationService.getInt("portal.render.slowSeconds", 10));
 
 		portalService = org.sakaiproject.portal.api.cover.PortalService.getInstance();
 		securityService = (SecurityService) ComponentManager.get("org.sakaiproject.authz.api.SecurityService");
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.portal.charon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.sakaiproject.portal.render.api.RenderResult;
+import org.sakaiproject.portal.util.ErrorReporter;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pre-renders the content of portlet tools, timing each one. The time each tool took is kept in a request attribute,
+ * and totals are kept for the portal.
+ * <p>
+ * Renders are done one at a time on the request thread. Portlet and fragment renders both dispatch through the
+ * container's request and response, which can not be shared between threads, and an iframe render only formats
+ * markup, so there is nothing that could safely be rendered concurrently.
+ */
+@Slf4j
+public class ToolRenderTimer
+{
+	/** Request attribute holding the render time in milliseconds of each tool rendered for the request, by placement id. */
+	public static final String TOOL_RENDER_TIMES = "org.sakaiproject.portal.charon.toolRenderTimes";
+
+	private final long slowMillis;
+
+	private final LongAdder rendered = new LongAdder();
+	private final LongAdder renderMillis = new LongAdder();
+	private final LongAdder slow = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * @param slowSeconds
+	 *        Tools that take longer than this to render are logged.
+	 */
+	public ToolRenderTimer(int slowSeconds)
+	{
+		slowMillis = slowSeconds * 1000L;
+	}
+
+	/**
+	 * Render the content of a tool, replacing it with an error fragment if the render fails.
+	 *
+	 * @param placement
+	 *        The tool placement.
+	 * @param result
+	 *        The render result to get the content of.
+	 */
+	public void render(ToolConfiguration placement, RenderResult result, HttpServletRequest req, HttpServletResponse res)
+	{
+		long start = System.currentTimeMillis();
+		try
+		{
+			result.getContent();
+		}
+		catch (Throwable t)
+		{
+			failed.increment();
+			result.setContent(new ErrorReporter().reportFragment(req, res, t));
+		}
+		finally
+		{
+			long elapsed = System.currentTimeMillis() - start;
+			renderTimes(req).put(placement.getId(), elapsed);
+			rendered.increment();
+			renderMillis.add(elapsed);
+			if (elapsed > slowMillis)
+			{
+				slow.increment();
+				log.warn("Tool {} ({}) took {}ms to render", placement.getId(), placement.getToolId(), elapsed);
+			}
+			else
+			{
+				log.debug("Rendered {} ({}) in {}ms", placement.getId(), placement.getToolId(), elapsed);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Long> renderTimes(HttpServletRequest req)
+	{
+		Map<String, Long> times = (Map<String, Long>) req.getAttribute(TOOL_RENDER_TIMES);
+		if (times == null)
+		{
+			times = new ConcurrentHashMap<>();
+			req.setAttribute(TOOL_RENDER_TIMES, times);
+		}
+		return times;
+	}
+
+	public long getRendered()
+	{
+		return rendered.sum();
+	}
+
+	public long getSlow()
+	{
+		return slow.sum();
+	}
+
+	public long getFailed()
+	{
+		return failed.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		long count = getRendered();
+		return "ToolRenderTimer[rendered: " + count + " average ms: " + (count == 0 ? 0 : renderMillis.sum() / count)
+				+ " slow: " + getSlow() + " failed: " + getFailed() + "]";
+	}
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.portal.charon.site;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.user.api.PreferencesService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the site navigation built for each user, so a portal page render doesn't rebuild it from the sites, realms and
+ * permissions on every request. Entries are dropped (or, with stale-while-revalidate, marked stale) when an event says
+ * one of their sites, its realm, or the user's preferences changed, and otherwise go stale after a while.
+ * A stale entry is rebuilt by the next request for it; with stale-while-revalidate, requests for it that come in while
+ * that rebuild is running are given the stale entry rather than building it again.
+ */
+@Slf4j
+public class PortalNavigationCache implements Observer
+{
+	private static final String SITE_PREFIX = SiteService.REFERENCE_ROOT + "/";
+	private static final String REALM_PREFIX = AuthzGroupService.REFERENCE_ROOT + "/";
+	private static final String PREFS_PREFIX = PreferencesService.REFERENCE_ROOT + "/";
+
+	private final long freshMillis;
+	private final long staleMillis;
+	private final boolean staleWhileRevalidate;
+
+	private final Map<String, Entry> entries;
+
+	/** Counts invalidations, so a build that overlaps one isn't cached as fresh. */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder invalidated = new LongAdder();
+
+	private EventTrackingService eventTrackingService;
+
+	/**
+	 * @param freshSeconds
+	 *        How long an entry is used before it is rebuilt.
+	 * @param staleSeconds
+	 *        How long past that a stale entry may still be given out while it is rebuilt, with stale-while-revalidate.
+	 * @param staleWhileRevalidate
+	 *        true to give out stale entries while they are rebuilt, and to mark entries stale on events rather than drop them.
+	 * @param maxEntries
+	 *        The most entries to hold, the least recently used are dropped past this.
+	 */
+	public PortalNavigationCache(int freshSeconds, int staleSeconds, boolean staleWhileRevalidate, final int maxEntries)
+	{
+		this.freshMillis = freshSeconds * 1000L;
+		this.staleMillis = staleSeconds * 1000L;
+		this.staleWhileRevalidate = staleWhileRevalidate;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+			{
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Start listening for the events that invalidate entries.
+	 */
+	public void init(EventTrackingService eventTrackingService)
+	{
+		this.eventTrackingService = eventTrackingService;
+		eventTrackingService.addObserver(this);
+	}
+
+	public void destroy()
+	{
+		if (eventTrackingService != null)
+		{
+			eventTrackingService.deleteObserver(this);
+		}
+		clear();
+	}
+
+	/**
+	 * Get the navigation for a key, building it if not cached or stale.
+	 *
+	 * @param key
+	 *        Everything the navigation depends on other than the sites, starting with the user id.
+	 * @param userId
+	 *        The user the navigation is for.
+	 * @param siteIds
+	 *        The sites in the navigation, in order.
+	 * @param builder
+	 *        Builds the navigation.
+	 * @return a copy of the navigation, which the caller may change.
+	 */
+	public List<Map> get(String key, String userId, List<String> siteIds, Supplier<List<Map>> builder)
+	{
+		Entry entry;
+		synchronized (entries)
+		{
+			entry = entries.get(key);
+		}
+
+		if (entry != null && entry.siteIds.equals(siteIds))
+		{
+			long age = now() - entry.built;
+			if (!entry.stale && age < freshMillis)
+			{
+				hits.increment();
+				return copy(entry.navigation);
+			}
+			if (staleWhileRevalidate && age < freshMillis + staleMillis && !entry.refreshing.compareAndSet(false, true))
+			{
+				// someone else is rebuilding it
+				staleHits.increment();
+				return copy(entry.navigation);
+			}
+		}
+		else
+		{
+			entry = null;
+		}
+
+		misses.increment();
+		long before = invalidations.get();
+		List<Map> navigation;
+		try
+		{
+			navigation = builder.get();
+		}
+		finally
+		{
+			if (entry != null) entry.refreshing.set(false);
+		}
+
+		Entry built = new Entry(userId, new ArrayList<>(siteIds), navigation, now());
+		// an event during the build may not be reflected in it
+		built.stale = invalidations.get() != before;
+		synchronized (entries)
+		{
+			entries.put(key, built);
+		}
+		return copy(navigation);
+	}
+
+	@Override
+	public void update(Observable o, Object arg)
+	{
+		if (!(arg instanceof Event)) return;
+		Event event = (Event) arg;
+		String type = event.getEvent();
+		String resource = event.getResource();
+		if (type == null || resource == null) return;
+
+		switch (type)
+		{
+			case SiteService.SECURE_UPDATE_SITE:
+			case SiteService.SECURE_UPDATE_SITE_MEMBERSHIP:
+			case SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP:
+			case SiteService.SECURE_REMOVE_SITE:
+			case SiteService.SITE_ROLE_SWAP:
+				invalidateSite(siteId(resource, SITE_PREFIX));
+				break;
+			case AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP:
+			case AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP:
+			case AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP:
+			case AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP:
+			case AuthzGroupService.SECURE_UNJOIN_AUTHZ_GROUP:
+				if (resource.startsWith(REALM_PREFIX + SITE_PREFIX))
+				{
+					invalidateSite(siteId(resource, REALM_PREFIX + SITE_PREFIX));
+				}
+				else if (resource.startsWith(REALM_PREFIX + "!"))
+				{
+					// a template realm, which any site may draw its roles from
+					invalidate(e -> true);
+				}
+				break;
+			case PreferencesService.SECURE_EDIT_PREFS:
+			case PreferencesService.SECURE_ADD_PREFS:
+				if (resource.startsWith(PREFS_PREFIX))
+				{
+					invalidateUser(resource.substring(PREFS_PREFIX.length()));
+				}
+				break;
+			case SiteService.EVENT_SITE_VISIT_DENIED:
+				invalidateUser(event.getUserId());
+				break;
+			default:
+				// nothing else changes the navigation
+		}
+	}
+
+	/**
+	 * Invalidate the entries listing a site.
+	 */
+	public void invalidateSite(String siteId)
+	{
+		if (siteId != null) invalidate(e -> e.siteSet.contains(siteId));
+	}
+
+	/**
+	 * Invalidate the entries of a user.
+	 */
+	public void invalidateUser(String userId)
+	{
+		if (userId != null) invalidate(e -> userId.equals(e.userId));
+	}
+
+	public void clear()
+	{
+		invalidations.incrementAndGet();
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+
+	private void invalidate(Predicate<Entry> affected)
+	{
+		invalidations.incrementAndGet();
+		int count = 0;
+		synchronized (entries)
+		{
+			for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();)
+			{
+				Entry entry = i.next();
+				if (!affected.test(entry)) continue;
+				if (staleWhileRevalidate)
+				{
+					entry.stale = true;
+				}
+				else
+				{
+					i.remove();
+				}
+				count++;
+			}
+		}
+		invalidated.add(count);
+	}
+
+	private static String siteId(String resource, String prefix)
+	{
+		if (!resource.startsWith(prefix)) return null;
+		int end = resource.indexOf('/', prefix.length());
+		return end < 0 ? resource.substring(prefix.length()) : resource.substring(prefix.length(), end);
+	}
+
+	private static List<Map> copy(List<Map> navigation)
+	{
+		List<Map> copy = new ArrayList<>(navigation.size());
+		for (Map map : navigation)
+		{
+			copy.add(new HashMap<>(map));
+		}
+		return copy;
+	}
+
+	protected long now()
+	{
+		return System.currentTimeMillis();
+	}
+
+	public int size()
+	{
+		synchronized (entries)
+		{
+			return entries.size();
+		}
+	}
+
+	public long getHits()
+	{
+		return hits.sum();
+	}
+
+	public long getStaleHits()
+	{
+		return staleHits.sum();
+	}
+
+	public long getMisses()
+	{
+		return misses.sum();
+	}
+
+	public long getInvalidated()
+	{
+		return invalidated.sum();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PortalNavigationCache[entries: " + size() + " hits: " + getHits() + " stale hits: " + getStaleHits() + " misses: "
+				+ getMisses() + " invalidated: " + getInvalidated() + "]";
+	}
+
+	private static class Entry
+	{
+		final String userId;
+		final List<String> siteIds;
+		final Set<String> siteSet;
+		final List<Map> navigation;
+		final long built;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+		volatile boolean stale;
+
+		Entry(String userId, List<String> siteIds, List<Map> navigation, long built)
+		{
+			this.userId = userId;
+			this.siteIds = siteIds;
+			this.siteSet = new HashSet<>(siteIds);
+			this.navigation = navigation;
+			this.built = built;
+		}
+	}
+}
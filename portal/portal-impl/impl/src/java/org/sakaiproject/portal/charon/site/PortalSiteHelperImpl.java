@@ -40,6 +40,7 @@ import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.sakaiproject.alias.api.Alias;
 import org.sakaiproject.alias.api.AliasService;
 import org.sakaiproject.authz.api.AuthzGroupService;
@@ -80,6 +81,7 @@ import org.sakaiproject.user.cover.UserDirectoryService;
 import org.sakaiproject.util.ArrayUtil;
 import org.sakaiproject.util.MapUtil;
 import org.sakaiproject.util.RequestFilter;
+import org.sakaiproject.util.ResourceLoader;
 import org.sakaiproject.util.Web;
 import org.sakaiproject.util.api.FormattedText;
 import org.sakaiproject.util.comparator.AliasCreatedTimeComparator;
@@ -125,6 +127,7 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 	private ToolManager toolManager;
 	private FormattedText formattedText;
 	private SimplePageToolDao simplePageToolDao;
+	private PortalNavigationCache navigationCache;
 
 	public ToolManager getToolManager() {
 		//To work around injection for test case
@@ -157,6 +160,10 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 		this.toolManager = toolManager;
 	}
 
+	public void setNavigationCache(PortalNavigationCache navigationCache) {
+		this.navigationCache = navigationCache;
+	}
+
 	/**
 	 * @param portal
 	 */
@@ -262,10 +269,11 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 		Map<String, String> propMap = new HashMap<>();
 		propMap.put(PROP_PARENT_ID, site.getId());
 
-		// This should not call getUserSites(boolean) because the property is variable, while the call is cacheable otherwise
+		// This should not call getUserSites(boolean) because the property is variable, while the call is cacheable otherwise.
+		// Only the summary of each site is needed for the list, so don't load descriptions.
 		List<Site> mySites = SiteService.getSites(
 				org.sakaiproject.site.api.SiteService.SelectionType.ACCESS, null, null,
-				propMap, org.sakaiproject.site.api.SiteService.SortType.TITLE_ASC, null);
+				propMap, org.sakaiproject.site.api.SiteService.SortType.TITLE_ASC, null, false);
 		return mySites;
 	}
 
@@ -288,6 +296,30 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 			String prefix, String currentSiteId, String myWorkspaceSiteId,
 			boolean includeSummary, boolean expandSite, boolean resetTools,
 			boolean doPages, String toolContextPath, boolean loggedIn)
+	{
+		// The summaries change with every new message, so only the plain navigation is cached
+		String userId = SessionManager.getCurrentSessionUserId();
+		if (navigationCache == null || includeSummary || userId == null)
+		{
+			return buildSiteMaps(req, mySites, prefix, currentSiteId, myWorkspaceSiteId, includeSummary, expandSite, resetTools,
+					doPages, toolContextPath, loggedIn);
+		}
+
+		String currentSiteRef = currentSiteId == null ? null : SiteService.siteReference(currentSiteId);
+		String key = String.join("|", userId, RequestFilter.serverUrl(req), String.valueOf(prefix), String.valueOf(currentSiteId),
+				String.valueOf(myWorkspaceSiteId), String.valueOf(expandSite), String.valueOf(resetTools), String.valueOf(doPages),
+				String.valueOf(toolContextPath), String.valueOf(loggedIn), String.valueOf(new ResourceLoader().getLocale()),
+				String.valueOf(currentSiteRef == null ? null : SecurityService.getInstance().getUserEffectiveRole(currentSiteRef)));
+		List<String> siteIds = mySites.stream().map(Site::getId).collect(Collectors.toList());
+
+		return navigationCache.get(key, userId, siteIds, () -> buildSiteMaps(req, mySites, prefix, currentSiteId,
+				myWorkspaceSiteId, includeSummary, expandSite, resetTools, doPages, toolContextPath, loggedIn));
+	}
+
+	private List<Map> buildSiteMaps(HttpServletRequest req, List<Site> mySites,
+			String prefix, String currentSiteId, String myWorkspaceSiteId,
+			boolean includeSummary, boolean expandSite, boolean resetTools,
+			boolean doPages, String toolContextPath, boolean loggedIn)
 	{
 		List<Map> l = new ArrayList<>();
 		Map<String, Integer> depthChart = new HashMap<>();
@@ -311,6 +343,13 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 			}
 		}
 
+		// Resolve site.upd for all the sites in one go, so the per site page checks below are answered from the security cache
+		if ((expandSite || doPages) && session != null && session.getUserId() != null)
+		{
+			SecurityService.getInstance().unlock(session.getUserId(),
+					mySites.stream().map(s -> Pair.of("site.upd", s.getReference())).collect(Collectors.toList()));
+		}
+
 		// Determine the depths of the child sites if needed
 		Map<String, List<String>> realmProviderMap = getProviderIDsForSites(mySites);
 		for (Site s : mySites)
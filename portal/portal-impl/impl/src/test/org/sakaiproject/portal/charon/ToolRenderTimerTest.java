@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.portal.charon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.portal.render.api.RenderResult;
+import org.sakaiproject.site.api.ToolConfiguration;
+
+public class ToolRenderTimerTest {
+
+	/** A request attribute every portlet render sets, as the portlet container does */
+	private static final String WINDOW = "org.apache.pluto.container.PortletWindow";
+
+	private ToolRenderTimer timer;
+	private HttpServletRequest req;
+	private HttpServletResponse res;
+	private Map<String, Object> attributes;
+
+	@Before
+	public void setUp() {
+		timer = new ToolRenderTimer(10);
+		attributes = new HashMap<>();
+		req = mock(HttpServletRequest.class);
+		when(req.getAttribute(anyString())).thenAnswer(i -> attributes.get(i.getArgument(0)));
+		doAnswer(i -> attributes.put(i.getArgument(0), i.getArgument(1))).when(req).setAttribute(anyString(), any());
+		res = mock(HttpServletResponse.class);
+	}
+
+	private ToolConfiguration placement(String id) {
+		ToolConfiguration placement = mock(ToolConfiguration.class);
+		when(placement.getId()).thenReturn(id);
+		when(placement.getToolId()).thenReturn("sakai.test");
+		return placement;
+	}
+
+	private RenderResult result(Content content) {
+		return new RenderResult() {
+			private String rendered;
+			public String getContent() {
+				if (rendered == null) rendered = content.get();
+				return rendered;
+			}
+			public void setContent(String content) {
+				rendered = content;
+			}
+			public String getTitle() {
+				return "Rendered";
+			}
+			public String getJSR168HelpUrl() {
+				return null;
+			}
+			public String getJSR168EditUrl() {
+				return null;
+			}
+			public String getHead() {
+				return "head";
+			}
+		};
+	}
+
+	private interface Content {
+		String get();
+	}
+
+	/** Renders like a portlet: sets the shared window attribute, renders, then reads it back */
+	private Content portlet(String id, List<String> seen, List<Thread> threads) {
+		return () -> {
+			threads.add(Thread.currentThread());
+			req.setAttribute(WINDOW, id);
+			Thread.yield();
+			seen.add((String) req.getAttribute(WINDOW));
+			return "content " + id;
+		};
+	}
+
+	@Test
+	public void testToolsRenderOnTheRequestThread() throws Exception {
+		List<String> seen = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		RenderResult one = result(portlet("one", seen, threads));
+		RenderResult two = result(portlet("two", seen, threads));
+
+		timer.render(placement("one"), one, req, res);
+		// the first render is complete before the next starts
+		assertEquals(List.of("one"), seen);
+		timer.render(placement("two"), two, req, res);
+
+		// each render saw its own window attribute, on the request thread
+		assertEquals(List.of("one", "two"), seen);
+		assertEquals(List.of(Thread.currentThread(), Thread.currentThread()), threads);
+		assertEquals("content one", one.getContent());
+		assertEquals("content two", two.getContent());
+
+		// nothing is sent while the page is being put together
+		verify(res, never()).flushBuffer();
+		verify(res, never()).getWriter();
+		verify(res, never()).getOutputStream();
+	}
+
+	@Test
+	public void testRenderTimesRecorded() throws Exception {
+		timer.render(placement("one"), result(() -> "content"), req, res);
+		timer.render(placement("two"), result(() -> "content"), req, res);
+
+		@SuppressWarnings("unchecked")
+		Map<String, Long> times = (Map<String, Long>) attributes.get(ToolRenderTimer.TOOL_RENDER_TIMES);
+		assertEquals(2, times.size());
+		assertTrue(times.get("one") >= 0);
+		assertTrue(times.get("two") >= 0);
+		assertEquals(2, timer.getRendered());
+		assertEquals(0, timer.getSlow());
+	}
+
+	@Test
+	public void testSlowToolCounted() throws Exception {
+		timer = new ToolRenderTimer(0);
+		timer.render(placement("one"), result(() -> {
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "content";
+		}), req, res);
+
+		assertEquals(1, timer.getSlow());
+		assertTrue(timer.toString().contains("slow: 1"));
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.portal.charon.site;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+
+public class PortalNavigationCacheTest {
+
+	private long now;
+	private PortalNavigationCache cache;
+	private AtomicInteger builds;
+
+	@Before
+	public void setUp() {
+		now = 0;
+		builds = new AtomicInteger();
+		cache = newCache(false);
+	}
+
+	private PortalNavigationCache newCache(boolean staleWhileRevalidate) {
+		return new PortalNavigationCache(60, 60, staleWhileRevalidate, 100) {
+			@Override
+			protected long now() {
+				return now;
+			}
+		};
+	}
+
+	private Supplier<List<Map>> builder() {
+		return () -> {
+			Map<String, Object> site = new HashMap<>();
+			site.put("build", builds.incrementAndGet());
+			return Collections.singletonList(site);
+		};
+	}
+
+	private List<Map> get(String userId, String... siteIds) {
+		return cache.get(userId + "|key", userId, Arrays.asList(siteIds), builder());
+	}
+
+	private Event event(String type, String resource, String userId) {
+		Event event = mock(Event.class);
+		when(event.getEvent()).thenReturn(type);
+		when(event.getResource()).thenReturn(resource);
+		when(event.getUserId()).thenReturn(userId);
+		return event;
+	}
+
+	@Test
+	public void testCachedUntilExpired() {
+		get("alice", "a", "b");
+		get("alice", "a", "b");
+		assertEquals(1, builds.get());
+		assertEquals(1, cache.getHits());
+
+		now = 61000;
+		get("alice", "a", "b");
+		assertEquals(2, builds.get());
+	}
+
+	@Test
+	public void testChangedSiteListRebuilds() {
+		get("alice", "a", "b");
+		get("alice", "a");
+		assertEquals(2, builds.get());
+	}
+
+	@Test
+	public void testCopiesGivenOut() {
+		get("alice", "a").get(0).put("build", 99);
+		assertEquals(1, get("alice", "a").get(0).get("build"));
+	}
+
+	@Test
+	public void testSiteAndRealmEventsInvalidateListingEntries() {
+		get("alice", "a", "b");
+		get("bob", "c");
+
+		cache.update(null, event("site.upd", "/site/a", "admin"));
+		get("alice", "a", "b");
+		get("bob", "c");
+		assertEquals(3, builds.get());
+
+		cache.update(null, event("realm.upd", "/realm//site/c/group/g1", "admin"));
+		get("alice", "a", "b");
+		get("bob", "c");
+		assertEquals(4, builds.get());
+
+		// template realms are behind every site
+		cache.update(null, event("realm.upd", "/realm/!site.template", "admin"));
+		get("alice", "a", "b");
+		get("bob", "c");
+		assertEquals(6, builds.get());
+	}
+
+	@Test
+	public void testUserEventsInvalidateTheirEntries() {
+		get("alice", "a");
+		get("bob", "a");
+
+		cache.update(null, event("prefs.upd", "/prefs/alice", "alice"));
+		get("alice", "a");
+		get("bob", "a");
+		assertEquals(3, builds.get());
+
+		cache.update(null, event("site.visit.denied", "x", "bob"));
+		get("bob", "a");
+		assertEquals(4, builds.get());
+
+		cache.update(null, event("content.read", "/content/x", "bob"));
+		get("bob", "a");
+		assertEquals(4, builds.get());
+	}
+
+	@Test
+	public void testStaleGivenOutWhileRevalidating() {
+		cache = newCache(true);
+		get("alice", "a");
+		cache.update(null, event("site.upd", "/site/a", "admin"));
+
+		// while one request rebuilds, another gets the stale entry
+		List<Map> during = cache.get("alice|key", "alice", Collections.singletonList("a"), () -> {
+			assertEquals(1, get("alice", "a").get(0).get("build"));
+			return builder().get();
+		});
+		assertEquals(2, during.get(0).get("build"));
+		assertEquals(1, cache.getStaleHits());
+
+		// too old to give out
+		now = 200000;
+		assertEquals(3, get("alice", "a").get(0).get("build"));
+	}
+}
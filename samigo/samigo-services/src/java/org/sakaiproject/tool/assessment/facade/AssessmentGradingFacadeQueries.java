@@ -30,6 +30,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +40,12 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.comparators.NullComparator;
@@ -55,6 +62,7 @@ import org.hibernate.query.Query;
 import org.sakaiproject.antivirus.api.VirusFoundException;
 import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.content.api.ContentCollection;
 import org.sakaiproject.content.api.ContentCollectionEdit;
 import org.sakaiproject.content.api.ContentHostingService;
@@ -98,6 +106,9 @@ import org.sakaiproject.tool.assessment.integration.context.IntegrationContextFa
 import org.sakaiproject.tool.assessment.services.ItemService;
 import org.sakaiproject.tool.assessment.services.PersistenceHelper;
 import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
+import org.sakaiproject.tool.assessment.util.AssessmentExtendedTimes;
+import org.sakaiproject.thread_local.cover.ThreadLocalManager;
+import org.sakaiproject.tool.cover.SessionManager;
 import org.sakaiproject.user.api.UserDirectoryService;
 import org.springframework.orm.hibernate5.HibernateCallback;
 import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
@@ -2967,6 +2978,11 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 
     @Override
     public int autoSubmitAssessments() {
+        return autoSubmitAssessments(new AutoSubmitProgress());
+    }
+
+    @Override
+    public int autoSubmitAssessments(AutoSubmitProgress progress) {
         java.util.Date currentTime = new java.util.Date();
 
         Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
@@ -2987,54 +3003,169 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 
 		List<AssessmentGradingData> list = query.list();
 
-        Iterator<AssessmentGradingData> iter = list.iterator();
-        String lastAgentId = "";
-        Long lastPublishedAssessmentId = 0L;
-        PublishedAssessmentFacade assessment = null;
-        AssessmentGradingData adata = null;
-        Map<Long, Set<PublishedSectionData>> sectionSetMap = new HashMap();
+        // the attempts on each assessment, still with each agent's attempts together and in order
+        Map<Long, List<AssessmentGradingData>> attemptsByAssessment = list.stream()
+                .collect(Collectors.groupingBy(AssessmentGradingData::getPublishedAssessmentId, LinkedHashMap::new, Collectors.toList()));
+        progress.found(attemptsByAssessment.size(), list.size());
 
+        int threads = Math.max(1, ServerConfigurationService.getInt("samigo.autoSubmit.threads", 4));
+        int chunkSize = Math.max(1, ServerConfigurationService.getInt("samigo.autoSubmit.chunkSize", 100));
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads, daemonThreads("samigo-autosubmit-")) : null;
+        org.sakaiproject.tool.api.Session sakaiSession = SessionManager.getCurrentSession();
 
-        PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
+        try {
+            for (Map.Entry<Long, List<AssessmentGradingData>> entry : attemptsByAssessment.entrySet()) {
+                autoSubmitAssessment(entry.getKey(), entry.getValue(), currentTime, chunkSize, pool, sakaiSession, progress);
+                progress.assessmentDone();
+                log.info("Auto submit progress: {}", progress);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
 
-        boolean updateGrades = IntegrationContextFactory.getInstance() != null;
-        AutoSubmitFacadeQueriesAPI autoSubmitFacade = PersistenceService.getInstance().getAutoSubmitFacadeQueries();
-        int failures = 0;
-        
-        while (iter.hasNext()) {
+        return progress.getFailures();
+    }
 
-            try {
-                adata = (AssessmentGradingData) iter.next();
+    /**
+     * Auto submit the attempts on one assessment, reading what is needed about the assessment once, and processing the
+     * attempts in chunks, in parallel if there is a pool to do so. Each chunk is saved in its own transaction, so
+     * if the job stops part way the attempts not yet saved are found again on its next run.
+     */
+    private void autoSubmitAssessment(Long publishedAssessmentId, List<AssessmentGradingData> attempts, Date currentTime, int chunkSize,
+            ExecutorService pool, org.sakaiproject.tool.api.Session sakaiSession, AutoSubmitProgress progress) {
+        PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
+        PublishedAssessmentFacade assessment;
+        AssessmentExtendedTimes extendedTimes;
+        Map<Long, Set<PublishedSectionData>> sectionSetMap = new HashMap<>();
+        try {
+            assessment = publishedAssessmentService.getPublishedAssessmentQuick(publishedAssessmentId.toString());
+            extendedTimes = new AssessmentExtendedTimes(assessment);
+            sectionSetMap.put(publishedAssessmentId, publishedAssessmentService.getSectionSetForAssessment(publishedAssessmentId));
+        } catch (Exception e) {
+            log.error("Error while reading published assessment {} to auto submit its attempts", publishedAssessmentId, e);
+            for (int i = 0; i < attempts.size(); i++) {
+                progress.failed();
+            }
+            progress.processed(attempts.size(), 0);
+            return;
+        }
 
-                if (!lastPublishedAssessmentId.equals(adata.getPublishedAssessmentId())) {
-                    assessment = publishedAssessmentService.getPublishedAssessmentQuick(adata.getPublishedAssessmentId().toString());
+        List<Future<?>> running = new ArrayList<>();
+        for (List<AssessmentGradingData> chunk : chunkByAgent(attempts, chunkSize)) {
+            Runnable task = () -> autoSubmitChunk(chunk, assessment, extendedTimes, currentTime, sectionSetMap, progress);
+            if (pool == null) {
+                task.run();
+                continue;
+            }
+            running.add(pool.submit(() -> {
+                SessionManager.setCurrentSession(sakaiSession);
+                try {
+                    task.run();
+                } finally {
+                    ThreadLocalManager.clear();
                 }
+            }));
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.error("Error while auto submitting attempts on published assessment {}", publishedAssessmentId, e.getCause());
+            }
+        }
+    }
 
-                // this call happens in a separate transaction, so a rollback only affects this iteration
-                boolean success = autoSubmitFacade.processAttempt(adata, updateGrades, this, assessment, currentTime, lastAgentId, lastPublishedAssessmentId, sectionSetMap);
-                if (!success) {
-                    ++failures;
-                }
+    /**
+     * Split attempts into chunks of about the given size, keeping each agent's attempts in one chunk.
+     */
+    static List<List<AssessmentGradingData>> chunkByAgent(List<AssessmentGradingData> attempts, int chunkSize) {
+        List<List<AssessmentGradingData>> chunks = new ArrayList<>();
+        List<AssessmentGradingData> chunk = new ArrayList<>();
+        String lastAgentId = null;
+        for (AssessmentGradingData adata : attempts) {
+            if (chunk.size() >= chunkSize && !adata.getAgentId().equals(lastAgentId)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+            chunk.add(adata);
+            lastAgentId = adata.getAgentId();
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
 
-                lastPublishedAssessmentId = adata.getPublishedAssessmentId();
-                lastAgentId = adata.getAgentId();
-            } catch (Exception e) {
-                ++failures;
-                if (adata != null) {
-                    log.error("Error while auto submitting assessment grade data id: " + adata.getAssessmentGradingId(),
-                            e);
+    private void autoSubmitChunk(List<AssessmentGradingData> chunk, PublishedAssessmentFacade assessment, AssessmentExtendedTimes extendedTimes,
+            Date currentTime, Map<Long, Set<PublishedSectionData>> sectionSetMap, AutoSubmitProgress progress) {
+        autoSubmitChunk(chunk, PersistenceService.getInstance().getAutoSubmitFacadeQueries(), PersistenceService.getInstance().getAssessmentGradingFacadeQueries(),
+                IntegrationContextFactory.getInstance() != null, assessment, extendedTimes, currentTime, sectionSetMap, progress);
+    }
+
+    /**
+     * Auto submit a chunk of attempts together, and if that fails go through them again an attempt at a time.
+     */
+    void autoSubmitChunk(List<AssessmentGradingData> chunk, AutoSubmitFacadeQueriesAPI autoSubmitFacade, AssessmentGradingFacadeQueriesAPI agfq,
+            boolean updateGrades, PublishedAssessmentFacade assessment, AssessmentExtendedTimes extendedTimes, Date currentTime,
+            Map<Long, Set<PublishedSectionData>> sectionSetMap, AutoSubmitProgress progress) {
+        try {
+            // this call happens in a separate transaction, so a rollback only affects this chunk
+            int submitted = autoSubmitFacade.processAttempts(copyAttempts(chunk), updateGrades, agfq, assessment, extendedTimes, currentTime, sectionSetMap);
+            progress.processed(chunk.size(), submitted);
+            return;
+        } catch (Exception e) {
+            log.warn("Error while auto submitting {} attempts on published assessment {} together, trying them one at a time: {}",
+                    chunk.size(), assessment.getPublishedAssessmentId(), e.toString());
+            progress.chunkRetried();
+        }
+
+        // the chunk was rolled back, so go through it as it was read, an attempt at a time
+        String lastAgentId = "";
+        Long lastPublishedAssessmentId = 0L;
+        for (AssessmentGradingData attempt : copyAttempts(chunk)) {
+            boolean submitted = false;
+            try {
+                // this call happens in a separate transaction, so a rollback only affects this iteration
+                if (autoSubmitFacade.processAttempt(attempt, updateGrades, agfq, assessment, currentTime, lastAgentId, lastPublishedAssessmentId, sectionSetMap)) {
+                    submitted = Boolean.TRUE.equals(attempt.getIsAutoSubmitted());
                 } else {
-                    log.error(e.getMessage(), e);
+                    progress.failed();
                 }
+            } catch (Exception e) {
+                progress.failed();
+                log.error("Error while auto submitting assessment grade data id: " + attempt.getAssessmentGradingId(), e);
             }
-            finally {
-                adata = null;
-            }
+            progress.processed(1, submitted ? 1 : 0);
+            lastPublishedAssessmentId = attempt.getPublishedAssessmentId();
+            lastAgentId = attempt.getAgentId();
         }
+    }
 
-        return failures;
+    /**
+     * Copy attempts as read by autoSubmitAssessments, so processing the copies doesn't change them.
+     */
+    private static List<AssessmentGradingData> copyAttempts(List<AssessmentGradingData> attempts) {
+        return attempts.stream()
+                .map(a -> new AssessmentGradingData(a.getAssessmentGradingId(), a.getPublishedAssessmentId(),
+                        a.getAgentId(), a.getSubmittedDate(), a.getIsLate(), a.getForGrade(), a.getTotalAutoScore(), a.getTotalOverrideScore(),
+                        a.getFinalScore(), a.getComments(), a.getStatus(), a.getGradedBy(), a.getGradedDate(), a.getAttemptDate(), a.getTimeElapsed()))
+                .collect(Collectors.toList());
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
     }
-    
+
     private String makeHeader(String section, int sectionNumber, String question, String headerType, int questionNumber, String pool, String poolName) {
         StringBuilder sb = new StringBuilder(section);
         sb.append(" ");
@@ -3303,6 +3434,68 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
         }
     }
 
+    @Override
+    public Map<String, AssessmentGradingData> getHighestSubmittedAssessmentGradings(Long publishedAssessmentId, Collection<String> agentIds) {
+        Map<String, AssessmentGradingData> highest = new HashMap<>();
+        List<String> agents = new ArrayList<>(agentIds);
+        // keep the in list within what every database allows
+        for (int i = 0; i < agents.size(); i += 1000) {
+            List<String> batch = agents.subList(i, Math.min(i + 1000, agents.size()));
+            final HibernateCallback<List<AssessmentGradingData>> hcb = session -> {
+                Query q = session.createQuery(
+                        "from AssessmentGradingData a where a.publishedAssessmentId = :id and a.agentId in (:agents) and " +
+                                " a.forGrade = :forgrade and a.status > :status order by a.finalScore desc, a.submittedDate desc");
+                q.setParameter("id", publishedAssessmentId);
+                q.setParameterList("agents", batch);
+                q.setParameter("forgrade", true);
+                q.setParameter("status", AssessmentGradingData.REMOVED);
+                return q.list();
+            };
+            // in the order getHighestSubmittedAssessmentGrading uses, so the first of each agent's is the one it picks
+            for (AssessmentGradingData data : getHibernateTemplate().execute(hcb)) {
+                highest.putIfAbsent(data.getAgentId(), data);
+            }
+        }
+        return highest;
+    }
+
+    @Override
+    public Map<String, Double> getAverageSubmittedScores(Long publishedAssessmentId, Collection<String> agentIds) {
+        Map<String, Double> scores = getSubmittedScores("avg", publishedAssessmentId, agentIds);
+        // formatted as getAverageSubmittedAssessmentGrading does
+        DecimalFormat df = new DecimalFormat("0.##");
+        DecimalFormatSymbols dfs = new DecimalFormatSymbols();
+        dfs.setDecimalSeparator('.');
+        df.setDecimalFormatSymbols(dfs);
+        scores.replaceAll((agentId, score) -> Double.valueOf(df.format(score)));
+        return scores;
+    }
+
+    private Map<String, Double> getSubmittedScores(String function, Long publishedAssessmentId, Collection<String> agentIds) {
+        Map<String, Double> scores = new HashMap<>();
+        List<String> agents = new ArrayList<>(agentIds);
+        // keep the in list within what every database allows
+        for (int i = 0; i < agents.size(); i += 1000) {
+            List<String> batch = agents.subList(i, Math.min(i + 1000, agents.size()));
+            final HibernateCallback<List<Object[]>> hcb = session -> {
+                Query q = session.createQuery(
+                        "select a.agentId, " + function + "(a.finalScore) from AssessmentGradingData a where a.publishedAssessmentId = :id and " +
+                                " a.agentId in (:agents) and a.forGrade = :forgrade and a.status > :status group by a.agentId");
+                q.setParameter("id", publishedAssessmentId);
+                q.setParameterList("agents", batch);
+                q.setParameter("forgrade", true);
+                q.setParameter("status", AssessmentGradingData.REMOVED);
+                return q.list();
+            };
+            for (Object[] row : getHibernateTemplate().execute(hcb)) {
+                if (row[1] != null) {
+                    scores.put((String) row[0], ((Number) row[1]).doubleValue());
+                }
+            }
+        }
+        return scores;
+    }
+
     public Double getAverageSubmittedAssessmentGrading(final Long publishedAssessmentId, final String agentId) {
         Double averageScore = 0.0;
         AssessmentGradingData ag = null;
@@ -264,6 +264,13 @@ public interface AssessmentGradingFacadeQueriesAPI
    * @return number of attempts/submissions that could not be processed due to error
    */
   public int autoSubmitAssessments();
+
+  /**
+   * Checks for assessment attempts that should be autosubmitted, reporting how far it has got as it goes
+   * @param progress updated as the attempts are processed
+   * @return number of attempts/submissions that could not be processed due to error
+   */
+  public int autoSubmitAssessments(AutoSubmitProgress progress);
   
   public ItemGradingAttachment createItemGradingtAttachment(ItemGradingData itemGrading, String resourceId, String filename, String protocol);
   
@@ -285,6 +292,17 @@ public interface AssessmentGradingFacadeQueriesAPI
 
   public List getHighestSubmittedAssessmentGradingList(final Long publishedAssessmentId);
   public Double getAverageSubmittedAssessmentGrading( final Long publishedAssessmentId, final String agentId);
+
+  /**
+   * @return the submission for grade with the highest final score of each of the agents who have one, picked as
+   * getHighestSubmittedAssessmentGrading picks it
+   */
+  public Map<String, AssessmentGradingData> getHighestSubmittedAssessmentGradings(Long publishedAssessmentId, Collection<String> agentIds);
+
+  /**
+   * @return the average final score of the submissions for grade of each of the agents who have one
+   */
+  public Map<String, Double> getAverageSubmittedScores(Long publishedAssessmentId, Collection<String> agentIds);
   public Map<Long, List<Long>> getAverageAssessmentGradingByPublishedItem(Long publishedAssessmentId);
   
   public List getUnSubmittedAssessmentGradingDataList(Long publishedAssessmentId, String agentIdString);
@@ -1,14 +1,18 @@
 package org.sakaiproject.tool.assessment.facade;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
 import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedSectionData;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
 import org.sakaiproject.tool.assessment.data.ifc.assessment.AssessmentAccessControlIfc;
 import org.sakaiproject.tool.assessment.data.ifc.assessment.AssessmentBaseIfc;
 import org.sakaiproject.tool.assessment.services.GradingService;
+import org.sakaiproject.tool.assessment.util.AssessmentExtendedTimes;
 import org.sakaiproject.tool.assessment.util.ExtendedTimeDeliveryService;
 import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
 
@@ -19,80 +23,24 @@ import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
 @Slf4j
 public class AutoSubmitFacadeQueries extends HibernateDaoSupport implements AutoSubmitFacadeQueriesAPI
 {
+	/** The attempt wasn't due yet, so is left as it is. */
+	private static final int NOT_DUE = 0;
+	/** The attempt is to be saved, as having had auto submission run. */
+	private static final int SAVE = 1;
+	/** The attempt is to be saved as submitted. */
+	private static final int SUBMIT = 2;
+
+	/** How many statements to send to the database together when saving a chunk of attempts. */
+	private static final int JDBC_BATCH_SIZE = 50;
+
 	@Override
 	public boolean processAttempt(AssessmentGradingData adata, boolean updateGrades, AssessmentGradingFacadeQueriesAPI agfq, PublishedAssessmentFacade assessment,
 			Date currentTime, String lastAgentId, Long lastPublishedAssessmentId, Map<Long, Set<PublishedSectionData>> sectionSetMap)
 	{
-		boolean autoSubmitCurrent = false;
-		adata.setHasAutoSubmissionRun(Boolean.TRUE);
-
-		// If the assessment is deleted, or the submission is not forGrade just set hasAutoSubmissionRun = true; do not update gradebook
-		if (Boolean.FALSE.equals(adata.getForGrade()) && assessment.getStatus() != AssessmentBaseIfc.DEAD_STATUS) {
-
-			// SAM-1088 check to see if last user attempt was after due date
-			Date dueDate = assessment.getAssessmentAccessControl().getDueDate();
-			Date retractDate = assessment.getAssessmentAccessControl().getRetractDate();
-			Integer lateHandling = assessment.getAssessmentAccessControl().getLateHandling();
-			boolean acceptLate = AssessmentAccessControlIfc.ACCEPT_LATE_SUBMISSION.toString().equals(lateHandling);
-			ExtendedTimeDeliveryService assessmentExtended = new ExtendedTimeDeliveryService(assessment,
-					adata.getAgentId());
-
-			//If it has extended time, just continue for now, no method to tell if the time is passed
-			if (assessmentExtended.hasExtendedTime()) {
-				//Continue on and try to submit it but it may be late, just change the due date
-				dueDate = assessmentExtended.getDueDate() != null ? assessmentExtended.getDueDate() : dueDate;
-
-				// If the extended time student received a retract date
-				if (assessmentExtended.getRetractDate() != null) {
-					retractDate =  assessmentExtended.getRetractDate();
-					acceptLate = true;
-				}
-			}
-
-			// If the due date or retract date hasn't passed yet, go on to the next one, don't consider it yet
-			if (acceptLate && retractDate != null && (currentTime.before(retractDate) || adata.getAttemptDate().after(retractDate))) {
-				return true;
-			}
-			else if ( (!acceptLate || retractDate == null) && dueDate != null && currentTime.before(dueDate)) {
-				return true;
-			}
-
-			// If it's an "empty" submission don't autosubmit; change status and save (status = 5, hasAutoSubmitRun = true)
-			// We determine "empty" if it has an attempt date but submitted date is null
-			// Attempt date is populated as soon as student clicks "Begin"; submit date is populated as soon as student makes any progress (next, save, submit)
-			// So if there is an attempt date but no submit date, we can safely assume this is a student who began a quiz and did nothing (either walked away, or logged out immediately)
-			if (adata.getAttemptDate() != null && adata.getSubmittedDate() == null) {
-				adata.setStatus(AssessmentGradingData.NO_SUBMISSION);
-			}
-			else {
-				adata.setForGrade(Boolean.TRUE);
-				if (adata.getTotalAutoScore() == null) {
-					adata.setTotalAutoScore(0d);
-				}
-				if (adata.getFinalScore() == null) {
-					adata.setFinalScore(0d);
-				}
-				if (adata.getAttemptDate() != null && dueDate != null &&
-						adata.getAttemptDate().after(dueDate)) {
-					adata.setIsLate(true);
-				}
-				// SAM-1088
-				else if (adata.getSubmittedDate() != null && dueDate != null &&
-						adata.getSubmittedDate().after(dueDate)) {
-					adata.setIsLate(true);
-				}
-
-				autoSubmitCurrent = true;
-				adata.setIsAutoSubmitted(Boolean.TRUE);
-				if (lastPublishedAssessmentId.equals(adata.getPublishedAssessmentId())
-						&& lastAgentId.equals(adata.getAgentId())) {
-					adata.setStatus(AssessmentGradingData.AUTOSUBMIT_UPDATED);
-				} else {
-					adata.setStatus(AssessmentGradingData.SUBMITTED);
-				}
-
-				agfq.completeItemGradingData(adata, sectionSetMap);
-			}
+		boolean sameAgent = lastPublishedAssessmentId.equals(adata.getPublishedAssessmentId()) && lastAgentId.equals(adata.getAgentId());
+		int outcome = prepareAttempt(adata, agfq, assessment, () -> new ExtendedTimeDeliveryService(assessment, adata.getAgentId()), currentTime, sameAgent, sectionSetMap);
+		if (outcome == NOT_DUE) {
+			return true;
 		}
 
 		boolean success = agfq.saveOrUpdateAssessmentGrading(adata);
@@ -101,8 +49,8 @@ public class AutoSubmitFacadeQueries extends HibernateDaoSupport implements Auto
 			return false;
 		}
 
-		if (autoSubmitCurrent) {
-			GradingService gs = new GradingService();
+		if (outcome == SUBMIT) {
+			GradingService gs = gradingService();
 			if (updateGrades) {
 				gs.notifyGradebookByScoringType(adata, assessment); // this may throw runtime exceptions triggering a rollback
 			}
@@ -114,4 +62,128 @@ public class AutoSubmitFacadeQueries extends HibernateDaoSupport implements Auto
 
 		return true;
 	}
+
+	@Override
+	public int processAttempts(List<AssessmentGradingData> attempts, boolean updateGrades, AssessmentGradingFacadeQueriesAPI agfq, PublishedAssessmentFacade assessment,
+			AssessmentExtendedTimes extendedTimes, Date currentTime, Map<Long, Set<PublishedSectionData>> sectionSetMap)
+	{
+		// the attempts are all written when the transaction commits, so have them sent together
+		currentSession().setJdbcBatchSize(JDBC_BATCH_SIZE);
+
+		List<AssessmentGradingData> submitted = new ArrayList<>();
+		String lastAgentId = null;
+		for (AssessmentGradingData adata : attempts) {
+			boolean sameAgent = adata.getAgentId().equals(lastAgentId);
+			lastAgentId = adata.getAgentId();
+			int outcome = prepareAttempt(adata, agfq, assessment, () -> extendedTimes.forAgent(adata.getAgentId()), currentTime, sameAgent, sectionSetMap);
+			if (outcome == NOT_DUE) {
+				continue;
+			}
+			if (!agfq.saveOrUpdateAssessmentGrading(adata)) {
+				// roll back the chunk, so it is retried an attempt at a time
+				throw new IllegalStateException("Unable to persist assessement grading data for id " + adata.getAssessmentGradingId());
+			}
+			if (outcome == SUBMIT) {
+				submitted.add(adata);
+			}
+		}
+
+		if (!submitted.isEmpty()) {
+			GradingService gs = gradingService();
+			if (updateGrades) {
+				currentSession().flush();
+				gs.notifyGradebookByScoringType(submitted, assessment); // this may throw runtime exceptions triggering a rollback
+			}
+			for (AssessmentGradingData adata : submitted) {
+				gs.updateAutosubmitEventLog(adata);
+			}
+		}
+		return submitted.size();
+	}
+
+	/**
+	 * @return the service the gradebook is notified and the event log is updated through
+	 */
+	GradingService gradingService() {
+		return new GradingService();
+	}
+
+	/**
+	 * Work out what auto submission does to an attempt, and make the changes to it other than saving it.
+	 * @param sameAgent if the previous attempt processed was by the same agent on the same assessment
+	 * @return NOT_DUE, SAVE or SUBMIT
+	 */
+	private int prepareAttempt(AssessmentGradingData adata, AssessmentGradingFacadeQueriesAPI agfq, PublishedAssessmentFacade assessment,
+			Supplier<ExtendedTimeDeliveryService> extendedTime, Date currentTime, boolean sameAgent, Map<Long, Set<PublishedSectionData>> sectionSetMap)
+	{
+		adata.setHasAutoSubmissionRun(Boolean.TRUE);
+
+		// If the assessment is deleted, or the submission is not forGrade just set hasAutoSubmissionRun = true; do not update gradebook
+		if (!Boolean.FALSE.equals(adata.getForGrade()) || assessment.getStatus() == AssessmentBaseIfc.DEAD_STATUS) {
+			return SAVE;
+		}
+
+		// SAM-1088 check to see if last user attempt was after due date
+		Date dueDate = assessment.getAssessmentAccessControl().getDueDate();
+		Date retractDate = assessment.getAssessmentAccessControl().getRetractDate();
+		Integer lateHandling = assessment.getAssessmentAccessControl().getLateHandling();
+		boolean acceptLate = AssessmentAccessControlIfc.ACCEPT_LATE_SUBMISSION.toString().equals(lateHandling);
+		ExtendedTimeDeliveryService assessmentExtended = extendedTime.get();
+
+		//If it has extended time, just continue for now, no method to tell if the time is passed
+		if (assessmentExtended.hasExtendedTime()) {
+			//Continue on and try to submit it but it may be late, just change the due date
+			dueDate = assessmentExtended.getDueDate() != null ? assessmentExtended.getDueDate() : dueDate;
+
+			// If the extended time student received a retract date
+			if (assessmentExtended.getRetractDate() != null) {
+				retractDate =  assessmentExtended.getRetractDate();
+				acceptLate = true;
+			}
+		}
+
+		// If the due date or retract date hasn't passed yet, go on to the next one, don't consider it yet
+		if (acceptLate && retractDate != null && (currentTime.before(retractDate) || adata.getAttemptDate().after(retractDate))) {
+			return NOT_DUE;
+		}
+		else if ( (!acceptLate || retractDate == null) && dueDate != null && currentTime.before(dueDate)) {
+			return NOT_DUE;
+		}
+
+		// If it's an "empty" submission don't autosubmit; change status and save (status = 5, hasAutoSubmitRun = true)
+		// We determine "empty" if it has an attempt date but submitted date is null
+		// Attempt date is populated as soon as student clicks "Begin"; submit date is populated as soon as student makes any progress (next, save, submit)
+		// So if there is an attempt date but no submit date, we can safely assume this is a student who began a quiz and did nothing (either walked away, or logged out immediately)
+		if (adata.getAttemptDate() != null && adata.getSubmittedDate() == null) {
+			adata.setStatus(AssessmentGradingData.NO_SUBMISSION);
+			return SAVE;
+		}
+
+		adata.setForGrade(Boolean.TRUE);
+		if (adata.getTotalAutoScore() == null) {
+			adata.setTotalAutoScore(0d);
+		}
+		if (adata.getFinalScore() == null) {
+			adata.setFinalScore(0d);
+		}
+		if (adata.getAttemptDate() != null && dueDate != null &&
+				adata.getAttemptDate().after(dueDate)) {
+			adata.setIsLate(true);
+		}
+		// SAM-1088
+		else if (adata.getSubmittedDate() != null && dueDate != null &&
+				adata.getSubmittedDate().after(dueDate)) {
+			adata.setIsLate(true);
+		}
+
+		adata.setIsAutoSubmitted(Boolean.TRUE);
+		if (sameAgent) {
+			adata.setStatus(AssessmentGradingData.AUTOSUBMIT_UPDATED);
+		} else {
+			adata.setStatus(AssessmentGradingData.SUBMITTED);
+		}
+
+		agfq.completeItemGradingData(adata, sectionSetMap);
+		return SUBMIT;
+	}
 }
@@ -1,10 +1,12 @@
 package org.sakaiproject.tool.assessment.facade;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedSectionData;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
+import org.sakaiproject.tool.assessment.util.AssessmentExtendedTimes;
 
 /**
  * Queries for persisting a single attempt/submission and all related updates in a single transaction. This is important
@@ -30,4 +32,20 @@ public interface AutoSubmitFacadeQueriesAPI
 	 */
 	public boolean processAttempt(AssessmentGradingData adata, boolean updateGrades, AssessmentGradingFacadeQueriesAPI agfq, PublishedAssessmentFacade assessment,
 			Date currentTime, String lastAgentId, Long lastPublishedAssessmentId, Map<Long, Set<PublishedSectionData>> sectionSetMap);
+
+	/**
+	 * Persist updates to a chunk of attempts/submissions on one assessment in a single transaction, as
+	 * {@link #processAttempt} does for one attempt, with the Gradebook updated in one call for the whole chunk. If anything
+	 * fails, an exception is thrown and the whole chunk is rolled back, and it can then be processed an attempt at a time.
+	 * @param attempts the attempts to process, all on the given assessment, with each agent's attempts together and in order
+	 * @param updateGrades if integration with Gradebook is a possibility
+	 * @param agfq service for persisting the attempts
+	 * @param assessment the assessment
+	 * @param extendedTimes the extended time entries of the assessment
+	 * @param currentTime timestamp when the job started
+	 * @param sectionSetMap map of assessment id to assessment sections (aka parts), already holding those of the assessment
+	 * @return the number of attempts that were auto submitted
+	 */
+	public int processAttempts(List<AssessmentGradingData> attempts, boolean updateGrades, AssessmentGradingFacadeQueriesAPI agfq, PublishedAssessmentFacade assessment,
+			AssessmentExtendedTimes extendedTimes, Date currentTime, Map<Long, Set<PublishedSectionData>> sectionSetMap);
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2023, The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.sakaiproject.tool.assessment.facade;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How far a run of the auto submit job has got, updated as it goes by the threads doing the work.
+ */
+public class AutoSubmitProgress
+{
+	private final long started = System.currentTimeMillis();
+
+	private final AtomicInteger assessments = new AtomicInteger();
+	private final AtomicInteger assessmentsDone = new AtomicInteger();
+	private final AtomicInteger attempts = new AtomicInteger();
+	private final AtomicInteger attemptsDone = new AtomicInteger();
+	private final AtomicInteger submitted = new AtomicInteger();
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicInteger chunksRetried = new AtomicInteger();
+
+	void found(int assessments, int attempts)
+	{
+		this.assessments.addAndGet(assessments);
+		this.attempts.addAndGet(attempts);
+	}
+
+	void processed(int attempts, int submitted)
+	{
+		attemptsDone.addAndGet(attempts);
+		this.submitted.addAndGet(submitted);
+	}
+
+	void failed()
+	{
+		failures.incrementAndGet();
+	}
+
+	void chunkRetried()
+	{
+		chunksRetried.incrementAndGet();
+	}
+
+	void assessmentDone()
+	{
+		assessmentsDone.incrementAndGet();
+	}
+
+	public int getAssessments()
+	{
+		return assessments.get();
+	}
+
+	public int getAssessmentsDone()
+	{
+		return assessmentsDone.get();
+	}
+
+	public int getAttempts()
+	{
+		return attempts.get();
+	}
+
+	/**
+	 * @return the attempts processed, including those that failed
+	 */
+	public int getAttemptsDone()
+	{
+		return attemptsDone.get();
+	}
+
+	public int getSubmitted()
+	{
+		return submitted.get();
+	}
+
+	public int getFailures()
+	{
+		return failures.get();
+	}
+
+	/**
+	 * @return the chunks of attempts that failed together, and so were processed an attempt at a time
+	 */
+	public int getChunksRetried()
+	{
+		return chunksRetried.get();
+	}
+
+	public long getElapsedMillis()
+	{
+		return System.currentTimeMillis() - started;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "assessments " + getAssessmentsDone() + "/" + getAssessments() + ", attempts " + getAttemptsDone() + "/" + getAttempts()
+				+ ", submitted " + getSubmitted() + ", failures " + getFailures() + ", chunks retried " + getChunksRetried()
+				+ ", " + getElapsedMillis() + "ms";
+	}
+}
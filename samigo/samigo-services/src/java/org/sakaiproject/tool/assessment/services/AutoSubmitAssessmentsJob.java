@@ -32,6 +32,7 @@ import org.sakaiproject.event.api.UsageSession;
 import org.sakaiproject.event.api.UsageSessionService;
 import org.sakaiproject.samigo.api.SamigoETSProvider;
 import org.sakaiproject.samigo.util.SamigoConstants;
+import org.sakaiproject.tool.assessment.facade.AutoSubmitProgress;
 import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.tool.api.SessionManager;
 
@@ -79,14 +80,15 @@ public class AutoSubmitAssessmentsJob implements StatefulJob {
 		log.info("Start Job: {}", whoAmI);
 		
 		GradingService gradingService = new GradingService();
-		int failures = gradingService.autoSubmitAssessments();
+		AutoSubmitProgress progress = new AutoSubmitProgress();
+		int failures = gradingService.autoSubmitAssessments(progress);
 		
 		if (failures > 0)
 		{
 			samigoETSProvider.notifyAutoSubmitFailures(failures);
 		}
 		
-		log.info("End Job: {} ({} failures)", whoAmI, failures);
+		log.info("End Job: {} ({} failures, {})", whoAmI, failures, progress);
 		
 		logoutFromSakai();
 	}
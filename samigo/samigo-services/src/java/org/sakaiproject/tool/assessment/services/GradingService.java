@@ -79,6 +79,7 @@ import org.sakaiproject.tool.assessment.data.ifc.assessment.PublishedAssessmentI
 import org.sakaiproject.tool.assessment.data.ifc.grading.StudentGradingSummaryIfc;
 import org.sakaiproject.tool.assessment.data.ifc.shared.TypeIfc;
 import org.sakaiproject.tool.assessment.facade.AgentFacade;
+import org.sakaiproject.tool.assessment.facade.AutoSubmitProgress;
 import org.sakaiproject.tool.assessment.facade.EventLogFacade;
 import org.sakaiproject.tool.assessment.facade.GradebookFacade;
 import org.sakaiproject.tool.assessment.facade.PublishedAssessmentFacade;
@@ -1360,6 +1361,93 @@ public class GradingService
     }
   }
 
+  /**
+   * Tell the gradebook the scores of a number of submissions on one assessment in one call, as
+   * notifyGradebookByScoringType(AssessmentGradingData, PublishedAssessmentIfc) does for each.
+   * @param submissions the submissions, each agent's last one is the one scored with the last score
+   * @param pub the assessment they are on
+   */
+  public void notifyGradebookByScoringType(List<AssessmentGradingData> submissions, PublishedAssessmentIfc pub) {
+    if (pub == null || pub.getEvaluationModel() == null) {
+      // should not come to here
+      log.warn("publishedAssessment is null or publishedAssessment.getEvaluationModel() is null");
+      return;
+    }
+    Map<String, AssessmentGradingData> lastByAgent = new HashMap<>();
+    for (AssessmentGradingData data : submissions) {
+      if (updateGradebook(data, pub)) {
+        lastByAgent.put(data.getAgentId(), data);
+      }
+    }
+    if (lastByAgent.isEmpty()) {
+      return;
+    }
+    if (!IntegrationContextFactory.getInstance().isIntegrated()) {
+      // there is only the one at a time update without the integrated gradebook
+      lastByAgent.values().forEach(data -> notifyGradebookByScoringType(data, pub));
+      return;
+    }
+
+    Long publishedAssessmentId = pub.getPublishedAssessmentId();
+    Integer scoringType = pub.getEvaluationModel().getScoringType();
+    Map<String, AssessmentGradingData> highest = new HashMap<>();
+    Map<String, Double> scores = new HashMap<>();
+    if (scoringType.equals(EvaluationModelIfc.HIGHEST_SCORE)) {
+      highest = PersistenceService.getInstance().getAssessmentGradingFacadeQueries().
+        getHighestSubmittedAssessmentGradings(publishedAssessmentId, lastByAgent.keySet());
+    }
+    // Send the average score if average was selected for multiple submissions
+    else if (scoringType.equals(EvaluationModelIfc.AVERAGE_SCORE)) {
+      scores = PersistenceService.getInstance().getAssessmentGradingFacadeQueries().
+        getAverageSubmittedScores(publishedAssessmentId, lastByAgent.keySet());
+    }
+
+    // as in the single update, the score and comments sent are those of the highest submission when scoring by highest
+    List<AssessmentGradingData> scored = new ArrayList<>();
+    Map<String, Double> studentUidsToScores = new HashMap<>();
+    for (AssessmentGradingData data : lastByAgent.values()) {
+      AssessmentGradingData d = highest.getOrDefault(data.getAgentId(), data);
+      scored.add(d);
+      Double score = scores.get(data.getAgentId());
+      if (score == null) {
+        score = d.getFinalScore();
+      }
+      if (score != null) {
+        //SAM-1562 round the score as a single update does
+        studentUidsToScores.put(data.getAgentId(), Precision.round(score, 2));
+      }
+    }
+
+    org.sakaiproject.grading.api.GradingService g = (org.sakaiproject.grading.api.GradingService) SpringBeanLocator.getInstance().
+      getBean("org.sakaiproject.grading.api.GradingService");
+    GradebookServiceHelper gbsHelper = IntegrationContextFactory.getInstance().getGradebookServiceHelper();
+
+    // add retry logic to resolve deadlock problem while sending grades to gradebook
+    int retryCount = PersistenceService.getInstance().getPersistenceHelper().getRetryCount();
+    while (retryCount > 0) {
+      try {
+        gbsHelper.updateExternalAssessmentScores(publishedAssessmentId, studentUidsToScores, g);
+        retryCount = 0;
+      }
+      catch (org.sakaiproject.grading.api.AssessmentNotFoundException ante) {
+        log.warn("problem sending grades to gradebook: {}", ante.getMessage());
+        retryCount = retry(retryCount, ante, pub, AssessmentIfc.RETRACT_FOR_EDIT_STATUS.equals(pub.getStatus()));
+      }
+      catch (Exception e) {
+        retryCount = retry(retryCount, e, pub, false);
+      }
+    }
+
+    for (AssessmentGradingData d : scored) {
+      try {
+        gbsHelper.updateExternalAssessmentComment(publishedAssessmentId, d.getAgentId(), d.getComments(), g);
+      }
+      catch (Exception ex) {
+        log.warn("Error sending comments to gradebook: {}", ex.getMessage());
+      }
+    }
+  }
+
   private double getScoreByQuestionType(ItemGradingData itemGrading, ItemDataIfc item,
                                        Long itemType, Map publishedItemTextHash, 
                                        Map totalItems, Map fibAnswersMap, Map<Long, Map<Long,Set<EMIScore>>> emiScoresMap,
@@ -3654,9 +3742,13 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
   }
   
   public int autoSubmitAssessments() {
+	  return autoSubmitAssessments(new AutoSubmitProgress());
+  }
+
+  public int autoSubmitAssessments(AutoSubmitProgress progress) {
 	  try {
 		  return PersistenceService.getInstance().
-		  getAssessmentGradingFacadeQueries().autoSubmitAssessments();
+		  getAssessmentGradingFacadeQueries().autoSubmitAssessments(progress);
 	  } catch (Exception e) {
 		  log.error(e.getMessage(), e);
 		  return 1;
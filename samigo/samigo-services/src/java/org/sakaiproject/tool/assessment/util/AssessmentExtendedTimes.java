@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2023, The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.sakaiproject.tool.assessment.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.tool.assessment.data.dao.assessment.ExtendedTime;
+import org.sakaiproject.tool.assessment.data.dao.assessment.PublishedAssessmentData;
+import org.sakaiproject.tool.assessment.facade.ExtendedTimeFacade;
+import org.sakaiproject.tool.assessment.facade.PublishedAssessmentFacade;
+import org.sakaiproject.tool.assessment.services.PersistenceService;
+import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
+
+/**
+ * The extended time entries of one published assessment, read once so the extended time of many users can be worked
+ * out without going back to the database for each, as {@link ExtendedTimeDeliveryService} does.
+ */
+@Slf4j
+public class AssessmentExtendedTimes {
+
+	@Getter
+	private final PublishedAssessmentFacade publishedAssessment;
+	@Getter
+	private final String siteId;
+
+	private final Map<String, ExtendedTime> userEntries = new HashMap<>();
+	// in the order they were read, the last group a user is in is the one used
+	private final Map<String, ExtendedTime> groupEntries = new LinkedHashMap<>();
+	private final Map<String, AuthzGroup> groups = new HashMap<>();
+
+	public AssessmentExtendedTimes(PublishedAssessmentFacade publishedAssessment) {
+		PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
+		String pubId = publishedAssessment.getPublishedAssessmentId().toString();
+		if (!ExtendedTimeDeliveryService.assessmentInitialized(publishedAssessment)) {
+			publishedAssessment = publishedAssessmentService.getPublishedAssessmentQuick(pubId);
+		}
+		this.publishedAssessment = publishedAssessment;
+		siteId = publishedAssessmentService.getPublishedAssessmentSiteId(pubId);
+
+		PublishedAssessmentData pubData = publishedAssessmentService.getBasicInfoOfPublishedAssessment(pubId);
+		ExtendedTimeFacade extendedTimeFacade = PersistenceService.getInstance().getExtendedTimeFacade();
+		List<ExtendedTime> extendedTimes = extendedTimeFacade.getEntriesForPub(pubData);
+		if (extendedTimes == null) {
+			extendedTimes = new ArrayList<>();
+		}
+
+		AuthzGroupService authzGroupService = ComponentManager.get(AuthzGroupService.class);
+		for (ExtendedTime extendedTime : extendedTimes) {
+			if (StringUtils.isNotEmpty(extendedTime.getUser())) {
+				userEntries.putIfAbsent(extendedTime.getUser(), extendedTime);
+			}
+			String group = extendedTime.getGroup();
+			if (StringUtils.isNotEmpty(group) && !groupEntries.containsKey(group)) {
+				groupEntries.put(group, extendedTime);
+				try {
+					groups.put(group, authzGroupService.getAuthzGroup("/site/" + siteId + "/group/" + group));
+				} catch (Exception e) {
+					log.debug("No group {} for extended time on {}: {}", group, pubId, e.toString());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param agentId a userId
+	 * @return the extended time of the user on this assessment
+	 */
+	public ExtendedTimeDeliveryService forAgent(String agentId) {
+		ExtendedTime useMe = userEntries.get(agentId);
+		if (useMe == null) {
+			for (Map.Entry<String, ExtendedTime> entry : groupEntries.entrySet()) {
+				AuthzGroup group = groups.get(entry.getKey());
+				if (group != null && group.getUserRole(agentId) != null) {
+					useMe = entry.getValue();
+				}
+			}
+		}
+		return new ExtendedTimeDeliveryService(publishedAssessment, agentId, siteId, useMe);
+	}
+}
@@ -98,15 +98,28 @@ public class ExtendedTimeDeliveryService {
 			groupExtendedTime = extendedTimeFacade.getEntryForPubAndGroup(pubData, group);
 		}
 
-		this.hasExtendedTime = (extendedTime != null || groupExtendedTime != null);
-		if (this.hasExtendedTime) {
-			ExtendedTime useMe;
-			if(extendedTime != null) {
-				useMe = extendedTime;
-			} else {
-				useMe = groupExtendedTime;
-			}
+		apply(publishedAssessment, extendedTime != null ? extendedTime : groupExtendedTime);
+	}
 
+	/**
+	 * Creates an ExtendedTimeDeliveryService object from an extended time entry already looked up for the user,
+	 * see {@link AssessmentExtendedTimes}.
+	 * @param publishedAssessment a published assessment object, with its dates
+	 * @param agentId a specific userId
+	 * @param siteId the site of the assessment
+	 * @param useMe the user's extended time entry, or that of a group they are in, or null
+	 */
+	ExtendedTimeDeliveryService(PublishedAssessmentFacade publishedAssessment, String agentId, String siteId, ExtendedTime useMe) {
+		authzGroupService = ComponentManager.get(AuthzGroupService.class);
+		publishedAssessmentId = publishedAssessment.getPublishedAssessmentId();
+		this.siteId = siteId;
+		this.agentId = agentId;
+		apply(publishedAssessment, useMe);
+	}
+
+	private void apply(PublishedAssessmentFacade publishedAssessment, ExtendedTime useMe) {
+		this.hasExtendedTime = useMe != null;
+		if (this.hasExtendedTime) {
 			this.timeLimit = useMe.getTimeHours() * MINS_IN_HOUR * SECONDS_IN_MIN + useMe.getTimeMinutes() * SECONDS_IN_MIN;
 			this.startDate = useMe.getStartDate();
 			this.dueDate = useMe.getDueDate();
@@ -131,7 +144,7 @@ public class ExtendedTimeDeliveryService {
 	}
 
 	// Depending on the scope the assessment info sometimes is not initialized.
-	private boolean assessmentInitialized(PublishedAssessmentFacade publishedAssessment) {
+	static boolean assessmentInitialized(PublishedAssessmentFacade publishedAssessment) {
 		if (publishedAssessment == null) {
 			return false;
 		}
@@ -22,12 +22,21 @@
 
 package org.sakaiproject.tool.assessment.facade;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
 import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
 import org.sakaiproject.tool.assessment.data.dao.grading.ItemGradingData;
 import org.sakaiproject.tool.assessment.facade.AssessmentGradingFacadeQueries;
@@ -217,4 +226,106 @@ public class AssessmentGradingFacadeQueriesTest extends AbstractJUnit4SpringCont
 		Assert.assertNotNull(vals);
 		Assert.assertEquals(1, vals.size());
 	}
+
+	@Test
+	public void testGetSubmittedScores() {
+		saveSubmission(42L, "agent1", 5d, true, "first");
+		saveSubmission(42L, "agent1", 8d, true, "best");
+		saveSubmission(42L, "agent1", 10d, false, "not for grade");
+		saveSubmission(42L, "agent2", 3d, true, null);
+		saveSubmission(43L, "agent2", 9d, true, "other assessment");
+
+		Map<String, AssessmentGradingData> highest = queries.getHighestSubmittedAssessmentGradings(42L, Arrays.asList("agent1", "agent2", "agent3"));
+		Assert.assertEquals(2, highest.size());
+		Assert.assertEquals(8d, highest.get("agent1").getFinalScore(), 0.001);
+		Assert.assertEquals("best", highest.get("agent1").getComments());
+		Assert.assertEquals(3d, highest.get("agent2").getFinalScore(), 0.001);
+
+		Map<String, Double> average = queries.getAverageSubmittedScores(42L, Arrays.asList("agent1", "agent2"));
+		Assert.assertEquals(6.5d, average.get("agent1"), 0.001);
+		Assert.assertEquals(3d, average.get("agent2"), 0.001);
+	}
+
+	@Test
+	public void testChunkByAgentKeepsAgentsTogether() {
+		List<AssessmentGradingData> attempts = Arrays.asList(attempt(1L, "a"), attempt(2L, "a"), attempt(3L, "a"),
+				attempt(4L, "b"), attempt(5L, "c"), attempt(6L, "c"), attempt(7L, "d"));
+
+		List<List<AssessmentGradingData>> chunks = AssessmentGradingFacadeQueries.chunkByAgent(attempts, 2);
+
+		// a chunk is only closed once it is full and the next attempt is by another agent
+		Assert.assertEquals(3, chunks.size());
+		Assert.assertEquals(Arrays.asList(1L, 2L, 3L), ids(chunks.get(0)));
+		Assert.assertEquals(Arrays.asList(4L, 5L, 6L), ids(chunks.get(1)));
+		Assert.assertEquals(Arrays.asList(7L), ids(chunks.get(2)));
+		Set<String> seen = new HashSet<>();
+		for (List<AssessmentGradingData> chunk : chunks) {
+			Set<String> agents = chunk.stream().map(AssessmentGradingData::getAgentId).collect(Collectors.toSet());
+			Assert.assertTrue(Collections.disjoint(seen, agents));
+			seen.addAll(agents);
+		}
+
+		Assert.assertEquals(1, AssessmentGradingFacadeQueries.chunkByAgent(attempts, 100).size());
+		Assert.assertTrue(AssessmentGradingFacadeQueries.chunkByAgent(new ArrayList<>(), 2).isEmpty());
+	}
+
+	@Test
+	public void testFailedChunkIsRetriedOneAttemptAtATime() {
+		AutoSubmitFacadeQueriesAPI autoSubmitFacade = Mockito.mock(AutoSubmitFacadeQueriesAPI.class);
+		AssessmentGradingFacadeQueriesAPI agfq = Mockito.mock(AssessmentGradingFacadeQueriesAPI.class);
+		PublishedAssessmentFacade assessment = Mockito.mock(PublishedAssessmentFacade.class);
+		Mockito.when(autoSubmitFacade.processAttempts(Mockito.anyList(), Mockito.anyBoolean(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+				.thenThrow(new IllegalStateException("chunk failed"));
+		List<String> calls = new ArrayList<>();
+		Mockito.when(autoSubmitFacade.processAttempt(Mockito.any(), Mockito.anyBoolean(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+				.thenAnswer(invocation -> {
+					AssessmentGradingData adata = invocation.getArgument(0);
+					calls.add(adata.getAssessmentGradingId() + "/" + invocation.getArgument(5));
+					if (adata.getAssessmentGradingId() == 2L) {
+						return false;
+					}
+					adata.setIsAutoSubmitted(Boolean.TRUE);
+					return true;
+				});
+
+		List<AssessmentGradingData> chunk = Arrays.asList(attempt(1L, "a"), attempt(2L, "a"), attempt(3L, "b"));
+		AutoSubmitProgress progress = new AutoSubmitProgress();
+		progress.found(1, chunk.size());
+		queries.autoSubmitChunk(chunk, autoSubmitFacade, agfq, false, assessment, null, new Date(), new HashMap<>(), progress);
+
+		// each attempt is processed in order, knowing the agent of the one before it, as the job did before chunking
+		Assert.assertEquals(Arrays.asList("1/", "2/a", "3/a"), calls);
+		Assert.assertEquals(1, progress.getChunksRetried());
+		Assert.assertEquals(3, progress.getAttemptsDone());
+		Assert.assertEquals(2, progress.getSubmitted());
+		Assert.assertEquals(1, progress.getFailures());
+		// the attempts as read are left as they were, for the retry to start from
+		Assert.assertNull(chunk.get(0).getIsAutoSubmitted());
+	}
+
+	static AssessmentGradingData attempt(Long id, String agentId) {
+		AssessmentGradingData data = new AssessmentGradingData();
+		data.setAssessmentGradingId(id);
+		data.setPublishedAssessmentId(42L);
+		data.setAgentId(agentId);
+		data.setForGrade(false);
+		data.setStatus(AssessmentGradingData.IN_PROGRESS);
+		return data;
+	}
+
+	private static List<Long> ids(List<AssessmentGradingData> attempts) {
+		return attempts.stream().map(AssessmentGradingData::getAssessmentGradingId).collect(Collectors.toList());
+	}
+
+	private void saveSubmission(Long publishedAssessmentId, String agentId, Double finalScore, boolean forGrade, String comments) {
+		AssessmentGradingData data = new AssessmentGradingData();
+		data.setPublishedAssessmentId(publishedAssessmentId);
+		data.setAgentId(agentId);
+		data.setIsLate(false);
+		data.setForGrade(forGrade);
+		data.setStatus(AssessmentGradingData.SUBMITTED);
+		data.setFinalScore(finalScore);
+		data.setComments(comments);
+		queries.saveOrUpdateAssessmentGrading(data);
+	}
 }
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.tool.assessment.facade;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.sakaiproject.tool.assessment.data.dao.grading.AssessmentGradingData;
+import org.sakaiproject.tool.assessment.data.ifc.assessment.AssessmentAccessControlIfc;
+import org.sakaiproject.tool.assessment.data.ifc.assessment.AssessmentBaseIfc;
+import org.sakaiproject.tool.assessment.services.GradingService;
+import org.sakaiproject.tool.assessment.util.AssessmentExtendedTimes;
+import org.sakaiproject.tool.assessment.util.ExtendedTimeDeliveryService;
+
+public class AutoSubmitFacadeQueriesTest {
+
+	private AutoSubmitFacadeQueries facade;
+	private AssessmentGradingFacadeQueriesAPI agfq;
+	private PublishedAssessmentFacade assessment;
+	private AssessmentExtendedTimes extendedTimes;
+	private GradingService gradingService;
+
+	@Before
+	public void setUp() {
+		gradingService = Mockito.mock(GradingService.class);
+		facade = new AutoSubmitFacadeQueries() {
+			@Override
+			GradingService gradingService() {
+				return gradingService;
+			}
+		};
+		SessionFactory sessionFactory = Mockito.mock(SessionFactory.class);
+		Mockito.when(sessionFactory.getCurrentSession()).thenReturn(Mockito.mock(Session.class));
+		facade.setSessionFactory(sessionFactory);
+
+		agfq = Mockito.mock(AssessmentGradingFacadeQueriesAPI.class);
+		Mockito.when(agfq.saveOrUpdateAssessmentGrading(Mockito.any())).thenReturn(true);
+
+		AssessmentAccessControlIfc accessControl = Mockito.mock(AssessmentAccessControlIfc.class);
+		Mockito.when(accessControl.getDueDate()).thenReturn(new Date(System.currentTimeMillis() - 3600000L));
+		assessment = Mockito.mock(PublishedAssessmentFacade.class);
+		Mockito.when(assessment.getStatus()).thenReturn(AssessmentBaseIfc.ACTIVE_STATUS);
+		Mockito.when(assessment.getAssessmentAccessControl()).thenReturn(accessControl);
+
+		extendedTimes = Mockito.mock(AssessmentExtendedTimes.class);
+		Mockito.when(extendedTimes.forAgent(Mockito.anyString())).thenReturn(Mockito.mock(ExtendedTimeDeliveryService.class));
+	}
+
+	@Test
+	public void testStatusAtChunkBoundaries() {
+		List<AssessmentGradingData> attempts = Arrays.asList(attempt(1L, "a"), attempt(2L, "a"), attempt(3L, "b"),
+				attempt(4L, "b"), attempt(5L, "b"), attempt(6L, "c"));
+
+		List<List<AssessmentGradingData>> chunks = AssessmentGradingFacadeQueries.chunkByAgent(attempts, 2);
+		Assert.assertEquals(3, chunks.size());
+		int submitted = 0;
+		for (List<AssessmentGradingData> chunk : chunks) {
+			submitted += facade.processAttempts(chunk, false, agfq, assessment, extendedTimes, new Date(), new HashMap<>());
+		}
+
+		// an agent's first attempt is submitted and their later ones update it, including the first attempt of a chunk
+		Assert.assertEquals(6, submitted);
+		Assert.assertEquals(Arrays.asList(AssessmentGradingData.SUBMITTED, AssessmentGradingData.AUTOSUBMIT_UPDATED,
+				AssessmentGradingData.SUBMITTED, AssessmentGradingData.AUTOSUBMIT_UPDATED, AssessmentGradingData.AUTOSUBMIT_UPDATED,
+				AssessmentGradingData.SUBMITTED), statuses(attempts));
+		for (AssessmentGradingData adata : attempts) {
+			Assert.assertEquals(Boolean.TRUE, adata.getIsAutoSubmitted());
+			Assert.assertEquals(Boolean.TRUE, adata.getHasAutoSubmissionRun());
+			Mockito.verify(gradingService).updateAutosubmitEventLog(adata);
+		}
+	}
+
+	private static AssessmentGradingData attempt(Long id, String agentId) {
+		AssessmentGradingData data = new AssessmentGradingData();
+		data.setAssessmentGradingId(id);
+		data.setPublishedAssessmentId(42L);
+		data.setAgentId(agentId);
+		data.setForGrade(false);
+		data.setStatus(AssessmentGradingData.IN_PROGRESS);
+		data.setAttemptDate(new Date(System.currentTimeMillis() - 7200000L));
+		data.setSubmittedDate(new Date(System.currentTimeMillis() - 7000000L));
+		return data;
+	}
+
+	private static List<Integer> statuses(List<AssessmentGradingData> attempts) {
+		return attempts.stream().map(AssessmentGradingData::getStatus).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,3 @@
+-- Past site events checkpoints (collectPastSiteEvents) are SST_JOB_RUN rows with a BACKFILL_ID,
+-- StatsAggregateJob runs have none
+alter table SST_JOB_RUN add (BACKFILL_ID varchar2(255 char));
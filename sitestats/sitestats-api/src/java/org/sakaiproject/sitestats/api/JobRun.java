@@ -56,4 +56,10 @@ public interface JobRun {
 	
 	/** Set the date of the last event processed by this job run. */
 	public void setLastEventDate(Date lastEventDate);
+
+	/** Get the past site events partition this run checkpoints, or null for StatsAggregateJob runs. */
+	public String getBackfillId();
+
+	/** Set the past site events partition this run checkpoints. */
+	public void setBackfillId(String backfillId);
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.api;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Snapshot of a {@link StatsUpdateManager#collectPastSiteEvents(String, Date, Date)} run.
+ */
+@Getter
+@AllArgsConstructor
+public class PastSiteEventsProgress implements Serializable {
+	private static final long	serialVersionUID	= 1L;
+
+	private final String		siteId;
+	private final Date			initialDate;
+	private final Date			finalDate;
+	/** Number of time partitions the date range was split in */
+	private final int			partitions;
+	/** Partitions fully collected, including the ones collected by a previous (interrupted) run */
+	private final int			completedPartitions;
+	private final int			failedPartitions;
+	private final long			eventsCollected;
+	private final Date			startTime;
+	/** Null while the collection is running */
+	private final Date			endTime;
+}
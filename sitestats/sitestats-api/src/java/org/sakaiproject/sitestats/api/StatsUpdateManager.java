@@ -86,17 +86,43 @@ public interface StatsUpdateManager {
 	 * @return True if events were successfully processed and persisted.
 	 */
 	public boolean collectEvents(Event[] events);
+
+	/**
+	 * Collect (process) past Sakai events into SiteStats tables. Unlike collectEvents(), the events are aggregated
+	 * apart from any other events being collected, so when this returns true they, and only they, have been persisted.
+	 * @param events A List of Event (can be built from sql fields using the CustomEventImpl class)
+	 * @return True if events were successfully processed and persisted.
+	 */
+	public boolean collectPastEvents(List<Event> events);
 	
 	/**
 	 * Collect Sakai events from SAKAI_EVENTS table for a specific site, between specified dates.
 	 * Useful to collect events not processed by SiteStats (occurs when tool is configured to process
 	 * events from sites with the tool placed, and the tool was placed some time after site creation).
+	 * The date range is split in partitions on fixed calendar boundaries, collected in parallel; each partition is
+	 * checkpointed in SST_JOB_RUN so that calling this again with the same arguments, while the tracked events are
+	 * unchanged, resumes an interrupted collection (and skips the partitions already collected). The checkpoints
+	 * are deleted once the whole range has been collected.
 	 * @param siteId The site id
 	 * @param initialDate The initial date of events from SAKAI_EVENT
-	 * @param finalDate The final date of events from SAKAI_EVENT
+	 * @param finalDate The final date (inclusive) of events from SAKAI_EVENT
 	 * @return The number of processed events
 	 */
 	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate);
+
+	/**
+	 * As {@link #collectPastSiteEvents(String, Date, Date)}, optionally discarding the checkpoints of an interrupted
+	 * collection of the same range so the whole range is collected again.
+	 * @param siteId The site id
+	 * @param initialDate The initial date of events from SAKAI_EVENT
+	 * @param finalDate The final date (inclusive) of events from SAKAI_EVENT
+	 * @param force True to ignore (and delete) the checkpoints of an earlier collection
+	 * @return The number of processed events
+	 */
+	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate, boolean force);
+
+	/** Get the progress of the past site events collections started since server startup */
+	public List<PastSiteEventsProgress> getPastSiteEventsProgress();
 	
 	/**
 	 * Construct a new Event object using specified arguments. Useful for building Events read from SAKAI_EVENT and SAKAI_SESSION table.
@@ -127,6 +153,12 @@ public interface StatsUpdateManager {
 	// -----------------------------------------------------------------------
 	/** Save a quartz job run */
 	public boolean saveJobRun(JobRun jobRun);
+
+	/** Get the past site events checkpoints whose backfill id starts with the given prefix */
+	public List<JobRun> getBackfillJobRuns(String backfillIdPrefix);
+
+	/** Delete the past site events checkpoints whose backfill id starts with the given prefix */
+	public boolean deleteBackfillJobRuns(String backfillIdPrefix);
 	
 	/** Get the latest job run */
 	public JobRun getLatestJobRun() throws Exception;
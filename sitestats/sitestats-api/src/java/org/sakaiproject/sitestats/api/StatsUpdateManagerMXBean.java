@@ -33,4 +33,10 @@ public interface StatsUpdateManagerMXBean {
     double getNumberOfEventsGeneratedPerSec();
 
     long getAverageTimeInEventProcessingPerEvent();
+
+    int getQueueSize();
+
+    int getQueueHighWaterMark();
+
+    long getLastDbUpdateTime();
 }
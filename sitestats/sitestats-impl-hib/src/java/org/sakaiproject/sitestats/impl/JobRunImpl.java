@@ -35,6 +35,7 @@ public class JobRunImpl implements JobRun, Serializable {
 	private Date				jobStartDate;
 	private Date				jobEndDate;
 	private Date				lastEventDate;
+	private String				backfillId;
 
 	public boolean equals(Object o) {
 		if(o == null) return false;
@@ -147,4 +148,18 @@ public class JobRunImpl implements JobRun, Serializable {
 		this.lastEventDate = lastEventDate;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.JobRun#getBackfillId()
+	 */
+	public String getBackfillId(){
+		return backfillId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.JobRun#setBackfillId(java.lang.String)
+	 */
+	public void setBackfillId(String backfillId){
+		this.backfillId = backfillId;
+	}
+
 }
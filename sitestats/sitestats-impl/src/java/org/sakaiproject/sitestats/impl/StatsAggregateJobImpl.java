@@ -24,11 +24,27 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.StringUtils;
 import org.quartz.JobExecutionContext;
@@ -39,7 +55,9 @@ import org.sakaiproject.component.app.scheduler.jobs.SpringStatefulJobBeanWrappe
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.sitestats.api.JobRun;
+import org.sakaiproject.sitestats.api.PastSiteEventsProgress;
 import org.sakaiproject.sitestats.api.StatsUpdateManager;
+import org.sakaiproject.sitestats.api.event.EventRegistryService;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -51,6 +69,8 @@ public class StatsAggregateJobImpl implements StatefulJob {
 	private long				startEventId		= -1;
 	private long 				lastEventIdInTable	= -1;
 	private String				sakaiEventTimeZone	= "";
+	private int					pastEventsThreads	= 4;
+	private int					pastEventsPartitionDays	= 7;
 
 	private String				driverClassName		= null;
 	private String				url					= null;
@@ -61,9 +81,9 @@ public class StatsAggregateJobImpl implements StatefulJob {
 	private JobRun				jobRun				= null;
 	private Object				extDbdriver			= null;
 	private String				sqlGetEvent			= null;
-	private String				sqlPastSiteEvents	= null;
 	private boolean				isOracle 			= false;
 	private boolean				isEventContextSupported = false;
+	private final Map<String, PastSiteEventsRun> pastSiteEventsRuns = new ConcurrentHashMap<>();
 
 	private final static String LAST_EVENT_ID		= "select max(EVENT_ID) LAST_ID from SAKAI_EVENT";
 	private final static String MYSQL_DEFAULT_COLUMNS  = "EVENT_ID as EVENT_ID,EVENT_DATE as EVENT_DATE,EVENT as EVENT,REF as REF,SESSION_USER as SESSION_USER,e.SESSION_ID as SESSION_ID";
@@ -86,18 +106,24 @@ public class StatsAggregateJobImpl implements StatefulJob {
 														"order by EVENT_ID asc) " +
 														"WHERE ROWNUM <= ?";
 	
-	private String MYSQL_PAST_SITE_EVENTS			= "select " + MYSQL_DEFAULT_COLUMNS + MYSQL_CONTEXT_COLUMN + " " +
+	// keyset paginated reads of a single past site events partition: EVENT_DATE in [?, ?), EVENT_ID > ?
+	private String MYSQL_PAST_SITE_EVENTS_PAGE		= "select " + MYSQL_DEFAULT_COLUMNS + MYSQL_CONTEXT_COLUMN + " " +
 														"from SAKAI_EVENT e join SAKAI_SESSION s on e.SESSION_ID=s.SESSION_ID " +
 														"where (CONTEXT = ? or (EVENT in ('pres.begin','pres.end') and REF = ?)) " +
-														"and EVENT_DATE >= ? and EVENT_DATE <= ?";
-	private String ORACLE_PAST_SITE_EVENTS			= "SELECT " + ORACLE_DEFAULT_COLUMNS + ORACLE_CONTEXT_COLUMN + " " +
+														"and EVENT_DATE >= ? and EVENT_DATE < ? and EVENT_ID > ? " +
+														"order by EVENT_ID asc LIMIT ?";
+	private String ORACLE_PAST_SITE_EVENTS_PAGE		= "SELECT * FROM ( " +
+														"SELECT " + ORACLE_DEFAULT_COLUMNS + ORACLE_CONTEXT_COLUMN + " " +
 														"from SAKAI_EVENT e join SAKAI_SESSION s on e.SESSION_ID=s.SESSION_ID " +
 														"where (CONTEXT = ? or (EVENT in ('pres.begin','pres.end') and REF = ?)) " +
-														"and EVENT_DATE >= ? and EVENT_DATE <= ?";
-	
+														"and EVENT_DATE >= ? and EVENT_DATE < ? and EVENT_ID > ? " +
+														"order by EVENT_ID asc) " +
+														"WHERE ROWNUM <= ?";
+
 	// Services
 	private StatsUpdateManager	statsUpdateManager	= null;
 	private SqlService			sqlService			= null;
+	private EventRegistryService	eventRegistryService	= null;
 
 	public void init(){
 		doInitialCheck();
@@ -422,84 +448,241 @@ public class StatsAggregateJobImpl implements StatefulJob {
 	}
 	
 	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate) {
-		List<Event> eventsQueue = new ArrayList<Event>();
+		return collectPastSiteEvents(siteId, initialDate, finalDate, false);
+	}
+
+	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate, boolean force) {
+		long opStart = System.currentTimeMillis();
+
+		// split [initialDate, finalDate] in day aligned partitions, as all stats are daily. Partitions start every
+		// pastEventsPartitionDays days counted from the epoch, so they don't move with the requested range.
+		ZoneId zone = ZoneId.systemDefault();
+		LocalDate first = initialDate.toInstant().atZone(zone).toLocalDate();
+		LocalDate end = finalDate.toInstant().atZone(zone).toLocalDate().plusDays(1);
+		int days = Math.max(1, pastEventsPartitionDays);
+		List<Date[]> partitions = new ArrayList<>();
+		LocalDate from = first;
+		while(from.isBefore(end)) {
+			LocalDate to = LocalDate.ofEpochDay(Math.floorDiv(from.toEpochDay(), days) * days + days);
+			if(to.isAfter(end)) {
+				to = end;
+			}
+			partitions.add(new Date[] {Date.from(from.atStartOfDay(zone).toInstant()), Date.from(to.atStartOfDay(zone).toInstant())});
+			from = to;
+		}
+
+		// only one collection of a site at a time, or events in both ranges would be counted twice
+		PastSiteEventsRun run = new PastSiteEventsRun(siteId, initialDate, finalDate, partitions.size());
+		PastSiteEventsRun running = pastSiteEventsRuns.compute(siteId, (k, v) -> v != null && v.endTime == null ? v : run);
+		if(running != run) {
+			log.warn("Past events for site " + siteId + " are already being collected, started at " + running.startTime);
+			return 0;
+		}
+
+		// checkpoints are kept per requested range and tracked events, so only the same collection resumes from them
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+		String rangeId = siteId + "|" + format.format(partitions.isEmpty() ? initialDate : partitions.get(0)[0]) + "|"
+				+ format.format(partitions.isEmpty() ? finalDate : partitions.get(partitions.size() - 1)[1]) + "|" + getTrackedEventsId() + "|";
+		Map<String, JobRun> checkpoints = new HashMap<>();
+		if(force) {
+			statsUpdateManager.deleteBackfillJobRuns(rangeId);
+		}else{
+			for(JobRun jobRun : statsUpdateManager.getBackfillJobRuns(rangeId)) {
+				checkpoints.put(jobRun.getBackfillId(), jobRun);
+			}
+		}
+
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for(Date[] partition : partitions) {
+			String backfillId = rangeId + format.format(partition[0]) + "|" + format.format(partition[1]);
+			JobRun checkpoint = checkpoints.get(backfillId);
+			if(checkpoint == null) {
+				checkpoint = new JobRunImpl();
+				checkpoint.setBackfillId(backfillId);
+				checkpoint.setStartEventId(0);
+				checkpoint.setEndEventId(0);
+				checkpoint.setJobStartDate(new Date());
+			}else if(checkpoint.getJobEndDate() != null) {
+				log.debug("Past events for site " + siteId + " already collected for partition " + backfillId);
+				run.completedPartitions.incrementAndGet();
+				continue;
+			}
+			JobRun partitionCheckpoint = checkpoint;
+			tasks.add(() -> collectPastSiteEvents(siteId, partition[0], partition[1], partitionCheckpoint, run));
+		}
+
+		long count = 0;
+		if(!tasks.isEmpty()) {
+			// make sure the events db dialect is known before partitions run concurrently
+			closeEventDbConnection(getEventDbConnection());
+			AtomicInteger threadCount = new AtomicInteger();
+			ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(pastEventsThreads, tasks.size())),
+					r -> new Thread(r, "org.sakaiproject.sitestats.impl.StatsAggregateJobImpl.pastSiteEvents-" + threadCount.incrementAndGet()));
+			try{
+				for(Future<Long> result : executor.invokeAll(tasks)) {
+					try{
+						count += result.get();
+					}catch(ExecutionException e){
+						run.failedPartitions.incrementAndGet();
+						log.error("Unable to collect past site events for site " + siteId + ", will resume from last checkpoint on next run", e.getCause());
+					}
+				}
+			}catch(InterruptedException e){
+				run.failedPartitions.incrementAndGet();
+				log.warn("Interrupted while collecting past events for site " + siteId, e);
+				Thread.currentThread().interrupt();
+			}finally{
+				executor.shutdownNow();
+			}
+		}
+		if(run.failedPartitions.get() == 0) {
+			// the whole range is collected, collecting it again starts over
+			statsUpdateManager.deleteBackfillJobRuns(rangeId);
+		}
+		run.endTime = new Date();
+
+		long opEnd = System.currentTimeMillis();
+		log.info("Collected "+count+" past events for site "+siteId+" in "+(opEnd-opStart)/1000+" seconds ("+partitions.size()+" partitions, "+run.failedPartitions.get()+" failed).");
+		return count;
+	}
+
+	/** Collect a single partition, reading sqlBlockSize events at a time after the last checkpointed event */
+	private long collectPastSiteEvents(String siteId, Date from, Date to, JobRun checkpoint, PastSiteEventsRun run) throws Exception {
 		Connection connection = getEventDbConnection();
+		if(connection == null) {
+			throw new SQLException("Unable to connect to the events db");
+		}
 		PreparedStatement st = null;
-		ResultSet rs = null;
 		long count = 0;
-		long opStart = System.currentTimeMillis();
 		try{
-			st = connection.prepareStatement(sqlPastSiteEvents);
-			st.setString(1, siteId);									// CONTEXT = ?	
-			st.setString(2, "/presence/"+siteId+"-presence");			// REF = ?	
-			st.setDate(3, new java.sql.Date(initialDate.getTime()));	// EVENT_DATE >= ?
-			st.setDate(4, new java.sql.Date(finalDate.getTime()));		// EVENT_DATE <= ?
-			rs = st.executeQuery();
-				
-			while(rs.next()){
-				Date date = null;
-				String event = null;
-				String ref = null;
-				String context = null;
-				String sessionUser = null;
-				String sessionId = null;
-				try{
-					//If an exception is launched, iteration is not aborted but no event is added to event queue
-					date = new Date(rs.getTimestamp("EVENT_DATE").getTime());
-					event = rs.getString("EVENT");
-					ref = rs.getString("REF");
-					sessionUser = rs.getString("SESSION_USER");
-					sessionId = rs.getString("SESSION_ID");
-					context = rs.getString("CONTEXT");
-					
-					eventsQueue.add( statsUpdateManager.buildEvent(date, event, ref, context, sessionUser, sessionId) );					
-					count++;				
-				}catch(Exception e){
-					if(log.isDebugEnabled())
-						log.debug("Ignoring "+event+", "+ref+", "+date+", "+sessionUser+", "+sessionId+" due to: "+e.toString());
+			st = connection.prepareStatement(isOracle ? ORACLE_PAST_SITE_EVENTS_PAGE : MYSQL_PAST_SITE_EVENTS_PAGE);
+			int rows;
+			do{
+				List<Event> eventsQueue = new ArrayList<Event>();
+				long lastEventId = checkpoint.getEndEventId();
+				Date lastEventDate = checkpoint.getLastEventDate();
+				rows = 0;
+				st.setString(1, siteId);								// CONTEXT = ?
+				st.setString(2, "/presence/"+siteId+"-presence");		// REF = ?
+				setEventDate(st, 3, from);								// EVENT_DATE >= ?
+				setEventDate(st, 4, to);								// EVENT_DATE < ?
+				st.setLong(5, lastEventId);								// EVENT_ID > ?
+				st.setInt(6, sqlBlockSize);
+				try(ResultSet rs = st.executeQuery()){
+					while(rs.next()){
+						rows++;
+						lastEventId = rs.getLong("EVENT_ID");
+						Date date = null;
+						String event = null;
+						String ref = null;
+						String sessionUser = null;
+						String sessionId = null;
+						try{
+							//If an exception is launched, iteration is not aborted but no event is added to event queue
+							date = getEventDate(rs);
+							event = rs.getString("EVENT");
+							ref = rs.getString("REF");
+							sessionUser = rs.getString("SESSION_USER");
+							sessionId = rs.getString("SESSION_ID");
+							eventsQueue.add( statsUpdateManager.buildEvent(date, event, ref, rs.getString("CONTEXT"), sessionUser, sessionId) );
+							lastEventDate = date;
+						}catch(Exception e){
+							if(log.isDebugEnabled())
+								log.debug("Ignoring "+event+", "+ref+", "+date+", "+sessionUser+", "+sessionId+" due to: "+e.toString());
+						}
+					}
 				}
-			}
-			
-			// process events
-			boolean processedOk = statsUpdateManager.collectEvents(eventsQueue);
-			eventsQueue.clear();
-			if(!processedOk){
-				String returnMessage = "An error occurred while processing/persisting events to db - please check your logs.";
-				log.error(returnMessage);
-				throw new Exception(returnMessage);
-			}
-			
-		}catch(SQLException e){
-			log.error("Unable to collect past site events", e);
-		}catch(Exception e){
-			log.error("Unable to collect past site due to an unknown cause", e);
+
+				// process events on their own, then checkpoint once they are persisted
+				if(!eventsQueue.isEmpty() && !statsUpdateManager.collectPastEvents(eventsQueue)){
+					throw new Exception("An error occurred while processing/persisting events to db - please check your logs.");
+				}
+				count += eventsQueue.size();
+				run.eventsCollected.addAndGet(eventsQueue.size());
+				if(rows > 0) {
+					checkpoint.setEndEventId(lastEventId);
+					checkpoint.setLastEventDate(lastEventDate);
+					saveJobRun(checkpoint);
+				}
+			}while(rows >= sqlBlockSize);
+
+			checkpoint.setJobEndDate(new Date());
+			saveJobRun(checkpoint);
+			run.completedPartitions.incrementAndGet();
 		}finally{
 			try{
-				if(rs != null)
+				if(st != null)
 					try{
-						rs.close();
+						st.close();
 					}catch(SQLException e){ }
 			}finally{
-				try{
-					if(st != null)
-						try{
-							st.close();
-						}catch(SQLException e){ }
-				}finally{
-					closeEventDbConnection(connection);
-				}
+				closeEventDbConnection(connection);
 			}
 		}
-		
-		long opEnd = System.currentTimeMillis();
-		log.info("Collected "+count+" past events for site "+siteId+" in "+(opEnd-opStart)/1000+" seconds.");
 		return count;
 	}
 
+	public List<PastSiteEventsProgress> getPastSiteEventsProgress() {
+		List<PastSiteEventsProgress> progress = new ArrayList<>();
+		for(PastSiteEventsRun run : pastSiteEventsRuns.values()) {
+			progress.add(new PastSiteEventsProgress(run.siteId, run.initialDate, run.finalDate, run.partitions,
+					run.completedPartitions.get(), run.failedPartitions.get(), run.eventsCollected.get(), run.startTime, run.endTime));
+		}
+		return progress;
+	}
+
+	/** Identifies which events are collected, a change in the tracked events invalidates the checkpoints */
+	private String getTrackedEventsId() {
+		List<String> eventIds = eventRegistryService == null ? new ArrayList<>() : new ArrayList<>(eventRegistryService.getServerEventIds());
+		Collections.sort(eventIds);
+		return Integer.toHexString(Objects.hash(eventIds, statsUpdateManager.isCollectAdminEvents(),
+				statsUpdateManager.isCollectEventsForSiteWithToolOnly(), statsUpdateManager.isCollectDetailedEvents()));
+	}
+
+	/** Progress of a collectPastSiteEvents() call */
+	private static class PastSiteEventsRun {
+		final String			siteId;
+		final Date				initialDate;
+		final Date				finalDate;
+		final int				partitions;
+		final AtomicInteger		completedPartitions	= new AtomicInteger();
+		final AtomicInteger		failedPartitions	= new AtomicInteger();
+		final AtomicLong		eventsCollected		= new AtomicLong();
+		final Date				startTime			= new Date();
+		volatile Date			endTime;
+
+		PastSiteEventsRun(String siteId, Date initialDate, Date finalDate, int partitions) {
+			this.siteId = siteId;
+			this.initialDate = initialDate;
+			this.finalDate = finalDate;
+			this.partitions = partitions;
+		}
+	}
+
 
 	// ################################################################
 	// Util methods
 	// ################################################################
+	private Date getEventDate(ResultSet rs) throws SQLException {
+		// Daily events can only be counted relative to a single time zone (server time). The sakai_event table
+		// may be storing dates in a time zone different than this. Adjust for the sakai_event time zone if provided.
+		if (StringUtils.isNotBlank(sakaiEventTimeZone)) {
+			Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(sakaiEventTimeZone));
+			return new Date(rs.getTimestamp("EVENT_DATE", calendar).getTime());
+		}
+		return new Date(rs.getTimestamp("EVENT_DATE").getTime());
+	}
+
+	private void setEventDate(PreparedStatement st, int index, Date date) throws SQLException {
+		// Bind in the sakai_event time zone, the same way EVENT_DATE is read
+		if (StringUtils.isNotBlank(sakaiEventTimeZone)) {
+			Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(sakaiEventTimeZone));
+			st.setTimestamp(index, new Timestamp(date.getTime()), calendar);
+		} else {
+			st.setTimestamp(index, new Timestamp(date.getTime()));
+		}
+	}
+
 	private Connection getEventDbConnection() {
 		Connection connection = null;
 		if(getUrl() == null){
@@ -513,18 +696,12 @@ public class StatsAggregateJobImpl implements StatefulJob {
 					else
 						sqlGetEvent = ORACLE_GET_EVENT.replaceAll(ORACLE_CONTEXT_COLUMN, "");
 					
-					// this feature is only available for Sakai >= 2.6.x
-					sqlPastSiteEvents = ORACLE_PAST_SITE_EVENTS;
-					
 				}else{
 					isOracle = false;
 					if(isEventContextSupported)
 						sqlGetEvent = MYSQL_GET_EVENT;
 					else
 						sqlGetEvent = MYSQL_GET_EVENT.replaceAll(MYSQL_CONTEXT_COLUMN, "");
-					
-					// this feature is only available for Sakai >= 2.6.x
-					sqlPastSiteEvents = MYSQL_PAST_SITE_EVENTS;
 				}
 			}catch(SQLException e){
 				log.error("Unable to connect Sakai Db", e);
@@ -646,6 +823,22 @@ public class StatsAggregateJobImpl implements StatefulJob {
 		this.startEventId = startEventId;
 	}
 
+	public int getPastEventsThreads() {
+		return pastEventsThreads;
+	}
+
+	public void setPastEventsThreads(int pastEventsThreads) {
+		this.pastEventsThreads = pastEventsThreads;
+	}
+
+	public int getPastEventsPartitionDays() {
+		return pastEventsPartitionDays;
+	}
+
+	public void setPastEventsPartitionDays(int pastEventsPartitionDays) {
+		this.pastEventsPartitionDays = pastEventsPartitionDays;
+	}
+
 	public String getSakaiEventTimeZone() {
 		return sakaiEventTimeZone;
 	}
@@ -702,4 +895,12 @@ public class StatsAggregateJobImpl implements StatefulJob {
 		this.sqlService = sqlService;
 	}
 
+	public EventRegistryService getEventRegistryService() {
+		return eventRegistryService;
+	}
+
+	public void setEventRegistryService(EventRegistryService eventRegistryService) {
+		this.eventRegistryService = eventRegistryService;
+	}
+
 }
@@ -21,17 +21,28 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.query.Query;
@@ -50,6 +61,7 @@ import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.sitestats.api.EventStat;
 import org.sakaiproject.sitestats.api.JobRun;
 import org.sakaiproject.sitestats.api.LessonBuilderStat;
+import org.sakaiproject.sitestats.api.PastSiteEventsProgress;
 import org.sakaiproject.sitestats.api.ResourceStat;
 import org.sakaiproject.sitestats.api.ServerStat;
 import org.sakaiproject.sitestats.api.SiteActivity;
@@ -87,6 +99,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	@Getter @Setter private boolean		collectAdminEvents					= false;
 	@Getter @Setter private boolean		collectEventsForSiteWithToolOnly	= true;
 	@Getter @Setter private boolean		collectDetailedEvents				= false;
+	@Getter @Setter private int			collectThreadBatchSize				= 10000;
 	@Setter private TransactionTemplate	transactionTemplate;
 
 	/** Sakai services */
@@ -99,32 +112,30 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	@Setter private EventTrackingService	eventTrackingService;
 
 	/** Collect Thread and Semaphore */
-	private List<Event>	collectThreadQueue		= new ArrayList<>();
-	private Object		collectThreadSemaphore	= new Object();
-	private boolean		collectThreadRunning	= false;
-
-	/** Collect thread queue maps */
-	private Map<String, EventStat>					eventStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, ResourceStat>				resourceStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, LessonBuilderStat>			lessonBuilderStatMap	= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SiteActivity>				activityMap				= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SiteVisits>					visitsMap				= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SitePresenceConsolidation>	presencesMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<UniqueVisitsKey, Integer>			uniqueVisitsMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, ServerStat>					serverStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, UserStat>					userStatMap				= Collections.synchronizedMap(new HashMap<>());
-
-	private Map<String, String>	lessonPageCreateEventMap	= new HashMap<>();
-	private List<DetailedEvent>	detailedEvents				= Collections.synchronizedList(new ArrayList<>());
+	private final Queue<Event>	collectThreadQueue		= new ConcurrentLinkedQueue<>();
+	private final AtomicInteger	collectThreadQueueSize	= new AtomicInteger();
+	private Object				collectThreadSemaphore	= new Object();
+	private volatile boolean	collectThreadRunning	= false;
+
+	/** Collect thread aggregation, shared by the collect thread and collectEvent(s) callers */
+	private final Aggregation	aggregation	= new Aggregation();
+
+	private final Map<String, String>	lessonPageCreateEventMap	= new ConcurrentHashMap<>();
 
 	private boolean				initialized	= false;
-	private final ReentrantLock	lock		= new ReentrantLock();
+
+	/** Maximum number of values bound in a single IN restriction */
+	private static final int	DB_IN_CLAUSE_SIZE	= 500;
 
 	/** Metrics */
-	private boolean			isIdle						= true;
-	@Getter private long	totalEventsProcessed		= 0;
-	@Getter private long	totalTimeInEventProcessing	= 0;
-	@Getter private long	resetTime					= System.currentTimeMillis();
+	private volatile boolean	isIdle						= true;
+	private final LongAdder		totalEventsProcessed		= new LongAdder();
+	private final LongAdder		totalTimeInEventProcessing	= new LongAdder();
+	private final LongAdder		totalEventsQueued			= new LongAdder();
+	private final AtomicInteger	queueHighWaterMark			= new AtomicInteger();
+	private volatile long		lastDbUpdateTime			= 0;
+	private volatile int		lastDbUpdateEvents			= 0;
+	@Getter private volatile long	resetTime				= System.currentTimeMillis();
 
 	// ################################################################
 	// Spring related methods
@@ -155,7 +166,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		if(collectThreadEnabled) {
 			buff.append(", db update interval: ");
 			buff.append(collectThreadUpdateInterval);
-			buff.append(" ms");
+			buff.append(" ms, db update batch size: ");
+			buff.append(collectThreadBatchSize);
 		}
 		buff.append(", collect administrator events: ").append(collectAdminEvents);
 		buff.append(", collect events only for sites with SiteStats: ").append(collectEventsForSiteWithToolOnly);
@@ -195,12 +207,12 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		if(e != null) {
 			long startTime = System.currentTimeMillis();
 			isIdle = false;
-			preProcessEvent(e);
+			preProcessEvent(aggregation, e);
 			//long endTime = System.currentTimeMillis();
 			//log.debug("Time spent pre-processing 1 event: " + (endTime-startTime) + " ms");
-			boolean success = doUpdateConsolidatedEvents();
+			boolean success = doUpdateConsolidatedEvents(aggregation);
 			isIdle = true;
-			totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
+			totalTimeInEventProcessing.add(System.currentTimeMillis() - startTime);
 			return success;
 		}
 		return true;
@@ -230,26 +242,61 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				isIdle = false;
 				for(int i=0; i<events.length; i++){
 					if(events[i] != null) {
-						preProcessEvent(events[i]);
+						preProcessEvent(aggregation, events[i]);
 					}
 				}
 				//long endTime = System.currentTimeMillis();
 				//log.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime-startTime) + " ms");
-				boolean success = doUpdateConsolidatedEvents();
+				boolean success = doUpdateConsolidatedEvents(aggregation);
 				isIdle = true;
-				totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
+				totalTimeInEventProcessing.add(System.currentTimeMillis() - startTime);
 				return success;
 			}
 		}
 		return true;
 	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#collectPastEvents(java.util.List)
+	 */
+	public boolean collectPastEvents(List<Event> events) {
+		if(events != null && !events.isEmpty()) {
+			long startTime = System.currentTimeMillis();
+			// aggregated on their own, so a failed update only loses these events
+			Aggregation pastEvents = new Aggregation();
+			for(Event event : events) {
+				if(event != null) {
+					preProcessEvent(pastEvents, event);
+				}
+			}
+			boolean success = doUpdateConsolidatedEvents(pastEvents);
+			totalTimeInEventProcessing.add(System.currentTimeMillis() - startTime);
+			return success;
+		}
+		return true;
+	}
 	
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#collectPastSiteEvents(java.lang.String, java.util.Date, java.util.Date)
 	 */
 	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate) {
+		return collectPastSiteEvents(siteId, initialDate, finalDate, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#collectPastSiteEvents(java.lang.String, java.util.Date, java.util.Date, boolean)
+	 */
+	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate, boolean force) {
+		StatsAggregateJobImpl statsAggregateJob = (StatsAggregateJobImpl) ComponentManager.get("org.sakaiproject.sitestats.api.StatsAggregateJob");
+		return statsAggregateJob.collectPastSiteEvents(siteId, initialDate, finalDate, force);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#getPastSiteEventsProgress()
+	 */
+	public List<PastSiteEventsProgress> getPastSiteEventsProgress() {
 		StatsAggregateJobImpl statsAggregateJob = (StatsAggregateJobImpl) ComponentManager.get("org.sakaiproject.sitestats.api.StatsAggregateJob");
-		return statsAggregateJob.collectPastSiteEvents(siteId, initialDate, finalDate);
+		return statsAggregateJob.getPastSiteEventsProgress();
 	}
 	
 	/* (non-Javadoc)
@@ -272,6 +319,49 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return false;
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#getBackfillJobRuns(java.lang.String)
+	 */
+	public List<JobRun> getBackfillJobRuns(String backfillIdPrefix) {
+		List<JobRun> r = getHibernateTemplate().execute(session -> {
+			Criteria c = session.createCriteria(JobRunImpl.class);
+			c.add(Restrictions.like("backfillId", backfillIdPrefix, MatchMode.START));
+			List<JobRun> jobRuns = new ArrayList<>();
+			for(Object o : c.list()) {
+				// '_' and '%' in the prefix are wildcards for like
+				JobRun jobRun = (JobRun) o;
+				if(jobRun.getBackfillId().startsWith(backfillIdPrefix)) {
+					jobRuns.add(jobRun);
+				}
+			}
+			return jobRuns;
+		});
+		return r;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#deleteBackfillJobRuns(java.lang.String)
+	 */
+	public boolean deleteBackfillJobRuns(String backfillIdPrefix) {
+		try {
+			getHibernateTemplate().execute(session -> {
+				Criteria c = session.createCriteria(JobRunImpl.class);
+				c.add(Restrictions.like("backfillId", backfillIdPrefix, MatchMode.START));
+				for(Object o : c.list()) {
+					// '_' and '%' in the prefix are wildcards for like
+					if(((JobRun) o).getBackfillId().startsWith(backfillIdPrefix)) {
+						session.delete(o);
+					}
+				}
+				return null;
+			});
+			return true;
+		} catch(DataAccessException dae) {
+			log.error("Could not delete past site events checkpoints: {}", dae.getMessage(), dae);
+		}
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#getLatestJobRun()
 	 */
@@ -279,6 +369,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		JobRun r = getHibernateTemplate().execute(session -> {
             JobRun jobRun = null;
             Criteria c = session.createCriteria(JobRunImpl.class);
+            c.add(Restrictions.isNull("backfillId"));
             c.setMaxResults(1);
             c.addOrder(Order.desc("id"));
             List jobs = c.list();
@@ -297,6 +388,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		Date r = getHibernateTemplate().execute(session -> {
             Criteria c = session.createCriteria(JobRunImpl.class);
             c.add(Restrictions.isNotNull("lastEventDate"));
+            c.add(Restrictions.isNull("backfillId"));
             c.setMaxResults(1);
             c.addOrder(Order.desc("id"));
             List jobs = c.list();
@@ -314,52 +406,76 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// Metrics related methods
 	// ################################################################	
 	public int getQueueSize() {
-		return collectThreadQueue.size();
+		return collectThreadQueueSize.get();
 	}
-	
+
 	public boolean isIdle() {
 		return this.isIdle && getQueueSize() == 0;
 	}
-	
+
 	public void resetMetrics() {
-		totalEventsProcessed = 0;
-		totalTimeInEventProcessing = 0;
+		totalEventsProcessed.reset();
+		totalTimeInEventProcessing.reset();
+		totalEventsQueued.reset();
+		queueHighWaterMark.set(getQueueSize());
 		resetTime = System.currentTimeMillis();
 	}
 
+	@Override
+	public long getTotalEventsProcessed() {
+		return totalEventsProcessed.sum();
+	}
+
+	@Override
+	public long getTotalTimeInEventProcessing() {
+		return totalTimeInEventProcessing.sum();
+	}
+
 	@Override
 	public long getTotalTimeElapsedSinceReset() {
 		return System.currentTimeMillis() - resetTime;
 	}
-	
+
 	@Override
 	public double getNumberOfEventsProcessedPerSec() {
-		if(totalTimeInEventProcessing > 0) {
-			return Util.round((double)totalEventsProcessed / ((double)totalTimeInEventProcessing/1000), 3);
+		long totalTime = getTotalTimeInEventProcessing();
+		if(totalTime > 0) {
+			return Util.round((double)getTotalEventsProcessed() / ((double)totalTime/1000), 3);
 		}else{
-			return Util.round((double)totalEventsProcessed / 0.001, 3); // => will assume 1ms instead of 0ms
+			return Util.round((double)getTotalEventsProcessed() / 0.001, 3); // => will assume 1ms instead of 0ms
 		}
 	}
-	
+
 	@Override
 	public double getNumberOfEventsGeneratedPerSec() {
 		double ellapsed = (double) getTotalTimeElapsedSinceReset();
 		if(ellapsed > 0) {
-			return Util.round((double)totalEventsProcessed / (ellapsed/1000), 3);
+			return Util.round((double)getTotalEventsProcessed() / (ellapsed/1000), 3);
 		}else{
-			return Util.round((double)totalEventsProcessed / 0.001, 3); // => will assume 1ms instead of 0ms
+			return Util.round((double)getTotalEventsProcessed() / 0.001, 3); // => will assume 1ms instead of 0ms
 		}
 	}
-	
+
 	@Override
 	public long getAverageTimeInEventProcessingPerEvent() {
-		if(totalEventsProcessed > 0) {
-			return totalTimeInEventProcessing / totalEventsProcessed;
+		long total = getTotalEventsProcessed();
+		if(total > 0) {
+			return getTotalTimeInEventProcessing() / total;
 		}else{
 			return 0;
 		}
 	}
-	
+
+	@Override
+	public int getQueueHighWaterMark() {
+		return queueHighWaterMark.get();
+	}
+
+	@Override
+	public long getLastDbUpdateTime() {
+		return lastDbUpdateTime;
+	}
+
 	public String getMetricsSummary(boolean compact) {
 		StringBuilder sb = new StringBuilder();
 		if(!compact) {
@@ -371,7 +487,10 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("\t\tNumber of events processed per sec: ").append(getNumberOfEventsProcessedPerSec()).append("\n");
 			sb.append("\t\tNumber of events genereated in Sakai per sec: ").append(getNumberOfEventsGeneratedPerSec()).append("\n");
 			sb.append("\t\tAverage time spent in event processing per event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms\n");
+			sb.append("\t\tNumber of events queued since reset: ").append(totalEventsQueued.sum()).append("\n");
 			sb.append("\t\tEvent queue size: ").append(getQueueSize()).append("\n");
+			sb.append("\t\tEvent queue high water mark: ").append(getQueueHighWaterMark()).append("\n");
+			sb.append("\t\tLast db update: ").append(lastDbUpdateEvents).append(" events in ").append(getLastDbUpdateTime()).append(" ms\n");
 			sb.append("\t\tIdle: ").append(isIdle());
 		}else{
 			sb.append("#Events processed: ").append(getTotalEventsProcessed()).append(", ");
@@ -380,6 +499,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("#Events processed/sec: ").append(getNumberOfEventsProcessedPerSec()).append(", ");
 			sb.append("Avg. Time/event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms, ");
 			sb.append("Event queue size: ").append(getQueueSize()).append(", ");
+			sb.append("Queue high water mark: ").append(getQueueHighWaterMark()).append(", ");
+			sb.append("Last db update: ").append(lastDbUpdateEvents).append(" events in ").append(getLastDbUpdateTime()).append(" ms, ");
 			sb.append("Idle: ").append(isIdle());
 		}
 		return sb.toString();
@@ -391,38 +512,45 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################	
 	/** Method called whenever an new event is generated from EventTrackingService: do not call this method! */
 	public void update(Observable obs, Object o) {
-		// At the moment this isn't threadsafe, but as sakai event handling is single threaded this shoudn't be a problem,
-		// but it's not a formal contract.
 		if(o instanceof Event){
 			Event e = (Event) o;
 			Event eventWithPreciseDate = buildEvent(getToday(), e.getEvent(), e.getResource(), e.getContext(), e.getUserId(), e.getSessionId());
-			collectThreadQueue.add(eventWithPreciseDate);
+			int queueSize = collectThreadQueueSize.incrementAndGet();
+			collectThreadQueue.offer(eventWithPreciseDate);
+			totalEventsQueued.increment();
+			if(queueSize > queueHighWaterMark.get()) {
+				queueHighWaterMark.accumulateAndGet(queueSize, Math::max);
+			}
 		}
 	}
-	
+
 	/** Update thread: do not call this method! */
 	public void run(){
 		try{
 			log.debug("Started statistics update thread");
 			while(collectThreadRunning){
-				// do update job
+				// do update job: aggregate at most collectThreadBatchSize events per db update
 				isIdle = false;
 				long startTime = System.currentTimeMillis();
-				int eventCount = collectThreadQueue.size();
+				int eventCount = 0;
+				Event event;
+				while(eventCount < collectThreadBatchSize && (event = collectThreadQueue.poll()) != null){
+					preProcessEvent(aggregation, event);
+					collectThreadQueueSize.decrementAndGet();
+					eventCount++;
+				}
+				long dbStartTime = System.currentTimeMillis();
+				transactionTemplate.execute(status -> doUpdateConsolidatedEvents(aggregation));
 				if(eventCount > 0) {
-					//long startTime2 = System.currentTimeMillis();
-					while(collectThreadQueue.size() > 0){
-						preProcessEvent(collectThreadQueue.remove(0));
-					}
-					//long endTime2 = System.currentTimeMillis();
-					//log.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime2-startTime2) + " ms");
+					lastDbUpdateTime = System.currentTimeMillis() - dbStartTime;
+					lastDbUpdateEvents = eventCount;
 				}
-				transactionTemplate.execute(status -> doUpdateConsolidatedEvents());
 				isIdle = true;
-				totalTimeInEventProcessing += (System.currentTimeMillis() - startTime);
+				totalTimeInEventProcessing.add(System.currentTimeMillis() - startTime);
 
 				// sleep if no work to do
 				if(!collectThreadRunning) break;
+				if(getQueueSize() > 0) continue;
 				try{
 					synchronized (collectThreadSemaphore){
 						collectThreadSemaphore.wait(collectThreadUpdateInterval);
@@ -461,14 +589,14 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################
 	// Event process methods
 	// ################################################################	
-	private void preProcessEvent(Event event) {
+	private void preProcessEvent(Aggregation a, Event event) {
 
 		if (event == null) {
 			log.debug("Ignoring null event");
 			return;
 		}
 
-		totalEventsProcessed++;
+		totalEventsProcessed.increment();
 		String userId = event.getUserId();
 		Event e = fixMalFormedEvents(event);
 		if (e == null) {
@@ -514,7 +642,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			if(userId == null || eventId == null || resourceRef == null) {
 				return;
 			}
-			consolidateEvent(date, eventId, resourceRef, userId, siteId);
+			consolidateEvent(a, date, eventId, resourceRef, userId, siteId);
 		} else if(getServerEvents().contains(e.getEvent()) && !isMyWorkspaceEvent(e)){
 			
 			//it's a server event
@@ -529,7 +657,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			}
 			Date date = new Date();
 			
-			consolidateServerEvent(date, eventId);
+			consolidateServerEvent(a, date, eventId);
 		} 
 		
 		//we do this separately as we want individual login stats as well as totals from the server stats section
@@ -553,7 +681,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			}
 			
 			Date date = new Date();
-			consolidateUserEvent(date, userId);
+			consolidateUserEvent(a, date, userId);
 		}
 		
 		
@@ -567,7 +695,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	 *
 	 * @param dateTime Can this be <code>null</code>?
 	 */
-	private void consolidateEvent(Date dateTime, String eventId, String resourceRef, String userId, String siteId) {
+	private void consolidateEvent(Aggregation a, Date dateTime, String eventId, String resourceRef, String userId, String siteId) {
 		if(eventId == null)
 			return;
 
@@ -577,8 +705,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 
 			// add to eventStatMap
 			String key = userId+siteId+eventId+date;
-			synchronized(eventStatMap){
-				EventStat e1 = eventStatMap.get(key);
+			a.eventStatMap.compute(key, (k, e1) -> {
 				if(e1 == null){
 					e1 = new EventStatImpl();
 					e1.setUserId(userId);
@@ -587,8 +714,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					e1.setDate(date);
 				}
 				e1.setCount(e1.getCount() + 1);
-				eventStatMap.put(key, e1);
-			}
+				return e1;
+			});
 
 			if (collectDetailedEvents) {
 				DetailedEvent de = new DetailedEventImpl();
@@ -597,14 +724,13 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				de.setUserId(userId);
 				de.setSiteId(siteId);
 				de.setEventRef(resourceRef);
-				detailedEvents.add(de);
+				a.detailedEvents.add(de);
 			}
 
 			if(!StatsManager.SITEVISIT_EVENTID.equals(eventId)){
 				// add to activityMap
 				String key2 = siteId+date+eventId;
-				synchronized(activityMap){
-					SiteActivity e2 = activityMap.get(key2);
+				a.activityMap.compute(key2, (k, e2) -> {
 					if(e2 == null){
 						e2 = new SiteActivityImpl();
 						e2.setSiteId(siteId);
@@ -612,8 +738,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 						e2.setEventId(eventId);
 					}
 					e2.setCount(e2.getCount() + 1);
-					activityMap.put(key2, e2);
-				}
+					return e2;
+				});
 			}
 		}	
 
@@ -626,19 +752,19 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				resourceAction = eventId;
 			}
 			String key = userId+siteId+resourceRef+resourceAction+date;
-			synchronized(resourceStatMap){
-				ResourceStat e1 = resourceStatMap.get(key);
+			final String action = resourceAction;
+			a.resourceStatMap.compute(key, (k, e1) -> {
 				if(e1 == null){
 					e1 = new ResourceStatImpl();
 					e1.setUserId(userId);
 					e1.setSiteId(siteId);
 					e1.setResourceRef(resourceRef);
-					e1.setResourceAction(resourceAction);
+					e1.setResourceAction(action);
 					e1.setDate(date);
 				}
 				e1.setCount(e1.getCount() + 1);
-				resourceStatMap.put(key, e1);
-			}
+				return e1;
+			});
 		} else if (eventId.startsWith(StatsManager.LESSONS_EVENTID_PREFIX)) {
 			String[] resourceParts = resourceRef.split("/");
 			if (resourceParts.length > 3) {
@@ -697,18 +823,18 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					}
 
 					if (creatorUserId == null || !creatorUserId.equals(userId)) {
-						addToLessonBuilderStatMap(key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
+						addToLessonBuilderStatMap(a, key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
 					}
 				} else {
-					addToLessonBuilderStatMap(key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
+					addToLessonBuilderStatMap(a, key, userId, siteId, resourceRef, pageId, lessonBuilderAction, date);
 				}
 			}
 		} else if(StatsManager.SITEVISIT_EVENTID.equals(eventId)){
 			// add to visitsMap
 			String key = siteId+date;
-			lock.lock();
+			a.lock.lock();
 			try{
-				SiteVisits e1 = visitsMap.get(key);
+				SiteVisits e1 = a.visitsMap.get(key);
 				if(e1 == null){
 					e1 = new SiteVisitsImpl();
 					e1.setSiteId(siteId);
@@ -717,15 +843,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				e1.setTotalVisits(e1.getTotalVisits() + 1);
 				// unique visits are determined when updating to db:
 				//	 --> e1.setTotalUnique(totalUnique);
-				visitsMap.put(key, e1);
+				a.visitsMap.put(key, e1);
 				// place entry on map so we can update unique visits later
 				UniqueVisitsKey keyUniqueVisits = new UniqueVisitsKey(siteId, date);
-				uniqueVisitsMap.put(keyUniqueVisits, Integer.valueOf(1));
+				a.uniqueVisitsMap.put(keyUniqueVisits, Integer.valueOf(1));
 				
 				// site presence started
 				if(statsManager.getEnableSitePresences()) {
 					String pKey = siteId+userId+date;
-					SitePresenceConsolidation spc = presencesMap.get(pKey);
+					SitePresenceConsolidation spc = a.presencesMap.get(pKey);
 					if(spc == null) {
 						SitePresence sp = new SitePresenceImpl();
 						sp.setSiteId(siteId);
@@ -734,25 +860,25 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 						spc = new SitePresenceConsolidation(sp);
 					}
 					spc.sitePresence.setLastVisitStartTime(dateTime);
-					presencesMap.put(pKey, spc);					
+					a.presencesMap.put(pKey, spc);					
 				}
 			}finally{
-				lock.unlock();
+				a.lock.unlock();
 			}
 			
 		}else if(StatsManager.SITEVISITEND_EVENTID.equals(eventId) && statsManager.getEnableSitePresences()){
 			// site presence ended
 			String pKey = siteId+userId+date;
-			lock.lock();
+			a.lock.lock();
 			try{
-				SitePresenceConsolidation spc = presencesMap.get(pKey);
+				SitePresenceConsolidation spc = a.presencesMap.get(pKey);
 				if(spc == null) {
 					Calendar c = Calendar.getInstance();
 					c.setTime(date);
 					c.add(Calendar.DATE, -1);
 					Date dateOneDayBefore = c.getTime();
 					pKey = siteId+userId+dateOneDayBefore;
-					spc = presencesMap.get(pKey);
+					spc = a.presencesMap.get(pKey);
 				}
 				if(spc == null) {
 					SitePresence sp = new SitePresenceImpl();
@@ -773,18 +899,17 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					spc.sitePresence.setDuration(existingDuration + additionalDuration);
 					spc.sitePresence.setLastVisitStartTime(null);
 				}
-				presencesMap.put(pKey, spc);
+				a.presencesMap.put(pKey, spc);
 			}finally{
-				lock.unlock();
+				a.lock.unlock();
 			}
 		}
 		
 	}
 
-	private void addToLessonBuilderStatMap(String key, String userId, String siteId, String pageRef, long pageId, String action, Date date) {
+	private void addToLessonBuilderStatMap(Aggregation a, String key, String userId, String siteId, String pageRef, long pageId, String action, Date date) {
 
-		synchronized (lessonBuilderStatMap) {
-			LessonBuilderStat e1 = lessonBuilderStatMap.get(key);
+		a.lessonBuilderStatMap.compute(key, (k, e1) -> {
 			if (e1 == null) {
 				e1 = new LessonBuilderStatImpl();
 				e1.setUserId(userId);
@@ -795,8 +920,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				e1.setDate(date);
 			}
 			e1.setCount(e1.getCount() + 1);
-			lessonBuilderStatMap.put(key, e1);
-		}
+			return e1;
+		});
 	}
 
 	protected boolean isRegisteredEvent(String eventId) {
@@ -804,42 +929,40 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	}
 	
 	//STAT-299 consolidate a server event
-	private void consolidateServerEvent(Date dateTime, String eventId) {
+	private void consolidateServerEvent(Aggregation a, Date dateTime, String eventId) {
 		
 		Date date = getTruncatedDate(dateTime);
 				
 		// add to serverStatMap
 		String key = eventId+date;
-		synchronized(serverStatMap){
-			ServerStat s = serverStatMap.get(key);
+		a.serverStatMap.compute(key, (k, s) -> {
 			if(s == null){
 				s = new ServerStatImpl();
 				s.setEventId(eventId);
 				s.setDate(date);
 			}
 			s.setCount(s.getCount() + 1);
-			serverStatMap.put(key, s);
-		}
+			return s;
+		});
 		
 	}
 	
 	//STAT-299 consolidate a user event
-	private void consolidateUserEvent(Date dateTime, String userId) {
+	private void consolidateUserEvent(Aggregation a, Date dateTime, String userId) {
 		
 		Date date = getTruncatedDate(dateTime);
 				
 		// add to userStatMap
 		String key = userId+date;
-		synchronized(userStatMap){
-			UserStat s = userStatMap.get(key);
+		a.userStatMap.compute(key, (k, s) -> {
 			if(s == null){
 				s = new UserStatImpl();
 				s.setUserId(userId);
 				s.setDate(date);
 			}
 			s.setCount(s.getCount() + 1);
-			userStatMap.put(key, s);
-		}
+			return s;
+		});
 		
 	}
 	
@@ -848,117 +971,93 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// Db update methods
 	// ################################################################	
 	@SuppressWarnings("unchecked")
-	private synchronized boolean doUpdateConsolidatedEvents() {
+	private synchronized boolean doUpdateConsolidatedEvents(Aggregation a) {
 		long startTime = System.currentTimeMillis();
-		if(eventStatMap.size() > 0 || resourceStatMap.size() > 0
-				|| activityMap.size() > 0 || uniqueVisitsMap.size() > 0 
-				|| visitsMap.size() > 0 || presencesMap.size() > 0
-				|| serverStatMap.size() > 0 || userStatMap.size() > 0 || detailedEvents.size() > 0) {
+		if(a.eventStatMap.size() > 0 || a.resourceStatMap.size() > 0 || a.lessonBuilderStatMap.size() > 0
+				|| a.activityMap.size() > 0 || a.uniqueVisitsMap.size() > 0
+				|| a.visitsMap.size() > 0 || a.presencesMap.size() > 0
+				|| a.serverStatMap.size() > 0 || a.userStatMap.size() > 0 || !a.detailedEvents.isEmpty()) {
+
+			// take what has been aggregated so far; events consolidated meanwhile go to the next update
+			List<EventStat> eventStats = drain(a.eventStatMap);
+			List<ResourceStat> resourceStats = drain(a.resourceStatMap);
+			List<LessonBuilderStat> lessonBuilderStats = drain(a.lessonBuilderStatMap);
+			List<SiteActivity> activities = drain(a.activityMap);
+			List<ServerStat> serverStats = drain(a.serverStatMap);
+			List<UserStat> userStats = drain(a.userStatMap);
+			List<DetailedEvent> detailedEventsCopy = new ArrayList<>();
+			for(DetailedEvent de; (de = a.detailedEvents.poll()) != null;) {
+				detailedEventsCopy.add(de);
+			}
+			Map<UniqueVisitsKey, Integer> uniqueVisits;
+			List<SiteVisits> visits;
+			List<SitePresenceConsolidation> presences;
+			a.lock.lock();
+			try{
+				uniqueVisits = new HashMap<>(a.uniqueVisitsMap);
+				a.uniqueVisitsMap.clear();
+				visits = new ArrayList<>(a.visitsMap.values());
+				a.visitsMap.clear();
+				presences = new ArrayList<>(a.presencesMap.values());
+				a.presencesMap.clear();
+			}finally{
+				a.lock.unlock();
+			}
 
-		    try {
+			try {
 				getHibernateTemplate().execute(session -> {
-                    // do: EventStat
-                    if(eventStatMap.size() > 0) {
-                        Collection<EventStat> tmp1 = null;
-                        synchronized(eventStatMap){
-                            tmp1 = eventStatMap.values();
-                            eventStatMap = Collections.synchronizedMap(new HashMap<String, EventStat>());
-                        }
-                        doUpdateEventStatObjects(session, tmp1);
-                    }
-
-                    // do: DetailedEvents
-                    if (detailedEvents.size() > 0) {
-                        List<DetailedEvent> detailedEventsCopy;
-                        synchronized(detailedEvents) {
-                            detailedEventsCopy = detailedEvents;
-                            detailedEvents = Collections.synchronizedList(new ArrayList<>());
-                        }
-                        doSaveDetailedEvents(session, detailedEventsCopy);
-                    }
-
-                    // do: ResourceStat
-                    if(resourceStatMap.size() > 0) {
-                        Collection<ResourceStat> tmp2 = null;
-                        synchronized(resourceStatMap){
-                            tmp2 = resourceStatMap.values();
-                            resourceStatMap = Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-                        }
-                        doUpdateResourceStatObjects(session, tmp2);
-                    }
-
-                    // do: Lessons ResourceStat
-                    if (lessonBuilderStatMap.size() > 0) {
-                        Collection<LessonBuilderStat> tmp3 = null;
-                        synchronized (lessonBuilderStatMap) {
-                            tmp3 = lessonBuilderStatMap.values();
-                            lessonBuilderStatMap = Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-                        }
-                        doUpdateLessonBuilderStatObjects(session, tmp3);
-                    }
-
-                    // do: SiteActivity
-                    if(activityMap.size() > 0) {
-                        Collection<SiteActivity> tmp3 = null;
-                        synchronized(activityMap){
-                            tmp3 = activityMap.values();
-                            activityMap = Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-                        }
-                        doUpdateSiteActivityObjects(session, tmp3);
-                    }
-
-                    // do: SiteVisits
-                    if(uniqueVisitsMap.size() > 0 || visitsMap.size() > 0) {
-                        // determine unique visits for event related sites
-                        Map<UniqueVisitsKey, Integer> tmp4;
-                        synchronized(uniqueVisitsMap){
-                            tmp4 = uniqueVisitsMap;
-                            uniqueVisitsMap = Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
-                        }
-                        tmp4 = doGetSiteUniqueVisits(session, tmp4);
-
-                        // do: SiteVisits
-                        if(visitsMap.size() > 0) {
-                            Collection<SiteVisits> tmp5 = null;
-                            synchronized(visitsMap){
-                                tmp5 = visitsMap.values();
-                                visitsMap = Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-                            }
-                            doUpdateSiteVisitsObjects(session, tmp5, tmp4);
-                        }
-                    }
-
-                    // do: SitePresences
-                    if(presencesMap.size() > 0) {
-                        Collection<SitePresenceConsolidation> tmp6 = null;
-                        synchronized(presencesMap){
-                            tmp6 = presencesMap.values();
-                            presencesMap = Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-                        }
-                        doUpdateSitePresencesObjects(session, tmp6);
-                    }
-
-                    // do: ServerStats
-                    if(serverStatMap.size() > 0) {
-                        Collection<ServerStat> tmp7 = null;
-                        synchronized(serverStatMap){
-                            tmp7 = serverStatMap.values();
-                            serverStatMap = Collections.synchronizedMap(new HashMap<String, ServerStat>());
-                        }
-                        doUpdateServerStatObjects(session, tmp7);
-                    }
-
-                    // do: UserStats
-                    if(userStatMap.size() > 0) {
-                        Collection<UserStat> tmp8 = null;
-                        synchronized(userStatMap){
-                            tmp8 = userStatMap.values();
-                            userStatMap = Collections.synchronizedMap(new HashMap<String, UserStat>());
-                        }
-                        doUpdateUserStatObjects(session, tmp8);
-                    }
-                    return null;
-            	});
+					// do: EventStat
+					if(!eventStats.isEmpty()) {
+						doUpdateEventStatObjects(session, eventStats);
+					}
+
+					// do: DetailedEvents
+					if(!detailedEventsCopy.isEmpty()) {
+						doSaveDetailedEvents(session, detailedEventsCopy);
+					}
+
+					// do: ResourceStat
+					if(!resourceStats.isEmpty()) {
+						doUpdateResourceStatObjects(session, resourceStats);
+					}
+
+					// do: Lessons ResourceStat
+					if(!lessonBuilderStats.isEmpty()) {
+						doUpdateLessonBuilderStatObjects(session, lessonBuilderStats);
+					}
+
+					// do: SiteActivity
+					if(!activities.isEmpty()) {
+						doUpdateSiteActivityObjects(session, activities);
+					}
+
+					// do: SiteVisits
+					if(!uniqueVisits.isEmpty() || !visits.isEmpty()) {
+						// determine unique visits for event related sites
+						Map<UniqueVisitsKey, Integer> tmp4 = doGetSiteUniqueVisits(session, uniqueVisits);
+
+						// do: SiteVisits
+						if(!visits.isEmpty()) {
+							doUpdateSiteVisitsObjects(session, visits, tmp4);
+						}
+					}
+
+					// do: SitePresences
+					if(!presences.isEmpty()) {
+						doUpdateSitePresencesObjects(session, presences);
+					}
+
+					// do: ServerStats
+					if(!serverStats.isEmpty()) {
+						doUpdateServerStatObjects(session, serverStats);
+					}
+
+					// do: UserStats
+					if(!userStats.isEmpty()) {
+						doUpdateUserStatObjects(session, userStats);
+					}
+					return null;
+				});
 			} catch(DataAccessException dae) {
 				return false;
 			}
@@ -967,53 +1066,80 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		}
 		return true;
 	}
-	
+
+	/** Removes and returns the values of a concurrently updated map; increments racing with this land in the map again */
+	private static <V> List<V> drain(Map<String, V> map) {
+		List<V> values = new ArrayList<>(map.size());
+		for(String key : map.keySet()) {
+			V value = map.remove(key);
+			if(value != null) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	/** Split (sorted) objects in groups that share the same db lookup */
+	private static <T> Collection<List<T>> groupBy(List<T> objects, Function<T, String> key) {
+		Map<String, List<T>> groups = new LinkedHashMap<>();
+		for(T t : objects) {
+			groups.computeIfAbsent(key.apply(t), k -> new ArrayList<>()).add(t);
+		}
+		return groups.values();
+	}
+
+	/**
+	 * Load, with as few queries as possible, the existing rows matching the restriction and any of the given values.
+	 * @return the existing rows, indexed by key (the first row wins when there are duplicates)
+	 */
+	private <T> Map<String, T> doGetExistingObjects(Session session, Class<T> clazz, Criterion restriction, String property, Set<String> values, Function<T, String> key) {
+		Map<String, T> existing = new HashMap<>();
+		List<String> list = new ArrayList<>(values);
+		list.remove(null);
+		for(int from = 0; from < list.size(); from += DB_IN_CLAUSE_SIZE) {
+			Criteria c = session.createCriteria(clazz);
+			if(restriction != null) {
+				c.add(restriction);
+			}
+			c.add(Restrictions.in(property, list.subList(from, Math.min(from + DB_IN_CLAUSE_SIZE, list.size()))));
+			try{
+				for(Object o : c.list()) {
+					T t = clazz.cast(o);
+					existing.putIfAbsent(key.apply(t), t);
+				}
+			}catch(Exception ex){
+				log.warn("Probably db error when loading data at java object", ex);
+			}
+		}
+		return existing;
+	}
+
+
 	private void doUpdateEventStatObjects(Session session, Collection<EventStat> o) {
 		if(o == null) return;
 		List<EventStat> objects = new ArrayList<>(o);
 		Collections.sort(objects);
-		Iterator<EventStat> i = objects.iterator();
-		
-		while(i.hasNext()){
-			EventStat eUpdate = i.next();
-			String eExistingSiteId = null;
-			EventStat eExisting = null;
-			try{
-				Criteria c = session.createCriteria(EventStatImpl.class);
-				c.add(Restrictions.eq("siteId", eUpdate.getSiteId()));
-				c.add(Restrictions.eq("eventId", eUpdate.getEventId()));
-				c.add(Restrictions.eq("userId", eUpdate.getUserId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (EventStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (EventStat) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
-				}
-				if(eExisting == null) 
+
+		// one lookup per site and day, rather than one per user and event
+		for(List<EventStat> group : groupBy(objects, e -> e.getSiteId() + e.getDate())) {
+			EventStat first = group.get(0);
+			if(StringUtils.isBlank(first.getSiteId()) || first.getDate() == null) {
+				continue;
+			}
+			Set<String> userIds = new HashSet<>();
+			group.forEach(e -> userIds.add(e.getUserId()));
+			Map<String, EventStatImpl> existing = doGetExistingObjects(session, EventStatImpl.class,
+					Restrictions.and(Restrictions.eq("siteId", first.getSiteId()), Restrictions.eq("date", first.getDate())),
+					"userId", userIds, e -> e.getUserId() + e.getEventId());
+
+			for(EventStat eUpdate : group) {
+				EventStat eExisting = existing.get(eUpdate.getUserId() + eUpdate.getEventId());
+				if(eExisting == null)
 					eExisting = eUpdate;
 				else
 					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				//If something happens, skip the event processing
-				log.warn("Failed to event:"+ eUpdate.getEventId(), ex);
+				session.saveOrUpdate(eExisting);
 			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
 		}
 	}
 
@@ -1127,49 +1253,33 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		if(o == null) return;
 		List<SiteActivity> objects = new ArrayList<SiteActivity>(o);
 		Collections.sort(objects);
-		Iterator<SiteActivity> i = objects.iterator();
-		while(i.hasNext()){
-			SiteActivity eUpdate = i.next();
-			SiteActivity eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(SiteActivityImpl.class);
-				c.add(Restrictions.eq("siteId", eUpdate.getSiteId()));
-				c.add(Restrictions.eq("eventId", eUpdate.getEventId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (SiteActivity) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (SiteActivity) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
+
+		// one lookup per day, rather than one per site and event
+		for(List<SiteActivity> group : groupBy(objects, e -> String.valueOf(e.getDate()))) {
+			Date date = group.get(0).getDate();
+			if(date == null) {
+				continue;
+			}
+			Set<String> siteIds = new HashSet<>();
+			group.forEach(e -> siteIds.add(e.getSiteId()));
+			Map<String, SiteActivityImpl> existing = doGetExistingObjects(session, SiteActivityImpl.class,
+					Restrictions.eq("date", date), "siteId", siteIds, e -> e.getSiteId() + e.getEventId());
+
+			for(SiteActivity eUpdate : group) {
+				if(StringUtils.isBlank(eUpdate.getSiteId())) {
+					continue;
 				}
-				if(eExisting == null) 
+				SiteActivity eExisting = existing.get(eUpdate.getSiteId() + eUpdate.getEventId());
+				if(eExisting == null)
 					eExisting = eUpdate;
 				else
 					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				log.warn("Failed to event:"+ eUpdate.getEventId(), ex);
+				session.saveOrUpdate(eExisting);
 			}
-			
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
 		}
 	}
-	
+
+
 	private void doUpdateSiteVisitsObjects(Session session, Collection<SiteVisits> o, Map<UniqueVisitsKey, Integer> map) {
 		if(o == null) return;
 		List<SiteVisits> objects = new ArrayList<SiteVisits>(o);
@@ -1265,52 +1375,34 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		if(o == null) return;
 		List<UserStat> objects = new ArrayList<UserStat>(o);
 		Collections.sort(objects);
-		Iterator<UserStat> i = objects.iterator();
-		while(i.hasNext()){
-			UserStat eUpdate = i.next();
-			UserStat eExisting = null;
-			String eExistingUserId = null;
-			try{
-				Criteria c = session.createCriteria(UserStatImpl.class);
-				c.add(Restrictions.eq("userId", eUpdate.getUserId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (UserStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (UserStat) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
+
+		// one lookup per day, rather than one per user
+		for(List<UserStat> group : groupBy(objects, e -> String.valueOf(e.getDate()))) {
+			Date date = group.get(0).getDate();
+			if(date == null) {
+				continue;
+			}
+			Set<String> userIds = new HashSet<>();
+			group.forEach(e -> userIds.add(e.getUserId()));
+			Map<String, UserStatImpl> existing = doGetExistingObjects(session, UserStatImpl.class,
+					Restrictions.eq("date", date), "userId", userIds, UserStatImpl::getUserId);
+
+			for(UserStat eUpdate : group) {
+				if(StringUtils.isBlank(eUpdate.getUserId())) {
+					continue;
 				}
+				UserStat eExisting = existing.get(eUpdate.getUserId());
 				if(eExisting == null) {
 					eExisting = eUpdate;
 				}else{
 					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
 				}
-				
-				eExistingUserId = eExisting.getUserId();
-				
-			}catch(Exception ex){
-				log.warn("Failed to event:"+ eUpdate.getId(), ex);
-			}
-			
-			if(StringUtils.isNotBlank(eExistingUserId)) {
 				session.saveOrUpdate(eExisting);
 			}
-			
 		}
 	}
-	
+
+
 	private Map<UniqueVisitsKey, Integer> doGetSiteUniqueVisits(Session session, Map<UniqueVisitsKey, Integer> map) {
 		Iterator<UniqueVisitsKey> i = map.keySet().iterator();
 		while(i.hasNext()){
@@ -1654,6 +1746,25 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return c.getTime();
 	}
 
+	/** Events consolidated in memory and not yet persisted */
+	private static class Aggregation {
+		/** Entries are only mutated inside compute(), so updates are striped per bin */
+		final Map<String, EventStat>					eventStatMap			= new ConcurrentHashMap<>();
+		final Map<String, ResourceStat>					resourceStatMap			= new ConcurrentHashMap<>();
+		final Map<String, LessonBuilderStat>			lessonBuilderStatMap	= new ConcurrentHashMap<>();
+		final Map<String, SiteActivity>					activityMap				= new ConcurrentHashMap<>();
+		final Map<String, ServerStat>					serverStatMap			= new ConcurrentHashMap<>();
+		final Map<String, UserStat>						userStatMap				= new ConcurrentHashMap<>();
+
+		/** Visits and presences are updated together, under lock */
+		final Map<String, SiteVisits>					visitsMap				= new HashMap<>();
+		final Map<String, SitePresenceConsolidation>	presencesMap			= new HashMap<>();
+		final Map<UniqueVisitsKey, Integer>				uniqueVisitsMap			= new HashMap<>();
+		final ReentrantLock								lock					= new ReentrantLock();
+
+		final Queue<DetailedEvent>						detailedEvents			= new ConcurrentLinkedQueue<>();
+	}
+
 	private static class UniqueVisitsKey {
 		public String siteId;
 		public Date date;
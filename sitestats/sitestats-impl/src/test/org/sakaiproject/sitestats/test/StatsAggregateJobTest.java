@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.sitestats.api.JobRun;
+import org.sakaiproject.sitestats.api.StatsUpdateManager;
+import org.sakaiproject.sitestats.impl.CustomEventImpl;
+import org.sakaiproject.sitestats.impl.StatsAggregateJobImpl;
+import org.sakaiproject.sitestats.test.data.FakeData;
+
+/**
+ * Past site events collection: partitions, keyset paging over SAKAI_EVENT and resuming from the checkpoints, against an
+ * in memory SAKAI_EVENT that answers the page query.
+ */
+public class StatsAggregateJobTest {
+
+	private StatsAggregateJobImpl job;
+	private StatsUpdateManager statsUpdateManager;
+
+	/** SAKAI_EVENT rows, in EVENT_ID order */
+	private final List<EventRow> events = new ArrayList<>();
+	/** Pages given to collectPastEvents, as EVENT_IDs */
+	private final List<List<Long>> pages = Collections.synchronizedList(new ArrayList<>());
+	/** Checkpoints in SST_JOB_RUN, by backfill id */
+	private final Map<String, JobRun> checkpoints = new ConcurrentHashMap<>();
+	/** Every checkpoint saved, including the ones deleted since */
+	private final Map<String, JobRun> saved = new ConcurrentHashMap<>();
+	/** The time zones EVENT_DATE was bound in, null for the default */
+	private final List<TimeZone> boundTimeZones = Collections.synchronizedList(new ArrayList<>());
+	/** EVENT_ID of an event whose page fails to persist, or -1 */
+	private volatile long failingEventId = -1;
+
+	@Before
+	public void setUp() throws Exception {
+		SqlService sqlService = mock(SqlService.class);
+		when(sqlService.getVendor()).thenReturn("mysql");
+		when(sqlService.borrowConnection()).thenAnswer(i -> connection());
+
+		statsUpdateManager = mock(StatsUpdateManager.class);
+		when(statsUpdateManager.buildEvent(any(), anyString(), anyString(), anyString(), any(), any())).thenAnswer(
+				i -> new CustomEventImpl(i.getArgument(0), i.getArgument(1), i.getArgument(2), i.getArgument(3), i.getArgument(4), i.getArgument(5)));
+		when(statsUpdateManager.collectPastEvents(any())).thenAnswer(i -> {
+			List<Long> page = ((List<Event>) i.getArgument(0)).stream()
+					.map(e -> Long.valueOf(e.getResource().substring(e.getResource().lastIndexOf('/') + 1)))
+					.collect(Collectors.toList());
+			if(page.contains(failingEventId)) {
+				return false;
+			}
+			pages.add(page);
+			return true;
+		});
+		when(statsUpdateManager.saveJobRun(any())).thenAnswer(i -> {
+			JobRun jobRun = i.getArgument(0);
+			checkpoints.put(jobRun.getBackfillId(), jobRun);
+			saved.put(jobRun.getBackfillId(), jobRun);
+			return true;
+		});
+		when(statsUpdateManager.getBackfillJobRuns(anyString())).thenAnswer(i -> checkpoints.values().stream()
+				.filter(j -> j.getBackfillId().startsWith(i.getArgument(0)))
+				.collect(Collectors.toList()));
+		when(statsUpdateManager.deleteBackfillJobRuns(anyString())).thenAnswer(
+				i -> checkpoints.keySet().removeIf(id -> id.startsWith(i.getArgument(0))) || true);
+
+		job = new StatsAggregateJobImpl();
+		job.setSqlService(sqlService);
+		job.setStatsUpdateManager(statsUpdateManager);
+		job.setSqlBlockSize(2);
+		job.setPastEventsPartitionDays(2);
+		job.setPastEventsThreads(2);
+
+		// 5 days of 3 events each in site A, with events of site B in between
+		long id = 1;
+		for(int day = 1; day <= 5; day++) {
+			for(int hour = 9; hour < 12; hour++) {
+				events.add(new EventRow(id++, date(day, hour), FakeData.SITE_A_ID));
+				events.add(new EventRow(id++, date(day, hour), FakeData.SITE_B_ID));
+			}
+		}
+	}
+
+	@Test
+	public void testPartitionsAndPaging() {
+		long count = job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 12), date(5, 0));
+
+		assertEquals(15, count);
+		assertEquals(siteEvents(FakeData.SITE_A_ID), collected());
+
+		// day aligned partitions of 2 days, the last one holding just the final day
+		assertEquals(3, saved.size());
+		JobRun first = saved("20230101|20230103");
+		JobRun last = saved("20230105|20230106");
+		assertNotNull(first);
+		assertNotNull(saved("20230103|20230105"));
+		assertNotNull(last);
+		for(JobRun checkpoint : saved.values()) {
+			assertTrue(checkpoint.getBackfillId().startsWith(FakeData.SITE_A_ID + "|20230101|20230106|"));
+			assertNotNull(checkpoint.getJobEndDate());
+		}
+		assertEquals(11, first.getEndEventId());
+		assertEquals(29, last.getEndEventId());
+		assertEquals(date(5, 11), last.getLastEventDate());
+
+		// pages of at most sqlBlockSize events, in EVENT_ID order within a partition
+		for(List<Long> page : pages) {
+			assertTrue(page.size() <= 2);
+			assertTrue(page.size() < 2 || page.get(0) < page.get(1));
+		}
+		assertEquals(8, pages.size());
+
+		// the checkpoints are gone once the range is collected
+		assertTrue(checkpoints.isEmpty());
+	}
+
+	@Test
+	public void testPartitionsOnCalendarBoundaries() {
+		// partitions of 2 days start on even days from the epoch, whatever day the range starts on
+		long count = job.collectPastSiteEvents(FakeData.SITE_A_ID, date(2, 0), date(5, 0));
+
+		assertEquals(12, count);
+		assertEquals(3, saved.size());
+		assertNotNull(saved("20230102|20230103"));
+		assertNotNull(saved("20230103|20230105"));
+		assertNotNull(saved("20230105|20230106"));
+	}
+
+	@Test
+	public void testResumeFromCheckpoint() {
+		// the second page of the first partition can't be persisted
+		failingEventId = 5;
+		long count = job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0));
+
+		JobRun first = saved("20230101|20230103");
+		assertNull(first.getJobEndDate());
+		assertTrue(checkpoints.containsValue(first));
+		assertEquals(3, first.getEndEventId());
+		assertEquals(9, count);
+		Set<Long> collected = collected();
+		assertTrue(collected.containsAll(List.of(1L, 3L)));
+		assertTrue(Collections.disjoint(collected, List.of(5L, 7L, 9L, 11L)));
+
+		// the next call only reads the first partition, from after its checkpoint
+		failingEventId = -1;
+		pages.clear();
+		count = job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0));
+
+		assertEquals(4, count);
+		assertEquals(List.of(List.of(5L, 7L), List.of(9L, 11L)), pages);
+		assertNotNull(first.getJobEndDate());
+		assertEquals(11, first.getEndEventId());
+
+		// and then the checkpoints are gone, so collecting the range again starts over
+		assertTrue(checkpoints.isEmpty());
+		pages.clear();
+		assertEquals(15, job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0)));
+	}
+
+	@Test
+	public void testForceIgnoresCheckpoints() {
+		failingEventId = 5;
+		job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0));
+		assertFalse(checkpoints.isEmpty());
+
+		failingEventId = -1;
+		pages.clear();
+		assertEquals(15, job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0), true));
+		assertEquals(siteEvents(FakeData.SITE_A_ID), collected());
+		assertTrue(checkpoints.isEmpty());
+	}
+
+	@Test
+	public void testTrackedEventsChangeStartsOver() {
+		failingEventId = 5;
+		job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0));
+		assertEquals(3, checkpoints.size());
+
+		// collecting admin events too, the checkpoints of the earlier collection don't apply
+		when(statsUpdateManager.isCollectAdminEvents()).thenReturn(true);
+		failingEventId = -1;
+		pages.clear();
+		assertEquals(15, job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(5, 0)));
+		assertEquals(siteEvents(FakeData.SITE_A_ID), collected());
+	}
+
+	@Test
+	public void testEventDatesBoundInEventTimeZone() {
+		job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(1, 0));
+		assertFalse(boundTimeZones.isEmpty());
+		assertTrue(boundTimeZones.stream().allMatch(tz -> tz == null));
+
+		boundTimeZones.clear();
+		checkpoints.clear();
+		job.setSakaiEventTimeZone("UTC");
+		job.collectPastSiteEvents(FakeData.SITE_A_ID, date(1, 0), date(1, 0));
+		assertFalse(boundTimeZones.isEmpty());
+		assertTrue(boundTimeZones.stream().allMatch(tz -> tz != null && "UTC".equals(tz.getID())));
+	}
+
+	private static Date date(int day, int hour) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(2023, Calendar.JANUARY, day, hour, 0, 0);
+		return c.getTime();
+	}
+
+	/** The saved checkpoint of the partition, given as "from|to" */
+	private JobRun saved(String partition) {
+		return saved.values().stream().filter(j -> j.getBackfillId().endsWith("|" + partition)).findFirst().orElse(null);
+	}
+
+	private Set<Long> siteEvents(String siteId) {
+		return events.stream().filter(e -> e.context.equals(siteId)).map(e -> e.id).collect(Collectors.toSet());
+	}
+
+	private Set<Long> collected() {
+		Set<Long> collected = new HashSet<>();
+		synchronized(pages) {
+			for(List<Long> page : pages) {
+				for(Long id : page) {
+					assertTrue("event " + id + " collected twice", collected.add(id));
+				}
+			}
+		}
+		return collected;
+	}
+
+	private Connection connection() throws SQLException {
+		Connection connection = mock(Connection.class);
+		when(connection.prepareStatement(anyString())).thenAnswer(i -> statement());
+		return connection;
+	}
+
+	/** Answers the past site events page query: CONTEXT = ?, REF = ?, EVENT_DATE >= ?, EVENT_DATE < ?, EVENT_ID > ?, limit ? */
+	private PreparedStatement statement() throws SQLException {
+		PreparedStatement st = mock(PreparedStatement.class);
+		Map<Integer, Object> params = new ConcurrentHashMap<>();
+		doAnswer(i -> params.put(i.getArgument(0), i.getArgument(1))).when(st).setString(anyInt(), anyString());
+		doAnswer(i -> params.put(i.getArgument(0), i.getArgument(1))).when(st).setLong(anyInt(), anyLong());
+		doAnswer(i -> params.put(i.getArgument(0), i.getArgument(1))).when(st).setInt(anyInt(), anyInt());
+		doAnswer(i -> {
+			boundTimeZones.add(null);
+			return params.put(i.getArgument(0), i.getArgument(1));
+		}).when(st).setTimestamp(anyInt(), any(Timestamp.class));
+		doAnswer(i -> {
+			boundTimeZones.add(((Calendar) i.getArgument(2)).getTimeZone());
+			return params.put(i.getArgument(0), i.getArgument(1));
+		}).when(st).setTimestamp(anyInt(), any(Timestamp.class), any(Calendar.class));
+		when(st.executeQuery()).thenAnswer(i -> {
+			Timestamp from = (Timestamp) params.get(3);
+			Timestamp to = (Timestamp) params.get(4);
+			long after = (Long) params.get(5);
+			int limit = (Integer) params.get(6);
+			return resultSet(events.stream()
+					.filter(e -> e.context.equals(params.get(1)))
+					.filter(e -> !e.date.before(from) && e.date.before(to) && e.id > after)
+					.limit(limit)
+					.collect(Collectors.toList()));
+		});
+		return st;
+	}
+
+	private ResultSet resultSet(List<EventRow> rows) throws SQLException {
+		ResultSet rs = mock(ResultSet.class);
+		AtomicInteger row = new AtomicInteger(-1);
+		when(rs.next()).thenAnswer(i -> row.incrementAndGet() < rows.size());
+		when(rs.getLong("EVENT_ID")).thenAnswer(i -> rows.get(row.get()).id);
+		when(rs.getTimestamp("EVENT_DATE")).thenAnswer(i -> new Timestamp(rows.get(row.get()).date.getTime()));
+		when(rs.getTimestamp(anyString(), any(Calendar.class))).thenAnswer(i -> new Timestamp(rows.get(row.get()).date.getTime()));
+		when(rs.getString("EVENT")).thenReturn("site.visit");
+		when(rs.getString("REF")).thenAnswer(i -> "/event/" + rows.get(row.get()).id);
+		when(rs.getString("CONTEXT")).thenAnswer(i -> rows.get(row.get()).context);
+		when(rs.getString("SESSION_USER")).thenReturn(FakeData.USER_A_ID);
+		when(rs.getString("SESSION_ID")).thenReturn("session");
+		return rs;
+	}
+
+	private static class EventRow {
+		final long		id;
+		final Date		date;
+		final String	context;
+
+		EventRow(long id, Date date, String context) {
+			this.id = id;
+			this.date = date;
+			this.context = context;
+		}
+	}
+}
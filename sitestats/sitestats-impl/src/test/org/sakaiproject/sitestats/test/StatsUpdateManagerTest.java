@@ -357,6 +357,26 @@ public class StatsUpdateManagerTest extends AbstractTransactionalJUnit4SpringCon
 		assertEquals(0, r4.size());
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testActivityEventMergedWithExistingRows() {
+		// existing rows for several users of the same site/day are loaded together and updated in place
+		Event eSV1 = statsUpdateManager.buildEvent(new Date(), FakeData.EVENT_CHATNEW, "/chat/msg/" + FakeData.SITE_A_ID, FakeData.SITE_A_ID, FakeData.USER_A_ID, "session-id-a");
+		Event eSV2 = statsUpdateManager.buildEvent(new Date(), FakeData.EVENT_CHATNEW, "/chat/msg/" + FakeData.SITE_A_ID, FakeData.SITE_A_ID, FakeData.USER_B_ID, "session-id-b");
+		assertTrue(statsUpdateManager.collectEvents(Arrays.asList(eSV1, eSV2)));
+		assertTrue(statsUpdateManager.collectEvents(Arrays.asList(eSV1, eSV2, eSV2)));
+		// SST_EVENTS
+		List<EventStatImpl> r1 = db.getResultsForClass(EventStatImpl.class);
+		assertEquals(2, r1.size());
+		for (EventStat es : r1) {
+			assertEquals(FakeData.USER_A_ID.equals(es.getUserId()) ? 2 : 3, es.getCount());
+		}
+		// SST_SITEACTIVITY
+		List<SiteActivityImpl> r3 = db.getResultsForClass(SiteActivityImpl.class);
+		assertEquals(1, r3.size());
+		assertEquals(5, r3.get(0).getCount());
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void testActivityEventSameUsers() {
@@ -837,4 +857,37 @@ public class StatsUpdateManagerTest extends AbstractTransactionalJUnit4SpringCon
 		assertEquals(jobRun2.getStartEventId(), jr.getStartEventId());
 		assertEquals(jobRun2.getEndEventId(), jr.getEndEventId());
 	}
+
+	// Past site events checkpoints are kept apart from StatsAggregateJob runs
+	@Test
+	public void testBackfillJobRunMethods() throws Exception {
+		Date now = new Date();
+		JobRun jobRun = new JobRunImpl();
+		jobRun.setStartEventId(1);
+		jobRun.setEndEventId(10);
+		jobRun.setJobStartDate(now);
+		jobRun.setJobEndDate(now);
+		jobRun.setLastEventDate(now);
+		assertTrue(statsUpdateManager.saveJobRun(jobRun));
+
+		JobRun checkpoint = new JobRunImpl();
+		checkpoint.setBackfillId(FakeData.SITE_A_ID + "|20230101|20230108");
+		checkpoint.setStartEventId(0);
+		checkpoint.setEndEventId(500);
+		checkpoint.setJobStartDate(now);
+		checkpoint.setLastEventDate(now);
+		assertTrue(statsUpdateManager.saveJobRun(checkpoint));
+
+		assertEquals(jobRun.getId(), statsUpdateManager.getLatestJobRun().getId());
+		List<JobRun> checkpoints = statsUpdateManager.getBackfillJobRuns(FakeData.SITE_A_ID + "|");
+		assertEquals(1, checkpoints.size());
+		assertEquals(500, checkpoints.get(0).getEndEventId());
+		assertNull(checkpoints.get(0).getJobEndDate());
+		assertTrue(statsUpdateManager.getBackfillJobRuns(FakeData.SITE_B_ID + "|").isEmpty());
+
+		// deleting the checkpoints leaves the job runs alone
+		assertTrue(statsUpdateManager.deleteBackfillJobRuns(FakeData.SITE_A_ID + "|"));
+		assertTrue(statsUpdateManager.getBackfillJobRuns(FakeData.SITE_A_ID + "|").isEmpty());
+		assertEquals(jobRun.getId(), statsUpdateManager.getLatestJobRun().getId());
+	}
 }
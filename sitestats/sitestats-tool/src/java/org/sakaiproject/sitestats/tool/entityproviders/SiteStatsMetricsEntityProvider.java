@@ -18,8 +18,10 @@
  */
 package org.sakaiproject.sitestats.tool.entityproviders;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.sakaiproject.entitybroker.DeveloperHelperService;
@@ -34,6 +36,7 @@ import org.sakaiproject.entitybroker.entityprovider.extension.ActionReturn;
 import org.sakaiproject.entitybroker.entityprovider.extension.Formats;
 import org.sakaiproject.entitybroker.entityprovider.search.Search;
 import org.sakaiproject.entitybroker.util.AbstractEntityProvider;
+import org.sakaiproject.sitestats.api.PastSiteEventsProgress;
 import org.sakaiproject.sitestats.api.StatsUpdateManager;
 
 public class SiteStatsMetricsEntityProvider extends AbstractEntityProvider implements AutoRegisterEntityProvider, ActionsExecutable, Inputable, Outputable, Describeable {
@@ -146,5 +149,28 @@ public class SiteStatsMetricsEntityProvider extends AbstractEntityProvider imple
 	public ActionReturn isIdle(Search search, Map<String, Object> params) {
 		return new ActionReturn(statsUpdateManager.isIdle());
 	}
+
+	@EntityCustomAction(action = "get-past-site-events-progress", viewKey = EntityView.VIEW_LIST)
+	public ActionReturn getPastSiteEventsProgress(Search search, Map<String, Object> params) {
+		if(developerHelperService.isUserAdmin(developerHelperService.getCurrentUserReference())) {
+			List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+			for(PastSiteEventsProgress p : statsUpdateManager.getPastSiteEventsProgress()) {
+				Map<String, Object> map = new HashMap<String, Object>();
+				map.put("Site_id", p.getSiteId());
+				map.put("Initial_date", p.getInitialDate().toString());
+				map.put("Final_date", p.getFinalDate().toString());
+				map.put("Partitions", p.getPartitions());
+				map.put("Completed_partitions", p.getCompletedPartitions());
+				map.put("Failed_partitions", p.getFailedPartitions());
+				map.put("Events_collected", p.getEventsCollected());
+				map.put("Start_time", p.getStartTime().toString());
+				map.put("End_time", p.getEndTime() != null ? p.getEndTime().toString() : null);
+				list.add(map);
+			}
+			return new ActionReturn(list);
+		}else{
+			throw new SecurityException("Only administrator can perform this action.");
+		}
+	}
 	
 }